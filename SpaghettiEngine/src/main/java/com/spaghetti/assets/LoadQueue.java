@@ -70,7 +70,9 @@ public class LoadQueue {
 
         public void queueAsset(AssetEntry entry) {
             Logger.debug("[loadAssetLazy] " + entry.name + " " + hashCode());
-            toLoad.add(entry);
+            synchronized (toLoad) {
+                toLoad.add(entry);
+            }
         }
 
         public long getRemainingTime() {
@@ -93,7 +95,7 @@ public class LoadQueue {
                 long delta = System.currentTimeMillis() - time;
                 remaining -= delta;
 
-                if (toLoad.size() > 0) {
+                if (!toLoad.isEmpty()) {
                     idle = false;
                     doLoad();
                     remaining = WAIT_BEFORE_QUIT;
@@ -107,24 +109,47 @@ public class LoadQueue {
         }
 
         private void doLoad() {
-            //ThreadUtil.sleep(1500);
-            AssetEntry asset = toLoad.remove(0);
-
-            synchronized (asset) {
-                try {
-                    // Fill asset
-                    manager.fillAsset(asset);
-
-                    // Perform native loading
-                    manager.getGame().getPrimaryDispatcher().quickQueue(() -> {
-                        asset.asset.load();
-                        return null;
-                    });
-                    Logger.debug("[loadAssetLazy] " + asset.type + " loaded " + asset.name);
-                } catch (Throwable t) {
-                    Logger.error("[loadAssetLazy] Error loading " + asset.type + " " + asset.name, t);
-                } finally {
-                    asset.loading = false;
+            AssetEntry[] batch;
+            synchronized (toLoad) {
+                batch = toLoad.toArray(new AssetEntry[toLoad.size()]);
+                toLoad.clear();
+            }
+
+            // Decode the whole batch in parallel, it's the slow part
+            boolean[] filled = new boolean[batch.length];
+            manager.getGame().getJobSystem().parallelFor(batch.length, i -> {
+                AssetEntry asset = batch[i];
+                synchronized (asset) {
+                    try {
+                        // Fill asset
+                        manager.fillAsset(asset);
+                        filled[i] = true;
+                    } catch (Throwable t) {
+                        Logger.error("[loadAssetLazy] Error loading " + asset.type + " " + asset.name, t);
+                        asset.loading = false;
+                    }
+                }
+            });
+
+            // Native loading in queue order, dependencies are queued first
+            for (int i = 0; i < batch.length; i++) {
+                if (!filled[i]) {
+                    continue;
+                }
+                AssetEntry asset = batch[i];
+                synchronized (asset) {
+                    try {
+                        // Perform native loading
+                        manager.getGame().getPrimaryDispatcher().quickQueue(() -> {
+                            asset.asset.load();
+                            return null;
+                        });
+                        Logger.debug("[loadAssetLazy] " + asset.type + " loaded " + asset.name);
+                    } catch (Throwable t) {
+                        Logger.error("[loadAssetLazy] Error loading " + asset.type + " " + asset.name, t);
+                    } finally {
+                        asset.loading = false;
+                    }
                 }
             }
         }
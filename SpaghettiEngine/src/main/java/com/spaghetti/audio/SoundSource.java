@@ -7,6 +7,7 @@ import org.lwjgl.openal.AL10;
 
 import com.spaghetti.world.GameObject;
 import com.spaghetti.networking.NetworkBuffer;
+import com.spaghetti.networking.ReplicationCache;
 import com.spaghetti.render.Camera;
 import com.spaghetti.utils.Transform;
 
@@ -80,7 +81,7 @@ public class SoundSource extends GameObject {
 		super.writeDataServer(manager, buffer);
 
 		// Sound
-		buffer.putString(true, sound == null ? "" : sound.getName(), NetworkBuffer.UTF_8);
+		buffer.putAsset(sound);
 
 		// Variables
 		buffer.putByte((byte) status);
@@ -90,13 +91,17 @@ public class SoundSource extends GameObject {
 		buffer.putBoolean(destroyOnStop);
 	}
 
+	@Override
+	public boolean isSharedReplication() {
+		return ReplicationCache.isWrittenBy(this, SoundSource.class);
+	}
+
 	@Override
 	public void readDataClient(ConnectionManager manager, NetworkBuffer buffer) {
 		super.readDataClient(manager, buffer);
 
 		// Sound
-		String name = buffer.getString(true, NetworkBuffer.UTF_8);
-		setSound(name.equals("") ? null : getGame().getAssetManager().getAndLazyLoadAsset(name));
+		setSound(buffer.getAsset(getGame().getAssetManager()));
 
 		// Variables
 		status = buffer.getByte() & 0xFF;
@@ -108,14 +113,17 @@ public class SoundSource extends GameObject {
 
 	public void play() {
 		status = PLAYING;
+		markDirty();
 	}
 
 	public void pause() {
 		status = PAUSED;
+		markDirty();
 	}
 
 	public void stop() {
 		status = IDLE;
+		markDirty();
 	}
 
 	@Override
@@ -192,6 +200,7 @@ public class SoundSource extends GameObject {
 			}
 		}
 		this.sound = buffer;
+		markDirty();
 	}
 
 	public float getSourceGain() {
@@ -200,6 +209,7 @@ public class SoundSource extends GameObject {
 
 	public void setSourceGain(float gain) {
 		this.gain = gain;
+		markDirty();
 	}
 
 	public float getSourcePitch() {
@@ -208,6 +218,7 @@ public class SoundSource extends GameObject {
 
 	public void setSourcePitch(float pitch) {
 		this.pitch = pitch;
+		markDirty();
 	}
 
 	public boolean isSourceLooping() {
@@ -217,6 +228,7 @@ public class SoundSource extends GameObject {
 	public void setSourceLooping(boolean looping) {
 		this.looping = looping;
 		this.destroyOnStop = looping ? false : this.destroyOnStop;
+		markDirty();
 	}
 
 	public boolean destroyOnStop() {
@@ -225,6 +237,7 @@ public class SoundSource extends GameObject {
 
 	public void setDestroyOnStop(boolean destroyOnStop) {
 		this.destroyOnStop = looping ? false : destroyOnStop;
+		markDirty();
 	}
 
 	public int getStatus() {
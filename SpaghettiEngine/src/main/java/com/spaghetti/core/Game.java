@@ -2,16 +2,18 @@ package com.spaghetti.core;
 
 import java.lang.reflect.InvocationTargetException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.spaghetti.assets.AssetManager;
 import com.spaghetti.core.events.GameStartedEvent;
 import com.spaghetti.core.events.GameStoppingEvent;
+import com.spaghetti.core.scheduler.TickScheduler;
 import com.spaghetti.events.EventDispatcher;
 import com.spaghetti.input.Controller;
 import com.spaghetti.input.InputDispatcher;
 import com.spaghetti.input.UpdaterComponent;
+import com.spaghetti.jobs.JobSystem;
 import com.spaghetti.networking.ClientComponent;
 import com.spaghetti.networking.NetworkComponent;
 import com.spaghetti.networking.ServerComponent;
@@ -19,6 +21,7 @@ import com.spaghetti.render.Camera;
 import com.spaghetti.render.RendererComponent;
 import com.spaghetti.dispatcher.FunctionDispatcher;
 import com.spaghetti.settings.GameSettings;
+import com.spaghetti.utils.IdProvider;
 import com.spaghetti.utils.Logger;
 import com.spaghetti.utils.ThreadUtil;
 import com.spaghetti.world.GameObject;
@@ -41,7 +44,7 @@ public final class Game {
 	// Support for multiple instances of the engine
 	// in the same java process
 	protected static ArrayList<Game> games = new ArrayList<>();
-	private static HashMap<Long, Game> links = new HashMap<>();
+	private static ConcurrentHashMap<Long, Game> links = new ConcurrentHashMap<>();
 	private static Object initLock = new Object();
 	protected static HandlerThread handlerThread;
 
@@ -116,6 +119,7 @@ public final class Game {
 	private final GameSettings settings;
 	private final InputDispatcher inputDispatcher;
 	private final Logger logger;
+	private final JobSystem jobSystem;
 
 	// Components
 	private final GameThread primary;
@@ -175,6 +179,7 @@ public final class Game {
 			this.gameState = gameStateClass.getConstructor(Game.class).newInstance(this);
 			this.clientState = clientStateClass.getConstructor(Game.class).newInstance(this);
 			this.logger = loggerClass.getConstructor(Game.class).newInstance(this);
+			this.jobSystem = new JobSystem(this);
 		} catch (InstantiationException e) {
 			throw new RuntimeException("Error initializing an object: class is abstract", e);
 		} catch (InvocationTargetException e) {
@@ -326,6 +331,7 @@ public final class Game {
 			} else {
 				thread.initializeThread(null);
 			}
+			thread.setScheduler(createScheduler(thread == primary ? "primary" : "auxiliary"));
 			registerThread(thread.getThread());
 		}
 
@@ -360,6 +366,24 @@ public final class Game {
 		}
 	}
 
+	private TickScheduler createScheduler(String thread) {
+		Class<? extends TickScheduler> cls = settings.getEngineSetting("engine." + thread + ".tickScheduler");
+		float tickRate = settings.<Number>getEngineSetting("engine." + thread + ".tickRate").floatValue();
+		try {
+			TickScheduler scheduler = cls.getConstructor().newInstance();
+			scheduler.setTickRate(tickRate);
+			return scheduler;
+		} catch (InstantiationException e) {
+			throw new RuntimeException("Error initializing a tick scheduler: class is abstract", e);
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException("Error initializing a tick scheduler: exception in constructor", e);
+		} catch (NoSuchMethodException e) {
+			throw new RuntimeException("Error initializing a tick scheduler: empty constructor is not defined", e);
+		} catch (IllegalAccessException e) {
+			throw new RuntimeException("Error initializing a tick scheduler: constructor is private", e);
+		}
+	}
+
 	public void beginAsync() {
 		Thread startThread = new Thread() {
 			@Override
@@ -410,6 +434,10 @@ public final class Game {
 			thread.waitTerminate();
 		}
 
+		// No thread is left to submit jobs
+		jobSystem.shutdown();
+		IdProvider.clear(this);
+
 		stopped = true;
 		stopping = false;
 
@@ -562,6 +590,10 @@ public final class Game {
 		return logger;
 	}
 
+	public JobSystem getJobSystem() {
+		return jobSystem;
+	}
+
 	// Game state
 
 	public GameState getGameState() {
@@ -1,6 +1,10 @@
 package com.spaghetti.core;
 
+import com.spaghetti.core.scheduler.CappedTickScheduler;
+import com.spaghetti.core.scheduler.TickScheduler;
 import com.spaghetti.dispatcher.FunctionDispatcher;
+import com.spaghetti.jobs.JobException;
+import com.spaghetti.jobs.JobGraph;
 import com.spaghetti.utils.Logger;
 import com.spaghetti.utils.ThreadUtil;
 
@@ -19,7 +23,9 @@ public abstract class GameThread {
 	private volatile boolean allowStop;
 	private volatile boolean executionEnd;
 	private volatile boolean requestChance;
-	private volatile long lastTime;
+	private volatile TickScheduler scheduler = new CappedTickScheduler();
+	private Runnable computeEvents;
+	private volatile JobGraph frameJobs;
 	private volatile boolean run;
 	private String name;
 
@@ -37,6 +43,7 @@ public abstract class GameThread {
 		this.thread = thread;
 		this.thread.setName(name);
 		functionDispatcher = new FunctionDispatcher(thread);
+		computeEvents = functionDispatcher::computeEvents;
 	}
 
 	public final void initialize() throws Throwable {
@@ -154,15 +161,12 @@ public abstract class GameThread {
 			for (ThreadComponent component : componentList) {
 				component.postInitialize();
 			}
+			frameJobs = game.getJobSystem().newGraph();
+			TickScheduler scheduler = this.scheduler;
+			scheduler.start();
 			while (!stop) {
-				// Calculate delta
-				long current = System.currentTimeMillis();
-				if (lastTime == 0) {
-					lastTime = current;
-				}
-				long pre = current - lastTime;
-				float delta = pre;
-				lastTime = current;
+				// Wait for the next tick, handling requests in the meantime
+				float delta = scheduler.nextTick(computeEvents);
 
 				// Compute queued operations
 				functionDispatcher.computeEvents();
@@ -172,6 +176,13 @@ public abstract class GameThread {
 				for (ThreadComponent component : componentList) {
 					component.loop(game.getTickMultiplier(delta));
 				}
+
+				// Frame boundary, every job submitted this frame must be done
+				try {
+					frameJobs.join();
+				} catch (JobException e) {
+					Logger.error("Error in frame job", e.getCause());
+				}
 			}
 			for (ThreadComponent component : componentList) {
 				component.preTerminate();
@@ -263,6 +274,31 @@ public abstract class GameThread {
 		return functionDispatcher;
 	}
 
+	/**
+	 * Retrieves the job graph that is joined at the end of every tick of this
+	 * thread. Jobs added to it may run in parallel with the rest of the tick,
+	 * but are guaranteed to be finished before the next one starts
+	 *
+	 * @return The frame job graph, or null if the thread isn't running yet
+	 */
+	public final JobGraph getFrameJobs() {
+		return frameJobs;
+	}
+
+	public final TickScheduler getScheduler() {
+		return scheduler;
+	}
+
+	public final void setScheduler(TickScheduler scheduler) {
+		if(scheduler == null) {
+			throw new IllegalArgumentException();
+		}
+		if(run) {
+			throw new IllegalStateException("Error: attempted to change the tick scheduler of a running thread");
+		}
+		this.scheduler = scheduler;
+	}
+
 	public final void setName(String name) {
 		if(thread == null) {
 			this.name = name;
@@ -0,0 +1,46 @@
+package com.spaghetti.core.scheduler;
+
+/**
+ * Runs ticks as fast as possible but never more than {@code tickRate} times
+ * per second, every tick simulates the real time elapsed since the previous
+ * one
+ * <p>
+ * A tick rate of 0 or less removes the cap
+ *
+ * @author bohdloss
+ *
+ */
+public class CappedTickScheduler extends TickScheduler {
+
+	protected long lastTick;
+
+	public CappedTickScheduler() {
+		tickRate = 1000;
+	}
+
+	@Override
+	public void start() {
+		lastTick = System.nanoTime();
+	}
+
+	@Override
+	public float nextTick(Runnable idle) {
+		long period = getPeriod();
+		long now = System.nanoTime();
+		if (period != 0) {
+			long deadline = lastTick + period;
+			recordTick(now - deadline);
+			if (now < deadline) {
+				waitUntil(deadline, idle);
+				now = System.nanoTime();
+			}
+		} else {
+			recordTick(0);
+		}
+
+		long elapsed = now - lastTick;
+		lastTick = now;
+		return elapsed / 1_000_000f;
+	}
+
+}
@@ -0,0 +1,48 @@
+package com.spaghetti.core.scheduler;
+
+/**
+ * Runs ticks at a fixed rate, every tick simulates exactly one period
+ * <p>
+ * If the thread falls behind, ticks are run back to back until it catches up,
+ * unless it's more than {@link #MAX_CATCHUP} ticks late, in which case the
+ * missed ticks are dropped
+ *
+ * @author bohdloss
+ *
+ */
+public class FixedTickScheduler extends TickScheduler {
+
+	public static final int MAX_CATCHUP = 5;
+
+	protected long deadline;
+
+	public FixedTickScheduler() {
+		tickRate = 60;
+	}
+
+	@Override
+	public void start() {
+		deadline = System.nanoTime();
+	}
+
+	@Override
+	public float nextTick(Runnable idle) {
+		long period = getPeriod();
+		if (period == 0) {
+			// Without a rate the delta would be meaningless
+			throw new IllegalStateException("Fixed tick rate must be greater than 0");
+		}
+
+		long now = System.nanoTime();
+		recordTick(now - deadline);
+		if (now < deadline) {
+			waitUntil(deadline, idle);
+		} else if (now - deadline > period * MAX_CATCHUP) {
+			deadline = now;
+		}
+		deadline += period;
+
+		return period / 1_000_000f;
+	}
+
+}
@@ -0,0 +1,119 @@
+package com.spaghetti.core.scheduler;
+
+import com.spaghetti.utils.ThreadUtil;
+
+/**
+ * TickScheduler decides when a {@link com.spaghetti.core.GameThread} runs its
+ * next tick and how much time that tick represents
+ * <p>
+ * All timings are measured with {@link System#nanoTime()}. Waiting is done by
+ * parking the thread until shortly before the deadline and then spinning, so
+ * that idle threads don't burn a core while still hitting their deadlines
+ * accurately
+ *
+ * @author bohdloss
+ *
+ */
+public abstract class TickScheduler {
+
+	// Tick rate in ticks per second, 0 or less means no limit
+	protected volatile float tickRate;
+
+	// Overrun statistics, all times are in nanoseconds
+	protected long ticks;
+	protected long overruns;
+	protected long lastOverrun;
+	protected long maxOverrun;
+	protected long totalOverrun;
+
+	/**
+	 * Called once by the owning thread right before the first tick
+	 */
+	public abstract void start();
+
+	/**
+	 * Waits until the next tick is due, running {@code idle} repeatedly
+	 * while waiting
+	 *
+	 * @param idle Work to perform while waiting, may be null
+	 * @return The amount of milliseconds the next tick should simulate
+	 */
+	public abstract float nextTick(Runnable idle);
+
+	// Utility methods
+
+	protected final void waitUntil(long deadline, Runnable idle) {
+		ThreadUtil.sleepUntilNanos(deadline, idle);
+	}
+
+	protected final void recordTick(long lateness) {
+		ticks++;
+		if (lateness > 0) {
+			overruns++;
+			totalOverrun += lateness;
+			if (lateness > maxOverrun) {
+				maxOverrun = lateness;
+			}
+			lastOverrun = lateness;
+		} else {
+			lastOverrun = 0;
+		}
+	}
+
+	public void resetStatistics() {
+		ticks = 0;
+		overruns = 0;
+		lastOverrun = 0;
+		maxOverrun = 0;
+		totalOverrun = 0;
+	}
+
+	// Getters and setters
+
+	public float getTickRate() {
+		return tickRate;
+	}
+
+	public void setTickRate(float tickRate) {
+		this.tickRate = tickRate;
+	}
+
+	/**
+	 * @return The length of a tick in nanoseconds or 0 if the tick rate is
+	 *         unlimited
+	 */
+	public long getPeriod() {
+		float rate = tickRate;
+		return rate <= 0 ? 0 : (long) (1_000_000_000d / rate);
+	}
+
+	public long getTickCount() {
+		return ticks;
+	}
+
+	/**
+	 * @return The amount of ticks that started later than their deadline
+	 */
+	public long getOverrunCount() {
+		return overruns;
+	}
+
+	/**
+	 * @return How late the last tick started, in nanoseconds
+	 */
+	public long getLastOverrun() {
+		return lastOverrun;
+	}
+
+	public long getMaxOverrun() {
+		return maxOverrun;
+	}
+
+	/**
+	 * @return The average lateness of the ticks that overran, in nanoseconds
+	 */
+	public long getAverageOverrun() {
+		return overruns == 0 ? 0 : totalOverrun / overruns;
+	}
+
+}
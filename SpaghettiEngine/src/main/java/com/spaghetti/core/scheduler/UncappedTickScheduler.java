@@ -0,0 +1,35 @@
+package com.spaghetti.core.scheduler;
+
+/**
+ * Runs ticks back to back without ever waiting, every tick simulates the real
+ * time elapsed since the previous one
+ * <p>
+ * The tick rate is ignored
+ *
+ * @author bohdloss
+ *
+ */
+public class UncappedTickScheduler extends TickScheduler {
+
+	protected long lastTick;
+
+	@Override
+	public void start() {
+		lastTick = System.nanoTime();
+	}
+
+	@Override
+	public float nextTick(Runnable idle) {
+		recordTick(0);
+		long now = System.nanoTime();
+		long elapsed = now - lastTick;
+		lastTick = now;
+		return elapsed / 1_000_000f;
+	}
+
+	@Override
+	public long getPeriod() {
+		return 0;
+	}
+
+}
@@ -1,27 +1,30 @@
 package com.spaghetti.dispatcher;
 
-import com.spaghetti.utils.MathUtil;
-import com.spaghetti.utils.ThreadUtil;
+import com.spaghetti.utils.MpscQueue;
 
 import java.lang.reflect.Method;
-import java.util.*;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
 
 public final class FunctionDispatcher {
 
 	// This class allows other threads to assign some tasks to the main thread
 	// This can be useful for example when another thread needs to perform OpenGL
 	// calls
-	private final List<FunctionWrapper> callQueue = new ArrayList<>();
-	private final Map<Long, FunctionWrapper> callMap = new HashMap<>();
+	private final MpscQueue<FunctionWrapper> callQueue = new MpscQueue<>();
+	private final Map<Long, FunctionWrapper> callMap = new ConcurrentHashMap<>();
 
-	private final Random random;
+	// Ids are handed out in order, so any id below this one has been issued
+	private final AtomicLong nextId = new AtomicLong(1);
 	private final Thread thread;
 
 	// Queue using reflection
 
 	public FunctionDispatcher(Thread thread) {
 		this.thread = thread;
-		this.random = new Random();
 	}
 
 	public long queue(boolean ignoreReturnValue, Object target, String funcName, Object... args) {
@@ -72,122 +75,145 @@ public final class FunctionDispatcher {
 	}
 
 	public long queue(Function function, boolean ignoreReturnValue) {
+		return dispatch(function, ignoreReturnValue).id;
+	}
+
+	/**
+	 * Queues the function and returns a future that is completed with its
+	 * return value once it has been executed on the dispatcher's thread
+	 * <p>
+	 * The function is not tracked by id, so it can't be waited on with
+	 * {@link #waitFor(long)}
+	 *
+	 * @param function The function to execute
+	 * @return The future holding the result
+	 */
+	public CompletableFuture<Object> submit(Function function) {
 		if (function == null) {
 			throw new IllegalArgumentException();
 		}
 
-		// Make sure the random number is unique
-		long rand = 0;
-		synchronized (this) {
-			while (true) {
-				ThreadUtil.sleep(1);
-				rand = random.nextLong();
+		FunctionWrapper wrapper = new FunctionWrapper(0, function, false);
+		if (isDispatcherThread()) {
+			processFunction(wrapper);
+		} else {
+			callQueue.offer(wrapper);
+		}
+		return wrapper;
+	}
+
+	/**
+	 * Retrieves the future of a function queued with one of the id-based
+	 * methods
+	 *
+	 * @param funcId The id of the function
+	 * @return The future or null if the function has finished and its
+	 *         result has already been consumed
+	 */
+	public CompletableFuture<Object> getFuture(long funcId) {
+		return callMap.get(funcId);
+	}
 
-				if (!callMap.containsKey(rand) && !callQueue.contains(rand)) {
-					break;
-				}
-			}
+	private FunctionWrapper dispatch(Function function, boolean ignoreReturnValue) {
+		if (function == null) {
+			throw new IllegalArgumentException();
 		}
 
 		// Initialize struct
-		FunctionWrapper wrapper = new FunctionWrapper();
-		wrapper.id = rand;
-		wrapper.function = function;
-		wrapper.ignoreReturnValue = ignoreReturnValue;
+		FunctionWrapper wrapper = new FunctionWrapper(nextId.getAndIncrement(), function, ignoreReturnValue);
+		callMap.put(wrapper.id, wrapper);
 
-//		System.out.println(Thread.currentThread().getName() + " -> " + thread.getName());
-		if (thread.getId() == Thread.currentThread().getId()) {
+		if (isDispatcherThread()) {
 			processFunction(wrapper);
-			synchronized (this) {
-				callMap.put(wrapper.id, wrapper);
-			}
 		} else {
-			synchronized (this) {
-				callQueue.add(wrapper);
-				callMap.put(wrapper.id, wrapper);
-			}
+			callQueue.offer(wrapper);
 		}
 
-		return rand;
+		return wrapper;
 	}
 
 	// Quick queue
 
 	public Object quickQueue(Function function) {
-		long func = queue(function);
-		return waitReturnValue(func);
+		return waitReturnValue(dispatch(function, false));
 	}
 
 	public Object quickQueueVoid(VoidFunction function) {
-		long func = queueVoid(function);
-		return waitReturnValue(func);
+		return waitReturnValue(dispatch(function, false));
 	}
 
 	public Object waitReturnValue(long funcId) {
-		FunctionWrapper wrapper;
-		synchronized (this) {
-			wrapper = callMap.get(funcId);
-		}
-		if (wrapper.ignoreReturnValue) {
+		FunctionWrapper wrapper = callMap.get(funcId);
+		if (wrapper == null || wrapper.ignoreReturnValue) {
 			return null;
 		}
-		while (!wrapper.finished) {
-			ThreadUtil.sleep(1);
+		return waitReturnValue(wrapper);
+	}
+
+	private Object waitReturnValue(FunctionWrapper wrapper) {
+		try {
+			return wrapper.get();
+		} catch (ExecutionException e) {
+			throw new DispatcherException(e.getCause());
+		} catch (InterruptedException e) {
+			// Let the caller see it was interrupted
+			Thread.currentThread().interrupt();
+			return null;
+		} finally {
+			callMap.remove(wrapper.id);
 		}
-		return getReturnValue(funcId);
 	}
 
 	public void waitFor(long funcId) {
-		FunctionWrapper wrapper;
-		synchronized (this) {
-			wrapper = callMap.get(funcId);
-		}
-		while (!wrapper.finished) {
-			ThreadUtil.sleep(1);
+		FunctionWrapper wrapper = callMap.get(funcId);
+		if (wrapper == null) {
+			return;
 		}
-		synchronized (this) {
+		try {
+			wrapper.get();
+		} catch (ExecutionException e) {
+			// Ignored, the caller doesn't care about the result
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
 			callMap.remove(funcId);
 		}
 	}
 
-	public synchronized boolean hasFinished(long funcId) {
-		return callMap.get(funcId).finished;
+	public boolean hasFinished(long funcId) {
+		FunctionWrapper wrapper = callMap.get(funcId);
+		if (wrapper == null) {
+			// Issued ids that are no longer tracked have already finished
+			return funcId > 0 && funcId < nextId.get();
+		}
+		return wrapper.isDone();
 	}
 
-	public synchronized boolean hasException(long funcId) {
+	public boolean hasException(long funcId) {
 		FunctionWrapper wrapper = callMap.get(funcId);
-		return wrapper.finished && wrapper.exception != null;
+		return wrapper != null && wrapper.isCompletedExceptionally();
 	}
 
 	public Object getReturnValue(long funcId) {
-		FunctionWrapper wrapper;
-		synchronized (this) {
-			wrapper = callMap.get(funcId);
-		}
-		if(!wrapper.finished) {
+		FunctionWrapper wrapper = callMap.get(funcId);
+		if (wrapper == null || !wrapper.isDone()) {
 			return null;
 		}
-		if (hasException(funcId)) {
-			synchronized (this) {
-				callMap.remove(funcId);
-			}
-			throw new DispatcherException(wrapper.exception);
-		}
-		synchronized (this) {
-			callMap.remove(funcId);
-		}
-		return wrapper.returnValue;
+		return waitReturnValue(wrapper);
 	}
 
 	public void computeEvents(int amount) {
-		if (Thread.currentThread().getId() != thread.getId()) {
+		if (!isDispatcherThread()) {
 			return;
 		}
 
-		for (int i = 0; i < (int) MathUtil.min(amount, callQueue.size()); i++) {
-			FunctionWrapper function;
-			synchronized (this) {
-				function = callQueue.remove(0);
+		// Only process what was queued before this call, so functions
+		// that queue more functions can't keep us here forever
+		int count = Math.min(amount, callQueue.size());
+		for (int i = 0; i < count; i++) {
+			FunctionWrapper function = callQueue.poll();
+			if (function == null) {
+				break;
 			}
 			processFunction(function);
 		}
@@ -200,29 +226,40 @@ public final class FunctionDispatcher {
 	private void processFunction(FunctionWrapper wrapper) {
 		try {
 			Object ret = wrapper.function.execute();
-			if (!wrapper.ignoreReturnValue) {
-				wrapper.returnValue = ret;
-			}
+			wrapper.complete(wrapper.ignoreReturnValue ? null : ret);
 		} catch (Throwable e) {
-			if (!wrapper.ignoreReturnValue) {
-				wrapper.exception = e;
+			if (wrapper.ignoreReturnValue) {
+				wrapper.complete(null);
+			} else {
+				wrapper.completeExceptionally(e);
 			}
 		} finally {
-			wrapper.finished = true;
+			wrapper.function = null;
+			if (wrapper.ignoreReturnValue) {
+				// Nobody will ever consume the result
+				callMap.remove(wrapper.id);
+			}
 		}
 	}
 
-	public synchronized int getAmount() {
+	private boolean isDispatcherThread() {
+		return thread.getId() == Thread.currentThread().getId();
+	}
+
+	public int getAmount() {
 		return callQueue.size();
 	}
 
-	private static class FunctionWrapper {
-		public long id;
+	private static class FunctionWrapper extends CompletableFuture<Object> {
+		public final long id;
 		public Function function;
-		public Object returnValue;
-		public Throwable exception;
-		public boolean ignoreReturnValue;
-		public boolean finished;
+		public final boolean ignoreReturnValue;
+
+		public FunctionWrapper(long id, Function function, boolean ignoreReturnValue) {
+			this.id = id;
+			this.function = function;
+			this.ignoreReturnValue = ignoreReturnValue;
+		}
 	}
 
 }
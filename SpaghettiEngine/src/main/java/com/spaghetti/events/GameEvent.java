@@ -1,6 +1,5 @@
 package com.spaghetti.events;
 
-import com.spaghetti.core.Game;
 import com.spaghetti.networking.Replicable;
 import com.spaghetti.networking.ConnectionManager;
 import com.spaghetti.utils.IdProvider;
@@ -16,7 +15,7 @@ public abstract class GameEvent implements Replicable {
 	private boolean cancelled;
 
 	public GameEvent() {
-		this.id = IdProvider.newId(Game.getInstance());
+		this.id = IdProvider.newTransientId();
 	}
 
 	// Getters and setters
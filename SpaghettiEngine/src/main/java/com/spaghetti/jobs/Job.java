@@ -0,0 +1,110 @@
+package com.spaghetti.jobs;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.spaghetti.dispatcher.VoidFunction;
+
+/**
+ * A Job is a unit of work submitted to a {@link JobGraph}
+ * <p>
+ * A Job only starts once all of its dependencies have finished. If any of the
+ * dependencies fails, the job is skipped and counts as failed too
+ *
+ * @author bohdloss
+ *
+ */
+public final class Job implements Runnable {
+
+	private final JobGraph graph;
+	private VoidFunction function;
+
+	// One count for each unfinished dependency, plus one released on submission
+	private final AtomicInteger pending = new AtomicInteger(1);
+	// Guarded by this
+	private ArrayList<Job> dependents;
+	private boolean finished;
+	private volatile boolean failed;
+
+	Job(JobGraph graph, VoidFunction function) {
+		this.graph = graph;
+		this.function = function;
+	}
+
+	// Called before the job is released
+	void dependOn(Job dependency) {
+		if (dependency == null) {
+			return;
+		}
+		if (dependency.graph != graph) {
+			throw new IllegalArgumentException("Jobs can only depend on jobs in the same graph");
+		}
+		synchronized (dependency) {
+			if (dependency.finished) {
+				if (dependency.failed) {
+					failed = true;
+				}
+				return;
+			}
+			if (dependency.dependents == null) {
+				dependency.dependents = new ArrayList<>(2);
+			}
+			dependency.dependents.add(this);
+			pending.incrementAndGet();
+		}
+	}
+
+	void release() {
+		if (pending.decrementAndGet() == 0) {
+			graph.schedule(this);
+		}
+	}
+
+	@Override
+	public void run() {
+		try {
+			if (!failed) {
+				function.execute();
+			}
+		} catch (Throwable t) {
+			failed = true;
+			graph.fail(t);
+		} finally {
+			function = null;
+			finish();
+		}
+	}
+
+	private void finish() {
+		ArrayList<Job> list;
+		synchronized (this) {
+			finished = true;
+			list = dependents;
+			dependents = null;
+		}
+		if (list != null) {
+			for (Job dependent : list) {
+				if (failed) {
+					dependent.failed = true;
+				}
+				dependent.release();
+			}
+		}
+		graph.jobFinished();
+	}
+
+	// Getters
+
+	public synchronized boolean isFinished() {
+		return finished;
+	}
+
+	public boolean hasFailed() {
+		return failed;
+	}
+
+	public JobGraph getGraph() {
+		return graph;
+	}
+
+}
@@ -0,0 +1,15 @@
+package com.spaghetti.jobs;
+
+public class JobException extends RuntimeException {
+
+	private static final long serialVersionUID = 4071523851796735104L;
+
+	public JobException(String message) {
+		super(message);
+	}
+
+	public JobException(Throwable cause) {
+		super(cause);
+	}
+
+}
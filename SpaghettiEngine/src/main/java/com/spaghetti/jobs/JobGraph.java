@@ -0,0 +1,127 @@
+package com.spaghetti.jobs;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.spaghetti.dispatcher.VoidFunction;
+
+/**
+ * JobGraph groups jobs that are joined together, usually at the end of a
+ * frame
+ * <p>
+ * Jobs start as soon as they are added and their dependencies are satisfied,
+ * there is no separate build step. A graph can be reused after
+ * {@link #join()} returns
+ *
+ * @author bohdloss
+ *
+ */
+public final class JobGraph {
+
+	private final JobSystem system;
+	private final AtomicInteger pending = new AtomicInteger();
+	private final Object lock = new Object();
+	private volatile Throwable exception;
+
+	JobGraph(JobSystem system) {
+		this.system = system;
+	}
+
+	/**
+	 * Adds a job to the graph, which will run on the job system's workers once
+	 * all of {@code dependencies} have finished
+	 *
+	 * @param function     The work to perform
+	 * @param dependencies The jobs that must finish before this one
+	 * @return The job
+	 */
+	public Job add(VoidFunction function, Job... dependencies) {
+		if (function == null) {
+			throw new IllegalArgumentException();
+		}
+		Job job = new Job(this, function);
+		pending.incrementAndGet();
+		for (Job dependency : dependencies) {
+			job.dependOn(dependency);
+		}
+		job.release();
+		return job;
+	}
+
+	/**
+	 * Blocks until every job added so far has finished. If called from inside a
+	 * job, the pool is allowed to compensate with another worker
+	 *
+	 * @throws JobException If any of the jobs threw an exception, or the
+	 *                      waiting thread was interrupted
+	 */
+	public void join() {
+		if (pending.get() != 0) {
+			try {
+				ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+
+					@Override
+					public boolean block() throws InterruptedException {
+						synchronized (lock) {
+							while (pending.get() != 0) {
+								lock.wait();
+							}
+						}
+						return true;
+					}
+
+					@Override
+					public boolean isReleasable() {
+						return pending.get() == 0;
+					}
+
+				});
+			} catch (InterruptedException e) {
+				// The jobs may still be running, so don't pretend they finished
+				Thread.currentThread().interrupt();
+				throw new JobException(e);
+			}
+		}
+
+		Throwable t = exception;
+		if (t != null) {
+			exception = null;
+			throw new JobException(t);
+		}
+	}
+
+	// Internal
+
+	void schedule(Job job) {
+		system.execute(job);
+	}
+
+	void fail(Throwable t) {
+		if (exception == null) {
+			exception = t;
+		}
+	}
+
+	void jobFinished() {
+		if (pending.decrementAndGet() == 0) {
+			synchronized (lock) {
+				lock.notifyAll();
+			}
+		}
+	}
+
+	// Getters
+
+	public int getPendingAmount() {
+		return pending.get();
+	}
+
+	public boolean isDone() {
+		return pending.get() == 0;
+	}
+
+	public JobSystem getSystem() {
+		return system;
+	}
+
+}
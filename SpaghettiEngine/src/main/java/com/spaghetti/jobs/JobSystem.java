@@ -0,0 +1,167 @@
+package com.spaghetti.jobs;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+import com.spaghetti.core.Game;
+import com.spaghetti.utils.Logger;
+
+/**
+ * JobSystem is a work-stealing pool shared by every thread of a game
+ * <p>
+ * Use {@link #newGraph()} to submit jobs with dependencies, or
+ * {@link #parallelFor(int, IntConsumer)} to split a loop across all the
+ * workers. Worker threads are linked to the game, so
+ * {@link Game#getInstance()} works from inside jobs
+ *
+ * @author bohdloss
+ *
+ */
+public class JobSystem {
+
+	protected final Game game;
+	protected ForkJoinPool pool;
+	protected final AtomicInteger workerCount = new AtomicInteger();
+
+	public JobSystem(Game game) {
+		this.game = game;
+	}
+
+	protected synchronized ForkJoinPool getPool() {
+		if (pool == null) {
+			int workers = game.<Number>getEngineSetting("engine.jobs.workerCount").intValue();
+			if (workers <= 0) {
+				workers = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+			}
+			// The pool index isn't assigned yet when a worker is constructed
+			pool = new ForkJoinPool(workers, owner -> new Worker(owner, workerCount.getAndIncrement()), (thread, t) -> {
+				Logger.error(game, "Uncaught error in job worker", t);
+			}, false);
+		}
+		return pool;
+	}
+
+	/**
+	 * @return A new empty job graph
+	 */
+	public JobGraph newGraph() {
+		return new JobGraph(this);
+	}
+
+	/**
+	 * Runs {@code body} for every index in {@code [0, count)} across all the
+	 * workers and blocks until every index has been processed
+	 *
+	 * @param count The amount of indices
+	 * @param body  The work to perform for each index
+	 */
+	public void parallelFor(int count, IntConsumer body) {
+		if (count <= 0) {
+			return;
+		}
+		if (count == 1) {
+			body.accept(0);
+			return;
+		}
+		ForkJoinPool pool = getPool();
+		int grain = Math.max(1, count / (pool.getParallelism() * 4));
+		ParallelFor task = new ParallelFor(body, 0, count, grain);
+		if (isWorkerOf(pool)) {
+			task.invoke();
+		} else {
+			pool.invoke(task);
+		}
+	}
+
+	public void execute(Runnable job) {
+		getPool().execute(job);
+	}
+
+	public synchronized void shutdown() {
+		if (pool != null) {
+			pool.shutdown();
+			pool = null;
+		}
+	}
+
+	/**
+	 * @param thread The thread
+	 * @return Whether the thread is one of the workers of this job system
+	 */
+	public boolean isWorker(Thread thread) {
+		return thread instanceof Worker && ((Worker) thread).getJobSystem() == this;
+	}
+
+	public int getWorkerCount() {
+		return getPool().getParallelism();
+	}
+
+	public Game getGame() {
+		return game;
+	}
+
+	// Utility
+
+	private static boolean isWorkerOf(ForkJoinPool pool) {
+		Thread current = Thread.currentThread();
+		return current instanceof ForkJoinWorkerThread && ((ForkJoinWorkerThread) current).getPool() == pool;
+	}
+
+	private class Worker extends ForkJoinWorkerThread {
+
+		public Worker(ForkJoinPool pool, int index) {
+			super(pool);
+			setName("JOB WORKER " + index);
+			setDaemon(true);
+		}
+
+		public JobSystem getJobSystem() {
+			return JobSystem.this;
+		}
+
+		@Override
+		protected void onStart() {
+			super.onStart();
+			game.registerThread(this);
+		}
+
+		@Override
+		protected void onTermination(Throwable exception) {
+			game.unregisterThread(this);
+			super.onTermination(exception);
+		}
+
+	}
+
+	private static class ParallelFor extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final IntConsumer body;
+		private final int from, to, grain;
+
+		public ParallelFor(IntConsumer body, int from, int to, int grain) {
+			this.body = body;
+			this.from = from;
+			this.to = to;
+			this.grain = grain;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from <= grain) {
+				for (int i = from; i < to; i++) {
+					body.accept(i);
+				}
+				return;
+			}
+			int mid = (from + to) >>> 1;
+			invokeAll(new ParallelFor(body, from, mid, grain), new ParallelFor(body, mid, to, grain));
+		}
+
+	}
+
+}
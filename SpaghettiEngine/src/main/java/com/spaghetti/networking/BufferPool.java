@@ -0,0 +1,111 @@
+package com.spaghetti.networking;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * BufferPool hands out direct {@link ByteBuffer}s shared by every connection,
+ * so a buffer that is no longer needed can be reused by another connection
+ * instead of being allocated again
+ * <p>
+ * Buffers come in power of two sizes, from {@link #MIN_SIZE} to
+ * {@link #MAX_SIZE}. Larger requests are allocated on the spot and left to
+ * the garbage collector. At most {@link #MAX_POOLED} buffers are kept for
+ * each size. Every method is thread safe, a buffer may be released by a
+ * thread other than the one that acquired it
+ *
+ * @author bohdloss
+ *
+ */
+public final class BufferPool {
+
+	public static final int MIN_SIZE = 1 << 6;
+	public static final int MAX_SIZE = 1 << 24;
+	public static final int MAX_POOLED = 32;
+
+	private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_SIZE);
+	private static final int CLASSES = Integer.numberOfTrailingZeros(MAX_SIZE) - MIN_SHIFT + 1;
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static final ConcurrentLinkedQueue<ByteBuffer>[] pools = new ConcurrentLinkedQueue[CLASSES];
+	private static final AtomicIntegerArray pooled = new AtomicIntegerArray(CLASSES);
+
+	static {
+		for (int i = 0; i < CLASSES; i++) {
+			pools[i] = new ConcurrentLinkedQueue<>();
+		}
+	}
+
+	private BufferPool() {
+	}
+
+	/**
+	 * Retrieves a cleared buffer, in {@link NetworkBuffer#ORDER}
+	 *
+	 * @param size The minimum capacity
+	 * @return The buffer, its capacity may be larger than requested
+	 */
+	public static ByteBuffer acquire(int size) {
+		if (size < 0) {
+			throw new IllegalArgumentException("Invalid buffer size " + size);
+		}
+		int index = classOf(size);
+		if (index == -1) {
+			return ByteBuffer.allocateDirect(size).order(NetworkBuffer.ORDER);
+		}
+
+		ByteBuffer buffer = pools[index].poll();
+		if (buffer == null) {
+			return ByteBuffer.allocateDirect(MIN_SIZE << index).order(NetworkBuffer.ORDER);
+		}
+		pooled.decrementAndGet(index);
+		buffer.clear();
+		return buffer.order(NetworkBuffer.ORDER);
+	}
+
+	/**
+	 * Gives a buffer back to the pool, it must not be used anymore
+	 *
+	 * @param buffer The buffer, ignored if null or not acquired from the pool
+	 */
+	public static void release(ByteBuffer buffer) {
+		if (buffer == null || !buffer.isDirect()) {
+			return;
+		}
+		int capacity = buffer.capacity();
+		int index = classOf(capacity);
+		if (index == -1 || MIN_SIZE << index != capacity) {
+			return;
+		}
+		// Keeps the count close to the limit without locking
+		if (pooled.incrementAndGet(index) > MAX_POOLED) {
+			pooled.decrementAndGet(index);
+			return;
+		}
+		pools[index].offer(buffer);
+	}
+
+	/**
+	 * Drops every pooled buffer
+	 */
+	public static void clear() {
+		for (int i = 0; i < CLASSES; i++) {
+			while (pools[i].poll() != null) {
+				pooled.decrementAndGet(i);
+			}
+		}
+	}
+
+	// Index of the smallest size that fits, -1 if too large to be pooled
+	private static int classOf(int size) {
+		if (size > MAX_SIZE) {
+			return -1;
+		}
+		if (size <= MIN_SIZE) {
+			return 0;
+		}
+		return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+	}
+
+}
@@ -0,0 +1,154 @@
+package com.spaghetti.networking;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.function.Supplier;
+
+import com.spaghetti.utils.Logger;
+
+/**
+ * ClassRegistry lists the classes that are sent over the network, which are
+ * the {@link com.spaghetti.world.GameObject}s, {@link com.spaghetti.world.GameComponent}s,
+ * {@link com.spaghetti.events.GameEvent}s and {@link RemoteProcedure}s
+ * <p>
+ * The server sends the list to each client during the handshake, after
+ * which both sides refer to those classes by their position in it, see
+ * {@link ClassTable}. Classes are registered automatically the first time
+ * the server writes them, registering them in advance with
+ * {@link #register(Class, Supplier)} makes them compact for every client
+ * from the start
+ * <p>
+ * Every class gets a factory that doesn't go through reflection, either the
+ * one registered or one generated from the constructor with no arguments
+ *
+ * @author bohdloss
+ *
+ */
+public final class ClassRegistry {
+
+	private static final ArrayList<Class<?>> classes = new ArrayList<>();
+	private static final IdentityHashMap<Class<?>, Integer> ids = new IdentityHashMap<>();
+	private static final IdentityHashMap<Class<?>, Supplier<?>> factories = new IdentityHashMap<>();
+	private static final HashMap<String, Class<?>> names = new HashMap<>();
+
+	private ClassRegistry() {
+	}
+
+	/**
+	 * Registers a class along with its factory
+	 *
+	 * @param <T>     The type of the class
+	 * @param cls     The class
+	 * @param factory Creates instances of the class
+	 */
+	public static synchronized <T> void register(Class<T> cls, Supplier<? extends T> factory) {
+		factories.put(cls, factory);
+		idOf(cls);
+	}
+
+	/**
+	 * Registers a class, its constructor with no arguments is used as factory
+	 *
+	 * @param cls The class
+	 */
+	public static synchronized void register(Class<?> cls) {
+		idOf(cls);
+	}
+
+	/**
+	 * Retrieves the id of a class, registering it if needed
+	 *
+	 * @param cls The class
+	 * @return The id
+	 */
+	public static synchronized int idOf(Class<?> cls) {
+		Integer id = ids.get(cls);
+		if (id == null) {
+			id = classes.size();
+			classes.add(cls);
+			ids.put(cls, id);
+			names.put(cls.getName(), cls);
+		}
+		return id;
+	}
+
+	/**
+	 * @return Every registered class, the index being the id
+	 */
+	public static synchronized Class<?>[] getClasses() {
+		return classes.toArray(new Class<?>[classes.size()]);
+	}
+
+	/**
+	 * Resolves a class by name without initializing it
+	 *
+	 * @param name The name of the class
+	 * @return The class
+	 * @throws ClassNotFoundException If the class doesn't exist
+	 */
+	public static synchronized Class<?> forName(String name) throws ClassNotFoundException {
+		Class<?> cls = names.get(name);
+		if (cls == null) {
+			try {
+				cls = Class.forName(name, false, ClassRegistry.class.getClassLoader());
+			} catch (ClassNotFoundException e) {
+				Logger.error("Class not found: " + name);
+				throw e;
+			}
+			names.put(name, cls);
+		}
+		return cls;
+	}
+
+	/**
+	 * Retrieves the factory of a class, generating one if it wasn't registered
+	 *
+	 * @param cls The class
+	 * @return The factory
+	 */
+	public static synchronized Supplier<?> factoryOf(Class<?> cls) {
+		Supplier<?> factory = factories.get(cls);
+		if (factory == null) {
+			factory = generateFactory(cls);
+			factories.put(cls, factory);
+		}
+		return factory;
+	}
+
+	private static Supplier<?> generateFactory(Class<?> cls) {
+		// Bind the constructor to a lambda, as fast as calling it directly
+		try {
+			MethodHandles.Lookup lookup = MethodHandles.lookup();
+			MethodHandle constructor = lookup.findConstructor(cls, MethodType.methodType(void.class));
+			CallSite site = LambdaMetafactory.metafactory(lookup, "get", MethodType.methodType(Supplier.class),
+					MethodType.methodType(Object.class), constructor, MethodType.methodType(cls));
+			return (Supplier<?>) site.getTarget().invoke();
+		} catch (Throwable t) {
+		}
+
+		// Not accessible from here, fall back to reflection
+		Constructor<?> constructor;
+		try {
+			constructor = cls.getDeclaredConstructor();
+			constructor.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			Logger.error("Class " + cls.getName() + " must provide a constructor with no arguments");
+			throw new IllegalStateException("Class " + cls.getName() + " can't be instantiated", e);
+		}
+		return () -> {
+			try {
+				return constructor.newInstance();
+			} catch (ReflectiveOperationException e) {
+				throw new IllegalStateException("Error instantiating " + cls.getName(), e);
+			}
+		};
+	}
+
+}
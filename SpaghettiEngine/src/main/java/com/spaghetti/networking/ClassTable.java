@@ -0,0 +1,156 @@
+package com.spaghetti.networking;
+
+import java.util.IdentityHashMap;
+import java.util.function.Supplier;
+
+import com.spaghetti.events.GameEvent;
+import com.spaghetti.world.GameComponent;
+import com.spaghetti.world.GameObject;
+
+/**
+ * ClassTable holds the classes a connection refers to by id, as agreed on
+ * during the handshake
+ * <p>
+ * A type tag is a variable length int, the id plus one, so the first 127
+ * classes take a single byte. Classes missing from the table are written as
+ * a 0 followed by their name, as a symbol of the connection
+ *
+ * @author bohdloss
+ *
+ */
+public final class ClassTable {
+
+	/**
+	 * A class along with its factory
+	 */
+	public static final class Type {
+		private final Class<?> cls;
+		private final Supplier<?> factory;
+
+		private Type(Class<?> cls) {
+			this.cls = cls;
+			this.factory = ClassRegistry.factoryOf(cls);
+		}
+
+		public Class<?> getType() {
+			return cls;
+		}
+
+		/**
+		 * Creates an instance, after checking the class is a subclass of
+		 * {@code base} so the remote endpoint can't instantiate arbitrary classes
+		 *
+		 * @param <T>  The expected type
+		 * @param base The expected class
+		 * @return The instance
+		 */
+		public <T> T newInstance(Class<T> base) {
+			if (!base.isAssignableFrom(cls)) {
+				throw new IllegalStateException("Invalid " + base.getSimpleName() + " class " + cls.getName());
+			}
+			return base.cast(factory.get());
+		}
+	}
+
+	private Type[] types = new Type[0];
+	private final IdentityHashMap<Class<?>, Integer> ids = new IdentityHashMap<>();
+	// Types received by name
+	private final IdentityHashMap<Class<?>, Type> named = new IdentityHashMap<>();
+
+	/**
+	 * Writes the classes of the registry and starts using them, called by the
+	 * server during the handshake
+	 *
+	 * @param buffer The buffer
+	 */
+	public void write(NetworkBuffer buffer) {
+		Class<?>[] classes = ClassRegistry.getClasses();
+		buffer.putVarUInt(classes.length);
+		for (Class<?> cls : classes) {
+			buffer.putString(false, cls.getName(), NetworkBuffer.UTF_8);
+		}
+		use(classes);
+	}
+
+	/**
+	 * Reads the classes written by {@link #write(NetworkBuffer)} and starts
+	 * using them
+	 *
+	 * @param buffer The buffer
+	 * @throws ClassNotFoundException If one of the classes doesn't exist here
+	 */
+	public void read(NetworkBuffer buffer) throws ClassNotFoundException {
+		Class<?>[] classes = new Class<?>[buffer.getVarUInt()];
+		for (int i = 0; i < classes.length; i++) {
+			classes[i] = validate(ClassRegistry.forName(buffer.getString(false, NetworkBuffer.UTF_8)));
+		}
+		use(classes);
+	}
+
+	private void use(Class<?>[] classes) {
+		ids.clear();
+		types = new Type[classes.length];
+		for (int i = 0; i < classes.length; i++) {
+			types[i] = new Type(classes[i]);
+			ids.put(classes[i], i);
+		}
+	}
+
+	// Only classes that are meant to be sent over the network
+	private static Class<?> validate(Class<?> cls) {
+		if (!GameObject.class.isAssignableFrom(cls) && !GameComponent.class.isAssignableFrom(cls)
+				&& !GameEvent.class.isAssignableFrom(cls) && !RemoteProcedure.class.isAssignableFrom(cls)) {
+			throw new IllegalStateException("Class " + cls.getName() + " can't be sent over the network");
+		}
+		return cls;
+	}
+
+	/**
+	 * Writes the type tag of a class
+	 *
+	 * @param buffer The buffer
+	 * @param cls    The class
+	 */
+	public void writeClass(NetworkBuffer buffer, Class<?> cls) {
+		Integer id = ids.get(cls);
+		if (id != null) {
+			buffer.putVarUInt(id + 1);
+			return;
+		}
+		buffer.putVarUInt(0);
+		buffer.putString(true, cls.getName(), NetworkBuffer.UTF_8);
+
+		// Gets an id in the next handshakes
+		ClassRegistry.register(cls);
+	}
+
+	/**
+	 * Reads a type tag written by {@link #writeClass(NetworkBuffer, Class)}
+	 *
+	 * @param buffer The buffer
+	 * @return The type
+	 * @throws ClassNotFoundException If the class doesn't exist here
+	 */
+	public Type readClass(NetworkBuffer buffer) throws ClassNotFoundException {
+		int tag = buffer.getVarUInt();
+		if (tag > 0) {
+			if (tag > types.length) {
+				throw new IllegalStateException("Invalid class id " + (tag - 1));
+			}
+			return types[tag - 1];
+		}
+
+		Class<?> cls = validate(ClassRegistry.forName(buffer.getString(true, NetworkBuffer.UTF_8)));
+		Type type = named.get(cls);
+		if (type == null) {
+			type = new Type(cls);
+			named.put(cls, type);
+		}
+		return type;
+	}
+
+	public int size() {
+		return types.length;
+	}
+
+}
@@ -8,6 +8,7 @@ import com.spaghetti.core.Game;
 import com.spaghetti.world.GameComponent;
 import com.spaghetti.world.GameObject;
 import com.spaghetti.events.GameEvent;
+import com.spaghetti.exceptions.EndpointException;
 import com.spaghetti.networking.ConnectionEndpoint.Priority;
 import com.spaghetti.networking.events.OnClientBanned;
 import com.spaghetti.networking.events.OnClientConnect;
@@ -61,44 +62,74 @@ public abstract class ClientComponent extends NetworkComponent {
 		ConnectionEndpoint endpoint = manager.getEndpoint();
 
 		// Check if we are connected to a server
-		if(!isConnected()) {
+		if(endpoint == null || flags.goodbye) {
 			return;
 		}
 
 		try {
+			if (!endpoint.isConnected()) {
+				// Failures on the I/O thread and timeouts don't throw by themselves
+				throw new EndpointException("The connection to the server was lost");
+			}
 			flags.firstTime = false;
 
+			// Full duplex endpoints send and receive independently, the others
+			// take turns
+			boolean duplex = endpoint.isFullDuplex();
+
 			// Can write
-			if (endpoint.canSend() && endpoint.getPriority() != Priority.RECEIVE) {
+			if (endpoint.canSend() && (duplex || endpoint.getPriority() != Priority.RECEIVE)) {
 
 				// Swap functions queues
 				ArrayList<NetworkFunction> first = functions_queue1;
 				functions_queue1 = functions_queue2;
 				functions_queue2 = first;
 
+				// Packet type and sequence
+				endpoint.getWriteBuffer().putByte(DATA);
+				manager.writePacketHeader();
+
 				// Write queued special functions
 				functions_queue2.forEach(func -> func.execute(manager));
 
 				// Immediately clear list on clients
 				functions_queue2.clear();
 
+				// Calls and responses, batched
+				manager.writeRemoteProcedures();
+
 				// Write data about each object that needs an update
 				manager.writeCompleteReplication();
 
 				// Send / receive packets
 				endpoint.send();
 
+				if (!duplex) {
+					endpoint.setPriority(Priority.RECEIVE);
+				}
 			} // write
 
-			// Can read
-			if (endpoint.canReceive() && endpoint.getPriority() != Priority.SEND) {
+			// Can read, everything that arrived in the meantime
+			while (endpoint.canReceive() && (duplex || endpoint.getPriority() != Priority.SEND)) {
 
 				// Read incoming packet
 				endpoint.receive();
 
-				// Parse it
-				manager.parsePacket();
+				// Which kind of packet is it?
+				byte packetType = endpoint.getReadBuffer().getByte();
+				if (packetType == KICKED) {
+					internal_disconnect(false);
+					return;
+				}
+				if (packetType == DATA) {
+					manager.readPacketHeader();
+					manager.parsePacket();
+				}
 
+				if (!duplex) {
+					endpoint.setPriority(Priority.SEND);
+					break;
+				}
 			} // read
 		} catch (Throwable t) {
 			internal_clienterror(t); // Something went wrong, attempt reconnection
@@ -126,14 +157,13 @@ public abstract class ClientComponent extends NetworkComponent {
 	}
 
 	@Override
-	public void queueRPC(RemoteProcedure rpc) {
-		if (rpc == null) {
+	public void queueRPC(RemoteProcedure.Invocation invocation) {
+		if (invocation == null) {
 			throw new IllegalArgumentException();
 		}
 
-		functions_queue1.add(client -> {
-			client.writeRemoteProcedure(rpc);
-		});
+		// Thread safe, unlike the function queue
+		manager.writeRemoteProcedure(invocation);
 	}
 
 	@Override
@@ -184,6 +214,7 @@ public abstract class ClientComponent extends NetworkComponent {
 		endpoint.getWriteBuffer().putByte(type);
 		endpoint.getWriteBuffer().putString(message);
 		endpoint.waitCanSend();
+		endpoint.setReliable(true);
 		endpoint.send();
 	}
 
@@ -247,15 +278,22 @@ public abstract class ClientComponent extends NetworkComponent {
 			endpoint.clear();
 			endpoint.getWriteBuffer().putByte(TOKEN); // Packet type
 			endpoint.getWriteBuffer().putLong(token);
+			endpoint.getWriteBuffer().putByte((byte) endpoint.getSupportedCompression());
+			endpoint.getWriteBuffer().putInt(endpoint.getCompressionDictionary());
 			endpoint.waitCanSend();
+			endpoint.setReliable(true); // Servers only open connections for reliable requests
 			endpoint.send();
 
-			// Receive response from server
-			endpoint.clear();
-			endpoint.waitCanReceive();
-			endpoint.receive();
+			// Receive response from server, replication may overtake it if it
+			// had to be sent again
 			NetworkBuffer readBuf = endpoint.getReadBuffer();
-			byte packetType = readBuf.getByte();
+			byte packetType;
+			do {
+				endpoint.clear();
+				endpoint.waitCanReceive();
+				endpoint.receive();
+				packetType = readBuf.getByte();
+			} while (packetType == DATA);
 			String message;
 			switch(packetType) {
 			case HUG:
@@ -308,6 +346,10 @@ public abstract class ClientComponent extends NetworkComponent {
 				return false;
 			}
 
+			// The codecs and class ids the server agreed on
+			endpoint.setCompression(readBuf.getByte());
+			manager.readClassTable(readBuf);
+
 			endpoint.setPriority(Priority.RECEIVE);
 			flags.goodbye = false;
 			flags.firstTime = true;
@@ -336,12 +378,13 @@ public abstract class ClientComponent extends NetworkComponent {
 	}
 
 	protected boolean internal_disconnect(boolean sendGoodbye) {
-		if (!isConnected()) {
+		ConnectionEndpoint endpoint = manager.getEndpoint();
+		// A lost connection must still be destroyed
+		if (endpoint == null || flags.goodbye) {
 			return true;
 		}
 		String remoteIp = getRemoteIp();
 		int remotePort = getRemotePort();
-		ConnectionEndpoint endpoint = manager.getEndpoint();
 
 		// Say goodbye to the server
 		flags.firstTime = false;
@@ -351,6 +394,7 @@ public abstract class ClientComponent extends NetworkComponent {
 				endpoint.clear();
 				endpoint.getWriteBuffer().putByte(GOODBYE);
 				endpoint.waitCanSend();
+				endpoint.setReliable(true);
 				endpoint.send();
 			} catch(Throwable t) {
 			}
@@ -1,10 +1,7 @@
 package com.spaghetti.networking;
 
-import java.util.HashMap;
-
 import com.spaghetti.core.Game;
 import com.spaghetti.exceptions.EndpointException;
-import com.spaghetti.utils.StringCacher;
 import com.spaghetti.utils.ThreadUtil;
 
 public abstract class ConnectionEndpoint {
@@ -16,39 +13,44 @@ public abstract class ConnectionEndpoint {
 	// Member data
 	protected long id;
 
-	protected StringCacher strCache;
+	protected SymbolTable symbols;
 	protected NetworkBuffer writeBuffer;
 	protected NetworkBuffer readBuffer;
 
 	protected boolean reliable;
 	protected Priority priority = Priority.NONE;
+	protected PacketChecksum packetChecksum;
 
 	public ConnectionEndpoint() {
-		strCache = new StringCacher() {
-			public HashMap<Short, String> strings = new HashMap<>();
-
-			@Override
-			public void cacheString(short hash, String string) {
-				strings.put(hash, string);
-			}
-
-			@Override
-			public String getCachedString(short hash) {
-				return strings.get(hash);
-			}
+		this(getInitialBufferSize(), getBufferSize(),
+				PacketChecksum.forName(Game.getInstance().getEngineSetting("network.checksum")));
+	}
 
-			@Override
-			public boolean containsString(short hash) {
-				return strings.containsKey(hash);
-			}
-		};
+	/**
+	 * Creates an endpoint without reading the engine settings
+	 *
+	 * @param initialSize    The memory the buffers start with
+	 * @param bufferSize     The size the buffers may grow up to
+	 * @param packetChecksum The algorithm used to checksum the packets
+	 */
+	protected ConnectionEndpoint(int initialSize, int bufferSize, PacketChecksum packetChecksum) {
+		symbols = new SymbolTable();
+		writeBuffer = new NetworkBuffer(symbols, initialSize, bufferSize);
+		readBuffer = new NetworkBuffer(symbols, initialSize, bufferSize);
+		setPacketChecksum(packetChecksum);
+	}
 
+	private static int getBufferSize() {
 		Integer bufferSize = Game.getInstance().getEngineSetting("network.bufferSize");
 		if(bufferSize == null || bufferSize < 1) {
 			throw new EndpointException("The engine option for buffer size is missing or invalid");
 		}
-		writeBuffer = new NetworkBuffer(strCache, bufferSize);
-		readBuffer = new NetworkBuffer(strCache, bufferSize);
+		return bufferSize;
+	}
+
+	private static int getInitialBufferSize() {
+		Integer initialSize = Game.getInstance().getEngineSetting("network.initialBufferSize");
+		return initialSize == null ? NetworkBuffer.INITIAL_SIZE : Math.max(0, Math.min(initialSize, getBufferSize()));
 	}
 
 	public final void setPriority(Priority priority) {
@@ -72,6 +74,25 @@ public abstract class ConnectionEndpoint {
 		readBuffer.clear();
 	}
 
+	/**
+	 * @return The algorithm used to checksum the packets sent, if the
+	 *         endpoint checksums its packets
+	 */
+	public final PacketChecksum getPacketChecksum() {
+		return packetChecksum;
+	}
+
+	public final void setPacketChecksum(PacketChecksum packetChecksum) {
+		if (packetChecksum == null) {
+			throw new IllegalArgumentException("Checksum cannot be null, use PacketChecksum.NONE instead");
+		}
+		this.packetChecksum = packetChecksum;
+	}
+
+	public final SymbolTable getSymbolTable() {
+		return symbols;
+	}
+
 	public final NetworkBuffer getWriteBuffer() {
 		return writeBuffer;
 	}
@@ -135,4 +156,51 @@ public abstract class ConnectionEndpoint {
 
 	public abstract boolean canReceive();
 
+	/**
+	 * Full duplex endpoints can send and receive at the same time without
+	 * either side waiting for a reply, so the connection loops stream packets
+	 * at their own rate instead of taking turns
+	 *
+	 * @return Whether or not this endpoint is full duplex
+	 */
+	public boolean isFullDuplex() {
+		return false;
+	}
+
+	// Packet compression, negotiated during the handshake
+
+	/**
+	 * @return The mask of {@link PacketCompressor} codecs this endpoint can use
+	 */
+	public int getSupportedCompression() {
+		return 0;
+	}
+
+	/**
+	 * @return The id of the compression dictionary, 0 if there is none
+	 */
+	public int getCompressionDictionary() {
+		return 0;
+	}
+
+	/**
+	 * Computes the codecs this endpoint can use with the other side
+	 *
+	 * @param mask         The codecs supported by the other side
+	 * @param dictionaryId The compression dictionary of the other side
+	 * @return The codecs both sides support
+	 */
+	public int negotiateCompression(int mask, int dictionaryId) {
+		return 0;
+	}
+
+	/**
+	 * Enables the codecs both sides agreed on, only packets sent after this
+	 * call are compressed
+	 *
+	 * @param mask The codecs
+	 */
+	public void setCompression(int mask) {
+	}
+
 }
@@ -1,20 +1,29 @@
 package com.spaghetti.networking;
 
-import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.nio.BufferOverflowException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+
+import org.joml.Vector3f;
 
 import com.spaghetti.core.Game;
+import com.spaghetti.utils.IdProvider;
 import com.spaghetti.utils.ReflectionUtil;
+import com.spaghetti.world.DirtyLog;
 import com.spaghetti.world.GameComponent;
 import com.spaghetti.world.GameObject;
 import com.spaghetti.world.Level;
+import com.spaghetti.world.LevelQuery;
 import com.spaghetti.events.EventDispatcher;
 import com.spaghetti.events.GameEvent;
 import com.spaghetti.dispatcher.FunctionDispatcher;
+import com.spaghetti.exceptions.EndpointException;
 import com.spaghetti.utils.Logger;
+import com.spaghetti.utils.MpscQueue;
 
 public class ConnectionManager {
 
@@ -23,6 +32,12 @@ public class ConnectionManager {
 		}
 	}
 
+	// Replicables written in a packet, until the other side reports on it
+	protected static final class SentPacket {
+		protected int sequence = -1;
+		protected final ArrayList<Replicable> replicables = new ArrayList<>();
+	}
+
 	// Static data
 	protected static final Identity IDENTITY = new Identity();
 
@@ -30,7 +45,6 @@ public class ConnectionManager {
 	protected static final Field f_oid = ReflectionUtil.getPrivateField(GameObject.class, "id");
 	protected static final Field f_cid = ReflectionUtil.getPrivateField(GameComponent.class, "id");
 	protected static final Field f_eid = ReflectionUtil.getPrivateField(GameEvent.class, "id");
-	protected static final Field f_rpcid = ReflectionUtil.getPrivateField(RemoteProcedure.class, "id");
 
 	// Flag management methods
 	protected static final Method me_osetflag = ReflectionUtil.getPrivateMethod(GameObject.class, "setFlag", int.class,
@@ -41,14 +55,6 @@ public class ConnectionManager {
 	protected static final Method me_cgetflag = ReflectionUtil.getPrivateMethod(GameComponent.class, "getFlag",
 			int.class);
 
-	// RemoteProcedure related
-	protected static final Field f_rpcready = ReflectionUtil.getPrivateField(RemoteProcedure.class, "ready");
-	protected static final Field f_rpcerror = ReflectionUtil.getPrivateField(RemoteProcedure.class, "error");
-
-	// Cache
-	protected static final HashMap<String, Class<?>> m_clss = new HashMap<>();
-	protected static final HashMap<Class<?>, Constructor<?>> m_constructors = new HashMap<>();
-
 	// Member data
 
 	// Reference to owner
@@ -61,101 +67,247 @@ public class ConnectionManager {
 
 	// Player info
 	public GameObject player;
+	// Relevance groups of the client, see GameObject#setRelevanceGroups(int)
+	public int interestGroups;
 
 	// Cache
 	protected ArrayList<Object> delete_cache = new ArrayList<>(256);
-	protected HashMap<Short, String> str_cache = new HashMap<>(256);
-	protected HashMap<Integer, RemoteProcedure> rpc_cache = new HashMap<>(256);
+
+	// Remote procedure calls
+	protected int nextCallId;
+	// Filled by the threads making the calls
+	protected MpscQueue<RemoteProcedure.Invocation> outgoing_calls = new MpscQueue<>();
+	protected ArrayList<RemoteProcedure.Invocation> call_cache = new ArrayList<>(64);
+	protected HashMap<Integer, RemoteProcedure.Invocation> pending_calls = new HashMap<>(256);
+	// Changes with the endpoint, responses to calls of a previous one are dropped
+	protected int endpointGeneration;
+	protected HashMap<Class<?>, RemoteProcedure> procedures = new HashMap<>();
+	// Filled by the threads executing the procedures
+	protected MpscQueue<RemoteProcedure.Response> responses = new MpscQueue<>();
+	protected ArrayList<RemoteProcedure.Response> response_cache = new ArrayList<>(64);
+
+	// Delta compression
+	protected DeltaEncoder deltaEncoder = new DeltaEncoder();
+	protected DeltaDecoder deltaDecoder = new DeltaDecoder();
+	protected int deltaAcknowledgements;
+
+	// Packet sequencing
+	protected int sendSequence;
+	protected int receivedSequence = -1;
+	protected int acknowledgedSequence = -1;
+	// Bit n tells if receivedSequence - 1 - n was received
+	protected int receivedBits;
+	protected final long[] sendTimes = new long[64];
+	protected final SentPacket[] sentPackets = new SentPacket[sendTimes.length];
+	protected long roundTripTime;
+
+	// Dirty tracking
+	protected DirtyLog.Cursor dirtyCursor;
+	protected LinkedHashSet<GameObject> dirty_objects = new LinkedHashSet<>(256);
+	protected LinkedHashSet<GameComponent> dirty_components = new LinkedHashSet<>(256);
+
+	// Classes referred to by id
+	protected ClassTable classTable = new ClassTable();
+
+	// Interest management
+	protected InterestSet interest = new InterestSet();
+
+	// Bandwidth budgeting
+	protected static final int ENTRY_HEADER = Byte.BYTES + Integer.BYTES + Short.BYTES + Byte.BYTES;
+	protected static final int ENTRIES_RESERVE = 16; // Stop marker and packet terminator
+	protected PriorityAccumulator priorities = new PriorityAccumulator();
+	protected final Vector3f priorityCenter = new Vector3f();
+	protected final Vector3f priorityPosition = new Vector3f();
 
 	public ConnectionManager(NetworkComponent networkComponent) {
 		this.networkComponent = networkComponent;
 	}
 
 	public void destroy() {
+		if (dirtyCursor != null) {
+			dirtyCursor.close();
+			dirtyCursor = null;
+		}
 		this.delete_cache.clear();
 		this.delete_cache = null;
-		this.str_cache.clear();
-		this.str_cache = null;
-		this.rpc_cache.clear();
-		this.rpc_cache = null;
+
+		// Calls that will never return
+		EndpointException closed = new EndpointException("The connection was closed");
+		RemoteProcedure.Invocation invocation;
+		while ((invocation = outgoing_calls.poll()) != null) {
+			invocation.future.completeExceptionally(closed);
+		}
+		failPendingCalls(closed);
+		procedures.clear();
 	}
 
-	// Static functions to safely retrieve cache
+	// The other side won't respond to calls sent through a previous endpoint
+	protected void failPendingCalls(EndpointException reason) {
+		pending_calls.values().forEach(invocation -> invocation.future.completeExceptionally(reason));
+		pending_calls.clear();
+	}
 
-	protected static Class<?> cachedClass(String name) throws ClassNotFoundException {
-		Class<?> cls = m_clss.get(name);
-		if (cls == null) {
-			synchronized (m_clss) {
-				try {
-					cls = Class.forName(name, false, ConnectionManager.class.getClassLoader());
-				} catch (ClassNotFoundException e) {
-					Logger.error("Class not found: " + name);
-					throw e;
+	// Packet sequencing
+
+	/**
+	 * Writes the sequence number of the packet being written and of the newest
+	 * packets received. Each side can then tell which of its packets the other
+	 * has processed, and measure the round trip time, without taking turns.
+	 * Also reports how many symbols of the other side are known here, see
+	 * {@link SymbolTable}
+	 */
+	public void writePacketHeader() {
+		int sequence = sendSequence++;
+		sendTimes[sequence & (sendTimes.length - 1)] = System.currentTimeMillis();
+		writeBuffer.putInt(sequence);
+		writeBuffer.putInt(receivedSequence);
+		writeBuffer.putInt(receivedBits);
+		writeBuffer.putVarUInt(endpoint.getSymbolTable().getKnown());
+	}
+
+	public void readPacketHeader() {
+		int sequence = readBuffer.getInt();
+		int acknowledged = readBuffer.getInt();
+		int bits = readBuffer.getInt();
+		endpoint.getSymbolTable().acknowledge(readBuffer.getVarUInt());
+		if (sequence > receivedSequence) {
+			int shift = sequence - receivedSequence;
+			if (receivedSequence < 0 || shift > Integer.SIZE) {
+				receivedBits = 0;
+			} else {
+				receivedBits = (shift == Integer.SIZE ? 0 : receivedBits << shift) | (1 << (shift - 1));
+			}
+			receivedSequence = sequence;
+		} else if (sequence < receivedSequence && receivedSequence - sequence <= Integer.SIZE) {
+			receivedBits |= 1 << (receivedSequence - sequence - 1);
+		}
+		if (acknowledged >= 0 && acknowledged < sendSequence) {
+			if (acknowledged > acknowledgedSequence) {
+				acknowledgedSequence = acknowledged;
+				if (sendSequence - acknowledged <= sendTimes.length) {
+					roundTripTime = System.currentTimeMillis() - sendTimes[acknowledged & (sendTimes.length - 1)];
 				}
-				m_clss.put(name, cls);
 			}
+			resolveSentPackets(acknowledged, bits);
 		}
-		return cls;
 	}
 
-	protected static Constructor<?> cachedConstructor(Class<?> cls) throws NoSuchMethodException {
-		Constructor<?> constructor = m_constructors.get(cls);
-		if (constructor == null) {
-			synchronized (m_constructors) {
-				try {
-					constructor = cls.getConstructor();
-					constructor.setAccessible(true);
-					m_constructors.put(cls, constructor);
-				} catch (NoSuchMethodException e) {
-					Logger.error("Class " + cls.getName() + " must provide a constructor with no arguments");
-					throw e;
-				}
+	// The replicables in packets the other side didn't receive are pending
+	// again, packets superseded on a latest-wins channel never arrive
+	protected void resolveSentPackets(int acknowledged, int bits) {
+		for (SentPacket packet : sentPackets) {
+			if (packet == null || packet.sequence < 0 || packet.sequence > acknowledged) {
+				continue;
+			}
+			int age = acknowledged - packet.sequence;
+			boolean received = age == 0 || (age <= Integer.SIZE && (bits & (1 << (age - 1))) != 0);
+			if (!received) {
+				redirty(packet);
 			}
+			packet.sequence = -1;
+			packet.replicables.clear();
 		}
-		return constructor;
 	}
 
-	@SuppressWarnings("unchecked")
-	protected static Constructor<? extends GameObject> cachedGOConstructor(Class<?> cls) throws NoSuchMethodException {
-		return (Constructor<? extends GameObject>) cachedConstructor(cls);
+	// The packet being written, packets never reported on are assumed lost
+	protected SentPacket getSentPacket() {
+		int sequence = sendSequence - 1;
+		if (sequence < 0) {
+			// No header written, so the other side can't report on it
+			return null;
+		}
+		int index = sequence & (sentPackets.length - 1);
+		SentPacket packet = sentPackets[index];
+		if (packet == null) {
+			packet = sentPackets[index] = new SentPacket();
+		}
+		if (packet.sequence != sequence) {
+			if (packet.sequence >= 0) {
+				redirty(packet);
+			}
+			packet.sequence = sequence;
+			packet.replicables.clear();
+		}
+		return packet;
 	}
 
-	@SuppressWarnings("unchecked")
-	protected static Constructor<? extends GameComponent> cachedGCConstructor(Class<?> cls)
-			throws NoSuchMethodException {
-		return (Constructor<? extends GameComponent>) cachedConstructor(cls);
+	protected void redirty(SentPacket packet) {
+		for (Replicable replicable : packet.replicables) {
+			if (replicable instanceof GameObject) {
+				dirty_objects.add((GameObject) replicable);
+			} else {
+				dirty_components.add((GameComponent) replicable);
+			}
+		}
 	}
 
-	@SuppressWarnings("unchecked")
-	protected static Constructor<? extends GameEvent> cachedGEConstructor(Class<?> cls) throws NoSuchMethodException {
-		return (Constructor<? extends GameEvent>) cachedConstructor(cls);
+	// Internal utility
+
+	protected boolean needsReplication(Replicable replicable) {
+		return isRelevant(replicable) && (replicable.needsReplication(this) || forceReplication)
+				&& !replicable.isLocal();
 	}
 
-	@SuppressWarnings("unchecked")
-	protected static Constructor<? extends RemoteProcedure> cachedRPConstructor(Class<?> cls)
-			throws NoSuchMethodException {
-		return (Constructor<? extends RemoteProcedure>) cachedConstructor(cls);
+	protected boolean isRelevant(Replicable replicable) {
+		if (replicable instanceof GameObject) {
+			return interest.isRelevant((GameObject) replicable);
+		}
+		if (replicable instanceof GameComponent) {
+			GameObject owner = ((GameComponent) replicable).getOwner();
+			return owner == null || interest.isRelevant(owner);
+		}
+		return true;
 	}
 
-	// Internal utility
+	// Recomputes the objects relevant to the client
+	protected void refreshInterest(Level level) {
+		Float radius = getGame().getEngineSetting("network.interestRadius");
+		Float hysteresis = getGame().getEngineSetting("network.interestHysteresis");
+		interest.update(level, player, interestGroups, radius == null ? 0 : radius,
+				hysteresis == null ? 1 : hysteresis);
+	}
 
-	protected boolean needsReplication(Replicable replicable) {
-		return (replicable.needsReplication(this) || forceReplication) && !replicable.isLocal();
+	// Spawns and destroys the objects that entered or left the interest set
+	protected void writeInterestChanges(Level level) {
+		refreshInterest(level);
+
+		for (GameObject object : interest.getLeft()) {
+			writeObjectDestruction(object);
+			forget_baselines(object);
+		}
+		// Their data is written along with the dirty objects
+		for (GameObject object : interest.getEntered()) {
+			writeObjectTree(object);
+		}
 	}
 
 	protected void writeReplicable(Replicable obj) {
 		if (getGame().isClient()) {
 			obj.writeDataClient(this, writeBuffer);
+		} else if (obj.isSharedReplication() && networkComponent instanceof ServerComponent) {
+			// Encoded once per tick for all clients
+			((ServerComponent) networkComponent).getReplicationCache().write(obj, this, writeBuffer);
 		} else {
 			obj.writeDataServer(this, writeBuffer);
 		}
 	}
 
 	protected void readReplicable(Replicable obj) {
+		readReplicable(obj, readBuffer);
+	}
+
+	protected void readReplicable(Replicable obj, NetworkBuffer buffer) {
 		if (getGame().isClient()) {
-			obj.readDataClient(this, readBuffer);
+			// Whatever the object changes is the server's state, not ours
+			DirtyLog log = getLevel().getDirtyLog();
+			log.beginApplying();
+			try {
+				obj.readDataClient(this, buffer);
+			} finally {
+				log.endApplying();
+			}
 		} else {
-			obj.readDataServer(this, readBuffer);
+			obj.readDataServer(this, buffer);
 		}
 	}
 
@@ -189,15 +341,15 @@ public class ConnectionManager {
 			case Opcode.RP_RESPONSE:
 				readRemoteProcedureResponse();
 				break;
-			case Opcode.RP_ACKNOWLEDGEMENT:
-				readRPCAcknowledgement();
-				break;
 			case Opcode.OBJECT_TREE:
 				readObjectTree();
 				break;
 			case Opcode.OBJECT_DESTROY:
 				readObjectDestruction();
 				break;
+			case Opcode.DELTA_ACK:
+				readDeltaAcknowledgement();
+				break;
 			}
 		}
 	}
@@ -214,96 +366,264 @@ public class ConnectionManager {
 	// Quick update on objects that need it
 	public void writeCompleteReplication() {
 		Level level = getLevel();
-		writeBuffer.putByte(Opcode.DATA);
+		boolean server = !getGame().isClient();
+		boolean delta = server && Boolean.TRUE.equals(getGame().getEngineSetting("network.deltaCompression"));
+
+		// Tell the server which baselines we have
+		if (!server) {
+			deltaDecoder.writeAcknowledgement(writeBuffer);
+		}
 
-		// Write objects
-		level.forEachActualObject((id, object) -> {
+		// Spawn and destroy objects as they get close to or far from the player
+		if (server) {
+			writeInterestChanges(level);
+		}
 
-			// Should we write?
-			if (needsReplication(object)) {
+		writeBuffer.putByte(Opcode.DATA);
+		writeBuffer.putInt(server ? deltaEncoder.begin() : 0);
+		writeBuffer.putInt(server ? deltaEncoder.getAcknowledged() : 0);
+
+		// Start reading the dirty log of this level
+		boolean full = forceReplication;
+		if (dirtyCursor == null || dirtyCursor.getLog() != level.getDirtyLog()) {
+			if (dirtyCursor != null) {
+				dirtyCursor.close();
+			}
+			dirtyCursor = level.getDirtyLog().open();
+			full = true;
+		}
 
-				// Write binary metadata
-				writeBuffer.putInt(object.getId());
-				int pos = writeBuffer.getPosition();
-				writeBuffer.skip(Short.BYTES); // Allocate memory for skip destination
+		if (full) {
+			// Everything is pending, so what's in the log is already covered
+			dirtyCursor.skip();
+			forceReplication = false;
 
-				// Write object data
-				writeReplicable(object);
+			level.forEachActualObject((id, object) -> dirty_objects.add(object));
+			level.forEachComponent((id, component) -> {
+				if (component.isDirtyTracked()) {
+					dirty_components.add(component);
+				}
+			});
+		} else {
+			// What changed since the last time, added to what didn't fit before
+			dirtyCursor.read(entry -> {
+				if (entry instanceof GameObject) {
+					dirty_objects.add((GameObject) entry);
+				} else {
+					GameComponent component = (GameComponent) entry;
+					if (component.isDirtyTracked()) {
+						dirty_components.add(component);
+					}
+				}
+			});
+		}
+		writeEntries(level, delta);
+	}
+
+	// Writes the pending replicables from the highest priority until the budget
+	// of the packet is spent
+	protected void writeEntries(Level level, boolean delta) {
+		long now = System.currentTimeMillis();
+		Float distanceSetting = getGame().getEngineSetting("network.priorityDistance");
+		float distance = distanceSetting == null || distanceSetting <= 0 ? Float.POSITIVE_INFINITY : distanceSetting;
+		GameObject player = this.player;
+		if (player != null) {
+			player.getWorldPosition(priorityCenter);
+		}
 
-				// More metadata
-				int off = writeBuffer.getPosition() - pos - Short.BYTES;
-				writeBuffer.putShortAt(pos, (short) off); // Write destination
+		// Rank everything that is waiting
+		priorities.begin();
+		for (Iterator<GameObject> iterator = dirty_objects.iterator(); iterator.hasNext();) {
+			GameObject object = iterator.next();
+			if (level.getObject(object.getId()) != object || !needsReplication(object)) {
+				iterator.remove();
+				continue;
 			}
-		});
-		writeBuffer.putInt(-1);
+			float weight = object.getReplicationWeight() * distanceFactor(player, object, distance);
+			priorities.offer(DeltaEncoder.OBJECT, object.getId(), object, weight, object.getReplicationRate(), now);
+		}
+		for (Iterator<GameComponent> iterator = dirty_components.iterator(); iterator.hasNext();) {
+			GameComponent component = iterator.next();
+			if (level.getComponent(component.getId()) != component || !needsReplication(component)) {
+				iterator.remove();
+				continue;
+			}
+			offerComponent(player, component, distance, now);
+		}
+		LevelQuery<GameComponent> untracked = level.getUntrackedComponents();
+		for (GameComponent component : untracked) {
+			if (needsReplication(component)) {
+				offerComponent(player, component, distance, now);
+			}
+		}
 
-		// Write components
-		level.forEachComponent((id, component) -> {
+		// Whatever doesn't fit stays pending, and gains priority for the next packet
+		Integer budgetSetting = getGame().getEngineSetting("network.bandwidthBudget");
+		int capacity = writeBuffer.getSize() - ENTRIES_RESERVE;
+		int budget = budgetSetting == null || budgetSetting <= 0 ? capacity : Math.min(budgetSetting, capacity);
+		boolean written = false;
+		SentPacket sent = getSentPacket();
+		for (PriorityAccumulator.Candidate candidate : priorities.sort()) {
+			// Something always gets through, even if larger than the budget
+			if (writeEntry(candidate.getKind(), candidate.getReplicable(), delta, written ? budget : capacity)) {
+				written = true;
+				priorities.sent(candidate, now);
+				if (candidate.getKind() == DeltaEncoder.OBJECT) {
+					dirty_objects.remove(candidate.getReplicable());
+					if (sent != null) {
+						sent.replicables.add(candidate.getReplicable());
+					}
+				} else if (dirty_components.remove(candidate.getReplicable()) && sent != null) {
+					// Untracked components are written every time anyway
+					sent.replicables.add(candidate.getReplicable());
+				}
+			}
+		}
+		priorities.begin();
+		writeBuffer.putByte(Opcode.STOP);
+	}
 
-			// Should we write?
-			if (needsReplication(component)) {
+	protected void offerComponent(GameObject player, GameComponent component, float distance, long now) {
+		float weight = component.getReplicationWeight() * distanceFactor(player, component.getOwner(), distance);
+		priorities.offer(DeltaEncoder.COMPONENT, component.getId(), component, weight, component.getReplicationRate(),
+				now);
+	}
 
-				// Write binary metadata
-				writeBuffer.putInt(component.getId());
-				int pos = writeBuffer.getPosition();
-				writeBuffer.skip(Short.BYTES); // Allocate memory for skip destination
+	// Halves the priority of objects as far from the player as the distance
+	protected float distanceFactor(GameObject player, GameObject object, float distance) {
+		if (player == null || object == null || Float.isInfinite(distance)) {
+			return 1;
+		}
+		object.getWorldPosition(priorityPosition);
+		return 1 / (1 + priorityPosition.distance(priorityCenter) / distance);
+	}
 
-				// Write component data
-				writeReplicable(component);
+	// Returns false if the entry doesn't fit within the limit
+	protected boolean writeEntry(int kind, Replicable replicable, boolean delta, int limit) {
+		int id = kind == DeltaEncoder.OBJECT ? ((GameObject) replicable).getId()
+				: ((GameComponent) replicable).getId();
 
-				// More metadata
-				int off = writeBuffer.getPosition() - (pos + Short.BYTES);
-				writeBuffer.putShortAt(pos, (short) off); // Write destination
+		// Write binary metadata
+		int entry = writeBuffer.getPosition();
+		if (limit - entry < ENTRY_HEADER) {
+			return false;
+		}
+		int previousLimit = writeBuffer.getLimit();
+		writeBuffer.setLimit(limit);
+		try {
+			writeBuffer.putByte((byte) kind);
+			writeBuffer.putInt(id);
+			int pos = writeBuffer.getPosition();
+			writeBuffer.skip(Short.BYTES); // Allocate memory for skip destination
+			writeBuffer.putByte(DeltaEncoder.FULL);
+			int start = writeBuffer.getPosition();
+
+			// Write data
+			writeReplicable(replicable);
+
+			// Replace with a delta, or drop if the client is up to date
+			if (delta && !deltaEncoder.encode(kind, id, writeBuffer, start)) {
+				writeBuffer.setPosition(entry);
+				return true;
 			}
 
-		});
-
-		writeBuffer.putInt(-1);
+			// More metadata
+			int off = writeBuffer.getPosition() - (pos + Short.BYTES);
+			writeBuffer.putShortAt(pos, (short) off); // Write destination
+			return true;
+		} catch (BufferOverflowException e) {
+			// Out of budget, try again in the next packet
+			writeBuffer.setPosition(entry);
+			return false;
+		} finally {
+			writeBuffer.setLimit(previousLimit);
+		}
 	}
 
 	public void readCompleteReplication() {
 		Level level = getLevel();
+		boolean client = getGame().isClient();
+
+		// Sequence of the packet and the newest acknowledgement the server
+		// received, used for delta compression
+		int sequence = readBuffer.getInt();
+		int confirmed = readBuffer.getInt();
+		if (client) {
+			deltaDecoder.begin(sequence, confirmed);
+		}
 
-		// Read objects
-		int id = -1;
-		while ((id = readBuffer.getInt()) != -1) {
+		// Objects and components in order of priority
+		byte kind;
+		while ((kind = readBuffer.getByte()) != Opcode.STOP) {
+			if (kind != DeltaEncoder.OBJECT && kind != DeltaEncoder.COMPONENT) {
+				throw new IllegalStateException("Invalid entry kind " + kind);
+			}
 
 			// Read metadata and validate
+			int id = readBuffer.getInt();
 			short skip = readBuffer.getShort();
 			if (skip < 0) {
 				throw new IllegalStateException("Negative skip value");
 			}
-			GameObject object = level.getObject(id);
-
-			// Do we skip?
-			if (object == null) {
-				readBuffer.skip(skip);
-				continue;
-			}
+			int end = readBuffer.getPosition() + skip;
+			Replicable replicable = kind == DeltaEncoder.OBJECT ? level.getObject(id) : level.getComponent(id);
 
 			// Read!
-			readReplicable(object);
+			readEntry(kind, id, replicable, end);
 		}
+	}
 
-		// Read components
-		while ((id = readBuffer.getInt()) != -1) {
-
-			// Get and validate metadata
-			short skip = readBuffer.getShort();
-			if (skip < 0) {
-				throw new IllegalStateException("Negative skip value");
+	protected void readEntry(int kind, int id, Replicable replicable, int end) {
+		if (getGame().isClient()) {
+			// Always decoded, a missing object may still be the baseline of
+			// a later delta
+			NetworkBuffer payload = deltaDecoder.decode(kind, id, readBuffer, end);
+			if (payload != null && replicable != null) {
+				readReplicable(replicable, payload);
 			}
-			GameComponent component = level.getComponent(id);
-
-			// Shall we skip?
-			if (component == null) {
-				readBuffer.skip(skip);
-				continue;
+		} else {
+			byte mode = readBuffer.getByte();
+			if (mode != DeltaEncoder.FULL) {
+				throw new IllegalStateException("Clients can't send delta encoded data");
+			}
+			if (replicable != null) {
+				readReplicable(replicable);
 			}
+		}
+		readBuffer.setPosition(end);
+	}
 
-			// Read
-			readReplicable(component);
+	public void readDeltaAcknowledgement() {
+		if (getGame().isClient()) {
+			throw new IllegalStateException("Servers can't send delta acknowledgements");
+		}
+		int sequence = readBuffer.getInt();
+		int bits = readBuffer.getInt();
+		if (readBuffer.getBoolean()) {
+			// Requests are repeated until deltas can be decoded again
+			deltaEncoder.reset(readBuffer.getInt());
 		}
+		deltaEncoder.acknowledge(sequence, bits);
+
+		// Every now and then release the baselines of destroyed objects
+		if (++deltaAcknowledgements % 256 == 0) {
+			deltaEncoder.prune(getLevel());
+		}
+	}
+
+	// Class table, exchanged during the handshake
+	public void writeClassTable(NetworkBuffer buffer) {
+		// Everything in the level right now gets a compact id
+		Level level = player == null ? null : player.getLevel();
+		if (level != null) {
+			level.forEachActualObject((id, object) -> ClassRegistry.register(object.getClass()));
+			level.forEachComponent((id, component) -> ClassRegistry.register(component.getClass()));
+		}
+		classTable.write(buffer);
+	}
+
+	public void readClassTable(NetworkBuffer buffer) throws ClassNotFoundException {
+		classTable.read(buffer);
 	}
 
 	// Serialization of level
@@ -313,9 +633,20 @@ public class ConnectionManager {
 		}
 		Level level = getLevel();
 
+		// The client starts from scratch
+		deltaEncoder.reset();
+		priorities.reset();
+		interest.reset();
+		refreshInterest(level);
+
 		// Write metadata
 		writeBuffer.putByte(Opcode.LEVEL);
-		level.forEachObject(this::writeObjectStructure);
+		level.forEachObject(object -> {
+			if (interest.isRelevant(object)) {
+				writeObjectStructure(object);
+				collect_tree(object);
+			}
+		});
 		writeBuffer.putByte(Opcode.STOP);
 	}
 
@@ -324,6 +655,7 @@ public class ConnectionManager {
 			throw new IllegalStateException("Servers can't receive level structure");
 		}
 		Level level = getLevel();
+		deltaDecoder.reset();
 
 		// First flag all objects as deletable
 		// this will be reverted by readChildren
@@ -349,17 +681,16 @@ public class ConnectionManager {
 			return;
 		}
 		endpoint.reliable = true;
-		forceReplication = true;
 
 		writeBuffer.putInt(obj.getId()); // Put id of the object
-		writeBuffer.putString(true, obj.getClass().getName(), NetworkBuffer.UTF_8); // Put class of the object
+		classTable.writeClass(writeBuffer, obj.getClass()); // Put class of the object
 
 		obj.forEachComponent((id, component) -> {
 
 			// We should write the component
 			if (!component.isLocal()) {
 				writeBuffer.putInt(component.getId()); // Put id of component
-				writeBuffer.putString(true, component.getClass().getName(), NetworkBuffer.UTF_8); // Put class of component
+				classTable.writeClass(writeBuffer, component.getClass()); // Put class of component
 			}
 		});
 		writeBuffer.putInt(-1); // Put stop flag on components
@@ -371,13 +702,7 @@ public class ConnectionManager {
 	protected void readObjectStructure(Level level, GameObject parent) throws Throwable {
 		// Get class name and id of the object
 		int id = readBuffer.getInt();
-		String clazz = readBuffer.getString(true, NetworkBuffer.UTF_8);
-
-		// Retrieve the class and check if it is valid
-		Class<?> objclass = cachedClass(clazz);
-		if (!GameObject.class.isAssignableFrom(objclass)) {
-			throw new IllegalStateException("Invalid GameObject class");
-		}
+		ClassTable.Type type = classTable.readClass(readBuffer);
 
 		// Attempt to retrieve object from level
 		GameObject object = level.getObject(id);
@@ -386,9 +711,10 @@ public class ConnectionManager {
 		if (object == null) {
 
 			// Build a new instance of it
-			object = cachedGOConstructor(objclass).newInstance();
+			object = type.newInstance(GameObject.class);
 
-			// Set the id
+			// Give back the local id and adopt the server's one
+			IdProvider.freeId(getGame(), object.getId());
 			f_oid.set(object, id);
 
 			// Register the object using the updater thread
@@ -415,14 +741,8 @@ public class ConnectionManager {
 		int comp_id = -1;
 		while ((comp_id = readBuffer.getInt()) != -1) {
 
-			// Get id and class name of the component
-			String comp_clazz = readBuffer.getString(true, NetworkBuffer.UTF_8);
-
-			// Retrieve the component class and check if it is valid
-			Class<?> compclass = cachedClass(comp_clazz);
-			if (!GameComponent.class.isAssignableFrom(compclass)) {
-				throw new IllegalStateException("Invalid GameComponent class");
-			}
+			// Get the class of the component
+			ClassTable.Type comp_type = classTable.readClass(readBuffer);
 
 			// Attempt to retrieve component from level
 			GameComponent component = object.getComponent(comp_id);
@@ -431,9 +751,10 @@ public class ConnectionManager {
 			if (component == null) {
 
 				// Build a new instance of it
-				component = cachedGCConstructor(compclass).newInstance();
+				component = comp_type.newInstance(GameComponent.class);
 
-				// Set id
+				// Give back the local id and adopt the server's one
+				IdProvider.freeId(getGame(), component.getId());
 				f_cid.set(component, comp_id);
 
 				// Add the component to its owner using the updater thread
@@ -465,10 +786,17 @@ public class ConnectionManager {
 			parent = parent.getParent();
 		}
 
+		// Sent when the object enters the interest set instead
+		if (!interest.isRelevant(object)) {
+			return;
+		}
+
 		endpoint.reliable = true;
 		writeBuffer.putByte(Opcode.OBJECT_TREE);
 		writeBuffer.putInt(object.getParent() == null ? -1 : object.getParent().getId());
 		writeObjectStructure(object);
+		// Its data follows in the next replication pass
+		collect_tree(object);
 	}
 
 	public void readObjectTree() throws Throwable {
@@ -477,19 +805,6 @@ public class ConnectionManager {
 		int parent_id = readBuffer.getInt();
 		GameObject parent = (parent_id == -1) ? null : level.getObject(parent_id);
 
-		// Retrieve class in advance for security checks
-		readBuffer.skip(Integer.BYTES); // Skip object id
-		String clazz = readBuffer.getString(true, NetworkBuffer.UTF_8);
-
-		// Retrieve the class and check if it is valid
-		Class<?> objclass = cachedClass(clazz);
-		if (!GameObject.class.isAssignableFrom(objclass)) {
-			throw new IllegalStateException("Invalid object class");
-		}
-
-		// Set back position
-		readBuffer.skip(-Integer.BYTES);
-
 		// First flag all objects as deletable
 		// this will be reverted by readChildren
 		// but only on objects that actually exist
@@ -552,6 +867,7 @@ public class ConnectionManager {
 		if (isComp) {
 
 			// Attempt to retrieve component
+			deltaDecoder.forget(DeltaEncoder.COMPONENT, id);
 			GameComponent component = level.getComponent(id);
 			if (component != null) {
 
@@ -564,8 +880,10 @@ public class ConnectionManager {
 		} else {
 
 			// Attempt to retrieve object
+			deltaDecoder.forget(DeltaEncoder.OBJECT, id);
 			GameObject object = level.getObject(id);
 			if (object != null) {
+				forget_payloads(object);
 
 				// Perform destroy
 				getGame().getPrimaryDispatcher().quickQueue(() -> {
@@ -669,24 +987,18 @@ public class ConnectionManager {
 		}
 		writeBuffer.putByte(Opcode.GAMEEVENT);
 
-		writeBuffer.putString(event.getClass().getName());
+		classTable.writeClass(writeBuffer, event.getClass());
 		writeBuffer.putInt(event.getId());
 		writeReplicable(event);
 	}
 
 	public void readGameEvent() throws Throwable {
 		// Obtain event metadata
-		String event_class = readBuffer.getString();
+		ClassTable.Type type = classTable.readClass(readBuffer);
 		int event_id = readBuffer.getInt();
 
-		// Check validity of the class
-		Class<?> eventclass = cachedClass(event_class);
-		if (!GameEvent.class.isAssignableFrom(eventclass)) {
-			throw new IllegalStateException("Invalid GameEvent class");
-		}
-
 		// Allocate event
-		GameEvent event = cachedGEConstructor(eventclass).newInstance();
+		GameEvent event = type.newInstance(GameEvent.class);
 		f_eid.set(event, event_id);
 
 		// Retrieve event and function dispatchers
@@ -707,116 +1019,121 @@ public class ConnectionManager {
 	}
 
 	// Remote procedure calls
-	public void writeRemoteProcedure(RemoteProcedure rpc) {
-		// Is this reliable?
-		endpoint.reliable |= rpc.isReliable();
-
-		// Cache this for the moment we receive a callback
-		rpc_cache.put(rpc.getId(), rpc);
-
-		// Write metadata
-		writeBuffer.putInt(rpc.getId());
-		writeBuffer.putString(true, rpc.getClass().getName(), NetworkBuffer.UTF_8);
-
-		// Write arguments
-		rpc.writeArgs(writeBuffer);
+	public void writeRemoteProcedure(RemoteProcedure.Invocation invocation) {
+		// Sent along with the other calls of this tick, from any thread
+		outgoing_calls.offer(invocation);
 	}
 
-	public void readRemoteProcedure() throws Throwable {
-		// Get some metadata
-		int id = readBuffer.getInt();
-		String clazz = readBuffer.getString(true, NetworkBuffer.UTF_8);
-
-		// Check if class is valid
-		Class<?> cls = cachedClass(clazz);
-		if (!RemoteProcedure.class.isAssignableFrom(cls)) {
-			throw new IllegalStateException("Invalid RemoteProcedure class");
+	/**
+	 * Writes the calls queued since the last packet, then the responses to the
+	 * calls of the other side that are ready, each as a single batch
+	 */
+	public void writeRemoteProcedures() {
+		RemoteProcedure.Invocation call;
+		while ((call = outgoing_calls.poll()) != null) {
+			call_cache.add(call);
+		}
+		if (!call_cache.isEmpty()) {
+			// The pending call waits until its response arrives, neither can be lost
+			endpoint.reliable = true;
+			writeBuffer.putByte(Opcode.REMOTEPROCEDURE);
+			writeBuffer.putVarUInt(call_cache.size());
+			for (RemoteProcedure.Invocation invocation : call_cache) {
+				// Cache this for the moment we receive the response
+				int id = nextCallId;
+				nextCallId = (nextCallId + 1) & Integer.MAX_VALUE;
+				pending_calls.put(id, invocation);
+
+				// Write metadata
+				writeBuffer.putVarUInt(id);
+				classTable.writeClass(writeBuffer, invocation.procedure.getClass());
+
+				// Write arguments
+				invocation.procedure.writeArgs(invocation.arguments, writeBuffer);
+			}
+			call_cache.clear();
 		}
 
-		// Allocate procedure
-		RemoteProcedure rpc = cachedRPConstructor(cls).newInstance();
-		f_rpcid.set(rpc, id);
-
-		// Read arguments
-		rpc.readArgs(readBuffer);
-
-		// Dispatch RemoteProcedure execution to the updater thread
-		getGame().getPrimaryDispatcher().queue(() -> {
-			// Execute
-			rpc.execute(this);
-
-			// Queue the function to write the callback
-			getGame().getNetworkManager().queueNetworkFunction(client -> client.writeRemoteProcedureResponse(rpc));
-			return null;
-		}, true);
-	}
-
-	public void writeRemoteProcedureResponse(RemoteProcedure rpc) {
-		endpoint.reliable |= rpc.isReliable();
-
-		if (rpc.hasReturnValue()) {
-			// Write response metadata
+		RemoteProcedure.Response response;
+		while ((response = responses.poll()) != null) {
+			// The call came through an endpoint that was replaced since
+			if (response.generation == endpointGeneration) {
+				response_cache.add(response);
+			}
+		}
+		if (!response_cache.isEmpty()) {
+			endpoint.reliable = true;
 			writeBuffer.putByte(Opcode.RP_RESPONSE);
-			writeBuffer.putInt(rpc.getId());
-
-			// Write return value
-			rpc.writeReturn(writeBuffer);
-		} else {
-			// Write acknowledgement metadata
-			writeBuffer.putByte(Opcode.RP_ACKNOWLEDGEMENT);
-			writeBuffer.putInt(rpc.getId());
-			writeBuffer.putBoolean(rpc.isError()); // Needed explicitly here
+			writeBuffer.putVarUInt(response_cache.size());
+			for (RemoteProcedure.Response ready : response_cache) {
+				writeBuffer.putVarUInt(ready.id);
+				writeBuffer.putBoolean(ready.error);
+				if (!ready.error) {
+					ready.procedure.writeReturn(ready.returnValue, writeBuffer);
+				}
+			}
+			response_cache.clear();
 		}
 	}
 
-	public void readRemoteProcedureResponse() throws Throwable {
-		// Get metadata
-		int id = readBuffer.getInt();
-
-		// Obtain saved procedure
-		RemoteProcedure rpc = rpc_cache.remove(id);
+	public void readRemoteProcedure() throws Throwable {
+		int count = readBuffer.getVarUInt();
+		for (int i = 0; i < count; i++) {
+			// Get some metadata
+			int id = readBuffer.getVarUInt();
+			ClassTable.Type type = classTable.readClass(readBuffer);
+
+			// One instance per procedure, calls only differ by their arguments
+			RemoteProcedure rpc = procedures.get(type.getType());
+			if (rpc == null) {
+				rpc = type.newInstance(RemoteProcedure.class);
+				procedures.put(type.getType(), rpc);
+			}
 
-		// Failed
-		if (rpc == null) {
-			throw new IllegalStateException("Received response for unknown procedure");
-		}
+			// Read arguments
+			Object[] arguments = rpc.readArgs(readBuffer);
 
-		// We shouldn't receive a return value
-		if (!rpc.hasReturnValue()) {
-			f_rpcready.set(rpc, true); // Can be reused
-			throw new IllegalStateException("Remote procedure sent a return value instead of void");
+			// The response is written in the first packet after execution
+			RemoteProcedure procedure = rpc;
+			int generation = endpointGeneration;
+			if (rpc.isThreadSafe()) {
+				getGame().getJobSystem()
+						.execute(() -> responses.offer(procedure.execute(this, generation, id, arguments)));
+			} else {
+				getGame().getPrimaryDispatcher()
+						.queueVoid(() -> responses.offer(procedure.execute(this, generation, id, arguments)), true);
+			}
 		}
-
-		// Read return value
-		rpc.readReturn(readBuffer);
-		f_rpcready.set(rpc, true); // Can be reused
-
-		// Queue callback to updater thread
-		getGame().getPrimaryDispatcher().queue(() -> rpc.executeReturnCallback());
 	}
 
-	public void readRPCAcknowledgement() throws Throwable {
-		// Read metadata
-		int id = readBuffer.getInt();
+	public void readRemoteProcedureResponse() throws Throwable {
+		int count = readBuffer.getVarUInt();
+		for (int i = 0; i < count; i++) {
+			// Get metadata
+			int id = readBuffer.getVarUInt();
+			boolean error = readBuffer.getBoolean();
+
+			// Obtain saved call
+			RemoteProcedure.Invocation invocation = pending_calls.remove(id);
+			if (invocation == null) {
+				throw new IllegalStateException("Received response for unknown procedure call " + id);
+			}
+			RemoteProcedure rpc = invocation.procedure;
 
-		// Retrieve saved procedure
-		RemoteProcedure rpc = rpc_cache.remove(id);
+			// Read return value
+			Object retVal = error ? null : rpc.readReturn(readBuffer);
+			if (error) {
+				invocation.future.completeExceptionally(
+						new EndpointException("Remote procedure " + rpc.getClass().getName() + " failed"));
+			} else {
+				invocation.future.complete(retVal);
+			}
 
-		// Shouldn't have return value
-		if (rpc.hasReturnValue()) {
-			f_rpcready.set(rpc, true); // Can be reused
-			throw new IllegalStateException("Remote procedure returned void but should have returned a value");
+			// Queue callback to updater thread
+			if (rpc.getCallback() != null) {
+				getGame().getPrimaryDispatcher().queueVoid(() -> rpc.executeCallback(retVal, error), true);
+			}
 		}
-
-		// Error occurred remotely?
-		boolean error = readBuffer.getBoolean();
-
-		// Set flags
-		f_rpcerror.set(rpc, error);
-		f_rpcready.set(rpc, true);
-
-		// Queue callback to updater
-		getGame().getPrimaryDispatcher().queue(() -> rpc.executeAckCallback());
 	}
 
 	// Utility methods
@@ -845,7 +1162,7 @@ public class ConnectionManager {
 		Logger.error("Full buffer log:");
 		StringBuilder dump = new StringBuilder();
 		for (int i = 0; i < buffer.getLimit(); i++) {
-			dump.append(buffer.asArray()[i] & 0xFF);
+			dump.append(buffer.getByteAt(i) & 0xFF);
 			dump.append(i == buffer.getLimit() - 1 ? "" : ".");
 		}
 		Logger.error(dump.toString());
@@ -907,6 +1224,29 @@ public class ConnectionManager {
 		});
 	}
 
+	protected void collect_tree(GameObject obj) {
+		dirty_objects.add(obj);
+		obj.forEachComponent((id, component) -> {
+			// Untracked components are written anyway
+			if (component.isDirtyTracked()) {
+				dirty_components.add(component);
+			}
+		});
+		obj.forEachChild((id, child) -> collect_tree(child));
+	}
+
+	protected void forget_baselines(GameObject obj) {
+		deltaEncoder.forget(DeltaEncoder.OBJECT, obj.getId());
+		obj.forEachComponent((id, component) -> deltaEncoder.forget(DeltaEncoder.COMPONENT, component.getId()));
+		obj.forEachChild((id, child) -> forget_baselines(child));
+	}
+
+	protected void forget_payloads(GameObject obj) {
+		deltaDecoder.forget(DeltaEncoder.OBJECT, obj.getId());
+		obj.forEachComponent((id, component) -> deltaDecoder.forget(DeltaEncoder.COMPONENT, component.getId()));
+		obj.forEachChild((id, child) -> forget_payloads(child));
+	}
+
 	protected void perform_delete() {
 		long func = getGame().getPrimaryDispatcher().queue(() -> {
 			delete_cache.forEach(object -> {
@@ -936,6 +1276,10 @@ public class ConnectionManager {
 		return networkComponent;
 	}
 
+	/**
+	 * @return Whether or not the next replication writes every object and
+	 *         component instead of only the dirty ones
+	 */
 	public boolean isForceReplication() {
 		return forceReplication;
 	}
@@ -949,9 +1293,44 @@ public class ConnectionManager {
 			writeBuffer = endpoint.writeBuffer;
 			readBuffer = endpoint.readBuffer;
 		}
+		if (endpoint != this.endpoint) {
+			// Calls not sent yet go through the new endpoint
+			endpointGeneration++;
+			failPendingCalls(new EndpointException("The connection was replaced before the call returned"));
+		}
 		this.endpoint = endpoint;
 	}
 
+	/**
+	 * @return The sequence number of the newest packet received
+	 */
+	public int getReceivedSequence() {
+		return receivedSequence;
+	}
+
+	/**
+	 * @return The sequence number of the newest packet the other side has
+	 *         processed
+	 */
+	public int getAcknowledgedSequence() {
+		return acknowledgedSequence;
+	}
+
+	/**
+	 * @return The sequence number the next packet will have
+	 */
+	public int getSendSequence() {
+		return sendSequence;
+	}
+
+	/**
+	 * @return The time between sending a packet and receiving the first packet
+	 *         acknowledging it, in milliseconds
+	 */
+	public long getRoundTripTime() {
+		return roundTripTime;
+	}
+
 	public ConnectionEndpoint getEndpoint() {
 		return endpoint;
 	}
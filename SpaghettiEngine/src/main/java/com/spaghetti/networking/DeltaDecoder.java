@@ -0,0 +1,267 @@
+package com.spaghetti.networking;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.spaghetti.utils.IdProvider;
+
+/**
+ * DeltaDecoder is the client side of replication delta compression, it
+ * rebuilds the payloads encoded by a {@link DeltaEncoder}
+ * <p>
+ * The payloads received for every object are kept along with the sequence
+ * number of their packet, since the server may refer to any of them until it
+ * receives our acknowledgement. Each packet tells which of our
+ * acknowledgements the server has seen, payloads older than the newest one it
+ * could know about are released, as are those older than a baseline the
+ * server referred to. If a baseline is missing anyway the decoder asks the
+ * server to start over with full payloads, repeating the request until the
+ * deltas it receives are decodable again
+ *
+ * @author bohdloss
+ *
+ */
+public final class DeltaDecoder {
+
+	// Payloads remembered at most for each replicable, in case the server
+	// stops confirming our acknowledgements
+	private static final int MAX_HISTORY = 128;
+	private static final int NO_SEQUENCE = -1;
+
+	// Payloads sorted by sequence, released arrays stay past count for reuse
+	private static final class State {
+		int id;
+		int count;
+		int[] sequences = new int[4];
+		byte[][] payloads = new byte[4][];
+		int[] lengths = new int[4];
+
+		int find(int sequence) {
+			for (int i = count - 1; i >= 0; i--) {
+				if (sequences[i] == sequence) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		// Index of the newest payload not newer than the sequence
+		int floor(int sequence) {
+			for (int i = count - 1; i >= 0; i--) {
+				if (sequences[i] <= sequence) {
+					return i;
+				}
+			}
+			return -1;
+		}
+
+		int append(int sequence) {
+			if (count == sequences.length) {
+				int capacity = count * 2;
+				sequences = Arrays.copyOf(sequences, capacity);
+				payloads = Arrays.copyOf(payloads, capacity);
+				lengths = Arrays.copyOf(lengths, capacity);
+			}
+			sequences[count] = sequence;
+			return count++;
+		}
+
+		// Releases the oldest payloads
+		void release(int amount) {
+			if (amount <= 0) {
+				return;
+			}
+			Collections.rotate(Arrays.asList(payloads).subList(0, count), -amount);
+			count -= amount;
+			System.arraycopy(sequences, amount, sequences, 0, count);
+			System.arraycopy(lengths, amount, lengths, 0, count);
+		}
+	}
+
+	private final State[][] states = { new State[64], new State[64] };
+	private int sequence = NO_SEQUENCE;
+	private int confirmed = NO_SEQUENCE;
+	// The newest packet received, and which of the 32 before it were
+	private int newest = NO_SEQUENCE;
+	private int receivedBits;
+	private boolean received;
+	private boolean resetRequested;
+	// The newest packet received when we last started over
+	private int resetPoint = NO_SEQUENCE;
+
+	// Rebuilt payloads are read from here
+	private NetworkBuffer scratch;
+	private byte[] mask = new byte[32];
+
+	/**
+	 * Called when a packet starts
+	 *
+	 * @param sequence  The sequence number written by the server
+	 * @param confirmed The newest acknowledgement the server has received
+	 */
+	public void begin(int sequence, int confirmed) {
+		this.sequence = sequence;
+		this.confirmed = confirmed;
+		this.received = true;
+
+		int age = newest - sequence;
+		if (newest == NO_SEQUENCE || age < -32) {
+			receivedBits = 0;
+			newest = sequence;
+		} else if (age < 0) {
+			receivedBits = (int) (((long) receivedBits << -age) | (1L << (-age - 1)));
+			newest = sequence;
+		} else if (age > 0 && age <= 32) {
+			receivedBits |= 1 << (age - 1);
+		}
+	}
+
+	/**
+	 * Reads a payload from the buffer, rebuilding it if it was delta encoded
+	 *
+	 * @param kind   {@link DeltaEncoder#OBJECT} or
+	 *               {@link DeltaEncoder#COMPONENT}
+	 * @param id     The id of the replicable
+	 * @param buffer The buffer, positioned on the mode byte
+	 * @param end    Where the entry ends
+	 * @return A buffer positioned at the start of the full payload, or null if
+	 *         it can't be rebuilt
+	 */
+	public NetworkBuffer decode(int kind, int id, NetworkBuffer buffer, int end) {
+		byte mode = buffer.getByte();
+		State state = getState(kind, id);
+
+		int slot, length;
+		if (mode == DeltaEncoder.FULL) {
+			length = end - buffer.getPosition();
+			slot = state.append(sequence);
+			byte[] target = reserve(state, slot, length);
+			buffer.getBytes(target, 0, length);
+		} else if (mode == DeltaEncoder.DELTA) {
+			int baselineSequence = buffer.getInt();
+			length = buffer.getShort() & 0xFFFF;
+			int baseline = state.find(baselineSequence);
+			if (baseline == -1 || state.lengths[baseline] != length) {
+				// We don't have what the server thinks we have. Deltas the
+				// server sent before handling our request refer to baselines
+				// older than the reset point, those are only dropped
+				if (baselineSequence > resetPoint) {
+					reset();
+					resetPoint = newest;
+				}
+				resetRequested = true;
+				buffer.setPosition(end);
+				return null;
+			}
+
+			// The server never goes back to an older baseline
+			state.release(baseline);
+			baseline = 0;
+
+			int words = (length + DeltaEncoder.WORD - 1) / DeltaEncoder.WORD;
+			int maskLength = (words + 7) / 8;
+			if (mask.length < maskLength) {
+				mask = new byte[maskLength * 2];
+			}
+			buffer.getBytes(mask, 0, maskLength);
+
+			slot = state.append(sequence);
+			byte[] target = reserve(state, slot, length);
+			System.arraycopy(state.payloads[baseline], 0, target, 0, length);
+			for (int word = 0; word < words; word++) {
+				if ((mask[word >> 3] & (1 << (word & 7))) != 0) {
+					int from = word * DeltaEncoder.WORD;
+					buffer.getBytes(target, from, Math.min(DeltaEncoder.WORD, length - from));
+				}
+			}
+		} else {
+			throw new IllegalStateException("Invalid payload mode " + mode);
+		}
+		state.lengths[slot] = length;
+		byte[] payload = state.payloads[slot];
+
+		// Baselines of the server can only be as new as the acknowledgements it
+		// received, anything older than that is never referred to again
+		int oldest = Math.max(state.floor(confirmed), state.count - MAX_HISTORY);
+		state.release(oldest);
+
+		if (scratch == null || scratch.getSize() < length) {
+			scratch = new NetworkBuffer(buffer.getSymbolTable(), Math.max(length, 1024));
+		}
+		scratch.clear();
+		scratch.putBytes(payload, 0, length);
+		scratch.flip();
+		return scratch;
+	}
+
+	/**
+	 * Writes the acknowledgement of the newest packet received and of those
+	 * received among the 32 before it, if any
+	 *
+	 * @param buffer The buffer
+	 */
+	public void writeAcknowledgement(NetworkBuffer buffer) {
+		if (!received && !resetRequested) {
+			return;
+		}
+		buffer.putByte(Opcode.DELTA_ACK);
+		buffer.putInt(newest);
+		buffer.putInt(receivedBits);
+		buffer.putBoolean(resetRequested);
+		if (resetRequested) {
+			buffer.putInt(resetPoint);
+		}
+		received = false;
+		resetRequested = false;
+	}
+
+	public void reset() {
+		for (State[] kind : states) {
+			Arrays.fill(kind, null);
+		}
+	}
+
+	/**
+	 * Releases the payloads of a replicable the server destroyed
+	 *
+	 * @param kind {@link DeltaEncoder#OBJECT} or {@link DeltaEncoder#COMPONENT}
+	 * @param id   The id of the replicable
+	 */
+	public void forget(int kind, int id) {
+		State[] array = states[kind];
+		int index = IdProvider.indexOf(id);
+		if (index < array.length && array[index] != null && array[index].id == id) {
+			array[index] = null;
+		}
+	}
+
+	private State getState(int kind, int id) {
+		State[] array = states[kind];
+		int index = IdProvider.indexOf(id);
+		if (index >= array.length) {
+			array = Arrays.copyOf(array, Math.max(index + 1, array.length * 2));
+			states[kind] = array;
+		}
+		State state = array[index];
+		if (state == null || state.id != id) {
+			state = new State();
+			state.id = id;
+			array[index] = state;
+		}
+		return state;
+	}
+
+	private static byte[] reserve(State state, int slot, int length) {
+		byte[] payload = state.payloads[slot];
+		if (payload == null || payload.length < length) {
+			payload = new byte[Math.max(length, 32)];
+			state.payloads[slot] = payload;
+		}
+		return payload;
+	}
+
+	public int getSequence() {
+		return sequence;
+	}
+
+}
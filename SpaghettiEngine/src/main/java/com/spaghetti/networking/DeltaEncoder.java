@@ -0,0 +1,356 @@
+package com.spaghetti.networking;
+
+import java.util.Arrays;
+
+import com.spaghetti.utils.IdProvider;
+import com.spaghetti.world.Level;
+
+/**
+ * DeltaEncoder is the server side of replication delta compression, one
+ * exists for each connection
+ * <p>
+ * Every replication payload sent is remembered along with the sequence number
+ * of its packet. The client acknowledges every packet it received, the
+ * payloads in those become the baseline of their objects while those in
+ * packets that were lost are forgotten. A payload is then encoded as a bitmask
+ * of the {@value #WORD} byte words that differ from the baseline followed by
+ * only those words, or dropped altogether when it matches a baseline the
+ * client already has. Without a baseline the full payload is sent
+ *
+ * @author bohdloss
+ *
+ */
+public final class DeltaEncoder {
+
+	// Payload modes on the wire
+	public static final byte FULL = 0;
+	public static final byte DELTA = 1;
+
+	public static final int WORD = 4;
+	public static final int OBJECT = 0;
+	public static final int COMPONENT = 1;
+
+	// Unacknowledged packets remembered at most
+	private static final int MAX_PENDING = 256;
+	// Packets before the newest one the client reports on
+	private static final int ACK_WINDOW = 32;
+	private static final int NO_SEQUENCE = -1;
+	private static final byte FORGOTTEN = -1;
+
+	private static final class State {
+		int id;
+		byte[] baseline = new byte[32];
+		int baselineLength;
+		int baselineSequence = NO_SEQUENCE;
+		int lastSentSequence = NO_SEQUENCE;
+	}
+
+	private static final class Packet {
+		int sequence;
+		int count;
+		int[] ids = new int[64];
+		byte[] kinds = new byte[64];
+		int[] offsets = new int[64];
+		int[] lengths = new int[64];
+		byte[] data = new byte[1024];
+		int used;
+
+		void add(int kind, int id, byte[] payload, int length) {
+			if (count == ids.length) {
+				int capacity = count * 2;
+				ids = Arrays.copyOf(ids, capacity);
+				kinds = Arrays.copyOf(kinds, capacity);
+				offsets = Arrays.copyOf(offsets, capacity);
+				lengths = Arrays.copyOf(lengths, capacity);
+			}
+			if (used + length > data.length) {
+				data = Arrays.copyOf(data, Math.max(data.length * 2, used + length));
+			}
+			System.arraycopy(payload, 0, data, used, length);
+			ids[count] = id;
+			kinds[count] = (byte) kind;
+			offsets[count] = used;
+			lengths[count] = length;
+			used += length;
+			count++;
+		}
+	}
+
+	private final State[][] states = { new State[64], new State[64] };
+	private final Packet[] pending = new Packet[MAX_PENDING];
+	private int pendingStart, pendingCount;
+	private Packet current;
+	private int sequence;
+	private int acknowledged = NO_SEQUENCE;
+	// The last packet sent before baselines were forgotten
+	private int resetSequence = NO_SEQUENCE;
+
+	// Scratch
+	private byte[] payload = new byte[256];
+	private byte[] mask = new byte[32];
+
+	// Statistics
+	private long fullBytes, sentBytes;
+
+	/**
+	 * Starts a new packet
+	 *
+	 * @return The sequence number to write in the packet
+	 */
+	public int begin() {
+		if (pendingCount == MAX_PENDING) {
+			// The client is too far behind, and it may be relying on any of
+			// these packets, so start over instead of guessing
+			reset();
+		}
+		int index = (pendingStart + pendingCount) % MAX_PENDING;
+		if (pending[index] == null) {
+			pending[index] = new Packet();
+		}
+		current = pending[index];
+		current.sequence = ++sequence;
+		pendingCount++;
+		return current.sequence;
+	}
+
+	/**
+	 * Encodes the payload written to the buffer in
+	 * {@code [start, buffer.getPosition())}, which must be preceded by a
+	 * {@link #FULL} mode byte. The payload is replaced by a delta when that is
+	 * smaller
+	 *
+	 * @param kind   {@link #OBJECT} or {@link #COMPONENT}
+	 * @param id     The id of the replicable
+	 * @param buffer The buffer
+	 * @param start  Where the payload starts
+	 * @return False if the client already has this exact state, in which case
+	 *         the caller should drop the whole entry
+	 */
+	public boolean encode(int kind, int id, NetworkBuffer buffer, int start) {
+		int length = buffer.getPosition() - start;
+		if (payload.length < length) {
+			payload = new byte[Math.max(length, payload.length * 2)];
+		}
+		buffer.getBytesAt(start, payload, 0, length);
+		fullBytes += length + 1;
+
+		State state = getState(kind, id);
+		if (state.baselineSequence != NO_SEQUENCE && state.baselineLength == length) {
+			int words = (length + WORD - 1) / WORD;
+			int maskLength = (words + 7) / 8;
+			if (mask.length < maskLength) {
+				mask = new byte[maskLength * 2];
+			}
+			Arrays.fill(mask, 0, maskLength, (byte) 0);
+
+			int changedBytes = 0;
+			for (int word = 0; word < words; word++) {
+				int from = word * WORD;
+				int to = Math.min(from + WORD, length);
+				for (int i = from; i < to; i++) {
+					if (payload[i] != state.baseline[i]) {
+						mask[word >> 3] |= 1 << (word & 7);
+						changedBytes += to - from;
+						break;
+					}
+				}
+			}
+
+			if (changedBytes == 0 && state.lastSentSequence <= state.baselineSequence) {
+				// Nothing changed since the state the client acknowledged
+				return false;
+			}
+
+			int deltaLength = Integer.BYTES + Short.BYTES + maskLength + changedBytes;
+			if (deltaLength < length) {
+				buffer.setPosition(start - 1);
+				buffer.putByte(DELTA);
+				buffer.putInt(state.baselineSequence);
+				buffer.putShort((short) length);
+				buffer.putBytes(mask, 0, maskLength);
+				for (int word = 0; word < words; word++) {
+					if ((mask[word >> 3] & (1 << (word & 7))) != 0) {
+						int from = word * WORD;
+						buffer.putBytes(payload, from, Math.min(WORD, length - from));
+					}
+				}
+			}
+		}
+
+		sentBytes += buffer.getPosition() - start + 1;
+		state.lastSentSequence = current.sequence;
+		current.add(kind, id, payload, length);
+		return true;
+	}
+
+	/**
+	 * Called when the client reports the packets it received. The payloads in
+	 * those become baselines, older packets missing from the report were lost
+	 * and are forgotten. If every report about a packet was lost, nothing can
+	 * be assumed about it and the baselines are all forgotten
+	 *
+	 * @param acknowledged The newest sequence number received
+	 * @param bits         Bit {@code n} tells if {@code acknowledged - 1 - n}
+	 *                     was received
+	 */
+	public void acknowledge(int acknowledged, int bits) {
+		this.acknowledged = Math.max(this.acknowledged, acknowledged);
+		while (pendingCount > 0) {
+			Packet packet = pending[pendingStart];
+			int age = acknowledged - packet.sequence;
+			if (age < 0) {
+				break;
+			}
+			if (age > ACK_WINDOW) {
+				reset();
+				return;
+			}
+			boolean received = age == 0 || (bits & (1 << (age - 1))) != 0;
+			for (int i = 0; received && i < packet.count; i++) {
+				if (packet.kinds[i] == FORGOTTEN) {
+					continue;
+				}
+				State state = getState(packet.kinds[i], packet.ids[i]);
+				int length = packet.lengths[i];
+				if (state.baseline.length < length) {
+					state.baseline = new byte[Math.max(length, state.baseline.length * 2)];
+				}
+				System.arraycopy(packet.data, packet.offsets[i], state.baseline, 0, length);
+				state.baselineLength = length;
+				state.baselineSequence = packet.sequence;
+			}
+			recycle(packet);
+			pendingStart = (pendingStart + 1) % MAX_PENDING;
+			pendingCount--;
+		}
+	}
+
+	/**
+	 * Called when the client lost track of its baselines
+	 *
+	 * @param point The newest packet the client had received when it did
+	 * @return False if the request was already handled, because baselines
+	 *         were forgotten after that packet was sent
+	 */
+	public boolean reset(int point) {
+		if (point <= resetSequence) {
+			return false;
+		}
+		reset();
+		return true;
+	}
+
+	/**
+	 * Forgets every baseline, so the next payloads are sent in full
+	 */
+	public void reset() {
+		acknowledged = NO_SEQUENCE;
+		resetSequence = sequence;
+		for (State[] kind : states) {
+			Arrays.fill(kind, null);
+		}
+		while (pendingCount > 0) {
+			recycle(pending[pendingStart]);
+			pendingStart = (pendingStart + 1) % MAX_PENDING;
+			pendingCount--;
+		}
+	}
+
+	/**
+	 * Forgets the baseline of a single replicable, used when the client
+	 * destroyed its copy, so the next payload is sent in full
+	 *
+	 * @param kind {@link #OBJECT} or {@link #COMPONENT}
+	 * @param id   The id of the replicable
+	 */
+	public void forget(int kind, int id) {
+		State[] array = states[kind];
+		int index = IdProvider.indexOf(id);
+		if (index < array.length && array[index] != null && array[index].id == id) {
+			array[index] = null;
+		}
+
+		// Payloads still waiting for an acknowledgement must not become baselines
+		for (int i = 0; i < pendingCount; i++) {
+			Packet packet = pending[(pendingStart + i) % MAX_PENDING];
+			for (int j = 0; j < packet.count; j++) {
+				if (packet.kinds[j] == kind && packet.ids[j] == id) {
+					packet.kinds[j] = FORGOTTEN;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Releases the baselines of objects and components that no longer exist
+	 *
+	 * @param level The level being replicated
+	 */
+	public void prune(Level level) {
+		for (int kind = 0; kind < states.length; kind++) {
+			State[] array = states[kind];
+			for (int i = 0; i < array.length; i++) {
+				State state = array[i];
+				if (state != null) {
+					boolean alive = kind == OBJECT ? level.getObject(state.id) != null
+							: level.getComponent(state.id) != null;
+					if (!alive) {
+						array[i] = null;
+					}
+				}
+			}
+		}
+	}
+
+	private State getState(int kind, int id) {
+		State[] array = states[kind];
+		int index = IdProvider.indexOf(id);
+		if (index >= array.length) {
+			array = Arrays.copyOf(array, Math.max(index + 1, array.length * 2));
+			states[kind] = array;
+		}
+		State state = array[index];
+		if (state == null || state.id != id) {
+			// New id, or an older generation lived in this slot
+			state = new State();
+			state.id = id;
+			array[index] = state;
+		}
+		return state;
+	}
+
+	private static void recycle(Packet packet) {
+		packet.count = 0;
+		packet.used = 0;
+	}
+
+	// Getters
+
+	public int getSequence() {
+		return sequence;
+	}
+
+	/**
+	 * @return The newest sequence the client acknowledged, sent along with
+	 *         every packet so that the client can release older payloads
+	 */
+	public int getAcknowledged() {
+		return acknowledged;
+	}
+
+	/**
+	 * @return The bytes replication payloads would have taken without delta
+	 *         compression
+	 */
+	public long getFullBytes() {
+		return fullBytes;
+	}
+
+	/**
+	 * @return The bytes replication payloads actually took
+	 */
+	public long getSentBytes() {
+		return sentBytes;
+	}
+
+}
@@ -0,0 +1,175 @@
+package com.spaghetti.networking;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.joml.Vector3f;
+
+import com.spaghetti.world.GameObject;
+import com.spaghetti.world.Level;
+import com.spaghetti.world.spatial.SpatialIndex;
+
+/**
+ * InterestSet keeps track of the top level objects that are relevant to a
+ * client, only those and their children are replicated to it
+ * <p>
+ * An object is relevant when it is within a radius of the player of the
+ * client, when it shares a relevance group with the client or when it holds
+ * the player. Objects enter the set within the radius but only leave it past
+ * the radius times the hysteresis, so those near the edge don't keep
+ * spawning and despawning. With a spatial index only the neighbourhood of
+ * the player is visited, otherwise every top level object is checked
+ * <p>
+ * While the client has no player everything is relevant
+ *
+ * @author bohdloss
+ *
+ */
+public class InterestSet {
+
+	protected Set<GameObject> relevant = Collections.newSetFromMap(new IdentityHashMap<>(256));
+	protected Set<GameObject> next = Collections.newSetFromMap(new IdentityHashMap<>(256));
+	protected boolean everything = true;
+
+	// Changes of the last update
+	protected final ArrayList<GameObject> entered = new ArrayList<>();
+	protected final ArrayList<GameObject> left = new ArrayList<>();
+
+	// Update scratch
+	protected final Vector3f center = new Vector3f();
+	protected final Vector3f position = new Vector3f();
+	protected Level level;
+	protected float enterDistance, leaveDistance;
+
+	/**
+	 * Makes everything relevant, used when the client receives the whole level
+	 */
+	public void reset() {
+		relevant.clear();
+		entered.clear();
+		left.clear();
+		everything = true;
+	}
+
+	/**
+	 * Recomputes which objects are relevant, the differences are available
+	 * from {@link #getEntered()} and {@link #getLeft()}
+	 *
+	 * @param level      The level being replicated
+	 * @param player     The player of the client, may be null
+	 * @param groups     The relevance groups of the client
+	 * @param radius     The radius objects enter the set at, disabled if not
+	 *                   positive
+	 * @param hysteresis How much farther than the radius objects leave the set
+	 */
+	public void update(Level level, GameObject player, int groups, float radius, float hysteresis) {
+		entered.clear();
+		left.clear();
+
+		if (player == null || radius <= 0) {
+			if (!everything) {
+				// What the client didn't have until now
+				for (GameObject object : level.getSnapshot()) {
+					if (!relevant.contains(object)) {
+						entered.add(object);
+					}
+				}
+				relevant.clear();
+				everything = true;
+			}
+			return;
+		}
+
+		if (everything) {
+			// The client has the whole level, filtering starts from there
+			Collections.addAll(relevant, level.getSnapshot());
+			everything = false;
+		}
+
+		this.level = level;
+		float outer = radius * Math.max(hysteresis, 1);
+		enterDistance = radius * radius;
+		leaveDistance = outer * outer;
+		player.getWorldPosition(center);
+		next.clear();
+
+		// Near the player
+		SpatialIndex spatial = level.getSpatialIndex();
+		if (spatial != null) {
+			spatial.querySphere(center, outer, object -> consider(object.getBase()));
+		} else {
+			for (GameObject object : level.getSnapshot()) {
+				consider(object);
+			}
+		}
+
+		// Explicitly relevant
+		if (groups != 0) {
+			for (GameObject object : level.getSnapshot()) {
+				if ((object.getRelevanceGroups() & groups) != 0) {
+					next.add(object);
+				}
+			}
+		}
+		GameObject base = player.getBase();
+		if (level.getObject(base.getId()) == base) {
+			next.add(base);
+		}
+		this.level = null;
+
+		for (GameObject object : next) {
+			if (!relevant.contains(object)) {
+				entered.add(object);
+			}
+		}
+		for (GameObject object : relevant) {
+			// Objects no longer in the level are destroyed by other means
+			if (!next.contains(object) && level.getObject(object.getId()) == object) {
+				left.add(object);
+			}
+		}
+
+		Set<GameObject> swap = relevant;
+		relevant = next;
+		next = swap;
+	}
+
+	protected void consider(GameObject object) {
+		if (next.contains(object) || object.getParent() != null || level.getObject(object.getId()) != object) {
+			return;
+		}
+		object.getWorldPosition(position);
+		float distance = position.distanceSquared(center);
+		if (distance <= enterDistance || (distance <= leaveDistance && relevant.contains(object))) {
+			next.add(object);
+		}
+	}
+
+	/**
+	 * Checks whether an object, or the top level object it belongs to, is
+	 * relevant
+	 *
+	 * @param object The object
+	 * @return The result
+	 */
+	public boolean isRelevant(GameObject object) {
+		return everything || relevant.contains(object.getBase());
+	}
+
+	// Getters
+
+	public ArrayList<GameObject> getEntered() {
+		return entered;
+	}
+
+	public ArrayList<GameObject> getLeft() {
+		return left;
+	}
+
+	public boolean isEverythingRelevant() {
+		return everything;
+	}
+
+}
@@ -4,11 +4,27 @@ import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.Charset;
 
-import com.spaghetti.utils.HashUtil;
-import com.spaghetti.utils.StringCacher;
-import com.spaghetti.utils.Logger;
+import org.joml.Quaternionf;
+import org.joml.Vector3f;
+
+import com.spaghetti.assets.Asset;
+import com.spaghetti.assets.AssetManager;
 import com.spaghetti.utils.ThreadUtil;
 
+/**
+ * NetworkBuffer is where packets are written and read
+ * <p>
+ * The memory is a direct buffer from the {@link BufferPool}, which starts
+ * small and grows as needed up to the size the buffer was created with, past
+ * which writes fail with a {@link java.nio.BufferOverflowException}. Being
+ * direct, sockets and native compressors work on it without copying.
+ * {@link #trim()} gives the memory of a grown buffer back when it's mostly
+ * unused, {@link #detach()} and {@link #adopt(ByteBuffer)} move packets in
+ * and out without copying them
+ *
+ * @author bohdloss
+ *
+ */
 public final class NetworkBuffer {
 
 	public static final byte b0 = (byte) 0, b1 = (byte) 1;
@@ -19,28 +35,52 @@ public final class NetworkBuffer {
 	public static final Charset US_ASCII = Charset.forName("US-ASCII");
 	public static final Charset ISO_8859_1 = Charset.forName("ISO-8859-1");
 	public static final ByteOrder ORDER = ByteOrder.BIG_ENDIAN;
+	public static final int INITIAL_SIZE = 4096;
 
 	protected ByteBuffer buffer;
-	protected final StringCacher strcache;
+	protected final SymbolTable symbols;
+
+	// Growth
+	protected final int initialSize, maxSize;
+	protected int limit;
+	protected int peak;
 
-	public NetworkBuffer(StringCacher strcache, int size) {
-		this.strcache = strcache;
-		buffer = ByteBuffer.allocate(size);
-		buffer.order(ORDER);
+	// Bit stream
+	protected boolean bitMode;
+	protected long writeBits, readBits;
+	protected int writeBitCount, readBitCount;
+
+	public NetworkBuffer(SymbolTable symbols, int size) {
+		this(symbols, Math.min(size, INITIAL_SIZE), size);
+	}
+
+	public NetworkBuffer(SymbolTable symbols, int initialSize, int size) {
+		if (initialSize < 0 || initialSize > size) {
+			throw new IllegalArgumentException("Invalid initial size " + initialSize);
+		}
+		this.symbols = symbols;
+		this.initialSize = initialSize;
+		this.maxSize = size;
+		buffer = BufferPool.acquire(initialSize);
+		clear();
 	}
 
 	// Getters and setters
 
 	// Double
 	public void putDouble(double v) {
+		checkAligned();
+		ensure(Double.BYTES);
 		buffer.putDouble(v);
 	}
 
 	public void putDoubleAt(int index, double v) {
+		ensure(index, Double.BYTES);
 		buffer.putDouble(index, v);
 	}
 
 	public double getDouble() {
+		checkAligned();
 		return buffer.getDouble();
 	}
 
@@ -50,14 +90,18 @@ public final class NetworkBuffer {
 
 	// Int
 	public void putInt(int v) {
+		checkAligned();
+		ensure(Integer.BYTES);
 		buffer.putInt(v);
 	}
 
 	public void putIntAt(int index, int v) {
+		ensure(index, Integer.BYTES);
 		buffer.putInt(index, v);
 	}
 
 	public int getInt() {
+		checkAligned();
 		return buffer.getInt();
 	}
 
@@ -67,14 +111,18 @@ public final class NetworkBuffer {
 
 	// Short
 	public void putShort(short v) {
+		checkAligned();
+		ensure(Short.BYTES);
 		buffer.putShort(v);
 	}
 
 	public void putShortAt(int index, short v) {
+		ensure(index, Short.BYTES);
 		buffer.putShort(index, v);
 	}
 
 	public short getShort() {
+		checkAligned();
 		return buffer.getShort();
 	}
 
@@ -84,14 +132,18 @@ public final class NetworkBuffer {
 
 	// Long
 	public void putLong(long v) {
+		checkAligned();
+		ensure(Long.BYTES);
 		buffer.putLong(v);
 	}
 
 	public void putLongAt(int index, long v) {
+		ensure(index, Long.BYTES);
 		buffer.putLong(index, v);
 	}
 
 	public long getLong() {
+		checkAligned();
 		return buffer.getLong();
 	}
 
@@ -101,14 +153,18 @@ public final class NetworkBuffer {
 
 	// Float
 	public void putFloat(float v) {
+		checkAligned();
+		ensure(Float.BYTES);
 		buffer.putFloat(v);
 	}
 
 	public void putFloatAt(int index, float v) {
+		ensure(index, Float.BYTES);
 		buffer.putFloat(index, v);
 	}
 
 	public float getFloat() {
+		checkAligned();
 		return buffer.getFloat();
 	}
 
@@ -118,14 +174,18 @@ public final class NetworkBuffer {
 
 	// Char
 	public void putChar(char v) {
+		checkAligned();
+		ensure(Character.BYTES);
 		buffer.putChar(v);
 	}
 
 	public void putCharAt(int index, char v) {
+		ensure(index, Character.BYTES);
 		buffer.putChar(index, v);
 	}
 
 	public char getChar() {
+		checkAligned();
 		return buffer.getChar();
 	}
 
@@ -135,14 +195,18 @@ public final class NetworkBuffer {
 
 	// Byte
 	public void putByte(byte v) {
+		checkAligned();
+		ensure(Byte.BYTES);
 		buffer.put(v);
 	}
 
 	public void putByteAt(int index, byte v) {
+		ensure(index, Byte.BYTES);
 		buffer.put(index, v);
 	}
 
 	public byte getByte() {
+		checkAligned();
 		return buffer.get();
 	}
 
@@ -151,13 +215,15 @@ public final class NetworkBuffer {
 	}
 
 	public void putBytes(byte[] buf, int buf_offset, int amount) {
+		checkAligned();
+		ensure(amount);
 		buffer.put(buf, buf_offset, amount);
 	}
 
 	public void putBytesAt(int index, byte[] buf, int buf_offset, int amount) {
 		int position = buffer.position();
 		try {
-			buffer.position(index);
+			setPosition(index);
 			putBytes(buf, buf_offset, amount);
 		} finally {
 			buffer.position(position);
@@ -173,6 +239,7 @@ public final class NetworkBuffer {
 	}
 
 	public void getBytes(byte[] buf, int buf_offset, int amount) {
+		checkAligned();
 		buffer.get(buf, buf_offset, amount);
 	}
 
@@ -196,14 +263,18 @@ public final class NetworkBuffer {
 
 	// Boolean
 	public void putBoolean(boolean v) {
+		checkAligned();
+		ensure(Byte.BYTES);
 		buffer.put(v ? b1 : b0);
 	}
 
 	public void putBooleanAt(int index, boolean v) {
+		ensure(index, Byte.BYTES);
 		buffer.put(index, v ? b1 : b0);
 	}
 
 	public boolean getBoolean() {
+		checkAligned();
 		return buffer.get() != b0;
 	}
 
@@ -213,21 +284,13 @@ public final class NetworkBuffer {
 
 	// String
 	public void putString(boolean cache, String v, Charset charset) {
+		checkAligned();
 		if (cache) {
-			short hash = HashUtil.shortHash(v);
-			buffer.putShort(hash);
-			if (!strcache.containsString(hash)) {
-				strcache.cacheString(hash, v);
-			} else {
-				// Contains hash but different string?
-				String cachedStr = strcache.getCachedString(hash);
-				if(!cachedStr.equals(v)) {
-					Logger.warning("String \"" + v + "\" has same hash (" + hash + ") as string " + cachedStr);
-				}
-				return;
-			}
+			symbols.write(this, v, charset);
+			return;
 		}
 		byte[] array = v.getBytes(charset);
+		ensure(Short.BYTES + array.length);
 		buffer.putShort((short) array.length);
 		buffer.put(array);
 	}
@@ -239,7 +302,7 @@ public final class NetworkBuffer {
 	public void putStringAt(int index, boolean cache, String v, Charset charset) {
 		int position = buffer.position();
 		try {
-			buffer.position(index);
+			setPosition(index);
 			putString(cache, v, charset);
 		} finally {
 			buffer.position(position);
@@ -259,18 +322,9 @@ public final class NetworkBuffer {
 	}
 
 	public String getString(boolean cache, Charset charset) {
+		checkAligned();
 		if (cache) {
-			short hash = buffer.getShort();
-			if (!strcache.containsString(hash)) {
-				short length = buffer.getShort();
-				byte[] bytes = new byte[length];
-				buffer.get(bytes, 0, length);
-				String str = new String(bytes, charset);
-				strcache.cacheString(hash, str);
-				return str;
-			} else {
-				return strcache.getCachedString(hash);
-			}
+			return symbols.read(this, charset);
 		}
 		short length = buffer.getShort();
 		byte[] bytes = new byte[length];
@@ -305,6 +359,258 @@ public final class NetworkBuffer {
 		return getStringAt(index, UTF_8);
 	}
 
+	// Asset
+
+	public void putAsset(Asset asset) {
+		checkAligned();
+		symbols.writeAsset(this, asset);
+	}
+
+	public <T extends Asset> T getAsset(AssetManager manager) {
+		checkAligned();
+		return symbols.readAsset(this, manager);
+	}
+
+	// Bit stream
+
+	/**
+	 * Starts packing values at the bit level, until {@link #endBits()} is
+	 * called only the bit stream methods may be used, the byte aligned ones
+	 * throw an {@link IllegalStateException}
+	 * <p>
+	 * The bit stream methods also work outside of bit mode, each value then
+	 * takes up a whole number of bytes
+	 */
+	public void beginBits() {
+		if (bitMode) {
+			throw new IllegalStateException("Already in bit mode");
+		}
+		bitMode = true;
+		writeBits = readBits = 0;
+		writeBitCount = readBitCount = 0;
+	}
+
+	/**
+	 * Goes back to byte aligned mode, the last partial byte written is padded
+	 * with zeroes and the unread bits of the last byte read are discarded
+	 */
+	public void endBits() {
+		if (!bitMode) {
+			throw new IllegalStateException("Not in bit mode");
+		}
+		if (writeBitCount > 0) {
+			ensure(Byte.BYTES);
+			buffer.put((byte) (writeBits << (8 - writeBitCount)));
+		}
+		bitMode = false;
+		writeBits = readBits = 0;
+		writeBitCount = readBitCount = 0;
+	}
+
+	public boolean isBitMode() {
+		return bitMode;
+	}
+
+	// The byte aligned methods would skip over the bits not yet flushed
+	protected void checkAligned() {
+		if (bitMode) {
+			throw new IllegalStateException("Byte aligned access in bit mode");
+		}
+	}
+
+	// Raw bits
+	public void putBits(int value, int count) {
+		if (count < 0 || count > 32) {
+			throw new IllegalArgumentException("Invalid bit count " + count);
+		}
+		long masked = value & ((1L << count) - 1);
+		if (!bitMode) {
+			ensure((count + 7) / 8);
+			for (int i = (count + 7) / 8 - 1; i >= 0; i--) {
+				buffer.put((byte) (masked >>> (i * 8)));
+			}
+			return;
+		}
+		writeBits = (writeBits << count) | masked;
+		writeBitCount += count;
+		while (writeBitCount >= 8) {
+			writeBitCount -= 8;
+			ensure(Byte.BYTES);
+			buffer.put((byte) (writeBits >>> writeBitCount));
+		}
+		writeBits &= (1L << writeBitCount) - 1;
+	}
+
+	public int getBits(int count) {
+		if (count < 0 || count > 32) {
+			throw new IllegalArgumentException("Invalid bit count " + count);
+		}
+		long mask = (1L << count) - 1;
+		if (!bitMode) {
+			long value = 0;
+			for (int i = (count + 7) / 8; i > 0; i--) {
+				value = (value << 8) | (buffer.get() & 0xFF);
+			}
+			return (int) (value & mask);
+		}
+		while (readBitCount < count) {
+			readBits = (readBits << 8) | (buffer.get() & 0xFF);
+			readBitCount += 8;
+		}
+		readBitCount -= count;
+		int value = (int) ((readBits >>> readBitCount) & mask);
+		readBits &= (1L << readBitCount) - 1;
+		return value;
+	}
+
+	// Bit
+	public void putBit(boolean v) {
+		putBits(v ? 1 : 0, 1);
+	}
+
+	public boolean getBit() {
+		return getBits(1) != 0;
+	}
+
+	// Variable length int, small values take less space
+	public void putVarUInt(int v) {
+		while ((v & ~0x7F) != 0) {
+			putBits((v & 0x7F) | 0x80, 8);
+			v >>>= 7;
+		}
+		putBits(v, 8);
+	}
+
+	public int getVarUInt() {
+		int value = 0;
+		for (int shift = 0; shift < 35; shift += 7) {
+			int group = getBits(8);
+			value |= (group & 0x7F) << shift;
+			if ((group & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalStateException("Malformed variable length int");
+	}
+
+	// Zig-zag encoded, small negative values take less space too
+	public void putVarInt(int v) {
+		putVarUInt((v << 1) ^ (v >> 31));
+	}
+
+	public int getVarInt() {
+		int v = getVarUInt();
+		return (v >>> 1) ^ -(v & 1);
+	}
+
+	// Quantized float, clamped to [min, max]
+	public void putQuantizedFloat(float v, float min, float max, int bits) {
+		long steps = (1L << bits) - 1;
+		float clamped = Math.max(min, Math.min(max, v));
+		float normalized = max > min ? (clamped - min) / (max - min) : 0;
+		putBits((int) Math.round(normalized * (double) steps), bits);
+	}
+
+	public float getQuantizedFloat(float min, float max, int bits) {
+		long steps = (1L << bits) - 1;
+		long quantized = getBits(bits) & 0xFFFFFFFFL;
+		return (float) (min + (max - min) * (quantized / (double) steps));
+	}
+
+	/**
+	 * Calculates the bits needed by a quantized float to have the given
+	 * precision in a range
+	 *
+	 * @param min       The minimum value
+	 * @param max       The maximum value
+	 * @param precision The largest acceptable error
+	 * @return The amount of bits, at most 32
+	 */
+	public static int bitsFor(float min, float max, float precision) {
+		double steps = Math.ceil((max - min) / (2.0 * precision)) + 1;
+		int bits = 64 - Long.numberOfLeadingZeros((long) Math.min(steps, Integer.MAX_VALUE * 2.0) - 1);
+		return Math.max(1, Math.min(32, bits));
+	}
+
+	// Quantized vector
+	public void putQuantizedVector3f(Vector3f v, float min, float max, int bits) {
+		putQuantizedFloat(v.x, min, max, bits);
+		putQuantizedFloat(v.y, min, max, bits);
+		putQuantizedFloat(v.z, min, max, bits);
+	}
+
+	public Vector3f getQuantizedVector3f(Vector3f dest, float min, float max, int bits) {
+		dest.x = getQuantizedFloat(min, max, bits);
+		dest.y = getQuantizedFloat(min, max, bits);
+		dest.z = getQuantizedFloat(min, max, bits);
+		return dest;
+	}
+
+	// Normalized quaternion, the largest component is left out and rebuilt
+	// from the other three
+	private static final float QUATERNION_RANGE = (float) (1 / Math.sqrt(2));
+
+	public void putQuantizedQuaternion(Quaternionf q, int bits) {
+		float length = (float) Math.sqrt(q.x * q.x + q.y * q.y + q.z * q.z + q.w * q.w);
+		float x = q.x, y = q.y, z = q.z, w = q.w;
+		if (length > 0) {
+			x /= length;
+			y /= length;
+			z /= length;
+			w /= length;
+		} else {
+			w = 1;
+		}
+
+		int largest = 0;
+		float max = Math.abs(x);
+		if (Math.abs(y) > max) {
+			largest = 1;
+			max = Math.abs(y);
+		}
+		if (Math.abs(z) > max) {
+			largest = 2;
+			max = Math.abs(z);
+		}
+		if (Math.abs(w) > max) {
+			largest = 3;
+		}
+		// q and -q are the same rotation, make the missing one positive
+		float sign = (largest == 0 ? x : largest == 1 ? y : largest == 2 ? z : w) < 0 ? -1 : 1;
+
+		putBits(largest, 2);
+		if (largest != 0) {
+			putQuantizedFloat(x * sign, -QUATERNION_RANGE, QUATERNION_RANGE, bits);
+		}
+		if (largest != 1) {
+			putQuantizedFloat(y * sign, -QUATERNION_RANGE, QUATERNION_RANGE, bits);
+		}
+		if (largest != 2) {
+			putQuantizedFloat(z * sign, -QUATERNION_RANGE, QUATERNION_RANGE, bits);
+		}
+		if (largest != 3) {
+			putQuantizedFloat(w * sign, -QUATERNION_RANGE, QUATERNION_RANGE, bits);
+		}
+	}
+
+	public Quaternionf getQuantizedQuaternion(Quaternionf dest, int bits) {
+		int largest = getBits(2);
+		float a = getQuantizedFloat(-QUATERNION_RANGE, QUATERNION_RANGE, bits);
+		float b = getQuantizedFloat(-QUATERNION_RANGE, QUATERNION_RANGE, bits);
+		float c = getQuantizedFloat(-QUATERNION_RANGE, QUATERNION_RANGE, bits);
+		float missing = (float) Math.sqrt(Math.max(0, 1 - a * a - b * b - c * c));
+		switch (largest) {
+		case 0:
+			return dest.set(missing, a, b, c);
+		case 1:
+			return dest.set(a, missing, b, c);
+		case 2:
+			return dest.set(a, b, missing, c);
+		default:
+			return dest.set(a, b, c, missing);
+		}
+	}
+
 	// Generic
 	public void putObject(Object obj) {
 		if (obj instanceof Integer) {
@@ -357,10 +663,20 @@ public final class NetworkBuffer {
 	// Utility
 
 	public void skip(int amount) {
-		buffer.position(buffer.position() + amount);
+		setPosition(buffer.position() + amount);
 	}
 
+	/**
+	 * @return The size the buffer may grow up to
+	 */
 	public int getSize() {
+		return maxSize;
+	}
+
+	/**
+	 * @return The size of the memory currently held
+	 */
+	public int getCapacity() {
 		return buffer.capacity();
 	}
 
@@ -369,7 +685,7 @@ public final class NetworkBuffer {
 	}
 
 	public int getFreeSpace() {
-		return buffer.remaining();
+		return limit - buffer.position();
 	}
 
 	public int getPosition() {
@@ -377,26 +693,37 @@ public final class NetworkBuffer {
 	}
 
 	public void setPosition(int position) {
+		if (position > limit) {
+			throw new IllegalArgumentException("Position " + position + " is past the limit " + limit);
+		}
+		if (position > buffer.limit()) {
+			grow(position);
+		}
 		buffer.position(position);
 	}
 
 	public int getLimit() {
-		return buffer.limit();
+		return limit;
 	}
 
 	public void setLimit(int limit) {
-		buffer.limit(limit);
-	}
-
-	public byte[] asArray() {
-		return buffer.array();
+		if (limit < 0 || limit > maxSize) {
+			throw new IllegalArgumentException("Invalid limit " + limit);
+		}
+		this.limit = limit;
+		buffer.limit(Math.min(limit, buffer.capacity()));
 	}
 
 	public void clear() {
+		track();
 		buffer.clear();
+		limit = maxSize;
+		buffer.limit(Math.min(limit, buffer.capacity()));
 	}
 
 	public void flip() {
+		track();
+		limit = buffer.position();
 		buffer.flip();
 	}
 
@@ -411,14 +738,127 @@ public final class NetworkBuffer {
 	public void reset() {
 		buffer.reset();
 	}
-	
+
 	public void empty() {
-		byte[] array = buffer.array();
-		for (int i = 0; i < array.length; i++) {
-			array[i] = 0;
+		for (int i = 0; i < buffer.capacity(); i++) {
+			buffer.put(i, b0);
+		}
+	}
+
+	// Memory
+
+	/**
+	 * Makes sure the memory can hold {@code size} bytes, so the
+	 * {@link #getRaw() raw buffer} can be filled directly up to the limit
+	 *
+	 * @param size The amount of bytes
+	 */
+	public void reserve(int size) {
+		if (size > maxSize) {
+			throw new IllegalArgumentException("Can't reserve " + size + " bytes, the maximum is " + maxSize);
+		}
+		if (size > buffer.capacity()) {
+			grow(size);
 		}
 	}
 
+	/**
+	 * Gives back the memory of a buffer that grew for a few large packets, if
+	 * the packets since the last call used less than a quarter of it. Must be
+	 * called when the buffer is empty, for example after sending
+	 */
+	public void trim() {
+		track();
+		int used = Math.max(peak, initialSize);
+		peak = 0;
+		if (used * 4 >= buffer.capacity() || buffer.position() != 0) {
+			return;
+		}
+		ByteBuffer trimmed = BufferPool.acquire(used);
+		if (trimmed.capacity() >= buffer.capacity()) {
+			BufferPool.release(trimmed);
+			return;
+		}
+		replace(trimmed);
+		clear();
+	}
+
+	/**
+	 * Takes the memory holding the packet away from this buffer, which goes on
+	 * with new memory from the pool. The caller owns the result and should
+	 * give it back to the {@link BufferPool} when done with it
+	 *
+	 * @return The memory, positioned and limited like this buffer was
+	 */
+	public ByteBuffer detach() {
+		ByteBuffer detached = buffer;
+		// Sized for packets like this one
+		buffer = BufferPool.acquire(Math.max(initialSize, detached.limit())).order(detached.order());
+		clear();
+		return detached;
+	}
+
+	/**
+	 * Starts reading from a packet received in a pooled buffer, instead of
+	 * copying it. The current memory goes back to the {@link BufferPool}
+	 *
+	 * @param data The packet, from its position to its limit, which is then
+	 *             owned by this buffer
+	 */
+	public void adopt(ByteBuffer data) {
+		if (data.position() != 0 || data.limit() > maxSize) {
+			throw new IllegalArgumentException("Invalid packet, position " + data.position() + " limit "
+					+ data.limit() + " maximum " + maxSize);
+		}
+		track();
+		data.order(buffer.order());
+		replace(data);
+		limit = data.limit();
+	}
+
+	/**
+	 * Gives the memory back to the {@link BufferPool}, the buffer must not be
+	 * used anymore
+	 */
+	public void release() {
+		BufferPool.release(buffer);
+		buffer = null;
+	}
+
+	// Grows the memory if a write at index doesn't fit but is within the limit
+	protected void ensure(int index, int amount) {
+		int end = index + amount;
+		if (end > buffer.limit() && end <= limit) {
+			grow(end);
+		}
+	}
+
+	protected void ensure(int amount) {
+		ensure(buffer.position(), amount);
+	}
+
+	protected void grow(int required) {
+		ByteBuffer grown = BufferPool.acquire(Math.min(maxSize, Math.max(required, buffer.capacity() * 2)));
+		int position = buffer.position();
+		buffer.clear();
+		grown.put(buffer);
+		grown.position(position);
+		grown.order(buffer.order());
+		BufferPool.release(buffer);
+		buffer = grown;
+		buffer.limit(Math.min(limit, buffer.capacity()));
+	}
+
+	private void replace(ByteBuffer memory) {
+		memory.order(buffer.order());
+		BufferPool.release(buffer);
+		buffer = memory;
+	}
+
+	private void track() {
+		peak = Math.max(peak, buffer.position());
+	}
+
 	public ByteOrder getByteOrder() {
 		return buffer.order();
 	}
@@ -427,8 +867,15 @@ public final class NetworkBuffer {
 		buffer.order(order);
 	}
 
+	/**
+	 * @return The memory currently held, which changes when the buffer grows
+	 */
 	public ByteBuffer getRaw() {
 		return buffer;
 	}
 
+	public SymbolTable getSymbolTable() {
+		return symbols;
+	}
+
 }
\ No newline at end of file
@@ -125,7 +125,7 @@ public abstract class NetworkComponent implements ThreadComponent {
 
 	public abstract void queueNetworkFunction(NetworkFunction function);
 	public abstract void queueEvent(GameEvent event);
-	public abstract void queueRPC(RemoteProcedure rpc);
+	public abstract void queueRPC(RemoteProcedure.Invocation invocation);
 	public abstract void queueWriteLevel();
 	public abstract void queueWriteData();
 	public abstract void queueWriteObjectFull(GameObject obj);
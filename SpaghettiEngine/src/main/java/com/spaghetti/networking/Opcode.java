@@ -25,11 +25,12 @@ public final class Opcode {
 
 	public static final byte REMOTEPROCEDURE = (byte) 13;
 	public static final byte RP_RESPONSE = (byte) 14;
-	public static final byte RP_ACKNOWLEDGEMENT = (byte) 15;
 
 	public static final byte OBJECT_TREE = (byte) 16;
 	public static final byte OBJECT_DESTROY = (byte) 17;
 
 	public static final byte GOODBYE = (byte) 18;
 
+	public static final byte DELTA_ACK = (byte) 19;
+
 }
@@ -0,0 +1,236 @@
+package com.spaghetti.networking;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.nio.ByteBuffer;
+import java.util.function.Supplier;
+import java.util.zip.Checksum;
+
+import org.lwjgl.util.xxhash.XXHash;
+
+import com.spaghetti.utils.HashUtil;
+import com.spaghetti.utils.Logger;
+
+/**
+ * PacketChecksum verifies the integrity of the packets of an endpoint
+ * <p>
+ * Endpoints pick an algorithm through the {@code network.checksum} engine
+ * setting and tag every frame with its id, so the two sides of a connection
+ * don't have to agree on one. TCP already checksums every segment, so
+ * {@link #NONE} is usually enough. {@link #CRC32C} uses the hardware
+ * accelerated {@code java.util.zip.CRC32C} where the JDK provides it, and a
+ * table driven implementation otherwise. {@link #XXHASH} needs the xxHash
+ * natives of LWJGL, endpoints fall back to CRC32C if they are missing.
+ * {@link #HASH16} is the 16 bit hash used before, computed one byte at a time
+ *
+ * @author bohdloss
+ *
+ */
+public abstract class PacketChecksum {
+
+	// Ids, fit in 2 bits
+	public static final byte NONE_ID = 0;
+	public static final byte HASH16_ID = 1;
+	public static final byte CRC32C_ID = 2;
+	public static final byte XXHASH_ID = 3;
+
+	public static final PacketChecksum NONE = new PacketChecksum(NONE_ID, "none") {
+		@Override
+		public int compute(ByteBuffer data, int offset, int length) {
+			return 0;
+		}
+	};
+
+	public static final PacketChecksum HASH16 = new PacketChecksum(HASH16_ID, "hash16") {
+		@Override
+		public int compute(ByteBuffer data, int offset, int length) {
+			return HashUtil.shortHash(data, offset, length);
+		}
+	};
+
+	public static final PacketChecksum CRC32C = new PacketChecksum(CRC32C_ID, "crc32c") {
+		@Override
+		public int compute(ByteBuffer data, int offset, int length) {
+			if (JDK_CRC32C == null) {
+				return crc32c(data, offset, length);
+			}
+
+			// The checksum consumes the buffer
+			int position = data.position();
+			int limit = data.limit();
+			Checksum checksum = JDK_CRC32C.get();
+			checksum.reset();
+			try {
+				data.limit(offset + length).position(offset);
+				UPDATE.invokeExact(checksum, data);
+			} catch (Throwable t) {
+				throw new IllegalStateException("Error computing CRC32C", t);
+			} finally {
+				data.limit(limit).position(position);
+			}
+			return (int) checksum.getValue();
+		}
+	};
+
+	public static final PacketChecksum XXHASH = new PacketChecksum(XXHASH_ID, "xxhash") {
+		@Override
+		public int compute(ByteBuffer data, int offset, int length) {
+			int position = data.position();
+			int limit = data.limit();
+			try {
+				data.limit(offset + length).position(offset);
+				return XXHash.XXH32(data, 0);
+			} finally {
+				data.limit(limit).position(position);
+			}
+		}
+
+		@Override
+		public boolean isAvailable() {
+			return xxhashAvailable();
+		}
+	};
+
+	private static final PacketChecksum[] BY_ID = { NONE, HASH16, CRC32C, XXHASH };
+
+	// java.util.zip.CRC32C, only available since Java 9
+	private static final ThreadLocal<Checksum> JDK_CRC32C;
+	private static final MethodHandle UPDATE;
+
+	// Castagnoli polynomial, reversed
+	private static final int[] CRC32C_TABLE = new int[256];
+
+	// Whether the xxHash natives could be loaded, null until checked
+	private static Boolean xxhash;
+
+	static {
+		Supplier<Checksum> factory = null;
+		MethodHandle update = null;
+		try {
+			Class<?> cls = Class.forName("java.util.zip.CRC32C");
+			MethodHandle constructor = MethodHandles.publicLookup().findConstructor(cls,
+					MethodType.methodType(void.class));
+			update = MethodHandles.publicLookup()
+					.findVirtual(cls, "update", MethodType.methodType(void.class, ByteBuffer.class))
+					.asType(MethodType.methodType(void.class, Checksum.class, ByteBuffer.class));
+			factory = () -> {
+				try {
+					return (Checksum) constructor.invoke();
+				} catch (Throwable t) {
+					throw new IllegalStateException("Error creating CRC32C", t);
+				}
+			};
+		} catch (ReflectiveOperationException e) {
+			// Older JDK
+		}
+		JDK_CRC32C = factory == null ? null : ThreadLocal.withInitial(factory);
+		UPDATE = update;
+
+		for (int i = 0; i < 256; i++) {
+			int crc = i;
+			for (int bit = 0; bit < 8; bit++) {
+				crc = (crc & 1) != 0 ? (crc >>> 1) ^ 0x82F63B78 : crc >>> 1;
+			}
+			CRC32C_TABLE[i] = crc;
+		}
+	}
+
+	private final byte id;
+	private final String name;
+
+	private PacketChecksum(byte id, String name) {
+		this.id = id;
+		this.name = name;
+	}
+
+	/**
+	 * Computes the checksum of a region of a buffer, without changing its
+	 * position
+	 *
+	 * @param data   The buffer
+	 * @param offset Where the region starts
+	 * @param length The length of the region
+	 * @return The checksum
+	 */
+	public abstract int compute(ByteBuffer data, int offset, int length);
+
+	/**
+	 * @return Whether this algorithm can be used here
+	 */
+	public boolean isAvailable() {
+		return true;
+	}
+
+	public final byte getId() {
+		return id;
+	}
+
+	public final String getName() {
+		return name;
+	}
+
+	/**
+	 * Retrieves an algorithm by id
+	 *
+	 * @param id The id
+	 * @return The algorithm
+	 */
+	public static PacketChecksum byId(int id) {
+		if (id < 0 || id >= BY_ID.length) {
+			throw new IllegalArgumentException("Invalid checksum id " + id);
+		}
+		return BY_ID[id];
+	}
+
+	/**
+	 * Retrieves an algorithm by name, falling back to {@link #CRC32C} if it
+	 * can't be used here
+	 *
+	 * @param name The name, {@code none} if null
+	 * @return The algorithm
+	 */
+	public static PacketChecksum forName(String name) {
+		if (name == null) {
+			return NONE;
+		}
+		for (PacketChecksum checksum : BY_ID) {
+			if (checksum.name.equalsIgnoreCase(name)) {
+				if (!checksum.isAvailable()) {
+					Logger.warning("Checksum " + name + " is not available, using crc32c");
+					return CRC32C;
+				}
+				return checksum;
+			}
+		}
+		throw new IllegalArgumentException("Unknown checksum " + name);
+	}
+
+	// Table driven fallback, package private for the benchmark
+	static int crc32c(ByteBuffer data, int offset, int length) {
+		int crc = ~0;
+		for (int i = offset; i < offset + length; i++) {
+			crc = (crc >>> 8) ^ CRC32C_TABLE[(crc ^ data.get(i)) & 0xFF];
+		}
+		return ~crc;
+	}
+
+	private static synchronized boolean xxhashAvailable() {
+		if (xxhash == null) {
+			try {
+				XXHash.XXH32(ByteBuffer.allocateDirect(1), 0);
+				xxhash = true;
+			} catch (Throwable t) {
+				Logger.warning("xxHash natives could not be loaded: " + t.getMessage());
+				xxhash = false;
+			}
+		}
+		return xxhash;
+	}
+
+	@Override
+	public String toString() {
+		return name;
+	}
+
+}
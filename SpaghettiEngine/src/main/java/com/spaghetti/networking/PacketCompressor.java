@@ -0,0 +1,310 @@
+package com.spaghetti.networking;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.lwjgl.PointerBuffer;
+import org.lwjgl.system.MemoryUtil;
+import org.lwjgl.util.lz4.LZ4;
+import org.lwjgl.util.zstd.Zdict;
+import org.lwjgl.util.zstd.Zstd;
+
+import com.spaghetti.core.Game;
+import com.spaghetti.exceptions.EndpointException;
+import com.spaghetti.utils.Logger;
+import com.spaghetti.utils.ResourceLoader;
+
+/**
+ * PacketCompressor compresses the packets of an endpoint with the codecs
+ * both sides agreed on during the handshake
+ * <p>
+ * Packets smaller than {@code network.compressionThreshold} are sent as they
+ * are. Reliable packets, which carry level structure and object trees, are
+ * compressed with Zstd, optionally with the dictionary found at
+ * {@code network.compressionDictionary}. Everything else uses LZ4, which is
+ * cheap enough for every tick. A packet that doesn't shrink is sent
+ * uncompressed, the codec used is written in the framing header of each
+ * packet, compressed packets start with their original length
+ * <p>
+ * Packets are compressed from and decompressed into direct buffers, without
+ * copying them. Dictionaries can be trained offline from sample packets with
+ * {@link #trainDictionary(List, int)}. Instances are not thread safe
+ *
+ * @author bohdloss
+ *
+ */
+public final class PacketCompressor {
+
+	// Codecs
+	public static final byte NONE = 0;
+	public static final byte LZ4_CODEC = 1;
+	public static final byte ZSTD_CODEC = 2;
+
+	// Whether the natives could be loaded, null until checked
+	private static Boolean available;
+
+	private final int threshold;
+	private final int level;
+	private int enabled;
+
+	// Zstd state
+	private long cctx, dctx;
+	private long cdict, ddict;
+	private int dictionaryId;
+
+	// Compressed packets start with their original length
+	private static final int PREFIX = Integer.BYTES;
+
+	// Native scratch
+	private ByteBuffer output;
+
+	public PacketCompressor(Game game) {
+		Boolean enable = game.getEngineSetting("network.compression");
+		Integer threshold = game.getEngineSetting("network.compressionThreshold");
+		Integer level = game.getEngineSetting("network.compressionLevel");
+		this.threshold = threshold == null ? 256 : threshold;
+		this.level = level == null ? Zstd.ZSTD_CLEVEL_DEFAULT : level;
+		if (!Boolean.FALSE.equals(enable) && isAvailable()) {
+			loadDictionary(game.getEngineSetting("network.compressionDictionary"));
+		}
+	}
+
+	private static synchronized boolean isAvailable() {
+		if (available == null) {
+			try {
+				LZ4.LZ4_compressBound(1);
+				Zstd.ZSTD_compressBound(1);
+				available = true;
+			} catch (Throwable t) {
+				Logger.warning("Packet compression disabled, the natives could not be loaded: " + t.getMessage());
+				available = false;
+			}
+		}
+		return available;
+	}
+
+	private void loadDictionary(String location) {
+		cctx = Zstd.ZSTD_createCCtx();
+		dctx = Zstd.ZSTD_createDCtx();
+		if (location == null) {
+			return;
+		}
+
+		ByteBuffer dictionary = null;
+		try {
+			byte[] data = ResourceLoader.loadBinary(location);
+			dictionary = MemoryUtil.memAlloc(data.length);
+			dictionary.put(data).flip();
+			cdict = Zstd.ZSTD_createCDict(dictionary, level);
+			ddict = Zstd.ZSTD_createDDict(dictionary);
+			dictionaryId = Zdict.ZDICT_getDictID(dictionary);
+		} catch (IOException e) {
+			Logger.error("Error loading the packet compression dictionary " + location, e);
+		} finally {
+			// The dictionaries keep their own copy
+			MemoryUtil.memFree(dictionary);
+		}
+	}
+
+	/**
+	 * @return The mask of codecs this side can use
+	 */
+	public int getSupported() {
+		return cctx == 0 ? 0 : (1 << LZ4_CODEC) | (1 << ZSTD_CODEC);
+	}
+
+	/**
+	 * @return The id of the Zstd dictionary, 0 if there is none
+	 */
+	public int getDictionaryId() {
+		return dictionaryId;
+	}
+
+	/**
+	 * Computes which codecs can be used with the other side of a connection
+	 *
+	 * @param mask         The codecs the other side supports
+	 * @param dictionaryId The dictionary of the other side
+	 * @return The codecs both sides support
+	 */
+	public int negotiate(int mask, int dictionaryId) {
+		mask &= getSupported();
+		if (dictionaryId != this.dictionaryId) {
+			// Zstd frames would be decoded with the wrong dictionary
+			mask &= ~(1 << ZSTD_CODEC);
+		}
+		return mask;
+	}
+
+	public void setEnabled(int mask) {
+		this.enabled = mask & getSupported();
+	}
+
+	public int getEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * Compresses a packet if worth it, the result is available from
+	 * {@link #getOutput()} unless {@link #NONE} is returned
+	 *
+	 * @param data     The packet, from its position to its limit, must be direct
+	 * @param reliable Whether the packet is reliable, which usually means it is
+	 *                 large and sent once
+	 * @return The codec used
+	 */
+	public byte compress(ByteBuffer data, boolean reliable) {
+		int length = data.remaining();
+		if (length < threshold || enabled == 0) {
+			return NONE;
+		}
+		byte codec = reliable && (enabled & (1 << ZSTD_CODEC)) != 0 ? ZSTD_CODEC
+				: (enabled & (1 << LZ4_CODEC)) != 0 ? LZ4_CODEC : ZSTD_CODEC;
+
+		int result;
+		if (codec == LZ4_CODEC) {
+			output = reserve(output, PREFIX + LZ4.LZ4_compressBound(length));
+			output.position(PREFIX);
+			result = LZ4.LZ4_compress_default(data, output);
+		} else {
+			output = reserve(output, PREFIX + (int) Zstd.ZSTD_compressBound(length));
+			output.position(PREFIX);
+			long size = cdict == 0 ? Zstd.ZSTD_compressCCtx(cctx, output, data, level)
+					: Zstd.ZSTD_compress_usingCDict(cctx, output, data, cdict);
+			result = Zstd.ZSTD_isError(size) ? 0 : (int) size;
+		}
+
+		if (result <= 0 || PREFIX + result >= length) {
+			// Not worth it
+			return NONE;
+		}
+		output.putInt(0, length);
+		output.position(0);
+		output.limit(PREFIX + result);
+		return codec;
+	}
+
+	/**
+	 * @return The last compressed packet, positioned and limited
+	 */
+	public ByteBuffer getOutput() {
+		return output;
+	}
+
+	/**
+	 * Decompresses a packet straight into a buffer
+	 *
+	 * @param codec  The codec the packet was compressed with
+	 * @param data   The compressed packet, from its position to its limit, must
+	 *               be direct
+	 * @param buffer Receives the packet, flipped
+	 */
+	public void decompress(byte codec, ByteBuffer data, NetworkBuffer buffer) {
+		if ((enabled & (1 << codec)) == 0) {
+			throw new EndpointException("Packet compressed with a codec that wasn't agreed on (" + codec + ")");
+		}
+		if (data.remaining() < PREFIX) {
+			throw new EndpointException("Corrupted packet, too short");
+		}
+		int length = data.getInt(data.position());
+		if (length < 0 || length > buffer.getSize()) {
+			throw new EndpointException("Corrupted packet, invalid length (" + length + ")");
+		}
+		data.position(data.position() + PREFIX);
+
+		buffer.clear();
+		buffer.setLimit(length);
+		buffer.reserve(length);
+		ByteBuffer target = buffer.getRaw();
+
+		int result;
+		if (codec == LZ4_CODEC) {
+			result = LZ4.LZ4_decompress_safe(data, target);
+		} else {
+			long size = ddict == 0 ? Zstd.ZSTD_decompressDCtx(dctx, target, data)
+					: Zstd.ZSTD_decompress_usingDDict(dctx, target, data, ddict);
+			if (Zstd.ZSTD_isError(size)) {
+				throw new EndpointException("Corrupted packet: " + Zstd.ZSTD_getErrorName(size));
+			}
+			result = (int) size;
+		}
+		if (result != length) {
+			throw new EndpointException("Corrupted packet (" + result + ")");
+		}
+	}
+
+	private static ByteBuffer reserve(ByteBuffer buffer, int capacity) {
+		if (buffer == null || buffer.capacity() < capacity) {
+			MemoryUtil.memFree(buffer);
+			buffer = MemoryUtil.memAlloc(Math.max(capacity, buffer == null ? 0 : buffer.capacity() * 2));
+			buffer.order(NetworkBuffer.ORDER);
+		}
+		buffer.clear();
+		return buffer;
+	}
+
+	public void destroy() {
+		MemoryUtil.memFree(output);
+		output = null;
+		if (cdict != 0) {
+			Zstd.ZSTD_freeCDict(cdict);
+			cdict = 0;
+		}
+		if (ddict != 0) {
+			Zstd.ZSTD_freeDDict(ddict);
+			ddict = 0;
+		}
+		if (cctx != 0) {
+			Zstd.ZSTD_freeCCtx(cctx);
+			cctx = 0;
+		}
+		if (dctx != 0) {
+			Zstd.ZSTD_freeDCtx(dctx);
+			dctx = 0;
+		}
+		enabled = 0;
+	}
+
+	/**
+	 * Trains a Zstd dictionary from sample packets, for example the level
+	 * structure packets of a few levels, to be saved and loaded through the
+	 * {@code network.compressionDictionary} setting
+	 *
+	 * @param samples  The sample packets
+	 * @param capacity The maximum size of the dictionary
+	 * @return The dictionary
+	 */
+	public static byte[] trainDictionary(List<byte[]> samples, int capacity) {
+		int total = 0;
+		for (byte[] sample : samples) {
+			total += sample.length;
+		}
+
+		ByteBuffer samplesBuffer = MemoryUtil.memAlloc(total);
+		PointerBuffer sizes = MemoryUtil.memAllocPointer(samples.size());
+		ByteBuffer dictionary = MemoryUtil.memAlloc(capacity);
+		try {
+			for (byte[] sample : samples) {
+				samplesBuffer.put(sample);
+				sizes.put(sample.length);
+			}
+			samplesBuffer.flip();
+			sizes.flip();
+
+			long size = Zdict.ZDICT_trainFromBuffer(dictionary, samplesBuffer, sizes);
+			if (Zdict.ZDICT_isError(size)) {
+				throw new IllegalArgumentException(
+						"Error training the dictionary: " + Zdict.ZDICT_getErrorName(size));
+			}
+			byte[] result = new byte[(int) size];
+			dictionary.get(result);
+			return result;
+		} finally {
+			MemoryUtil.memFree(samplesBuffer);
+			MemoryUtil.memFree(sizes);
+			MemoryUtil.memFree(dictionary);
+		}
+	}
+
+}
@@ -0,0 +1,136 @@
+package com.spaghetti.networking;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import com.spaghetti.utils.IdProvider;
+
+/**
+ * PriorityAccumulator decides in which order the replicables waiting to be
+ * sent to a client are written, so the most important ones get in first when
+ * a packet has a limited budget
+ * <p>
+ * Every tick a replicable waits, its priority grows by its weight, so those
+ * left out keep gaining priority until they are sent, after which it drops
+ * back to zero. Replicables can also cap how many times per second they are
+ * sent
+ *
+ * @author bohdloss
+ *
+ */
+public final class PriorityAccumulator {
+
+	private static final class State {
+		int id;
+		float priority;
+		long lastSent;
+	}
+
+	/**
+	 * A replicable offered in the current tick
+	 */
+	public static final class Candidate {
+		private int kind;
+		private Replicable replicable;
+		private State state;
+
+		public int getKind() {
+			return kind;
+		}
+
+		public Replicable getReplicable() {
+			return replicable;
+		}
+	}
+
+	private final State[][] states = { new State[64], new State[64] };
+	private final ArrayList<Candidate> candidates = new ArrayList<>(256);
+	private final ArrayList<Candidate> free = new ArrayList<>(256);
+
+	/**
+	 * Forgets every candidate of the previous tick
+	 */
+	public void begin() {
+		for (Candidate candidate : candidates) {
+			candidate.replicable = null;
+			candidate.state = null;
+			free.add(candidate);
+		}
+		candidates.clear();
+	}
+
+	/**
+	 * Offers a replicable for this tick
+	 *
+	 * @param kind       {@link DeltaEncoder#OBJECT} or
+	 *                   {@link DeltaEncoder#COMPONENT}
+	 * @param id         The id of the replicable
+	 * @param replicable The replicable
+	 * @param weight     How much priority it gains for this tick
+	 * @param rate       The maximum amount of times per second it may be sent,
+	 *                   not capped if not positive
+	 * @param now        The current time in milliseconds
+	 */
+	public void offer(int kind, int id, Replicable replicable, float weight, float rate, long now) {
+		State state = getState(kind, id);
+		state.priority += weight;
+		if (rate > 0 && now - state.lastSent < 1000 / rate) {
+			// Keeps accumulating, but can't be sent yet
+			return;
+		}
+
+		Candidate candidate = free.isEmpty() ? new Candidate() : free.remove(free.size() - 1);
+		candidate.kind = kind;
+		candidate.replicable = replicable;
+		candidate.state = state;
+		candidates.add(candidate);
+	}
+
+	/**
+	 * Sorts the candidates of this tick from the highest priority
+	 *
+	 * @return The candidates
+	 */
+	public ArrayList<Candidate> sort() {
+		candidates.sort((a, b) -> Float.compare(b.state.priority, a.state.priority));
+		return candidates;
+	}
+
+	/**
+	 * Must be called when a candidate was written to the packet
+	 *
+	 * @param candidate The candidate
+	 * @param now       The current time in milliseconds
+	 */
+	public void sent(Candidate candidate, long now) {
+		candidate.state.priority = 0;
+		candidate.state.lastSent = now;
+	}
+
+	/**
+	 * Forgets the priority of every replicable
+	 */
+	public void reset() {
+		for (State[] kind : states) {
+			Arrays.fill(kind, null);
+		}
+	}
+
+	private State getState(int kind, int id) {
+		State[] array = states[kind];
+		int index = IdProvider.indexOf(id);
+		if (index >= array.length) {
+			array = Arrays.copyOf(array, Math.max(index + 1, array.length * 2));
+			states[kind] = array;
+		}
+		State state = array[index];
+		if (state == null || state.id != id) {
+			// New id, or an older generation lived in this slot
+			state = new State();
+			state.id = id;
+			array[index] = state;
+		}
+		return state;
+	}
+
+}
@@ -1,44 +1,94 @@
 package com.spaghetti.networking;
 
-import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 import com.spaghetti.core.Game;
+import com.spaghetti.exceptions.EndpointException;
 import com.spaghetti.world.GameObject;
-import com.spaghetti.utils.IdProvider;
 import com.spaghetti.utils.Logger;
-import com.spaghetti.utils.ThreadUtil;
 
+/**
+ * RemoteProcedure is a function executed on the other side of the connection
+ * <p>
+ * Every {@link #call(Object...)} is independent and returns right away with a
+ * future that completes when the response arrives, so a procedure can be
+ * called again before the previous call has returned. Calls may be made from
+ * any thread. Calls and responses made during a tick are sent together in the
+ * next packet. Futures complete on the network thread, continuations that take
+ * time should use the async variants
+ * <p>
+ * A client calls the server, a server calls one client at a time with
+ * {@link #callClient(ConnectionManager, Object...)}, since each client
+ * responds on its own. Calls and responses are always sent reliably, calls
+ * still waiting when their connection is closed or replaced by a reconnection
+ * fail
+ * <p>
+ * The remote side keeps one instance of each procedure per connection.
+ * Procedures are executed on the primary dispatcher one at a time, unless
+ * {@link #isThreadSafe()} returns true, in which case they run on the job
+ * system
+ *
+ * @author bohdloss
+ *
+ */
 public abstract class RemoteProcedure {
 
-	protected static final HashMap<Integer, RemoteProcedure> rpcs = new HashMap<>();
+	/**
+	 * A single call of a procedure, waiting for its response
+	 */
+	public static final class Invocation {
+		final RemoteProcedure procedure;
+		final Object[] arguments;
+		final CompletableFuture<Object> future = new CompletableFuture<>();
+		// The client called, null on clients
+		final ConnectionManager target;
+
+		Invocation(RemoteProcedure procedure, Object[] arguments, ConnectionManager target) {
+			this.procedure = procedure;
+			this.arguments = arguments;
+			this.target = target;
+		}
+
+		public RemoteProcedure getProcedure() {
+			return procedure;
+		}
 
-	public static void save(RemoteProcedure rpc) {
-		rpcs.put(rpc.getId(), rpc);
+		public ConnectionManager getTarget() {
+			return target;
+		}
+
+		public CompletableFuture<Object> getFuture() {
+			return future;
+		}
 	}
 
-	public static RemoteProcedure get(int id) {
-		return rpcs.remove(id);
+	/**
+	 * The outcome of a call received from the other side
+	 */
+	static final class Response {
+		// The endpoint the call arrived on, see ConnectionManager#setEndpoint
+		final int generation;
+		final int id;
+		final RemoteProcedure procedure;
+		final Object returnValue;
+		final boolean error;
+
+		Response(int generation, int id, RemoteProcedure procedure, Object returnValue, boolean error) {
+			this.generation = generation;
+			this.id = id;
+			this.procedure = procedure;
+			this.returnValue = returnValue;
+			this.error = error;
+		}
 	}
 
 	private Serializer<?>[] argSerializers;
-	private Object[] arguments;
-
 	private Serializer<?> retSerializer;
-	private Object retVal;
 
 	private RemoteProcedureCallback callback;
 
-	private int id;
-	private boolean ready;
-	private boolean error;
-	private boolean reliable;
-
 	public RemoteProcedure() {
-		id = IdProvider.newId(Game.getInstance());
-		ready = true;
-		error = false;
-		reliable = true;
-
 		Class<?>[] argClasses = getArgumentTypes();
 		if (argClasses != null) {
 			argSerializers = new Serializer<?>[argClasses.length];
@@ -55,115 +105,158 @@ public abstract class RemoteProcedure {
 		} else {
 			retSerializer = null;
 		}
-
-		arguments = new Object[argSerializers.length];
 	}
 
+	/**
+	 * Calls the procedure on the server and blocks until it returns. Must not
+	 * be called from the network thread
+	 *
+	 * @param args The arguments
+	 * @return The return value
+	 * @throws EndpointException If the procedure failed on the server, or the
+	 *                           connection was closed or replaced first
+	 */
 	public final Object callAndWait(Object... args) {
-		call(args);
-		return waitCompletion();
+		try {
+			return call(args).join();
+		} catch (CompletionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new EndpointException("Remote procedure " + getClass().getName() + " failed", cause);
+		}
 	}
 
-	public final synchronized RemoteProcedure call(Object... args) {
-		waitCompletion();
-		ready = false;
-
-		System.arraycopy(args, 0, arguments, 0, Math.min(args.length, arguments.length));
-
+	/**
+	 * Calls the procedure on the server. Only the array of arguments is copied,
+	 * the arguments themselves are written by the network thread with the next
+	 * packet and must not be modified until the future completes
+	 *
+	 * @param args The arguments
+	 * @return A future that completes with the return value, or exceptionally
+	 *         if the procedure failed or the connection was closed first
+	 * @throws IllegalStateException If called on a server, which must use
+	 *                               {@link #callClient(ConnectionManager, Object...)}
+	 */
+	public final CompletableFuture<Object> call(Object... args) {
 		Game game = Game.getInstance();
-		if (game.isClient()) {
-			game.getClient().queueRPC(this);
-		} else {
-			game.getServer().queueRPC(this);
+		if (!game.isClient()) {
+			throw new IllegalStateException("A server must choose the client to call");
 		}
-		return this;
+		Invocation invocation = new Invocation(this, copyArgs(args), null);
+		game.getClient().queueRPC(invocation);
+		return invocation.future;
 	}
 
-	public Object waitCompletion() {
-		while (!ready) {
-			ThreadUtil.sleep(1);
+	/**
+	 * Calls the procedure on one of the clients of the server. Only the array of
+	 * arguments is copied, the arguments themselves must not be modified until
+	 * the future completes
+	 *
+	 * @param client The connection of the client
+	 * @param args   The arguments
+	 * @return A future that completes with the return value of that client, or
+	 *         exceptionally if the procedure failed or the connection was
+	 *         closed first
+	 */
+	public final CompletableFuture<Object> callClient(ConnectionManager client, Object... args) {
+		if (client == null) {
+			throw new IllegalArgumentException();
 		}
-		return error ? null : retVal;
+		Invocation invocation = new Invocation(this, copyArgs(args), client);
+		Game.getInstance().getServer().queueRPC(invocation);
+		return invocation.future;
+	}
+
+	private Object[] copyArgs(Object[] args) {
+		Object[] arguments = new Object[argSerializers.length];
+		System.arraycopy(args, 0, arguments, 0, Math.min(args.length, arguments.length));
+		return arguments;
 	}
 
 	protected abstract Class<?>[] getArgumentTypes();
 
 	protected abstract Class<?> getReturnType();
 
-	public final void writeArgs(NetworkBuffer buffer) {
-		for (int i = 0; i < arguments.length; i++) {
+	/**
+	 * Thread safe procedures may be executed on any thread, and by many
+	 * threads at once
+	 *
+	 * @return Whether {@link #onCall(Object[], GameObject)} is thread safe
+	 */
+	protected boolean isThreadSafe() {
+		return false;
+	}
+
+	public final void writeArgs(Object[] arguments, NetworkBuffer buffer) {
+		for (int i = 0; i < argSerializers.length; i++) {
 			argSerializers[i].writeClassGeneric(arguments[i], buffer);
 		}
 	}
 
-	public final void readArgs(NetworkBuffer buffer) {
+	public final Object[] readArgs(NetworkBuffer buffer) {
+		Object[] arguments = new Object[argSerializers.length];
 		for (int i = 0; i < arguments.length; i++) {
-			arguments[i] = argSerializers[i].readClassGeneric(arguments[i], buffer);
+			arguments[i] = argSerializers[i].readClassGeneric(null, buffer);
 		}
+		return arguments;
 	}
 
-	public final RemoteProcedure execute(ConnectionManager worker) {
+	/**
+	 * Executes a call received from the other side
+	 *
+	 * @param worker     The connection the call came from
+	 * @param generation The endpoint of the connection the call came from
+	 * @param id         The id of the call
+	 * @param arguments  The arguments
+	 * @return The response
+	 */
+	final Response execute(ConnectionManager worker, int generation, int id, Object[] arguments) {
 		try {
-			retVal = onCall(arguments, worker.player);
-			error = false;
+			return new Response(generation, id, this, onCall(arguments, worker.player), false);
 		} catch (Throwable t) {
 			Logger.error("Error in remote procedure call", t);
-			retVal = null;
-			error = true;
+			return new Response(generation, id, this, null, true);
 		}
-		return this;
 	}
 
 	protected abstract Object onCall(Object[] args, GameObject player) throws Throwable;
 
-	public final void writeReturn(NetworkBuffer buffer) {
+	public final void writeReturn(Object retVal, NetworkBuffer buffer) {
 		if (!hasReturnValue()) {
 			return;
 		}
-		// Error flag
-		buffer.putBoolean(error);
-		if (error) {
-			return;
-		}
 		retSerializer.writeClassGeneric(retVal, buffer);
 	}
 
-	public final void readReturn(NetworkBuffer buffer) {
+	public final Object readReturn(NetworkBuffer buffer) {
 		if (!hasReturnValue()) {
-			return;
-		}
-		error = buffer.getBoolean();
-		if (error) {
-			retVal = null;
-			return;
+			return null;
 		}
-		retVal = retSerializer.readClassGeneric(retVal, buffer);
+		return retSerializer.readClassGeneric(null, buffer);
 	}
 
 	// Getters
 
-	public final int getId() {
-		return id;
-	}
-
-	public final boolean isReady() {
-		return ready;
-	}
-
-	public final boolean isError() {
-		return error;
-	}
-
+	/**
+	 * A lost call or response would leave its future waiting forever, so they
+	 * are always sent reliably
+	 *
+	 * @param reliable Ignored
+	 * @deprecated Calls and responses are always reliable
+	 */
+	@Deprecated
 	public final void setReliable(boolean reliable) {
-		this.reliable = reliable;
 	}
 
+	/**
+	 * @return Always true
+	 * @deprecated Calls and responses are always reliable
+	 */
+	@Deprecated
 	public final boolean isReliable() {
-		return reliable;
-	}
-
-	public final Object getReturnValue() {
-		return retVal;
+		return true;
 	}
 
 	public final boolean hasReturnValue() {
@@ -175,28 +268,19 @@ public abstract class RemoteProcedure {
 		return this;
 	}
 
-	public final RemoteProcedure executeReturnCallback() {
-		if (callback == null) {
-			return this;
-		}
-		try {
-			callback.receiveReturnValue(this, retVal, error, false);
-		} catch (Throwable t) {
-			Logger.error("Error occurred in RemoteProcedure return callback", t);
-		}
-		return this;
+	public final RemoteProcedureCallback getCallback() {
+		return callback;
 	}
 
-	public final RemoteProcedure executeAckCallback() {
+	final void executeCallback(Object retVal, boolean error) {
 		if (callback == null) {
-			return this;
+			return;
 		}
 		try {
-			callback.receiveReturnValue(this, null, error, true);
+			callback.receiveReturnValue(this, retVal, error, !hasReturnValue());
 		} catch (Throwable t) {
-			Logger.error("Error occurred in RemoteProcedure acknowledgement callback", t);
+			Logger.error("Error occurred in RemoteProcedure callback", t);
 		}
-		return this;
 	}
 
 }
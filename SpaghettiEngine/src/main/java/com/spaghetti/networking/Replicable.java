@@ -25,4 +25,35 @@ public interface Replicable {
 		return false;
 	}
 
+	/**
+	 * How quickly this replicable gains priority while waiting to be sent, when
+	 * packets can't fit everything
+	 *
+	 * @return 1 by default
+	 */
+	public default float getReplicationWeight() {
+		return 1;
+	}
+
+	/**
+	 * The maximum amount of times per second this replicable is sent
+	 *
+	 * @return 0 by default, meaning no cap
+	 */
+	public default float getReplicationRate() {
+		return 0;
+	}
+
+	/**
+	 * Whether {@link #writeDataServer(ConnectionManager, NetworkBuffer)} writes
+	 * the same data for every client, so the server can encode it only once per
+	 * tick, see {@link ReplicationCache}. The connection passed is then one of
+	 * the clients, it must not be used
+	 *
+	 * @return False by default
+	 */
+	public default boolean isSharedReplication() {
+		return false;
+	}
+
 }
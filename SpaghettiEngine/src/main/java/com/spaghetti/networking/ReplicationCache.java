@@ -0,0 +1,155 @@
+package com.spaghetti.networking;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+
+/**
+ * ReplicationCache encodes the server data of a {@link Replicable} once per
+ * tick and copies the same bytes into the packet of every client
+ * <p>
+ * The server clears the cache at the start of each tick, so serialization
+ * cost grows with the number of replicated objects instead of objects times
+ * clients. Only replicables that opt in with
+ * {@link Replicable#isSharedReplication()} are cached. Symbols, like asset
+ * references, use the symbol table of each connection, so the cache only
+ * remembers where and what they are and writes them separately for each
+ * client between the shared bytes
+ *
+ * @author bohdloss
+ *
+ */
+public class ReplicationCache {
+
+	// The class declaring the writeDataServer of each replicable class
+	protected static final ClassValue<Class<?>> WRITERS = new ClassValue<Class<?>>() {
+
+		@Override
+		protected Class<?> computeValue(Class<?> type) {
+			try {
+				return type.getMethod("writeDataServer", ConnectionManager.class, NetworkBuffer.class)
+						.getDeclaringClass();
+			} catch (NoSuchMethodException e) {
+				return null;
+			}
+		}
+
+	};
+
+	// Encoded replicables of this tick
+	protected final IdentityHashMap<Replicable, Integer> entries = new IdentityHashMap<>(256);
+	protected int[] offsets = new int[256];
+	protected int[] lengths = new int[256];
+	protected int[] firstSymbols = new int[256];
+	protected int[] symbolCounts = new int[256];
+	protected int count;
+	protected byte[] data = new byte[16384];
+	protected int used;
+
+	// Symbols of the encoded replicables, positions are relative to their data
+	protected int[] symbolPositions = new int[64];
+	protected String[] symbolStrings = new String[64];
+	protected Charset[] symbolCharsets = new Charset[64];
+	protected int recorded;
+
+	// Encoding
+	protected NetworkBuffer scratch;
+	protected final SymbolTable recorder = new SymbolTable() {
+
+		@Override
+		public void write(NetworkBuffer buffer, String string, Charset charset) {
+			// Symbol ids are assigned separately for each client
+			if (recorded == symbolPositions.length) {
+				symbolPositions = Arrays.copyOf(symbolPositions, recorded * 2);
+				symbolStrings = Arrays.copyOf(symbolStrings, recorded * 2);
+				symbolCharsets = Arrays.copyOf(symbolCharsets, recorded * 2);
+			}
+			symbolPositions[recorded] = buffer.getPosition();
+			symbolStrings[recorded] = string;
+			symbolCharsets[recorded] = charset;
+			recorded++;
+		}
+
+	};
+
+	/**
+	 * Helps implementing {@link Replicable#isSharedReplication()}, so that
+	 * subclasses writing their own data must opt in again
+	 *
+	 * @param replicable The replicable
+	 * @param owner      The class opting in
+	 * @return Whether the writeDataServer of {@code replicable} is the one
+	 *         declared by {@code owner}
+	 */
+	public static boolean isWrittenBy(Replicable replicable, Class<?> owner) {
+		return WRITERS.get(replicable.getClass()) == owner;
+	}
+
+	/**
+	 * Forgets every encoding, must be called when a new tick starts
+	 */
+	public void clear() {
+		entries.clear();
+		Arrays.fill(symbolStrings, 0, recorded, null);
+		count = 0;
+		used = 0;
+		recorded = 0;
+	}
+
+	/**
+	 * Writes the server data of {@code replicable} into {@code buffer}, encoding
+	 * it only the first time it is requested in this tick
+	 *
+	 * @param replicable The replicable
+	 * @param manager    The connection the data is being written for
+	 * @param buffer     The buffer to write to
+	 */
+	public void write(Replicable replicable, ConnectionManager manager, NetworkBuffer buffer) {
+		Integer index = entries.get(replicable);
+		if (index == null) {
+			index = encode(replicable, manager, buffer.getSize());
+			entries.put(replicable, index);
+		}
+
+		int offset = offsets[index];
+		int copied = 0;
+		for (int i = firstSymbols[index], end = i + symbolCounts[index]; i < end; i++) {
+			buffer.putBytes(data, offset + copied, symbolPositions[i] - copied);
+			buffer.putString(true, symbolStrings[i], symbolCharsets[i]);
+			copied = symbolPositions[i];
+		}
+		buffer.putBytes(data, offset + copied, lengths[index] - copied);
+	}
+
+	protected int encode(Replicable replicable, ConnectionManager manager, int maxLength) {
+		if (scratch == null || scratch.getSize() < maxLength) {
+			scratch = new NetworkBuffer(recorder, maxLength);
+		}
+		scratch.clear();
+		int firstSymbol = recorded;
+		replicable.writeDataServer(manager, scratch);
+
+		// Store the bytes
+		int length = scratch.getPosition();
+		if (used + length > data.length) {
+			byte[] grown = new byte[Math.max(data.length * 2, used + length)];
+			System.arraycopy(data, 0, grown, 0, used);
+			data = grown;
+		}
+		scratch.getBytesAt(0, data, used, length);
+
+		if (count == offsets.length) {
+			offsets = Arrays.copyOf(offsets, count * 2);
+			lengths = Arrays.copyOf(lengths, count * 2);
+			firstSymbols = Arrays.copyOf(firstSymbols, count * 2);
+			symbolCounts = Arrays.copyOf(symbolCounts, count * 2);
+		}
+		offsets[count] = used;
+		lengths[count] = length;
+		firstSymbols[count] = firstSymbol;
+		symbolCounts[count] = recorded - firstSymbol;
+		used += length;
+		return count++;
+	}
+
+}
@@ -2,6 +2,7 @@ package com.spaghetti.networking;
 
 import java.util.HashMap;
 
+import org.joml.Quaternionf;
 import org.joml.Vector2d;
 import org.joml.Vector2f;
 import org.joml.Vector2i;
@@ -317,6 +318,97 @@ public abstract class Serializer<T> {
 		});
 	}
 
+	// Compact serializers, trading precision for space. They can be
+	// registered in place of the defaults or used directly
+
+	public static Serializer<Integer> varInt() {
+		return new Serializer<Integer>() {
+			@Override
+			public void writeClass(Integer object, NetworkBuffer buffer) {
+				buffer.putVarInt(object);
+			}
+
+			@Override
+			public Integer readClass(Integer original, NetworkBuffer buffer) {
+				return buffer.getVarInt();
+			}
+		};
+	}
+
+	public static Serializer<Float> quantizedFloat(float min, float max, int bits) {
+		return new Serializer<Float>() {
+			@Override
+			public void writeClass(Float object, NetworkBuffer buffer) {
+				buffer.putQuantizedFloat(object, min, max, bits);
+			}
+
+			@Override
+			public Float readClass(Float original, NetworkBuffer buffer) {
+				return buffer.getQuantizedFloat(min, max, bits);
+			}
+		};
+	}
+
+	public static Serializer<Vector3f> quantizedVector3f(float min, float max, int bits) {
+		return new Serializer<Vector3f>() {
+			@Override
+			public void writeClass(Vector3f object, NetworkBuffer buffer) {
+				buffer.putQuantizedVector3f(object, min, max, bits);
+			}
+
+			@Override
+			public Vector3f readClass(Vector3f original, NetworkBuffer buffer) {
+				return buffer.getQuantizedVector3f(original == null ? new Vector3f() : original, min, max, bits);
+			}
+		};
+	}
+
+	public static Serializer<Quaternionf> quantizedQuaternion(int bits) {
+		return new Serializer<Quaternionf>() {
+			@Override
+			public void writeClass(Quaternionf object, NetworkBuffer buffer) {
+				buffer.putQuantizedQuaternion(object, bits);
+			}
+
+			@Override
+			public Quaternionf readClass(Quaternionf original, NetworkBuffer buffer) {
+				return buffer.getQuantizedQuaternion(original == null ? new Quaternionf() : original, bits);
+			}
+		};
+	}
+
+	// Packs the values written by another serializer at the bit level
+	public static <U> Serializer<U> bitPacked(Serializer<U> serializer) {
+		return new Serializer<U>() {
+			@Override
+			public void writeClass(U object, NetworkBuffer buffer) {
+				if (buffer.isBitMode()) {
+					serializer.writeClass(object, buffer);
+					return;
+				}
+				buffer.beginBits();
+				try {
+					serializer.writeClass(object, buffer);
+				} finally {
+					buffer.endBits();
+				}
+			}
+
+			@Override
+			public U readClass(U original, NetworkBuffer buffer) {
+				if (buffer.isBitMode()) {
+					return serializer.readClass(original, buffer);
+				}
+				buffer.beginBits();
+				try {
+					return serializer.readClass(original, buffer);
+				} finally {
+					buffer.endBits();
+				}
+			}
+		};
+	}
+
 	public abstract void writeClass(T object, NetworkBuffer buffer);
 
 	@SuppressWarnings("unchecked")
@@ -32,6 +32,9 @@ public abstract class ServerComponent extends NetworkComponent {
 	protected ConcurrentHashMap<Long, ConnectionManager> clients = new ConcurrentHashMap<>();
 	protected ConcurrentHashMap<Long, ClientFlags> flags = new ConcurrentHashMap<>();
 
+	// Replication data shared by all clients
+	protected ReplicationCache replicationCache = new ReplicationCache();
+
 	// Server variables
 	protected int maxClients = 10;
 	protected long awaitReconnect = 10000; // 10 secs
@@ -98,6 +101,9 @@ public abstract class ServerComponent extends NetworkComponent {
 			functions_queue1 = functions_queue2;
 			functions_queue2 = first;
 
+			// Objects may have changed since the last tick
+			replicationCache.clear();
+
 			// Skip if no clients are connected
 			if (getClientsAmount() != 0) {
 
@@ -111,14 +117,24 @@ public abstract class ServerComponent extends NetworkComponent {
 						ConnectionManager manager = entry.getValue();
 						ConnectionEndpoint endpoint = manager.getEndpoint();
 
-						if (endpoint == null || !endpoint.isConnected()) {
+						if (endpoint == null || clientFlags.await) {
+							// Waiting for the client to reconnect
 							continue;
 						}
+						if (!endpoint.isConnected()) {
+							// Failures on the I/O thread and timeouts don't throw by themselves
+							throw new EndpointException("The connection to the client was lost");
+						}
+
+						// Full duplex endpoints send and receive independently, the
+						// others take turns
+						boolean duplex = endpoint.isFullDuplex();
 
 						// Can send
-						if (endpoint.canSend() && endpoint.getPriority() != Priority.RECEIVE) {
+						if (endpoint.canSend() && (duplex || endpoint.getPriority() != Priority.RECEIVE)) {
 							endpoint.clear();
 							endpoint.getWriteBuffer().putByte(DATA);
+							manager.writePacketHeader();
 
 							// We need to send more data when a client just connected
 							if (clientFlags.firstTime) {
@@ -143,6 +159,9 @@ public abstract class ServerComponent extends NetworkComponent {
 								// Execute any queued special function
 								functions_queue2.forEach(func -> func.execute(manager));
 
+								// Calls and responses, batched
+								manager.writeRemoteProcedures();
+
 								// Write data about every object that needs to be updated
 								manager.writeCompleteReplication();
 								manager.setForceReplication(false);
@@ -150,38 +169,20 @@ public abstract class ServerComponent extends NetworkComponent {
 								// Write to network
 								endpoint.send();
 							}
-							endpoint.setPriority(Priority.RECEIVE);
+							if (!duplex) {
+								endpoint.setPriority(Priority.RECEIVE);
+							}
 						} // send
 
-						// Can receive
-						if (endpoint.canReceive() && endpoint.getPriority() != Priority.SEND) {
-							endpoint.clear();
-
-							// Read incoming packet
-							endpoint.receive();
-
-							// Which kind of packet is it?
-							byte packetType = endpoint.getReadBuffer().getByte();
-							switch(packetType) {
-							case DATA:
-								// Parse data
-								manager.parsePacket();
+						// Can receive, everything that arrived since the last tick
+						while (endpoint.canReceive() && (duplex || endpoint.getPriority() != Priority.SEND)) {
+							if (!_receivePacket(clientId, clientFlags, manager, endpoint)) {
 								break;
-							case GOODBYE:
-								// Mark this client as ready to leave
-								clientFlags.goodbye = true;
-								break;
-							case PING:
-								// Calculate ping of client
-								long sendTime = endpoint.getReadBuffer().getLong();
-								long diff = System.currentTimeMillis() - sendTime;
-								clientFlags.ping = diff;
+							}
+							if (!duplex) {
+								endpoint.setPriority(Priority.SEND);
 								break;
-							default:
-								internal_kick(clientId, null);
-								continue;
 							}
-							endpoint.setPriority(Priority.SEND);
 						} // receive
 
 					} catch (Throwable t) {
@@ -228,14 +229,17 @@ public abstract class ServerComponent extends NetworkComponent {
 	}
 
 	@Override
-	public void queueRPC(RemoteProcedure rpc) {
-		if (rpc == null) {
+	public void queueRPC(RemoteProcedure.Invocation invocation) {
+		if (invocation == null) {
 			throw new IllegalArgumentException();
 		}
 
-		functions_queue1.add(client -> {
-			client.writeRemoteProcedure(rpc);
-		});
+		if (invocation.target == null) {
+			throw new IllegalArgumentException("A server must choose the client to call");
+		}
+
+		// Thread safe, unlike the function queue
+		invocation.target.writeRemoteProcedure(invocation);
 	}
 
 	@Override
@@ -310,14 +314,65 @@ public abstract class ServerComponent extends NetworkComponent {
 		return false;
 	}
 
+	// Returns false if the client was kicked
+	protected boolean _receivePacket(long clientId, ClientFlags clientFlags, ConnectionManager manager,
+			ConnectionEndpoint endpoint) throws Throwable {
+		endpoint.getReadBuffer().clear();
+
+		// Read incoming packet
+		endpoint.receive();
+
+		// Which kind of packet is it?
+		byte packetType = endpoint.getReadBuffer().getByte();
+		switch(packetType) {
+		case DATA:
+			// Parse data
+			manager.readPacketHeader();
+			manager.parsePacket();
+			clientFlags.ping = manager.getRoundTripTime();
+			break;
+		case GOODBYE:
+			// Mark this client as ready to leave
+			clientFlags.goodbye = true;
+			break;
+		case PING:
+			// Calculate ping of client
+			long sendTime = endpoint.getReadBuffer().getLong();
+			long diff = System.currentTimeMillis() - sendTime;
+			clientFlags.ping = diff;
+			break;
+		default:
+			internal_kick(clientId, null);
+			return false;
+		}
+		return true;
+	}
+
 	protected void _sendMessage(ConnectionEndpoint endpoint, byte type, String message) {
 		endpoint.clear();
 		endpoint.getWriteBuffer().putByte(type);
 		endpoint.getWriteBuffer().putString(message);
 		endpoint.waitCanSend();
+		endpoint.setReliable(true);
 		endpoint.send();
 	}
 
+	// Accepts a client, telling it which codecs and class ids can be used from
+	// now on
+	protected void _sendWelcome(ConnectionManager manager, ConnectionEndpoint endpoint, byte type, String message,
+			byte compression) {
+		endpoint.clear();
+		endpoint.getWriteBuffer().putByte(type);
+		endpoint.getWriteBuffer().putString(message);
+		endpoint.getWriteBuffer().putByte(compression);
+		manager.writeClassTable(endpoint.getWriteBuffer());
+		endpoint.waitCanSend();
+		// Must neither be replaced by nor arrive after the replication that follows
+		endpoint.setReliable(true);
+		endpoint.send();
+		endpoint.setCompression(compression);
+	}
+
 	protected void _clientError(Throwable error, long clientId) {
 		ClientFlags clientFlags = flags.get(clientId);
 		ConnectionManager manager = clients.get(clientId);
@@ -503,6 +558,9 @@ public abstract class ServerComponent extends NetworkComponent {
 			return false;
 		}
 		long token = endpoint.getReadBuffer().getLong();
+		byte compression = endpoint.getReadBuffer().getByte();
+		int dictionary = endpoint.getReadBuffer().getInt();
+		compression = (byte) endpoint.negotiateCompression(compression, dictionary);
 
 		// Verify client token
 		if(getGame().<Boolean>getEngineSetting("network.verifyToken")) {
@@ -548,7 +606,7 @@ public abstract class ServerComponent extends NetworkComponent {
 					clientFlags.clientId = token;
 
 					// Client connect event
-					_sendMessage(endpoint, HUG, "Welcome aboard!");
+					_sendWelcome(manager, endpoint, HUG, "Welcome aboard!", compression);
 					getGame().getEventDispatcher().raiseEvent(new OnClientConnect(manager, token));
 					Logger.info("ACCEPTED connection from client (" + token + ")");
 
@@ -576,7 +634,7 @@ public abstract class ServerComponent extends NetworkComponent {
 					clientFlags.await = false;
 
 					// Client endpoint successfully updated, yay!
-					_sendMessage(endpoint, RECONNECTED, "Welcome back!");
+					_sendWelcome(manager, endpoint, RECONNECTED, "Welcome back!", compression);
 					Logger.info("RECONNECTED with client (" + token + ")");
 
 					return true;
@@ -664,6 +722,10 @@ public abstract class ServerComponent extends NetworkComponent {
 		return clients.size();
 	}
 
+	public ReplicationCache getReplicationCache() {
+		return replicationCache;
+	}
+
 	public ConnectionManager getClientById(long id) {
 		return clients.get(id);
 	}
@@ -0,0 +1,187 @@
+package com.spaghetti.networking;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.spaghetti.assets.Asset;
+import com.spaghetti.assets.AssetManager;
+
+/**
+ * SymbolTable gives the strings a connection sends often, like asset names,
+ * ids assigned incrementally so they are sent in full only once
+ * <p>
+ * A symbol is written as a variable length tag: 0 is null, 1 is a definition
+ * made of the id and the string, anything else is the id plus two. Each side
+ * tells the other how many consecutive ids it knows in the header of every
+ * packet, see {@link ConnectionManager#writePacketHeader()}. Until then a
+ * symbol is written along with its definition every time, so it survives
+ * packet loss, after that it costs a single varint for the first 126 symbols.
+ * Reading a known symbol doesn't allocate, asset references also keep the
+ * resolved {@link Asset} so they don't have to be looked up again
+ * <p>
+ * One table is shared by the read and write buffers of an endpoint, the two
+ * directions are independent
+ *
+ * @author bohdloss
+ *
+ */
+public class SymbolTable {
+
+	// Tags
+	protected static final int NULL = 0;
+	protected static final int DEFINITION = 1;
+	protected static final int FIRST_ID = 2;
+
+	// Prevents the other side from making us allocate arbitrary amounts
+	public static final int MAX_SYMBOLS = 1 << 16;
+
+	// Outgoing symbols
+	protected final HashMap<String, Integer> ids = new HashMap<>(256);
+	protected int assigned;
+	protected int acknowledged;
+
+	// Incoming symbols
+	protected String[] symbols = new String[256];
+	protected Asset[] assets = new Asset[256];
+	protected int known;
+
+	// Writing
+
+	/**
+	 * Writes a string as a symbol
+	 *
+	 * @param buffer  The buffer
+	 * @param string  The string, may be null
+	 * @param charset The charset of the definition
+	 */
+	public void write(NetworkBuffer buffer, String string, Charset charset) {
+		if (string == null) {
+			buffer.putVarUInt(NULL);
+			return;
+		}
+		Integer id = ids.get(string);
+		if (id == null) {
+			if (assigned == MAX_SYMBOLS) {
+				throw new IllegalStateException("Too many symbols, can't assign one to \"" + string + "\"");
+			}
+			id = assigned++;
+			ids.put(string, id);
+		}
+
+		if (id < acknowledged) {
+			buffer.putVarUInt(id + FIRST_ID);
+			return;
+		}
+
+		// The other side may not know it yet
+		buffer.putVarUInt(DEFINITION);
+		buffer.putVarUInt(id);
+		buffer.putString(false, string, charset);
+	}
+
+	/**
+	 * Writes a reference to an asset, as the symbol of its name
+	 *
+	 * @param buffer The buffer
+	 * @param asset  The asset, may be null
+	 */
+	public void writeAsset(NetworkBuffer buffer, Asset asset) {
+		write(buffer, asset == null ? null : asset.getName(), NetworkBuffer.UTF_8);
+	}
+
+	/**
+	 * Must be called when the other side reports how many symbols it knows
+	 *
+	 * @param count The amount of consecutive ids, starting from 0, it knows
+	 */
+	public void acknowledge(int count) {
+		if (count > acknowledged && count <= assigned) {
+			acknowledged = count;
+		}
+	}
+
+	// Reading
+
+	/**
+	 * Reads a symbol written by {@link #write(NetworkBuffer, String, Charset)}
+	 *
+	 * @param buffer  The buffer
+	 * @param charset The charset of the definition
+	 * @return The string
+	 */
+	public String read(NetworkBuffer buffer, Charset charset) {
+		int id = readId(buffer, charset);
+		return id == -1 ? null : symbols[id];
+	}
+
+	/**
+	 * Reads a reference written by {@link #writeAsset(NetworkBuffer, Asset)}
+	 *
+	 * @param <T>     The type of the asset
+	 * @param buffer  The buffer
+	 * @param manager Resolves the asset the first time
+	 * @return The asset, lazy loaded if needed, or null if it doesn't exist
+	 */
+	@SuppressWarnings("unchecked")
+	public <T extends Asset> T readAsset(NetworkBuffer buffer, AssetManager manager) {
+		int id = readId(buffer, NetworkBuffer.UTF_8);
+		if (id == -1) {
+			return null;
+		}
+		Asset asset = assets[id];
+		if (asset == null || !asset.isLoaded()) {
+			asset = manager.getAndLazyLoadAsset(symbols[id]);
+			assets[id] = asset;
+		}
+		return (T) asset;
+	}
+
+	protected int readId(NetworkBuffer buffer, Charset charset) {
+		int tag = buffer.getVarUInt();
+		if (tag == NULL) {
+			return -1;
+		}
+		if (tag != DEFINITION) {
+			// Tags past the int range decode to negative ids
+			int id = tag - FIRST_ID;
+			if (id < 0 || (id >= known && (id >= symbols.length || symbols[id] == null))) {
+				throw new IllegalStateException("Invalid symbol id " + id);
+			}
+			return id;
+		}
+
+		int id = buffer.getVarUInt();
+		if (id < 0 || id >= MAX_SYMBOLS) {
+			throw new IllegalStateException("Invalid symbol id " + id);
+		}
+		if (id < symbols.length && symbols[id] != null) {
+			// Sent again because our acknowledgement didn't arrive yet
+			int length = buffer.getShort();
+			if (length < 0 || length > buffer.getLimit() - buffer.getPosition()) {
+				throw new IllegalStateException("Invalid symbol length " + length);
+			}
+			buffer.skip(length);
+			return id;
+		}
+
+		if (id >= symbols.length) {
+			int length = Math.min(Math.max(id + 1, symbols.length * 2), MAX_SYMBOLS);
+			symbols = Arrays.copyOf(symbols, length);
+			assets = Arrays.copyOf(assets, length);
+		}
+		symbols[id] = buffer.getString(false, charset);
+		while (known < symbols.length && symbols[known] != null) {
+			known++;
+		}
+		return id;
+	}
+
+	/**
+	 * @return The amount of consecutive ids, starting from 0, known by this side
+	 */
+	public int getKnown() {
+		return known;
+	}
+
+}
@@ -6,15 +6,26 @@ import com.spaghetti.networking.ConnectionEndpoint;
 
 public class TCPClient extends ClientComponent {
 
+	// I/O thread
+	protected TCPSelector selector;
+
 	@Override
 	public void initialize(Game game) throws Throwable {
 		super.initialize(game);
+		selector = new TCPSelector("TCP I/O client");
+	}
+
+	@Override
+	public void terminate() throws Throwable {
+		super.terminate();
+		selector.stop();
 	}
 
 	@Override
 	public ConnectionEndpoint internal_connectsocket(String ip, int port) throws Throwable {
 		TCPConnection endpoint = new TCPConnection();
 		endpoint.connect(ip, port);
+		selector.register(endpoint);
 		return endpoint;
 	}
 
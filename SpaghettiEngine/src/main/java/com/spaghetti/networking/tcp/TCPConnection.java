@@ -4,34 +4,143 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.spaghetti.core.Game;
 import com.spaghetti.exceptions.EndpointException;
+import com.spaghetti.networking.BufferPool;
 import com.spaghetti.networking.ConnectionEndpoint;
 import com.spaghetti.networking.NetworkBuffer;
 import com.spaghetti.networking.Opcode;
-import com.spaghetti.utils.HashUtil;
+import com.spaghetti.networking.PacketChecksum;
+import com.spaghetti.networking.PacketCompressor;
 import com.spaghetti.utils.Logger;
+import com.spaghetti.utils.MpscQueue;
 import com.spaghetti.utils.StreamUtil;
-
+import com.spaghetti.utils.ThreadUtil;
+
+/**
+ * TCPConnection is a connection endpoint working over TCP
+ * <p>
+ * Each packet is sent as one or more frames of at most
+ * {@link #MAX_FRAME_SIZE} bytes, made of a header and a slice of the packet.
+ * The header holds the length of the slice, the checksum of the uncompressed
+ * packet and a byte with the codec, the {@link PacketChecksum} used and
+ * whether more frames follow. Packets
+ * are written to the socket straight from the memory of the write buffer, and
+ * read into pooled memory the read buffer then adopts, see
+ * {@link NetworkBuffer#detach()}
+ *
+ * @author bohdloss
+ *
+ */
 public class TCPConnection extends ConnectionEndpoint {
 
-	protected static final int HEADER_SIZE = Integer.BYTES + Short.BYTES;
+	// Length, checksum of the uncompressed packet and flags
+	protected static final int HEADER_SIZE = Integer.BYTES + Integer.BYTES + Byte.BYTES;
+	protected static final int MAX_FRAME_SIZE = 1 << 16;
+
+	// Flags
+	protected static final int CODEC_MASK = 0x03;
+	protected static final int CHECKSUM_SHIFT = 2;
+	protected static final int CHECKSUM_MASK = 0x03 << CHECKSUM_SHIFT;
+	protected static final byte MORE = (byte) 0x80;
+	// Packets waiting to be written at most
+	protected static final int MAX_OUTBOUND = 64;
+	// Packets waiting to be read at most, the socket isn't read meanwhile
+	protected static final int MAX_INBOUND = 64;
+
+	// A packet moving between the game thread and the I/O thread
+	protected static final class Frame {
+		// Pooled memory
+		ByteBuffer body, headers;
+		// Headers and slices of the body, written together
+		ByteBuffer[] parts;
+		int checksum;
+		byte algorithm;
+		byte codec;
+		// More frames of the packet are being read
+		boolean more;
+
+		// Splits the body in frames
+		void split() {
+			int length = body.remaining();
+			int start = body.position();
+			int count = Math.max(1, (length + MAX_FRAME_SIZE - 1) / MAX_FRAME_SIZE);
+			headers = BufferPool.acquire(count * HEADER_SIZE);
+			parts = new ByteBuffer[count * 2];
+			for (int i = 0; i < count; i++) {
+				int offset = start + i * MAX_FRAME_SIZE;
+				int size = Math.min(MAX_FRAME_SIZE, start + length - offset);
+
+				headers.limit((i + 1) * HEADER_SIZE).position(i * HEADER_SIZE);
+				ByteBuffer header = headers.slice();
+				header.putInt(size);
+				header.putInt(checksum);
+				header.put(flags(codec, algorithm, i != count - 1));
+				header.flip();
+				parts[i * 2] = header;
+
+				body.limit(offset + size).position(offset);
+				parts[i * 2 + 1] = body.slice();
+			}
+		}
+
+		void release() {
+			BufferPool.release(body);
+			BufferPool.release(headers);
+			body = headers = null;
+			parts = null;
+		}
+	}
+
+	protected static byte flags(byte codec, byte algorithm, boolean more) {
+		return (byte) (codec | algorithm << CHECKSUM_SHIFT | (more ? MORE : 0));
+	}
 
 	protected SocketChannel socket;
 	protected ByteBuffer packet_header;
 	protected ByteBuffer[] composite = new ByteBuffer[2];
 	protected long timeout;
+	protected PacketCompressor compressor;
+
+	// Set when the packets are moved by an I/O thread
+	protected TCPSelector selector;
+	protected final MpscQueue<Frame> outbound = new MpscQueue<>();
+	protected final MpscQueue<Frame> inbound = new MpscQueue<>();
+	protected final AtomicBoolean writeRequested = new AtomicBoolean();
+	protected final AtomicBoolean readPaused = new AtomicBoolean();
+	protected volatile Throwable failure;
+
+	// Only used by the I/O thread
+	protected SelectionKey key;
+	protected Frame writing;
+	protected ByteBuffer reading_header;
+	protected Frame reading;
+	protected boolean reading_body;
 
 	public TCPConnection() {
-		packet_header = ByteBuffer.allocate(HEADER_SIZE);
+		packet_header = ByteBuffer.allocateDirect(HEADER_SIZE);
 		packet_header.order(NetworkBuffer.ORDER);
 	}
 
 	@Override
 	public void destroy() {
 		packet_header = null;
+		writeBuffer.release();
+		readBuffer.release();
+		if (selector != null) {
+			// The outbound packets belong to the I/O thread
+			selector.cancel(this);
+		} else {
+			releaseInbound();
+		}
+		if (compressor != null) {
+			compressor.destroy();
+			compressor = null;
+		}
 	}
 
 	@Override
@@ -46,6 +155,9 @@ public class TCPConnection extends ConnectionEndpoint {
 			throw new EndpointException("The engine option for timeout time is missing or invalid");
 		}
 		timeout = timeout_option;
+		if (compressor == null) {
+			compressor = new PacketCompressor(Game.getInstance());
+		}
 	}
 
 	@Override
@@ -72,36 +184,57 @@ public class TCPConnection extends ConnectionEndpoint {
 
 	@Override
 	public void send() {
+		if (selector != null) {
+			enqueue();
+			return;
+		}
+
 		// Timeout
 		final long begin = System.currentTimeMillis();
 
 		// Ensure end instruction to avoid errors
 		writeBuffer.putByte(Opcode.END);
 		writeBuffer.flip();
-		int length = writeBuffer.getLimit();
-
-		// Write header
-		packet_header.clear();
-		packet_header.putInt(length);
-		packet_header.putShort(HashUtil.shortHash(writeBuffer.asArray(), 0, length));
-		packet_header.flip();
+		ByteBuffer data = writeBuffer.getRaw();
+		int checksum = packetChecksum.compute(data, 0, data.limit());
+		byte algorithm = packetChecksum.getId();
+		byte codec = compress(data);
+		ByteBuffer body = codec == PacketCompressor.NONE ? data : compressor.getOutput();
 
 		composite[0] = packet_header;
-		composite[1] = writeBuffer.getRaw();
+		composite[1] = body;
 
 		try {
-			while (writeBuffer.getFreeSpace() > 0) {
-				socket.write(composite, 0, composite.length);
-				if (System.currentTimeMillis() > begin + timeout) {
-					throw new EndpointException(timeout + " ms timeout reached while writing");
+			int end = body.limit();
+			int offset = body.position();
+			do {
+				int size = Math.min(MAX_FRAME_SIZE, end - offset);
+				boolean more = offset + size < end;
+
+				// Write header
+				packet_header.clear();
+				packet_header.putInt(size);
+				packet_header.putInt(checksum);
+				packet_header.put(flags(codec, algorithm, more));
+				packet_header.flip();
+
+				// Straight from the memory of the packet
+				body.limit(offset + size).position(offset);
+				while (packet_header.hasRemaining() || body.hasRemaining()) {
+					socket.write(composite, 0, composite.length);
+					if (System.currentTimeMillis() > begin + timeout) {
+						throw new EndpointException(timeout + " ms timeout reached while writing");
+					}
 				}
-			}
+				offset += size;
+			} while (offset < end);
 		} catch(IOException e) {
 			throw new EndpointException("Input / Output error occurred while sending a packet", e);
 		}
 
 		// Reset state
 		writeBuffer.clear();
+		writeBuffer.trim();
 		reliable = false;
 	}
 
@@ -110,63 +243,304 @@ public class TCPConnection extends ConnectionEndpoint {
 		// Timeout
 		final long begin = System.currentTimeMillis();
 
-		// Read header info
-		packet_header.clear();
-		packet_header.limit(HEADER_SIZE);
+		if (selector != null) {
+			dequeue(begin);
+			return;
+		}
 
-		// Guarded read operation
-		try {
-			while (packet_header.remaining() > 0) {
-				socket.read(packet_header);
-				if (System.currentTimeMillis() > begin + timeout) {
-					throw new EndpointException(timeout + " ms timeout reached while reading");
+		readBuffer.clear();
+		readBuffer.trim();
+		int length = 0;
+		int checksum;
+		byte algorithm;
+		byte codec;
+		boolean more;
+		do {
+			// Read header info
+			packet_header.clear();
+			packet_header.limit(HEADER_SIZE);
+
+			// Guarded read operation
+			try {
+				while (packet_header.remaining() > 0) {
+					socket.read(packet_header);
+					if (System.currentTimeMillis() > begin + timeout) {
+						throw new EndpointException(timeout + " ms timeout reached while reading");
+					}
 				}
+			} catch(IOException e) {
+				throw new EndpointException("Input / Output error occurred while receiving a packet header", e);
 			}
-		} catch(IOException e) {
-			throw new EndpointException("Input / Output error occurred while receiving a packet header", e);
+
+			packet_header.clear();
+			int size = packet_header.getInt();
+			checksum = packet_header.getInt();
+			byte flags = packet_header.get();
+			codec = (byte) (flags & CODEC_MASK);
+			algorithm = (byte) ((flags & CHECKSUM_MASK) >> CHECKSUM_SHIFT);
+			more = (flags & MORE) != 0;
+
+			if(size < 0 || size > MAX_FRAME_SIZE || length + size > readBuffer.getSize()) {
+				throw new EndpointException("Packet length invalid (" + (length + size) + ")");
+			}
+
+			// Read the frame right after the previous ones
+			readBuffer.setLimit(length + size);
+			readBuffer.reserve(length + size);
+			ByteBuffer body = readBuffer.getRaw();
+
+			// Guarded read operation
+			try {
+				while (body.hasRemaining()) {
+					socket.read(body);
+					if (System.currentTimeMillis() > begin + timeout) {
+						throw new EndpointException(timeout + " ms timeout reached while reading");
+					}
+				}
+			} catch(IOException e) {
+				throw new EndpointException("Input / Output error occurred while receving a packet body", e);
+			}
+			length += size;
+		} while (more);
+
+		readBuffer.flip();
+		if (codec != PacketCompressor.NONE) {
+			ByteBuffer compressed = readBuffer.detach();
+			try {
+				decompress(codec, compressed);
+			} finally {
+				BufferPool.release(compressed);
+			}
+		}
+		validate(algorithm, checksum);
+	}
+
+	// Compression
+
+	// Returns the codec the packet was compressed with
+	protected byte compress(ByteBuffer data) {
+		return compressor == null ? PacketCompressor.NONE : compressor.compress(data, reliable);
+	}
+
+	protected void decompress(byte codec, ByteBuffer data) {
+		if (compressor == null) {
+			throw new EndpointException("Compressed packet received by an endpoint that doesn't support compression");
+		}
+		compressor.decompress(codec, data, readBuffer);
+	}
+
+	// Leaves the read buffer ready to be read
+	protected void validate(byte algorithm, int checksum) {
+		PacketChecksum verifier = PacketChecksum.byId(algorithm);
+		if (!verifier.isAvailable()) {
+			throw new EndpointException("Packet checksum " + verifier + " is not available on this side");
+		}
+		if (checksum != verifier.compute(readBuffer.getRaw(), 0, readBuffer.getLimit())) {
+			throw new EndpointException("Packet checksum and content do not match");
 		}
+		readBuffer.setPosition(0);
+	}
 
-		packet_header.clear();
-		int length = packet_header.getInt();
-		short checksum = packet_header.getShort();
+	// Queued I/O
 
-		if(length < 0 || length > 256000) {
-			throw new EndpointException("Packet length invalid (" + length + ")");
+	protected void enqueue() {
+		checkFailure();
+
+		// Ensure end instruction to avoid errors
+		writeBuffer.putByte(Opcode.END);
+		writeBuffer.flip();
+		ByteBuffer data = writeBuffer.getRaw();
+
+		Frame frame = new Frame();
+		frame.checksum = packetChecksum.compute(data, 0, data.limit());
+		frame.algorithm = packetChecksum.getId();
+		frame.codec = compress(data);
+		if (frame.codec == PacketCompressor.NONE) {
+			// The I/O thread writes the packet from where it was written
+			frame.body = writeBuffer.detach();
+		} else {
+			ByteBuffer output = compressor.getOutput();
+			frame.body = BufferPool.acquire(output.remaining());
+			frame.body.put(output).flip();
+			writeBuffer.clear();
+			writeBuffer.trim();
 		}
+		frame.split();
+		outbound.offer(frame);
+		selector.requestWrite(this);
 
-		// Read packet body
-		readBuffer.clear();
-		readBuffer.setLimit(length);
+		// Reset state
+		reliable = false;
+	}
 
-		// Guarded read operation
-		try {
-			while (readBuffer.getFreeSpace() > 0) {
-				socket.read(readBuffer.getRaw());
-				if (System.currentTimeMillis() > begin + timeout) {
-					throw new EndpointException(timeout + " ms timeout reached while reading");
+	protected void dequeue(long begin) {
+		Frame frame;
+		while ((frame = inbound.poll()) == null) {
+			checkFailure();
+			if (System.currentTimeMillis() > begin + timeout) {
+				throw new EndpointException(timeout + " ms timeout reached while reading");
+			}
+			ThreadUtil.sleep(1);
+		}
+
+		// There's room again
+		if (readPaused.get() && inbound.size() < MAX_INBOUND && readPaused.compareAndSet(true, false)) {
+			selector.resumeRead(this);
+		}
+
+		// The I/O thread hands out whole packets
+		if (frame.codec == PacketCompressor.NONE) {
+			readBuffer.adopt(frame.body);
+		} else {
+			try {
+				decompress(frame.codec, frame.body);
+			} finally {
+				BufferPool.release(frame.body);
+			}
+		}
+		validate(frame.algorithm, frame.checksum);
+	}
+
+	protected void checkFailure() {
+		Throwable failure = this.failure;
+		if (failure != null) {
+			throw new EndpointException("Input / Output error occurred on the I/O thread", failure);
+		}
+	}
+
+	boolean hasOutbound() {
+		return outbound.size() > 0 || writing != null;
+	}
+
+	void fail(Throwable t) {
+		if (failure == null) {
+			failure = t;
+		}
+	}
+
+	// Releases the packets that will never be written or completed, called by
+	// the I/O thread once the key is cancelled
+	void releaseOutbound() {
+		if (writing != null) {
+			writing.release();
+			writing = null;
+		}
+		Frame frame;
+		while ((frame = outbound.poll()) != null) {
+			frame.release();
+		}
+		if (reading != null) {
+			reading.release();
+			reading = null;
+		}
+	}
+
+	// Only called by the thread currently consuming the inbound packets
+	void releaseInbound() {
+		Frame frame;
+		while ((frame = inbound.poll()) != null) {
+			frame.release();
+		}
+	}
+
+	// Reads as much as is available, called by the I/O thread. Returns false
+	// if reading must pause until the game thread drains some packets
+	boolean onReadable() throws IOException {
+		if (reading_header == null) {
+			reading_header = ByteBuffer.allocateDirect(HEADER_SIZE);
+			reading_header.order(NetworkBuffer.ORDER);
+		}
+		while (true) {
+			if (!reading_body) {
+				if (read(reading_header)) {
+					return true;
+				}
+				reading_header.flip();
+				int size = reading_header.getInt();
+				int checksum = reading_header.getInt();
+				byte flags = reading_header.get();
+				reading_header.clear();
+				startFrame(size, checksum, flags);
+				reading_body = true;
+			}
+			if (read(reading.body)) {
+				return true;
+			}
+			reading_body = false;
+
+			if (!reading.more) {
+				// The packet is complete, it is validated and decompressed by the game thread
+				reading.body.flip();
+				inbound.offer(reading);
+				reading = null;
+				if (inbound.size() >= MAX_INBOUND) {
+					return false;
 				}
 			}
-		} catch(IOException e) {
-			throw new EndpointException("Input / Output error occurred while receving a packet body", e);
 		}
+	}
 
-		readBuffer.clear();
+	// Makes room for the next frame of the packet being read
+	private void startFrame(int size, int checksum, byte flags) {
+		int length = reading == null ? 0 : reading.body.position();
+		if (size < 0 || size > MAX_FRAME_SIZE || length + size > readBuffer.getSize()) {
+			throw new EndpointException("Packet length invalid (" + (length + size) + ")");
+		}
+		byte codec = (byte) (flags & CODEC_MASK);
+		byte algorithm = (byte) ((flags & CHECKSUM_MASK) >> CHECKSUM_SHIFT);
+
+		if (reading == null) {
+			reading = new Frame();
+			reading.body = BufferPool.acquire(size);
+			reading.checksum = checksum;
+			reading.algorithm = algorithm;
+			reading.codec = codec;
+		} else if (reading.codec != codec || reading.algorithm != algorithm || reading.checksum != checksum) {
+			throw new EndpointException("Frame doesn't belong to the packet being read");
+		} else if (reading.body.capacity() < length + size) {
+			ByteBuffer grown = BufferPool.acquire(Math.max(length + size, reading.body.capacity() * 2));
+			reading.body.flip();
+			grown.put(reading.body);
+			BufferPool.release(reading.body);
+			reading.body = grown;
+		}
+		reading.body.limit(length + size);
+		reading.more = (flags & MORE) != 0;
+	}
 
-		// Validate checksum
-		if (checksum != HashUtil.shortHash(readBuffer.asArray(), 0, length)) {
-			throw new EndpointException("Packet checksum and content do not match");
+	// Returns true if the buffer could not be filled yet
+	private boolean read(ByteBuffer buffer) throws IOException {
+		if (buffer.hasRemaining() && socket.read(buffer) == -1) {
+			throw new EndpointException("Connection closed by the remote endpoint");
 		}
+		return buffer.hasRemaining();
+	}
 
-		// Reset state
-		readBuffer.clear();
-		readBuffer.setLimit(length);
+	// Writes as much as the socket takes, called by the I/O thread. Returns
+	// false once everything was written
+	boolean onWritable() throws IOException {
+		while (true) {
+			if (writing == null) {
+				writing = outbound.poll();
+				if (writing == null) {
+					return false;
+				}
+			}
+			// Gathers the headers and the slices of the packet
+			socket.write(writing.parts);
+			if (writing.parts[writing.parts.length - 1].hasRemaining()) {
+				return true;
+			}
+			writing.release();
+			writing = null;
+		}
 	}
 
 	// Getters
 
 	@Override
 	public boolean isConnected() {
-		return socket != null && socket.isOpen();
+		return socket != null && socket.isOpen() && failure == null;
 	}
 
 	@Override
@@ -215,12 +589,43 @@ public class TCPConnection extends ConnectionEndpoint {
 
 	@Override
 	public boolean canSend() {
-		return true;
+		return selector == null || outbound.size() < MAX_OUTBOUND;
 	}
 
 	@Override
 	public boolean canReceive() {
-		return true;
+		return selector == null || !inbound.isEmpty();
+	}
+
+	@Override
+	public boolean isFullDuplex() {
+		return selector != null;
+	}
+
+	@Override
+	public int getSupportedCompression() {
+		return compressor == null ? 0 : compressor.getSupported();
+	}
+
+	@Override
+	public int getCompressionDictionary() {
+		return compressor == null ? 0 : compressor.getDictionaryId();
+	}
+
+	@Override
+	public int negotiateCompression(int mask, int dictionaryId) {
+		return compressor == null ? 0 : compressor.negotiate(mask, dictionaryId);
+	}
+
+	@Override
+	public void setCompression(int mask) {
+		if (compressor != null) {
+			compressor.setEnabled(mask);
+		}
+	}
+
+	public TCPSelector getSelector() {
+		return selector;
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,214 @@
+package com.spaghetti.networking.tcp;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.function.Consumer;
+
+import com.spaghetti.exceptions.EndpointException;
+import com.spaghetti.utils.Logger;
+import com.spaghetti.utils.MpscQueue;
+
+/**
+ * TCPSelector is a dedicated I/O thread moving the packets of any number of
+ * {@link TCPConnection}s with a {@link Selector}
+ * <p>
+ * Reads and writes are done as soon as the sockets are ready and may be
+ * partial, so a slow connection never holds up the others or the game
+ * thread, which only enqueues encoded packets and drains decoded ones. The
+ * selector can also accept connections without blocking
+ *
+ * @author bohdloss
+ *
+ */
+public class TCPSelector {
+
+	protected final Selector selector;
+	protected final Thread thread;
+	protected volatile boolean running = true;
+	// Work that must happen on the I/O thread
+	protected final MpscQueue<Runnable> tasks = new MpscQueue<>();
+
+	public TCPSelector(String name) {
+		try {
+			selector = Selector.open();
+		} catch (IOException e) {
+			throw new EndpointException("Input / Output error occurred while opening a selector", e);
+		}
+		thread = new Thread(this::run, name);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Starts moving the packets of a connection
+	 *
+	 * @param connection The connection, must be connected
+	 */
+	public void register(TCPConnection connection) {
+		connection.selector = this;
+		execute(() -> {
+			try {
+				connection.key = connection.socket.register(selector, SelectionKey.OP_READ, connection);
+				if (connection.hasOutbound()) {
+					enableWrite(connection);
+				}
+			} catch (ClosedChannelException e) {
+				connection.fail(e);
+			}
+		});
+	}
+
+	/**
+	 * Accepts connections without blocking
+	 *
+	 * @param server   The server socket, must be non-blocking
+	 * @param acceptor Receives the accepted sockets on the I/O thread
+	 */
+	public void register(ServerSocketChannel server, Consumer<SocketChannel> acceptor) {
+		execute(() -> {
+			try {
+				server.register(selector, SelectionKey.OP_ACCEPT, acceptor);
+			} catch (ClosedChannelException e) {
+				Logger.error("Server socket closed before it could be registered", e);
+			}
+		});
+	}
+
+	// Called after a packet is enqueued
+	void requestWrite(TCPConnection connection) {
+		if (connection.writeRequested.compareAndSet(false, true)) {
+			execute(() -> enableWrite(connection));
+		}
+	}
+
+	// Called after the game thread drained a connection that stopped reading
+	void resumeRead(TCPConnection connection) {
+		execute(() -> {
+			SelectionKey key = connection.key;
+			if (key != null && key.isValid()) {
+				key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+			}
+		});
+	}
+
+	// Stops moving the packets of a connection and releases them
+	void cancel(TCPConnection connection) {
+		execute(() -> {
+			if (connection.key != null) {
+				connection.key.cancel();
+			}
+			connection.releaseOutbound();
+			connection.releaseInbound();
+		});
+	}
+
+	protected void execute(Runnable task) {
+		tasks.offer(task);
+		selector.wakeup();
+	}
+
+	protected void enableWrite(TCPConnection connection) {
+		SelectionKey key = connection.key;
+		if (key == null) {
+			return;
+		}
+		if (key.isValid()) {
+			key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+		} else {
+			// Enqueued after the connection failed, it will never be written
+			connection.releaseOutbound();
+		}
+	}
+
+	public void stop() {
+		running = false;
+		selector.wakeup();
+		try {
+			thread.join(1000);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	// I/O thread
+
+	// The game thread is behind, the peer waits until it catches up
+	protected void pauseRead(SelectionKey key, TCPConnection connection) {
+		key.interestOps(key.interestOps() & ~SelectionKey.OP_READ);
+		connection.readPaused.set(true);
+		// It may have drained the packets before seeing the flag
+		if (connection.inbound.size() < TCPConnection.MAX_INBOUND && connection.readPaused.compareAndSet(true, false)) {
+			key.interestOps(key.interestOps() | SelectionKey.OP_READ);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	protected void run() {
+		while (running) {
+			try {
+				selector.select();
+			} catch (IOException e) {
+				Logger.error("Selector failed", e);
+				break;
+			}
+
+			Runnable task;
+			while ((task = tasks.poll()) != null) {
+				task.run();
+			}
+
+			Iterator<SelectionKey> iterator = selector.selectedKeys().iterator();
+			while (iterator.hasNext()) {
+				SelectionKey key = iterator.next();
+				iterator.remove();
+				if (!key.isValid()) {
+					continue;
+				}
+
+				Object attachment = key.attachment();
+				if (attachment instanceof TCPConnection) {
+					TCPConnection connection = (TCPConnection) attachment;
+					try {
+						if (key.isReadable() && !connection.onReadable()) {
+							pauseRead(key, connection);
+						}
+						if (key.isValid() && key.isWritable() && !connection.onWritable()) {
+							// Nothing left, stop waiting for write readiness
+							key.interestOps(key.interestOps() & ~SelectionKey.OP_WRITE);
+							connection.writeRequested.set(false);
+							if (connection.hasOutbound() && connection.writeRequested.compareAndSet(false, true)) {
+								key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+							}
+						}
+					} catch (Throwable t) {
+						connection.fail(t);
+						key.cancel();
+						connection.releaseOutbound();
+					}
+				} else if (key.isAcceptable()) {
+					try {
+						SocketChannel socket;
+						while ((socket = ((ServerSocketChannel) key.channel()).accept()) != null) {
+							socket.configureBlocking(false);
+							((Consumer<SocketChannel>) attachment).accept(socket);
+						}
+					} catch (IOException e) {
+						Logger.error("Error accepting a connection", e);
+					}
+				}
+			}
+		}
+
+		try {
+			selector.close();
+		} catch (IOException e) {
+			Logger.error("Error closing selector", e);
+		}
+	}
+
+}
@@ -3,21 +3,40 @@ package com.spaghetti.networking.tcp;
 import java.net.InetSocketAddress;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
 
 import com.spaghetti.networking.ConnectionEndpoint;
 import com.spaghetti.networking.ServerComponent;
+import com.spaghetti.utils.MpscQueue;
+import com.spaghetti.utils.StreamUtil;
 
 public class TCPServer extends ServerComponent {
 
 	// Server object
 	ServerSocketChannel server;
 
+	// I/O threads
+	protected TCPSelector[] selectors;
+	protected int nextSelector;
+
+	// Accepted sockets, and connections waiting for their first packet
+	protected final MpscQueue<SocketChannel> accepted = new MpscQueue<>();
+	protected final ArrayList<TCPConnection> pending = new ArrayList<>();
+	protected final ArrayList<Long> pendingSince = new ArrayList<>();
+
 	// Binding
 	@Override
 	protected void internal_startserver(int port) throws Throwable {
 		server = ServerSocketChannel.open();
 		server.configureBlocking(false);
 		server.bind(new InetSocketAddress(port));
+
+		Integer threads = getGame().getEngineSetting("network.ioThreads");
+		selectors = new TCPSelector[threads == null || threads < 1 ? 1 : threads];
+		for (int i = 0; i < selectors.length; i++) {
+			selectors[i] = new TCPSelector("TCP I/O " + i);
+		}
+		selectors[0].register(server, accepted::offer);
 	}
 
 	// Unbinding
@@ -26,22 +45,55 @@ public class TCPServer extends ServerComponent {
 		ServerSocketChannel s = server;
 		server = null;
 		s.close();
+
+		for (TCPConnection connection : pending) {
+			connection.disconnect();
+			connection.destroy();
+		}
+		pending.clear();
+		pendingSince.clear();
+		SocketChannel socket;
+		while ((socket = accepted.poll()) != null) {
+			StreamUtil.close(socket);
+		}
+		for (TCPSelector selector : selectors) {
+			selector.stop();
+		}
+		selectors = null;
 	}
 
 	// Accepting connections
 	@Override
 	protected ConnectionEndpoint internal_acceptsocket() throws Throwable {
-		// Accept socket
-		SocketChannel socket = server.accept();
-		if (socket == null) {
-			return null;
+		// Start moving the packets of new sockets
+		SocketChannel socket;
+		while ((socket = accepted.poll()) != null) {
+			TCPConnection connection = new TCPConnection();
+			connection.connect(socket);
+			selectors[nextSelector].register(connection);
+			nextSelector = (nextSelector + 1) % selectors.length;
+			pending.add(connection);
+			pendingSince.add(System.currentTimeMillis());
 		}
-		socket.configureBlocking(false);
 
-		// Initialize endpoint
-		ConnectionEndpoint endpoint = new TCPConnection();
-		endpoint.connect(socket);
-		return endpoint;
+		// Only hand out connections whose handshake already arrived, so the
+		// game thread never waits for a client
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < pending.size(); i++) {
+			TCPConnection connection = pending.get(i);
+			boolean expired = now - pendingSince.get(i) > connection.timeout;
+			if (connection.canReceive() || expired || !connection.isConnected()) {
+				pending.remove(i);
+				pendingSince.remove(i);
+				if (connection.canReceive()) {
+					return connection;
+				}
+				connection.disconnect();
+				connection.destroy();
+				i--;
+			}
+		}
+		return null;
 	}
 
 	// Getters
@@ -0,0 +1,21 @@
+package com.spaghetti.networking.udp;
+
+import com.spaghetti.core.Game;
+import com.spaghetti.networking.ClientComponent;
+import com.spaghetti.networking.ConnectionEndpoint;
+
+public class UDPClient extends ClientComponent {
+
+	@Override
+	public void initialize(Game game) throws Throwable {
+		super.initialize(game);
+	}
+
+	@Override
+	public ConnectionEndpoint internal_connectsocket(String ip, int port) throws Throwable {
+		UDPConnection endpoint = new UDPConnection();
+		endpoint.connect(ip, port);
+		return endpoint;
+	}
+
+}
@@ -0,0 +1,911 @@
+package com.spaghetti.networking.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import com.spaghetti.core.Game;
+import com.spaghetti.exceptions.EndpointException;
+import com.spaghetti.networking.BufferPool;
+import com.spaghetti.networking.ConnectionEndpoint;
+import com.spaghetti.networking.NetworkBuffer;
+import com.spaghetti.networking.Opcode;
+import com.spaghetti.networking.PacketChecksum;
+import com.spaghetti.utils.StreamUtil;
+import com.spaghetti.utils.ThreadUtil;
+
+/**
+ * UDPConnection is a connection endpoint working over UDP, with a thin
+ * reliability layer on top
+ * <p>
+ * Every packet sent becomes a message. Messages sent while the endpoint is
+ * {@link #isReliable() reliable} are delivered exactly once and in order, and
+ * are resent until acknowledged. All other messages are latest-wins: an older
+ * one is never delivered after a newer one, and a lost one is only resent
+ * until something newer is sent, so replication never stalls behind lost
+ * packets
+ * <p>
+ * Each datagram acknowledges the newest datagram received and, through a
+ * bitfield, the 32 before it. The same acknowledgements are used to estimate
+ * the round trip time. Messages larger than the {@code network.mtu} engine
+ * setting are split into fragments and reassembled on the other side
+ * <p>
+ * A server only opens a connection once the client has echoed a cookie it
+ * sent back to the client's address, see {@link UDPServer}. Until then the
+ * client keeps resending its first messages, and it resends them right away
+ * after answering
+ * <p>
+ * Messages are kept in pooled memory until acknowledged, taken from the write
+ * buffer without copying. Fragments received are kept in pooled memory sized
+ * to what actually arrived, then reassembled into memory the read buffer
+ * adopts
+ *
+ * @author bohdloss
+ *
+ */
+public class UDPConnection extends ConnectionEndpoint {
+
+	// Datagram layout
+	protected static final short PROTOCOL_ID = 0x5347;
+	protected static final int HEADER_SIZE = Short.BYTES * 3 + Integer.BYTES + Byte.BYTES;
+	protected static final int MESSAGE_HEADER_SIZE = Byte.BYTES + Short.BYTES * 3;
+	protected static final int MAX_DATAGRAM = 65507;
+	protected static final int COOKIE_SIZE = Long.BYTES;
+	protected static final int CHALLENGE_SIZE = HEADER_SIZE + COOKIE_SIZE;
+
+	// Datagram types, the high bit tells if the acknowledgements are valid
+	protected static final byte MESSAGE = 0;
+	protected static final byte ACK = 1;
+	protected static final byte DISCONNECT = 2;
+	protected static final byte CHALLENGE = 3;
+	protected static final byte RESPONSE = 4;
+	protected static final byte HAS_ACK = (byte) 0x80;
+
+	// Message channels
+	protected static final byte NONE = -1;
+	protected static final byte RELIABLE = 0;
+	protected static final byte UNRELIABLE = 1;
+
+	// Timing, in milliseconds
+	protected static final long MIN_RTO = 20;
+	protected static final long MAX_RTO = 2000;
+	protected static final long INITIAL_RTO = 200;
+	protected static final long ACK_DELAY = 10;
+	protected static final long HEARTBEAT = 250;
+
+	protected static final int SENT_HISTORY = 1024;
+	protected static final int MAX_RELIABLE_PENDING = 1024;
+
+	protected static final class Outgoing {
+		byte channel;
+		int sequence;
+		// Pooled memory, from the write buffer
+		ByteBuffer data;
+		int length;
+		int fragments;
+		boolean[] acked = new boolean[0];
+		long[] sentTime = new long[0];
+		int remaining;
+	}
+
+	protected static final class Incoming {
+		int sequence;
+		// Pooled memory, adopted by the read buffer
+		ByteBuffer data;
+		// Pooled memory of each fragment, until all of them are received
+		ByteBuffer[] parts = new ByteBuffer[0];
+		int length;
+		int fragments;
+		boolean[] received = new boolean[0];
+		int remaining;
+	}
+
+	// Socket
+	protected DatagramChannel channel;
+	protected SocketAddress remote;
+	protected UDPServer server;
+	protected ByteBuffer datagram, incomingDatagram;
+	protected int fragmentSize;
+	protected long timeout;
+	protected boolean remoteClosed;
+
+	// Datagram sequences and acknowledgements
+	protected int localSequence;
+	protected int remoteSequence;
+	protected int ackBits;
+	protected boolean receivedAny, ackPending;
+	protected long lastSendTime, lastReceiveTime;
+
+	// Sent datagrams
+	protected final int[] sentSequence = new int[SENT_HISTORY];
+	protected final long[] sentTime = new long[SENT_HISTORY];
+	protected final Outgoing[] sentMessage = new Outgoing[SENT_HISTORY];
+	protected final int[] sentMessageSequence = new int[SENT_HISTORY];
+	protected final byte[] sentChannel = new byte[SENT_HISTORY];
+	protected final int[] sentFragment = new int[SENT_HISTORY];
+
+	// Outgoing messages
+	protected int nextReliableSend;
+	protected int nextUnreliableSend;
+	protected final ArrayDeque<Outgoing> reliableQueue = new ArrayDeque<>();
+	protected Outgoing latest;
+	protected final ArrayDeque<Outgoing> outgoingPool = new ArrayDeque<>();
+
+	// Incoming messages
+	protected int nextReliable;
+	protected final HashMap<Integer, Incoming> reliableIncoming = new HashMap<>();
+	protected final ArrayDeque<Incoming> ready = new ArrayDeque<>();
+	protected Incoming unreliableIncoming, pendingUnreliable;
+	protected int lastUnreliable;
+	protected boolean receivedUnreliable;
+	protected final ArrayDeque<Incoming> incomingPool = new ArrayDeque<>();
+
+	// Round trip time estimation
+	protected double srtt, rttvar;
+	protected long rto = INITIAL_RTO;
+	protected boolean measured;
+
+	// Statistics
+	protected long packetsSent, packetsResent, packetsReceived;
+
+	public UDPConnection() {
+		initialize(getMtu(), getTimeout());
+	}
+
+	/**
+	 * Creates a connection without reading the engine settings
+	 *
+	 * @param initialBufferSize The memory the buffers start with
+	 * @param bufferSize        The size the buffers may grow up to
+	 * @param mtu               The largest datagram sent
+	 * @param timeout           The time in milliseconds after which the other
+	 *                          side is considered gone
+	 */
+	protected UDPConnection(int initialBufferSize, int bufferSize, int mtu, long timeout) {
+		super(initialBufferSize, bufferSize, PacketChecksum.NONE);
+		initialize(mtu, timeout);
+	}
+
+	private void initialize(int mtu, long timeout) {
+		if (mtu <= HEADER_SIZE + MESSAGE_HEADER_SIZE || mtu > MAX_DATAGRAM) {
+			throw new EndpointException("Invalid mtu " + mtu);
+		}
+		fragmentSize = mtu - HEADER_SIZE - MESSAGE_HEADER_SIZE;
+		datagram = ByteBuffer.allocateDirect(mtu);
+		datagram.order(NetworkBuffer.ORDER);
+		this.timeout = timeout;
+	}
+
+	private static int getMtu() {
+		Integer mtu = Game.getInstance().getEngineSetting("network.mtu");
+		if (mtu == null || mtu <= HEADER_SIZE + MESSAGE_HEADER_SIZE || mtu > MAX_DATAGRAM) {
+			throw new EndpointException("The engine option for mtu is missing or invalid");
+		}
+		return mtu;
+	}
+
+	private static long getTimeout() {
+		Long timeout_option = Game.getInstance().getEngineSetting("network.timeoutTime");
+		if (timeout_option == null || timeout_option == 0) {
+			throw new EndpointException("The engine option for timeout time is missing or invalid");
+		}
+		return timeout_option;
+	}
+
+	// Server side connection, sharing the socket of the server
+	void attach(UDPServer server, SocketAddress remote) {
+		this.server = server;
+		this.channel = server.channel;
+		this.remote = remote;
+		resetState();
+	}
+
+	@Override
+	public void destroy() {
+		datagram = null;
+		incomingDatagram = null;
+		releaseMessages();
+		outgoingPool.clear();
+		incomingPool.clear();
+		writeBuffer.release();
+		readBuffer.release();
+	}
+
+	@Override
+	public void connect(Object obj) {
+		DatagramChannel channel = (DatagramChannel) obj;
+		if (channel == null || !channel.isOpen() || !channel.isConnected()) {
+			throw new EndpointException("Invalid socket provided");
+		}
+		try {
+			this.remote = channel.getRemoteAddress();
+		} catch (IOException e) {
+			throw new EndpointException("Error getting remote address", e);
+		}
+		this.channel = channel;
+		this.server = null;
+		incomingDatagram = ByteBuffer.allocateDirect(MAX_DATAGRAM);
+		incomingDatagram.order(NetworkBuffer.ORDER);
+		resetState();
+	}
+
+	@Override
+	public void connect(String ip, int port) {
+		try {
+			DatagramChannel channel = DatagramChannel.open();
+			channel.connect(new InetSocketAddress(ip, port));
+			channel.configureBlocking(false);
+			connect(channel);
+		} catch (UnknownHostException e) {
+			throw new EndpointException("Unknown host \"" + ip + ":" + port + "\"", e);
+		} catch (IOException e) {
+			throw new EndpointException("Input / Output error occurred while connecting", e);
+		}
+	}
+
+	@Override
+	public void disconnect() {
+		if (channel == null) {
+			return;
+		}
+		// Best effort, the other side will time out otherwise
+		try {
+			long now = System.currentTimeMillis();
+			datagram.clear();
+			writeHeader(nextSequence(), DISCONNECT, now);
+			datagram.flip();
+			transmit();
+		} catch (IOException e) {
+		}
+		if (server != null) {
+			server.remove(this);
+		} else {
+			StreamUtil.close(channel);
+		}
+		channel = null;
+	}
+
+	protected void resetState() {
+		remoteClosed = false;
+		localSequence = 0;
+		remoteSequence = 0;
+		ackBits = 0;
+		receivedAny = ackPending = false;
+		lastSendTime = lastReceiveTime = System.currentTimeMillis();
+		for (int i = 0; i < SENT_HISTORY; i++) {
+			sentSequence[i] = -1;
+			sentMessage[i] = null;
+		}
+		nextReliableSend = nextUnreliableSend = 0;
+		nextReliable = 0;
+		releaseMessages();
+		receivedUnreliable = false;
+		srtt = rttvar = 0;
+		rto = INITIAL_RTO;
+		measured = false;
+	}
+
+	// Gives the memory of every message back to the pool
+	protected void releaseMessages() {
+		while (!reliableQueue.isEmpty()) {
+			recycle(reliableQueue.poll());
+		}
+		if (latest != null) {
+			recycle(latest);
+			latest = null;
+		}
+		for (Incoming incoming : reliableIncoming.values()) {
+			recycle(incoming);
+		}
+		reliableIncoming.clear();
+		while (!ready.isEmpty()) {
+			recycle(ready.poll());
+		}
+		if (unreliableIncoming != null) {
+			recycle(unreliableIncoming);
+		}
+		if (pendingUnreliable != null) {
+			recycle(pendingUnreliable);
+		}
+		unreliableIncoming = pendingUnreliable = null;
+	}
+
+	protected void recycle(Outgoing message) {
+		BufferPool.release(message.data);
+		message.data = null;
+		outgoingPool.add(message);
+	}
+
+	protected void recycle(Incoming message) {
+		BufferPool.release(message.data);
+		message.data = null;
+		releaseParts(message);
+		incomingPool.add(message);
+	}
+
+	protected void releaseParts(Incoming message) {
+		for (int i = 0; i < message.fragments; i++) {
+			BufferPool.release(message.parts[i]);
+			message.parts[i] = null;
+		}
+	}
+
+	// Sending
+
+	@Override
+	public void send() {
+		// Ensure end instruction to avoid errors
+		writeBuffer.putByte(Opcode.END);
+		writeBuffer.flip();
+		int length = writeBuffer.getLimit();
+
+		try {
+			Outgoing message;
+			if (reliable) {
+				if (reliableQueue.size() >= MAX_RELIABLE_PENDING) {
+					throw new EndpointException("Too many unacknowledged reliable packets");
+				}
+				message = obtainOutgoing(RELIABLE, nextReliableSend, length);
+				nextReliableSend = (nextReliableSend + 1) & 0xFFFF;
+				reliableQueue.add(message);
+			} else {
+				// Replaces the previous one, which won't be resent anymore
+				message = obtainOutgoing(UNRELIABLE, nextUnreliableSend, length);
+				nextUnreliableSend = (nextUnreliableSend + 1) & 0xFFFF;
+				if (latest != null) {
+					recycle(latest);
+				}
+				latest = message;
+			}
+			// Kept until acknowledged, the write buffer goes on with new memory
+			message.data = writeBuffer.detach();
+
+			long now = System.currentTimeMillis();
+			for (int i = 0; i < message.fragments; i++) {
+				sendFragment(message, i, now);
+			}
+		} catch (IOException e) {
+			throw new EndpointException("Input / Output error occurred while sending a packet", e);
+		}
+
+		// Reset state
+		reliable = false;
+	}
+
+	protected Outgoing obtainOutgoing(byte channel, int sequence, int length) {
+		Outgoing message = outgoingPool.isEmpty() ? new Outgoing() : outgoingPool.poll();
+		int fragments = (length + fragmentSize - 1) / fragmentSize;
+		if (message.acked.length < fragments) {
+			message.acked = new boolean[fragments];
+			message.sentTime = new long[fragments];
+		}
+		for (int i = 0; i < fragments; i++) {
+			message.acked[i] = false;
+		}
+		message.channel = channel;
+		message.sequence = sequence;
+		message.length = length;
+		message.fragments = fragments;
+		message.remaining = fragments;
+		return message;
+	}
+
+	protected void sendFragment(Outgoing message, int fragment, long now) throws IOException {
+		int sequence = nextSequence();
+		int offset = fragment * fragmentSize;
+		int size = Math.min(fragmentSize, message.length - offset);
+
+		datagram.clear();
+		writeHeader(sequence, MESSAGE, now);
+		datagram.put(message.channel);
+		datagram.putShort((short) message.sequence);
+		datagram.putShort((short) fragment);
+		datagram.putShort((short) message.fragments);
+		ByteBuffer data = message.data;
+		data.limit(offset + size).position(offset);
+		datagram.put(data);
+		datagram.flip();
+
+		// Remember what this datagram carried
+		int index = sequence % SENT_HISTORY;
+		sentSequence[index] = sequence;
+		sentTime[index] = now;
+		sentMessage[index] = message;
+		sentMessageSequence[index] = message.sequence;
+		sentChannel[index] = message.channel;
+		sentFragment[index] = fragment;
+		message.sentTime[fragment] = now;
+
+		transmit();
+	}
+
+	protected void sendAck(long now) throws IOException {
+		int sequence = nextSequence();
+		datagram.clear();
+		writeHeader(sequence, ACK, now);
+		datagram.flip();
+		transmitControl(sequence, now);
+	}
+
+	// Echoes the cookie of the server, which drops everything until then
+	protected void sendResponse(long cookie, long now) throws IOException {
+		int sequence = nextSequence();
+		datagram.clear();
+		writeHeader(sequence, RESPONSE, now);
+		datagram.putLong(cookie);
+		datagram.flip();
+		transmitControl(sequence, now);
+
+		for (Outgoing message : reliableQueue) {
+			Arrays.fill(message.sentTime, 0, message.fragments, 0);
+		}
+		if (latest != null) {
+			Arrays.fill(latest.sentTime, 0, latest.fragments, 0);
+		}
+		resend(now);
+	}
+
+	// Sends a datagram that carries no message
+	protected void transmitControl(int sequence, long now) throws IOException {
+		int index = sequence % SENT_HISTORY;
+		sentSequence[index] = sequence;
+		sentTime[index] = now;
+		sentMessage[index] = null;
+		sentChannel[index] = NONE;
+
+		transmit();
+	}
+
+	protected void writeHeader(int sequence, byte type, long now) {
+		datagram.putShort(PROTOCOL_ID);
+		datagram.putShort((short) sequence);
+		datagram.putShort((short) remoteSequence);
+		datagram.putInt(ackBits);
+		datagram.put((byte) (type | (receivedAny ? HAS_ACK : 0)));
+		ackPending = false;
+		lastSendTime = now;
+	}
+
+	protected int nextSequence() {
+		int sequence = localSequence;
+		localSequence = (localSequence + 1) & 0xFFFF;
+		return sequence;
+	}
+
+	protected void transmit() throws IOException {
+		// If the socket buffer is full the datagram is lost like any other
+		channel.send(datagram, remote);
+		packetsSent++;
+	}
+
+	// Resends what wasn't acknowledged in time
+	protected void resend(long now) throws IOException {
+		for (Outgoing message : reliableQueue) {
+			resend(message, now);
+		}
+		if (latest != null) {
+			resend(latest, now);
+		}
+	}
+
+	protected void resend(Outgoing message, long now) throws IOException {
+		for (int i = 0; i < message.fragments; i++) {
+			if (!message.acked[i] && now - message.sentTime[i] >= rto) {
+				sendFragment(message, i, now);
+				packetsResent++;
+			}
+		}
+	}
+
+	// Receiving
+
+	/**
+	 * Reads every datagram available and sends whatever needs to be resent or
+	 * acknowledged
+	 */
+	public void pump() {
+		if (channel == null) {
+			return;
+		}
+		try {
+			if (server != null) {
+				server.pump();
+			} else {
+				while (true) {
+					incomingDatagram.clear();
+					if (channel.receive(incomingDatagram) == null) {
+						break;
+					}
+					incomingDatagram.flip();
+					handleDatagram(incomingDatagram);
+				}
+			}
+
+			long now = System.currentTimeMillis();
+			resend(now);
+			if ((ackPending && now - lastSendTime >= ACK_DELAY) || now - lastSendTime >= HEARTBEAT) {
+				sendAck(now);
+			}
+		} catch (IOException e) {
+			throw new EndpointException("Input / Output error occurred while pumping datagrams", e);
+		}
+	}
+
+	// Handshake
+
+	// Whether or not a datagram from an unknown address should be challenged,
+	// never smaller than the challenge so that replies can't amplify spoofing
+	static boolean isConnectionRequest(ByteBuffer datagram) {
+		int start = datagram.position();
+		return datagram.remaining() >= Math.max(CHALLENGE_SIZE, HEADER_SIZE + MESSAGE_HEADER_SIZE)
+				&& datagram.getShort(start) == PROTOCOL_ID
+				&& (datagram.get(start + HEADER_SIZE - 1) & ~HAS_ACK) == MESSAGE
+				&& datagram.get(start + HEADER_SIZE) == RELIABLE
+				&& datagram.getShort(start + HEADER_SIZE + 1) == 0;
+	}
+
+	// Whether or not a datagram from an unknown address echoes a cookie
+	static boolean isChallengeResponse(ByteBuffer datagram) {
+		int start = datagram.position();
+		return datagram.remaining() >= CHALLENGE_SIZE && datagram.getShort(start) == PROTOCOL_ID
+				&& (datagram.get(start + HEADER_SIZE - 1) & ~HAS_ACK) == RESPONSE;
+	}
+
+	static long getCookie(ByteBuffer datagram) {
+		return datagram.getLong(datagram.position() + HEADER_SIZE);
+	}
+
+	// The server keeps no state for it, so the header is empty
+	static void writeChallenge(ByteBuffer datagram, long cookie) {
+		datagram.clear();
+		datagram.putShort(PROTOCOL_ID);
+		datagram.putShort((short) 0);
+		datagram.putShort((short) 0);
+		datagram.putInt(0);
+		datagram.put(CHALLENGE);
+		datagram.putLong(cookie);
+		datagram.flip();
+	}
+
+	void handleDatagram(ByteBuffer buffer) throws IOException {
+		if (buffer.remaining() < HEADER_SIZE || buffer.getShort() != PROTOCOL_ID) {
+			return;
+		}
+		int sequence = buffer.getShort() & 0xFFFF;
+		int ack = buffer.getShort() & 0xFFFF;
+		int bits = buffer.getInt();
+		byte type = buffer.get();
+
+		long now = System.currentTimeMillis();
+		if ((type & ~HAS_ACK) == CHALLENGE) {
+			// Not part of the connection, only answered until the server replies
+			if (server == null && !receivedAny && buffer.remaining() >= COOKIE_SIZE) {
+				sendResponse(buffer.getLong(), now);
+			}
+			return;
+		}
+		lastReceiveTime = now;
+		packetsReceived++;
+		received(sequence);
+		if ((type & HAS_ACK) != 0) {
+			acknowledge(ack, now);
+			for (int i = 0; i < 32; i++) {
+				if ((bits & (1 << i)) != 0) {
+					acknowledge((ack - 1 - i) & 0xFFFF, now);
+				}
+			}
+			// Drop the reliable messages the other side has entirely
+			while (!reliableQueue.isEmpty() && reliableQueue.peek().remaining == 0) {
+				recycle(reliableQueue.poll());
+			}
+		}
+
+		switch (type & ~HAS_ACK) {
+		case MESSAGE:
+			// Acknowledgements alone are not acknowledged back
+			ackPending = true;
+			if (buffer.remaining() >= MESSAGE_HEADER_SIZE) {
+				readFragment(buffer);
+			}
+			break;
+		case DISCONNECT:
+			remoteClosed = true;
+			break;
+		}
+	}
+
+	// Updates the acknowledgements to send
+	protected void received(int sequence) {
+		if (!receivedAny) {
+			receivedAny = true;
+			remoteSequence = sequence;
+			ackBits = 0;
+			return;
+		}
+		int diff = (short) (sequence - remoteSequence);
+		if (diff > 0) {
+			ackBits = diff > 32 ? 0 : (int) (((long) ackBits << diff) | (1L << (diff - 1)));
+			remoteSequence = sequence;
+		} else if (diff < 0 && diff >= -32) {
+			ackBits |= 1 << (-diff - 1);
+		}
+	}
+
+	protected void acknowledge(int sequence, long now) {
+		int index = sequence % SENT_HISTORY;
+		if (sentSequence[index] != sequence) {
+			// Already acknowledged or too old
+			return;
+		}
+		sentSequence[index] = -1;
+		updateRtt(now - sentTime[index]);
+
+		Outgoing message = sentMessage[index];
+		sentMessage[index] = null;
+		if (message != null && message.channel == sentChannel[index]
+				&& message.sequence == sentMessageSequence[index]) {
+			int fragment = sentFragment[index];
+			if (fragment < message.fragments && !message.acked[fragment]) {
+				message.acked[fragment] = true;
+				message.remaining--;
+			}
+		}
+	}
+
+	protected void updateRtt(long sample) {
+		if (!measured) {
+			srtt = sample;
+			rttvar = sample / 2.0;
+			measured = true;
+		} else {
+			rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - sample);
+			srtt = 0.875 * srtt + 0.125 * sample;
+		}
+		rto = Math.max(MIN_RTO, Math.min(MAX_RTO, (long) Math.ceil(srtt + Math.max(1, 4 * rttvar))));
+	}
+
+	protected void readFragment(ByteBuffer buffer) {
+		byte channel = buffer.get();
+		int message = buffer.getShort() & 0xFFFF;
+		int fragment = buffer.getShort() & 0xFFFF;
+		int fragments = buffer.getShort() & 0xFFFF;
+		int size = buffer.remaining();
+		int offset = fragment * fragmentSize;
+		if (fragments == 0 || fragments > (readBuffer.getSize() + fragmentSize - 1) / fragmentSize
+				|| fragment >= fragments || (fragment != fragments - 1 && size != fragmentSize)
+				|| offset + size > readBuffer.getSize()) {
+			// Malformed
+			return;
+		}
+
+		Incoming incoming;
+		if (channel == RELIABLE) {
+			int ahead = (short) (message - nextReliable);
+			if (ahead < 0 || ahead >= MAX_RELIABLE_PENDING) {
+				// Already delivered
+				return;
+			}
+			incoming = reliableIncoming.get(message);
+			if (incoming == null) {
+				incoming = obtainIncoming(message, fragments);
+				reliableIncoming.put(message, incoming);
+			}
+		} else if (channel == UNRELIABLE) {
+			if (receivedUnreliable && (short) (message - lastUnreliable) <= 0) {
+				// Something newer was received already
+				return;
+			}
+			if (unreliableIncoming == null || unreliableIncoming.sequence != message) {
+				if (unreliableIncoming != null) {
+					if ((short) (message - unreliableIncoming.sequence) < 0) {
+						return;
+					}
+					recycle(unreliableIncoming);
+				}
+				unreliableIncoming = obtainIncoming(message, fragments);
+			}
+			incoming = unreliableIncoming;
+		} else {
+			return;
+		}
+
+		if (incoming.fragments != fragments || incoming.received[fragment]) {
+			return;
+		}
+		// Only what arrived is allocated, whatever the number of fragments claims
+		ByteBuffer part = BufferPool.acquire(size);
+		part.put(buffer);
+		part.flip();
+		incoming.parts[fragment] = part;
+		if (fragment == fragments - 1) {
+			incoming.length = offset + size;
+		}
+		incoming.received[fragment] = true;
+		incoming.remaining--;
+		if (incoming.remaining > 0) {
+			return;
+		}
+		assemble(incoming);
+
+		if (channel == RELIABLE) {
+			// Deliver in order
+			while ((incoming = reliableIncoming.get(nextReliable)) != null && incoming.remaining == 0) {
+				reliableIncoming.remove(nextReliable);
+				ready.add(incoming);
+				nextReliable = (nextReliable + 1) & 0xFFFF;
+			}
+		} else {
+			if (pendingUnreliable != null) {
+				recycle(pendingUnreliable);
+			}
+			pendingUnreliable = incoming;
+			unreliableIncoming = null;
+			lastUnreliable = incoming.sequence;
+			receivedUnreliable = true;
+		}
+	}
+
+	// Joins the fragments of a complete message
+	protected void assemble(Incoming incoming) {
+		if (incoming.fragments == 1) {
+			incoming.data = incoming.parts[0];
+			incoming.parts[0] = null;
+			return;
+		}
+		ByteBuffer data = BufferPool.acquire(incoming.length);
+		for (int i = 0; i < incoming.fragments; i++) {
+			data.put(incoming.parts[i]);
+		}
+		releaseParts(incoming);
+		incoming.data = data;
+	}
+
+	protected Incoming obtainIncoming(int sequence, int fragments) {
+		Incoming incoming = incomingPool.isEmpty() ? new Incoming() : incomingPool.poll();
+		if (incoming.received.length < fragments) {
+			incoming.received = new boolean[fragments];
+			incoming.parts = new ByteBuffer[fragments];
+		}
+		for (int i = 0; i < fragments; i++) {
+			incoming.received[i] = false;
+		}
+		incoming.sequence = sequence;
+		incoming.fragments = fragments;
+		incoming.remaining = fragments;
+		incoming.length = 0;
+		return incoming;
+	}
+
+	protected boolean hasMessage() {
+		return !ready.isEmpty() || pendingUnreliable != null;
+	}
+
+	@Override
+	public void receive() {
+		// Timeout
+		final long begin = System.currentTimeMillis();
+
+		while (true) {
+			pump();
+			if (hasMessage()) {
+				break;
+			}
+			if (remoteClosed) {
+				throw new EndpointException("Remote endpoint disconnected");
+			}
+			if (System.currentTimeMillis() > begin + timeout) {
+				throw new EndpointException(timeout + " ms timeout reached while reading");
+			}
+			ThreadUtil.sleep(1);
+		}
+
+		// Reliable messages go first
+		Incoming message;
+		if (!ready.isEmpty()) {
+			message = ready.poll();
+		} else {
+			message = pendingUnreliable;
+			pendingUnreliable = null;
+		}
+
+		// Read straight from the memory it was reassembled in
+		message.data.limit(message.length).position(0);
+		readBuffer.adopt(message.data);
+		message.data = null;
+		incomingPool.add(message);
+	}
+
+	// Getters
+
+	@Override
+	public boolean isConnected() {
+		return channel != null && channel.isOpen() && !remoteClosed
+				&& System.currentTimeMillis() - lastReceiveTime < timeout;
+	}
+
+	@Override
+	public String getRemoteIp() {
+		return ((InetSocketAddress) remote).getAddress().getHostAddress();
+	}
+
+	@Override
+	public int getRemotePort() {
+		return ((InetSocketAddress) remote).getPort();
+	}
+
+	@Override
+	public String getLocalIp() {
+		InetSocketAddress address;
+		try {
+			address = (InetSocketAddress) channel.getLocalAddress();
+		} catch (IOException e) {
+			throw new EndpointException("Error getting local ip", e);
+		}
+		return address.getAddress().getHostAddress();
+	}
+
+	@Override
+	public int getLocalPort() {
+		InetSocketAddress address;
+		try {
+			address = (InetSocketAddress) channel.getLocalAddress();
+		} catch (IOException e) {
+			throw new EndpointException("Error getting local port", e);
+		}
+		return address.getPort();
+	}
+
+	@Override
+	public boolean canSend() {
+		return reliableQueue.size() < MAX_RELIABLE_PENDING;
+	}
+
+	@Override
+	public boolean canReceive() {
+		pump();
+		return hasMessage();
+	}
+
+	@Override
+	public boolean isFullDuplex() {
+		return true;
+	}
+
+	/**
+	 * @return The smoothed round trip time in milliseconds
+	 */
+	public double getRoundTripTime() {
+		return srtt;
+	}
+
+	/**
+	 * @return The time after which an unacknowledged datagram is resent, in
+	 *         milliseconds
+	 */
+	public long getRetransmissionTimeout() {
+		return rto;
+	}
+
+	public long getPacketsSent() {
+		return packetsSent;
+	}
+
+	public long getPacketsResent() {
+		return packetsResent;
+	}
+
+	public long getPacketsReceived() {
+		return packetsReceived;
+	}
+
+	public SocketAddress getRemoteAddress() {
+		return remote;
+	}
+
+}
@@ -0,0 +1,163 @@
+package com.spaghetti.networking.udp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.spaghetti.networking.ConnectionEndpoint;
+import com.spaghetti.networking.NetworkBuffer;
+import com.spaghetti.networking.ServerComponent;
+
+/**
+ * UDPServer shares one socket among all of its {@link UDPConnection}s
+ * <p>
+ * Source addresses of datagrams are trivially spoofed, so the first message
+ * of an unknown address is answered with a cookie instead of opening a
+ * connection. The cookie is a keyed hash of the address and of the current
+ * period of {@link #COOKIE_PERIOD} milliseconds, so nothing is stored until
+ * the client proves it can receive at that address by echoing it back. The
+ * challenge is never larger than the request it answers
+ *
+ * @author bohdloss
+ *
+ */
+public class UDPServer extends ServerComponent {
+
+	protected static final long COOKIE_PERIOD = 10000;
+	protected static final String COOKIE_ALGORITHM = "HmacSHA256";
+
+	// Server object
+	DatagramChannel channel;
+	protected ByteBuffer datagram;
+
+	// Handshake
+	protected Mac cookieMac;
+	protected final ByteBuffer cookieInput = ByteBuffer.allocate(32);
+
+	// Connections by remote address
+	protected final HashMap<SocketAddress, UDPConnection> connections = new HashMap<>();
+	protected final ArrayDeque<UDPConnection> accepted = new ArrayDeque<>();
+
+	// Binding
+	@Override
+	protected void internal_startserver(int port) throws Throwable {
+		datagram = ByteBuffer.allocateDirect(UDPConnection.MAX_DATAGRAM);
+		datagram.order(NetworkBuffer.ORDER);
+
+		// A new secret each time, cookies don't outlive the server
+		byte[] secret = new byte[32];
+		new SecureRandom().nextBytes(secret);
+		cookieMac = Mac.getInstance(COOKIE_ALGORITHM);
+		cookieMac.init(new SecretKeySpec(secret, COOKIE_ALGORITHM));
+
+		channel = DatagramChannel.open();
+		channel.configureBlocking(false);
+		channel.bind(new InetSocketAddress(port));
+	}
+
+	// Unbinding
+	@Override
+	protected void internal_stopserver() throws Throwable {
+		DatagramChannel c = channel;
+		channel = null;
+		synchronized (this) {
+			connections.clear();
+			accepted.clear();
+		}
+		c.close();
+	}
+
+	// Accepting connections
+	@Override
+	protected ConnectionEndpoint internal_acceptsocket() throws Throwable {
+		pump();
+		synchronized (this) {
+			return accepted.poll();
+		}
+	}
+
+	// Hands every datagram received to its connection
+	synchronized void pump() throws IOException {
+		DatagramChannel channel = this.channel;
+		if (channel == null) {
+			return;
+		}
+		while (true) {
+			datagram.clear();
+			SocketAddress from = channel.receive(datagram);
+			if (from == null) {
+				break;
+			}
+			datagram.flip();
+
+			UDPConnection connection = connections.get(from);
+			if (connection == null) {
+				long period = System.currentTimeMillis() / COOKIE_PERIOD;
+				if (UDPConnection.isConnectionRequest(datagram)) {
+					UDPConnection.writeChallenge(datagram, cookie(from, period));
+					channel.send(datagram, from);
+					continue;
+				}
+				// Only an echoed cookie opens a connection
+				if (!UDPConnection.isChallengeResponse(datagram)) {
+					continue;
+				}
+				long cookie = UDPConnection.getCookie(datagram);
+				if (cookie != cookie(from, period) && cookie != cookie(from, period - 1)) {
+					continue;
+				}
+				connection = newConnection();
+				connection.attach(this, from);
+				connections.put(from, connection);
+				accepted.add(connection);
+			}
+			connection.handleDatagram(datagram);
+		}
+	}
+
+	protected UDPConnection newConnection() {
+		return new UDPConnection();
+	}
+
+	protected long cookie(SocketAddress address, long period) {
+		InetSocketAddress inet = (InetSocketAddress) address;
+		cookieInput.clear();
+		cookieInput.put(inet.getAddress().getAddress());
+		cookieInput.putShort((short) inet.getPort());
+		cookieInput.putLong(period);
+		cookieInput.flip();
+		cookieMac.update(cookieInput);
+		return ByteBuffer.wrap(cookieMac.doFinal()).getLong();
+	}
+
+	synchronized void remove(UDPConnection connection) {
+		connections.remove(connection.getRemoteAddress(), connection);
+		accepted.remove(connection);
+	}
+
+	// Getters
+
+	@Override
+	public String getLocalIp() {
+		return channel == null ? null : channel.socket().getLocalAddress().getHostAddress();
+	}
+
+	@Override
+	public int getLocalPort() {
+		return channel == null ? 0 : channel.socket().getLocalPort();
+	}
+
+	@Override
+	public boolean isBound() {
+		return channel != null && channel.isOpen() && channel.socket().isBound();
+	}
+
+}
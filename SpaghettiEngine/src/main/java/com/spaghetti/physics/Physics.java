@@ -3,6 +3,7 @@ package com.spaghetti.physics;
 import com.spaghetti.world.GameObject;
 import com.spaghetti.networking.ConnectionManager;
 import com.spaghetti.networking.NetworkBuffer;
+import com.spaghetti.networking.ReplicationCache;
 
 /**
  * Physics is the base class for any n-dimensional physics library
@@ -74,6 +75,7 @@ public abstract class Physics<VecType, SecVecType, BodyClass extends RigidBody<V
 
 	public void setFramerate(float framerate) {
 		this.framerate = framerate;
+		markDirty();
 	}
 
 	// Interfaces
@@ -83,6 +85,11 @@ public abstract class Physics<VecType, SecVecType, BodyClass extends RigidBody<V
 		buffer.putFloat(framerate);
 	}
 
+	@Override
+	public boolean isSharedReplication() {
+		return ReplicationCache.isWrittenBy(this, Physics.class);
+	}
+
 	@Override
 	public void readDataClient(ConnectionManager manager, NetworkBuffer buffer) {
 		framerate = buffer.getFloat();
@@ -2,6 +2,7 @@ package com.spaghetti.physics.d2.jbox2d;
 
 import com.spaghetti.networking.ConnectionManager;
 import com.spaghetti.networking.NetworkBuffer;
+import com.spaghetti.networking.ReplicationCache;
 import com.spaghetti.physics.RaycastRequest;
 import com.spaghetti.physics.d2.Physics2D;
 import com.spaghetti.physics.d2.RaycastHit2D;
@@ -115,6 +116,7 @@ public class JBox2DPhysics extends Physics2D {
 
     public void setGravity(float x, float y) {
         world.setGravity(new Vec2(x, y));
+        markDirty();
     }
 
     // Interface implementation
@@ -126,6 +128,11 @@ public class JBox2DPhysics extends Physics2D {
         buffer.putFloat(world.getGravity().y);
     }
 
+    @Override
+    public boolean isSharedReplication() {
+        return ReplicationCache.isWrittenBy(this, JBox2DPhysics.class);
+    }
+
     @Override
     public void readDataClient(ConnectionManager manager, NetworkBuffer buffer) {
         super.readDataClient(manager, buffer);
@@ -2,6 +2,7 @@ package com.spaghetti.physics.d2.jbox2d;
 
 import com.spaghetti.networking.ConnectionManager;
 import com.spaghetti.networking.NetworkBuffer;
+import com.spaghetti.networking.ReplicationCache;
 import com.spaghetti.physics.Physics;
 import com.spaghetti.physics.d2.Physics2D;
 import com.spaghetti.physics.d2.RigidBody2D;
@@ -678,6 +679,11 @@ public class JBox2DRigidBody extends RigidBody2D {
         buffer.putFloat(body.getAngularVelocity());
     }
 
+    @Override
+    public boolean isSharedReplication() {
+        return ReplicationCache.isWrittenBy(this, JBox2DRigidBody.class);
+    }
+
     @Override
     public void readDataClient(ConnectionManager manager, NetworkBuffer buffer) {
         super.readDataClient(manager, buffer);
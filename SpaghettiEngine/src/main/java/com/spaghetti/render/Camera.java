@@ -8,6 +8,7 @@ import org.lwjgl.opengl.GL11;
 
 import com.spaghetti.world.GameObject;
 import com.spaghetti.networking.NetworkBuffer;
+import com.spaghetti.networking.ReplicationCache;
 import com.spaghetti.utils.MathUtil;
 import com.spaghetti.utils.Transform;
 
@@ -53,6 +54,7 @@ public class Camera extends GameObject {
 	public void setFov(float fov) {
 		this.fov = fov;
 		calcScale();
+		markDirty();
 	}
 
 	public float getTargetRatio() {
@@ -127,6 +129,7 @@ public class Camera extends GameObject {
 
 	public void setClearColor(boolean clearColor) {
 		this.clearColor = clearColor;
+		markDirty();
 	}
 
 	public boolean getClearDepth() {
@@ -135,6 +138,7 @@ public class Camera extends GameObject {
 
 	public void setClearDepth(boolean clearDepth) {
 		this.clearDepth = clearDepth;
+		markDirty();
 	}
 
 	public boolean getClearStencil() {
@@ -143,6 +147,7 @@ public class Camera extends GameObject {
 
 	public void setClearStencil(boolean clearStencil) {
 		this.clearStencil = clearStencil;
+		markDirty();
 	}
 
 	public FrameBuffer getFrameBuffer() {
@@ -207,6 +212,11 @@ public class Camera extends GameObject {
 		buffer.putByte(flags);
 	}
 
+	@Override
+	public boolean isSharedReplication() {
+		return ReplicationCache.isWrittenBy(this, Camera.class);
+	}
+
 	@Override
 	public void render(Camera renderer, float delta, Transform transform) {
 		// Prevent recursion
@@ -8,6 +8,7 @@ import org.joml.Matrix4f;
 
 import com.spaghetti.world.GameObject;
 import com.spaghetti.networking.NetworkBuffer;
+import com.spaghetti.networking.ReplicationCache;
 import com.spaghetti.utils.Transform;
 
 public class Mesh extends GameObject {
@@ -50,6 +51,7 @@ public class Mesh extends GameObject {
 
 	public void setModel(Model model) {
 		this.model = model;
+		markDirty();
 	}
 
 	public Material getMaterial() {
@@ -58,22 +60,26 @@ public class Mesh extends GameObject {
 
 	public void setMaterial(Material material) {
 		this.material = material;
+		markDirty();
 	}
 
 	@Override
 	public void writeDataServer(ConnectionManager manager, NetworkBuffer buffer) {
 		super.writeDataServer(manager, buffer);
-		buffer.putString(true, model == null ? "" : model.getName(), NetworkBuffer.UTF_8);
-		buffer.putString(true, material == null ? "" : material.getName(), NetworkBuffer.UTF_8);
+		buffer.putAsset(model);
+		buffer.putAsset(material);
+	}
+
+	@Override
+	public boolean isSharedReplication() {
+		return ReplicationCache.isWrittenBy(this, Mesh.class);
 	}
 
 	@Override
 	public void readDataClient(ConnectionManager manager, NetworkBuffer buffer) {
 		super.readDataClient(manager, buffer);
-		String modelname = buffer.getString(true, NetworkBuffer.UTF_8);
-		String materialname = buffer.getString(true, NetworkBuffer.UTF_8);
-		this.model = modelname.equals("") ? null : getGame().getAssetManager().getAndLazyLoadAsset(modelname);
-		this.material = materialname.equals("") ? null : getGame().getAssetManager().getAndLazyLoadAsset(materialname);
+		this.model = buffer.getAsset(getGame().getAssetManager());
+		this.material = buffer.getAsset(getGame().getAssetManager());
 	}
 
 }
\ No newline at end of file
@@ -4,6 +4,8 @@ import java.awt.Dimension;
 import java.awt.Toolkit;
 import java.util.HashMap;
 
+import com.spaghetti.core.scheduler.CappedTickScheduler;
+import com.spaghetti.core.scheduler.FixedTickScheduler;
 import com.spaghetti.physics.d2.jbox2d.JBox2DPhysics;
 import com.spaghetti.physics.d2.jbox2d.JBox2DRigidBody;
 import com.spaghetti.utils.Logger;
@@ -42,6 +44,15 @@ public class GameSettings {
 		setEngineSetting("assets.internalSheet", "/internal/internal_assets.txt");
 		setEngineSetting("engine.useCurrentThreadAsPrimary", false);
 
+		// Tick scheduling
+		setEngineSetting("engine.primary.tickScheduler", CappedTickScheduler.class);
+		setEngineSetting("engine.primary.tickRate", 1000f);
+		setEngineSetting("engine.auxiliary.tickScheduler", FixedTickScheduler.class);
+		setEngineSetting("engine.auxiliary.tickRate", 60f);
+
+		// Job system, 0 means one worker per core minus one
+		setEngineSetting("engine.jobs.workerCount", 0);
+
 		// Game window
 		setEngineSetting("window.size", new Vector2i(400, 400));
 		setEngineSetting("window.minimumSize", new Vector2i(100, 100));
@@ -58,19 +69,38 @@ public class GameSettings {
 
 		// Networking
 		setEngineSetting("network.port", 9018);
-		setEngineSetting("network.bufferSize", 1000 * 256); // 256 KB
+		setEngineSetting("network.bufferSize", 1000 * 256); // 256 KB, the largest packet
+		setEngineSetting("network.initialBufferSize", 4096); // Packet buffers grow from this size when needed
 		setEngineSetting("network.timeoutTime", 500000L);
 		setEngineSetting("network.verifyToken", false);
 		setEngineSetting("network.maxClients", 10);
 		setEngineSetting("network.maxDisconnections", 10);
 		setEngineSetting("network.awaitTimeout", 10000L);
 		setEngineSetting("network.reconnectAttempts", 10);
+		setEngineSetting("network.deltaCompression", true);
+		setEngineSetting("network.mtu", 1200); // Datagram size used by UDP endpoints
+		setEngineSetting("network.ioThreads", 1); // Threads moving the packets of TCP servers
+		setEngineSetting("network.interestRadius", 0f); // Replication distance from the player, 0 replicates everything
+		setEngineSetting("network.interestHysteresis", 1.25f); // Objects stop being replicated past radius * hysteresis
+		setEngineSetting("network.bandwidthBudget", 0); // Bytes per packet, 0 only limits to network.bufferSize
+		setEngineSetting("network.priorityDistance", 32f); // Distance from the player that halves replication priority
+		setEngineSetting("network.compression", true); // LZ4 / Zstd packet compression, if both sides support it
+		setEngineSetting("network.compressionThreshold", 256); // Smaller packets are sent uncompressed
+		setEngineSetting("network.compressionLevel", 3); // Zstd level
+		setEngineSetting("network.compressionDictionary", null); // Zstd dictionary resource, see PacketCompressor
+		setEngineSetting("network.checksum", "none"); // none, crc32c, xxhash or hash16, see PacketChecksum
 
 		// Logging
 		setEngineSetting("log.autoCreate", true);
 		setEngineSetting("log.printSeverity", Logger.INFO_SEVERITY);
 		setEngineSetting("log.logSeverity", Logger.DEBUG_SEVERITY);
 
+		// World
+		setEngineSetting("world.parallelUpdate", false);
+		setEngineSetting("world.spatialIndex", null); // HashGridIndex (2D) or LooseOctreeIndex (3D)
+		setEngineSetting("world.spatialIndex.cellSize", 4f);
+		setEngineSetting("world.spatialIndex.worldSize", 4096f);
+
 		// Physics
 		setEngineSetting("physics.d2.physicsClass", JBox2DPhysics.class);
 		setEngineSetting("physics.d2.rigidBodyClass", JBox2DRigidBody.class);
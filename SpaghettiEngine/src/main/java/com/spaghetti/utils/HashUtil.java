@@ -1,5 +1,7 @@
 package com.spaghetti.utils;
 
+import java.nio.ByteBuffer;
+
 /**
  * ThreadUtil is a namespace for common useful thread functions
  *
@@ -135,4 +137,23 @@ public final class HashUtil {
 		return hash;
 	}
 
+	/**
+	 * Hashes the given buffer into a {@code short} value, only accounting for
+	 * the bytes starting from {@code offset} until {@code offset + size}. The
+	 * position of the buffer is not changed
+	 *
+	 * @param mem    The buffer to hash
+	 * @param offset The offset at which to start calculating the hash
+	 * @param size   The amount of bytes to hash after the {@code offset}
+	 * @return The hash
+	 */
+	public static short shortHash(ByteBuffer mem, int offset, int size) {
+		short hash = 14951;
+
+		for (int i = offset; i < offset + size; i++) {
+			hash = (short) (hash * 31 + mem.get(i));
+		}
+		return hash;
+	}
+
 }
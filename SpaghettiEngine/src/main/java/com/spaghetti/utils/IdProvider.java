@@ -1,51 +1,178 @@
 package com.spaghetti.utils;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.spaghetti.core.Game;
 
+/**
+ * IdProvider hands out dense, generation tagged ids for objects and
+ * components, one allocator per {@link Game}
+ * <p>
+ * An id packs a slot index in the low {@value #INDEX_BITS} bits, the
+ * generation of that slot in the next {@value #GENERATION_BITS} bits and a
+ * local flag in the sign bit. Freeing an id bumps the generation of its slot,
+ * so a stale id never compares equal to the one that reuses the slot
+ * <p>
+ * Games without authority allocate local ids, so the objects they create
+ * themselves never collide with the ids received from the server. Ids
+ * are never -1, 0 or 1
+ *
+ * @author bohdloss
+ *
+ */
 public final class IdProvider {
 
-	private static final HashMap<Game, ArrayList<Integer>> games = new HashMap<>();
-	private static final Random random = new Random();
+	public static final int INDEX_BITS = 22;
+	public static final int GENERATION_BITS = 9;
+	public static final int INDEX_MASK = (1 << INDEX_BITS) - 1;
+	public static final int GENERATION_MASK = (1 << GENERATION_BITS) - 1;
+	public static final int LOCAL_FLAG = 1 << 31;
+
+	// The last index is never handed out so that a local id can't be -1
+	private static final int MAX_INDEX = INDEX_MASK - 1;
+
+	private static final HashMap<Game, Allocator> games = new HashMap<>();
+	private static final AtomicInteger transientIds = new AtomicInteger(1);
 
 	private IdProvider() {
 	}
 
 	public static int newId(Game instance) {
-		// Retrieve existing ids
-		ArrayList<Integer> ids = games.get(instance);
-		if (ids == null) {
-			ids = new ArrayList<>();
-			games.put(instance, ids);
+		return getAllocator(instance).allocate();
+	}
+
+	public static void freeId(Game instance, int id) {
+		Allocator allocator;
+		synchronized (games) {
+			allocator = games.get(instance);
+		}
+		if (allocator != null) {
+			allocator.free(id);
+		}
+	}
+
+	public static boolean isAlive(Game instance, int id) {
+		Allocator allocator;
+		synchronized (games) {
+			allocator = games.get(instance);
 		}
+		return allocator != null && allocator.isAlive(id);
+	}
 
-		// Generate new one until it stops colliding with others
-		int res = 0;
-		while (res == 0 || ids.contains(res)) {
-			res = genId();
+	/**
+	 * Forgets every id issued for the given game
+	 *
+	 * @param instance The game
+	 */
+	public static void clear(Game instance) {
+		synchronized (games) {
+			games.remove(instance);
 		}
+	}
 
+	/**
+	 * Short lived things such as events and remote procedure calls only need
+	 * their id to be unique among the ones in flight, they don't take a slot
+	 *
+	 * @return A new id, never -1, 0 or 1
+	 */
+	public static int newTransientId() {
+		int res;
+		do {
+			res = transientIds.incrementAndGet();
+		} while (res == 0 || res == -1 || res == 1);
 		return res;
 	}
 
-	public static void freeId(Game instance, int id) {
-		// Retrieve existing ids
-		ArrayList<Integer> ids = games.get(instance);
-		if(ids != null) {
-			ids.remove(id);
+	// Id layout
+
+	public static int indexOf(int id) {
+		return id & INDEX_MASK;
+	}
+
+	public static int generationOf(int id) {
+		return (id >>> INDEX_BITS) & GENERATION_MASK;
+	}
+
+	public static boolean isLocal(int id) {
+		return (id & LOCAL_FLAG) != 0;
+	}
+
+	private static int makeId(int index, int generation, boolean local) {
+		return (local ? LOCAL_FLAG : 0) | (generation << INDEX_BITS) | index;
+	}
+
+	private static Allocator getAllocator(Game instance) {
+		synchronized (games) {
+			Allocator allocator = games.get(instance);
+			if (allocator == null) {
+				boolean local = instance != null && !instance.hasAuthority();
+				allocator = new Allocator(local);
+				games.put(instance, allocator);
+			}
+			return allocator;
 		}
 	}
 
-	private static int genId() {
-		// Reserve -1, 0 and 1
-		int rand = 0;
-		while (rand == 0 || rand == -1 || rand == 1) {
-			rand = random.nextInt();
+	private static final class Allocator {
+
+		private final boolean local;
+
+		// The id currently living in each slot, 0 when the slot is free
+		private int[] ids = new int[64];
+		private int[] generations = new int[64];
+		private int[] freeList = new int[64];
+		private int freeCount;
+		private int next;
+
+		public Allocator(boolean local) {
+			this.local = local;
 		}
-		return rand;
+
+		public synchronized int allocate() {
+			int index;
+			if (freeCount > 0) {
+				index = freeList[--freeCount];
+			} else {
+				if (next > MAX_INDEX) {
+					throw new IllegalStateException("Out of ids");
+				}
+				index = next++;
+				if (index == ids.length) {
+					ids = Arrays.copyOf(ids, index * 2);
+					generations = Arrays.copyOf(generations, index * 2);
+				}
+				// Generation 0 is skipped so that ids are never 0 or 1
+				generations[index] = 1;
+			}
+			int id = makeId(index, generations[index], local);
+			ids[index] = id;
+			return id;
+		}
+
+		public synchronized void free(int id) {
+			// Only release ids this allocator is holding, ids that came from
+			// somewhere else are ignored
+			if (!isAlive(id)) {
+				return;
+			}
+			int index = indexOf(id);
+			ids[index] = 0;
+			int generation = generations[index] + 1;
+			generations[index] = generation > GENERATION_MASK ? 1 : generation;
+			if (freeCount == freeList.length) {
+				freeList = Arrays.copyOf(freeList, freeCount * 2);
+			}
+			freeList[freeCount++] = index;
+		}
+
+		public synchronized boolean isAlive(int id) {
+			int index = indexOf(id);
+			return id != 0 && index < next && ids[index] == id;
+		}
+
 	}
 
 }
@@ -0,0 +1,96 @@
+package com.spaghetti.utils;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceFieldUpdater;
+
+/**
+ * MpscQueue is an unbounded lock-free queue that allows any number
+ * of threads to offer elements, but only a single thread to poll them
+ * <p>
+ * Producers only perform one atomic swap per element, so offering never
+ * blocks and never spins on contention
+ *
+ * @param <T> The type of the elements
+ * @author bohdloss
+ */
+public final class MpscQueue<T> {
+
+	@SuppressWarnings("rawtypes")
+	private static final AtomicReferenceFieldUpdater<Node, Node> NEXT = AtomicReferenceFieldUpdater
+			.newUpdater(Node.class, Node.class, "next");
+
+	private static final class Node<T> {
+		T value;
+		volatile Node<T> next;
+	}
+
+	// Producers swap themselves in at the head
+	private final AtomicReference<Node<T>> head;
+	// Only the consumer reads and moves the tail
+	private Node<T> tail;
+	private final AtomicInteger size = new AtomicInteger();
+
+	public MpscQueue() {
+		Node<T> stub = new Node<>();
+		head = new AtomicReference<>(stub);
+		tail = stub;
+	}
+
+	/**
+	 * Appends an element to the queue. Safe to call from any thread
+	 *
+	 * @param value The element, must not be null
+	 */
+	@SuppressWarnings("unchecked")
+	public void offer(T value) {
+		if (value == null) {
+			throw new IllegalArgumentException();
+		}
+		Node<T> node = new Node<>();
+		node.value = value;
+		size.incrementAndGet();
+		Node<T> prev = head.getAndSet(node);
+		NEXT.lazySet(prev, node);
+	}
+
+	/**
+	 * Removes the oldest element in the queue. Must only be called from the
+	 * consumer thread
+	 * <p>
+	 * May return null if a producer is in the middle of an {@link #offer(Object)},
+	 * in which case the element will be visible on the next call
+	 *
+	 * @return The element or null if none is available
+	 */
+	public T poll() {
+		Node<T> next = tail.next;
+		if (next == null) {
+			return null;
+		}
+		T value = next.value;
+		next.value = null;
+		tail = next;
+		size.decrementAndGet();
+		return value;
+	}
+
+	/**
+	 * Must only be called from the consumer thread
+	 *
+	 * @return Whether or not there are no elements ready to be polled
+	 */
+	public boolean isEmpty() {
+		return tail.next == null;
+	}
+
+	/**
+	 * The returned value is only an estimate when producers are active
+	 *
+	 * @return The amount of elements in the queue
+	 */
+	public int size() {
+		return size.get();
+	}
+
+}
@@ -4,6 +4,8 @@ import com.spaghetti.core.Game;
 import com.spaghetti.core.GameThread;
 import com.spaghetti.dispatcher.FunctionDispatcher;
 
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * ThreadUtil is a namespace for common useful thread functions
  *
@@ -12,6 +14,11 @@ import com.spaghetti.dispatcher.FunctionDispatcher;
  */
 public final class ThreadUtil {
 
+	// Below this amount of nanoseconds parking is too inaccurate, so spin instead
+	private static final long SPIN_THRESHOLD = 200_000;
+	// Park in slices so the idle work still runs often enough
+	private static final long PARK_SLICE = 1_000_000;
+
 	private ThreadUtil() {
 	}
 
@@ -40,6 +47,34 @@ public final class ThreadUtil {
 		}
 	}
 
+	/**
+	 * Waits until {@link System#nanoTime()} is equal or greater than
+	 * {@code deadline}, running {@code idle} periodically in the meantime
+	 * <p>
+	 * The thread is parked in short slices until shortly before the deadline
+	 * and then spins, which is a lot more accurate than
+	 * {@link #sleepUntil(long)} without keeping a core busy
+	 *
+	 * @param deadline The time until which to wait, in nanoseconds
+	 * @param idle     Work to perform while waiting, may be null
+	 */
+	public static void sleepUntilNanos(long deadline, Runnable idle) {
+		while (true) {
+			if (idle != null) {
+				idle.run();
+			}
+			long remaining = deadline - System.nanoTime();
+			if (remaining <= 0) {
+				return;
+			}
+			if (remaining > SPIN_THRESHOLD) {
+				LockSupport.parkNanos(Math.min(remaining - SPIN_THRESHOLD, PARK_SLICE));
+			} else {
+				Thread.yield();
+			}
+		}
+	}
+
 	/**
 	 * Yields execution to the current thread's
 	 * {@link FunctionDispatcher#computeEvents()} method only if the current thread
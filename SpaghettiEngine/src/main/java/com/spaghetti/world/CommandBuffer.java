@@ -0,0 +1,62 @@
+package com.spaghetti.world;
+
+import com.spaghetti.utils.Logger;
+import com.spaghetti.utils.MpscQueue;
+
+/**
+ * CommandBuffer records the structural changes (adding, removing and
+ * destroying objects and components) issued on a {@link Level} while it is
+ * being updated
+ * <p>
+ * Any thread may record commands, they are applied in the order they were
+ * recorded when the level reaches its sync point at the end of the tick, on
+ * the thread that updates it
+ *
+ * @author bohdloss
+ *
+ */
+public final class CommandBuffer {
+
+	private final MpscQueue<Runnable> commands = new MpscQueue<>();
+
+	/**
+	 * Records a command. Safe to call from any thread
+	 *
+	 * @param command The command
+	 */
+	public void record(Runnable command) {
+		commands.offer(command);
+	}
+
+	/**
+	 * @return The amount of commands waiting for the next sync point
+	 */
+	public int size() {
+		return commands.size();
+	}
+
+	public boolean isEmpty() {
+		return commands.size() == 0;
+	}
+
+	/**
+	 * Applies every recorded command in order. Must only be called by the
+	 * thread that updates the level
+	 *
+	 * @return The amount of commands applied
+	 */
+	int flush() {
+		int applied = 0;
+		Runnable command;
+		while ((command = commands.poll()) != null) {
+			try {
+				command.run();
+			} catch (Throwable t) {
+				Logger.error("Error occurred while applying a structural change", t);
+			}
+			applied++;
+		}
+		return applied;
+	}
+
+}
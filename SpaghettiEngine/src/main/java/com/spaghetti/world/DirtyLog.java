@@ -0,0 +1,191 @@
+package com.spaghetti.world;
+
+import java.util.ArrayList;
+import java.util.function.Consumer;
+
+import com.spaghetti.utils.MpscQueue;
+
+/**
+ * DirtyLog records the objects and components of a {@link Level} whose
+ * replicated state changed
+ * <p>
+ * Each connection reads the log through its own {@link Cursor}, so a change
+ * is seen exactly once by every connection no matter how often each one
+ * sends. Entries are released once every open cursor has moved past them,
+ * and nothing is recorded while no cursor is open
+ * <p>
+ * Recording never locks, changes are queued and only moved into the log by
+ * the next cursor that reads it
+ *
+ * @author bohdloss
+ *
+ */
+public final class DirtyLog {
+
+	public final class Cursor {
+
+		private long position;
+		private boolean closed;
+
+		private Cursor(long position) {
+			this.position = position;
+		}
+
+		/**
+		 * Passes every entry recorded since the last call to the consumer.
+		 * Entries may belong to objects that have been destroyed since
+		 *
+		 * @param consumer The consumer
+		 */
+		public void read(Consumer<Object> consumer) {
+			synchronized (DirtyLog.this) {
+				if (closed) {
+					return;
+				}
+				drain();
+				long end = base + size;
+				for (long i = Math.max(position, base); i < end; i++) {
+					consumer.accept(entries[(int) (i - base)]);
+				}
+				position = end;
+				trim();
+			}
+		}
+
+		/**
+		 * Moves past every entry without reading them
+		 */
+		public void skip() {
+			synchronized (DirtyLog.this) {
+				drain();
+				position = base + size;
+				trim();
+			}
+		}
+
+		public void close() {
+			synchronized (DirtyLog.this) {
+				if (!closed) {
+					closed = true;
+					cursors.remove(this);
+					open = cursors.size();
+					if (open == 0) {
+						// Nobody is going to read these
+						drain();
+					}
+					trim();
+				}
+			}
+		}
+
+		public DirtyLog getLog() {
+			return DirtyLog.this;
+		}
+
+	}
+
+	private Object[] entries = new Object[256];
+	// Absolute position of entries[0]
+	private long base;
+	private int size;
+	private final ArrayList<Cursor> cursors = new ArrayList<>();
+	private volatile int open;
+
+	// Changes recorded since the last drain
+	private final MpscQueue<Object> pending = new MpscQueue<>();
+	// Incremented before every drain, entries queued in the current batch
+	// don't need to be queued again
+	private volatile long batch;
+	// Set while a thread applies replicated data, which must not be sent back
+	private volatile Thread applying;
+
+	public synchronized Cursor open() {
+		// Whatever is already recorded won't be read by this cursor
+		drain();
+		Cursor cursor = new Cursor(base + size);
+		cursors.add(cursor);
+		open = cursors.size();
+		return cursor;
+	}
+
+	/**
+	 * Records an entry unless it's still waiting to be read since the last
+	 * time it was recorded. Safe to call from any thread, never blocks
+	 *
+	 * @param entry     The changed object or component
+	 * @param lastIndex The value returned the last time this entry was
+	 *                  recorded, or -1
+	 * @return The value to pass as {@code lastIndex} next time
+	 */
+	long record(Object entry, long lastIndex) {
+		if (applying == Thread.currentThread()) {
+			return lastIndex;
+		}
+		if (open == 0) {
+			return -1;
+		}
+		long batch = this.batch;
+		if (lastIndex == batch) {
+			// Not drained yet
+			return lastIndex;
+		}
+		pending.offer(entry);
+		return batch;
+	}
+
+	// Moves the queued changes into the log, the monitor makes this the only consumer
+	private void drain() {
+		batch++;
+		boolean keep = !cursors.isEmpty();
+		Object entry;
+		while ((entry = pending.poll()) != null) {
+			if (!keep) {
+				continue;
+			}
+			if (size == entries.length) {
+				Object[] grown = new Object[size * 2];
+				System.arraycopy(entries, 0, grown, 0, size);
+				entries = grown;
+			}
+			entries[size++] = entry;
+		}
+	}
+
+	/**
+	 * Ignores the changes made by the calling thread until
+	 * {@link #endApplying()}, used while applying data received from the
+	 * other side of a connection
+	 */
+	public void beginApplying() {
+		applying = Thread.currentThread();
+	}
+
+	public void endApplying() {
+		applying = null;
+	}
+
+	private void trim() {
+		long min = base + size;
+		for (int i = 0; i < cursors.size(); i++) {
+			min = Math.min(min, cursors.get(i).position);
+		}
+		int released = (int) (min - base);
+		if (released == 0) {
+			return;
+		}
+		// Compact only when it pays off
+		if (released == size || released >= entries.length / 2) {
+			System.arraycopy(entries, released, entries, 0, size - released);
+			for (int i = size - released; i < size; i++) {
+				entries[i] = null;
+			}
+			size -= released;
+			base = min;
+		}
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+}
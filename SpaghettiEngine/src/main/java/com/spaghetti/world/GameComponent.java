@@ -28,8 +28,7 @@ public abstract class GameComponent implements Updatable, Renderable, Replicable
 	public static final int DESTROYED = 1;
 	// 2 is delete flag
 	public static final int DELETE = 2;
-	// 3 is replicate flag
-	public static final int REPLICATE = 3;
+	// 3 used to be the replicate flag, replaced by the level's dirty log
 	// 4 is initialized flag
 	public static final int INITIALIZED = 4;
 	// 5 is visible flag
@@ -42,10 +41,10 @@ public abstract class GameComponent implements Updatable, Renderable, Replicable
 	private int flags;
 	private GameObject owner;
 	private int id;
+	private final Transform renderTransform = new Transform();
 
 	public GameComponent() {
 		this.id = IdProvider.newId(getGame());
-		setFlag(REPLICATE, true);
 		setFlag(VISIBLE, true);
 		setFlag(AWAKE, true);
 	}
@@ -89,12 +88,9 @@ public abstract class GameComponent implements Updatable, Renderable, Replicable
 		}
 
 		// Gather render cache
-		Transform transform = new Transform();
-		owner.getWorldPosition(transform.position);
-		owner.getWorldRotation(transform.rotation);
-		owner.getWorldScale(transform.scale);
+		owner.getWorldTransform(renderTransform);
 
-		render(renderer, delta, transform);
+		render(renderer, delta, renderTransform);
 	}
 
 	@Override
@@ -132,6 +128,10 @@ public abstract class GameComponent implements Updatable, Renderable, Replicable
 		if (isDestroyed()) {
 			return;
 		}
+		if (owner != null && owner.deferIfUpdating(this::destroy)) {
+			return;
+		}
+		Game game = getGame();
 		if (owner != null) {
 			owner.removeComponent(id);
 		}
@@ -142,6 +142,7 @@ public abstract class GameComponent implements Updatable, Renderable, Replicable
 		}
 		owner = null;
 		setFlag(DESTROYED, true);
+		IdProvider.freeId(game, id);
 	}
 
 	// Getters and setters
@@ -194,16 +195,59 @@ public abstract class GameComponent implements Updatable, Renderable, Replicable
 		setFlag(AWAKE, awake);
 	}
 
-	// Override for more precise control
+	/**
+	 * Filters replication per connection, only called for components that
+	 * are dirty, not dirty tracked, or when the connection forces a full
+	 * replication
+	 *
+	 * @param connection The connection
+	 * @return True by default
+	 */
 	@Override
 	public boolean needsReplication(ConnectionManager connection) {
-		boolean flag = getFlag(REPLICATE);
-		setFlag(REPLICATE, false);
-		return flag;
+		return true;
 	}
 
+	/**
+	 * Replication is scheduled through the level's dirty log, pending
+	 * changes can't be withdrawn
+	 *
+	 * @param flag True calls {@link #markDirty()}, false does nothing
+	 * @deprecated Use {@link #markDirty()} instead
+	 */
+	@Deprecated
 	protected final void setReplicateFlag(boolean flag) {
-		setFlag(ATTACHED, flag);
+		if (flag) {
+			markDirty();
+		}
 	}
 
+	/**
+	 * Components are replicated every time by default. Those that override
+	 * this to return true are only replicated after {@link #markDirty()}
+	 * has been called, which they must do whenever a replicated field
+	 * changes
+	 * <p>
+	 * The value must not change while the component is attached
+	 *
+	 * @return Whether or not this component is dirty tracked
+	 */
+	public boolean isDirtyTracked() {
+		return false;
+	}
+
+	/**
+	 * Schedules this component to be replicated, only needed if
+	 * {@link #isDirtyTracked()} returns true
+	 */
+	public final void markDirty() {
+		Level level = getLevel();
+		if (level != null) {
+			dirtyIndex = level.getDirtyLog().record(this, dirtyIndex);
+		}
+	}
+
+	// Batch of the level's dirty log this was last recorded in
+	long dirtyIndex = -1;
+
 }
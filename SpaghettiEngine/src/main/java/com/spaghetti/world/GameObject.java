@@ -7,6 +7,7 @@ import java.util.function.BiConsumer;
 
 import com.spaghetti.core.Game;
 import com.spaghetti.utils.*;
+import org.joml.Matrix4f;
 import org.joml.Vector3f;
 
 import com.spaghetti.render.Renderable;
@@ -14,6 +15,7 @@ import com.spaghetti.networking.Replicable;
 import com.spaghetti.input.Updatable;
 import com.spaghetti.networking.ConnectionManager;
 import com.spaghetti.networking.NetworkBuffer;
+import com.spaghetti.networking.ReplicationCache;
 import com.spaghetti.render.Camera;
 
 public class GameObject implements Updatable, Renderable, Replicable {
@@ -32,8 +34,7 @@ public class GameObject implements Updatable, Renderable, Replicable {
 	public static final int DESTROYED = 1;
 	// 2 is delete flag
 	public static final int DELETE = 2;
-	// 3 is replicate flag
-	public static final int REPLICATE = 3;
+	// 3 used to be the replicate flag, replaced by the level's dirty log
 	// 4 is initialized flag
 	public static final int INITIALIZED = 4;
 	// 5 is visible flag
@@ -52,7 +53,6 @@ public class GameObject implements Updatable, Renderable, Replicable {
 
 	public GameObject() {
 		this.id = IdProvider.newId(getGame());
-		setFlag(REPLICATE, true);
 		setFlag(AWAKE, true);
 		setFlag(VISIBLE, true);
 	}
@@ -85,6 +85,9 @@ public class GameObject implements Updatable, Renderable, Replicable {
 		if (isDestroyed() || object == null || object.isDestroyed() || object.parent == this) {
 			return;
 		}
+		if (deferIfUpdating(() -> addChild(object))) {
+			return;
+		}
 
 		GameObject current = this;
 		while (current != null) {
@@ -121,17 +124,18 @@ public class GameObject implements Updatable, Renderable, Replicable {
 		object.parent = this;
 		children.put(object.id, object);
 		object.setFlag(ATTACHED, true);
+		object.invalidateTransform();
 		if (isGloballyAttached()) {
 			object.doRecursiveBegin();
 		}
 	}
 
 	private final void addObjectPointersToLevel(GameObject object) {
-		object.level = level;
+		object.setLevel(level);
 		if (isGloballyAttached()) {
-			level.o_ordered.put(object.id, object);
+			level.registerObject(object);
 			object.components.forEach((id, component) -> {
-				level.c_ordered.put(component.getId(), component);
+				level.registerComponent(component);
 			});
 		}
 		object.children.forEach((id, child) -> {
@@ -143,6 +147,9 @@ public class GameObject implements Updatable, Renderable, Replicable {
 		if (isDestroyed() || component == null || component.isDestroyed() || component.getOwner() == this) {
 			return;
 		}
+		if (deferIfUpdating(() -> addComponent(component))) {
+			return;
+		}
 
 		if (component.getOwner() != null) {
 			// onEndPlay() might happen if this component already has a parent
@@ -151,6 +158,7 @@ public class GameObject implements Updatable, Renderable, Replicable {
 		try {
 			// Set 'this' as new owner of the component
 			c_owner.set(component, this);
+			component.dirtyIndex = -1;
 			// Set attached to true
 			c_setflag.invoke(component, ATTACHED, true);
 		} catch (Throwable t) {
@@ -159,7 +167,7 @@ public class GameObject implements Updatable, Renderable, Replicable {
 
 		// onBeginPlay() happens if this is globally attached
 		if (isGloballyAttached()) {
-			level.c_ordered.put(component.getId(), component);
+			level.registerComponent(component);
 			try {
 				component.doBegin();
 			} catch (Throwable t) {
@@ -320,6 +328,16 @@ public class GameObject implements Updatable, Renderable, Replicable {
 		return components.get(id);
 	}
 
+	// Used by the level's archetype queries
+	final boolean hasComponent(Class<?> cls, GameComponent excluded) {
+		for (GameComponent component : components.values()) {
+			if (component != excluded && cls.isInstance(component)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
 	// Get amounts of components by class
 
 	public final int getComponentAmount(Class<? extends GameComponent> cls) {
@@ -371,19 +389,23 @@ public class GameObject implements Updatable, Renderable, Replicable {
 
 	public final synchronized GameObject removeChild(int id) {
 		GameObject object = children.get(id);
+		if (object != null && deferIfUpdating(() -> removeChild(id))) {
+			return object;
+		}
 		if (object != null) {
 			if (isGloballyAttached()) {
 				// Trigger end
 				object.doRecursiveEnd();
 				// Remove from level
-				level.o_ordered.remove(id);
+				level.unregisterObject(object);
 			}
 
 			// Remove from list, set flags
 			object.parent = null;
-			object.level = null;
+			object.setLevel(null);
 			children.remove(id);
 			object.setFlag(ATTACHED, false);
+			object.invalidateTransform();
 
 			return object;
 		}
@@ -405,6 +427,9 @@ public class GameObject implements Updatable, Renderable, Replicable {
 
 	public final synchronized GameComponent removeComponent(int id) {
 		GameComponent component = components.get(id);
+		if (component != null && deferIfUpdating(() -> removeComponent(id))) {
+			return component;
+		}
 		if (component != null) {
 			if (isGloballyAttached()) {
 				// Trigger end
@@ -414,7 +439,7 @@ public class GameObject implements Updatable, Renderable, Replicable {
 					Logger.error("Error occurred in component", t);
 				}
 				// Remove from level
-				level.c_ordered.remove(id);
+				level.unregisterComponent(component);
 			}
 
 			// Remove from list, set flags
@@ -493,10 +518,30 @@ public class GameObject implements Updatable, Renderable, Replicable {
 		if (isDestroyed()) {
 			return;
 		}
+		if (deferIfUpdating(this::destroy)) {
+			return;
+		}
 		doRecursiveDestroy();
 	}
 
+	/**
+	 * Structural changes to a level that is in the middle of a tick are
+	 * recorded in its {@link CommandBuffer} and applied at the sync point
+	 *
+	 * @param change The change to apply
+	 * @return Whether or not the change was deferred
+	 */
+	final boolean deferIfUpdating(Runnable change) {
+		Level level = this.level;
+		if (level != null && level.isDeferring()) {
+			level.defer(change);
+			return true;
+		}
+		return false;
+	}
+
 	private final void doDestroy() {
+		Game game = getGame();
 		if (parent == null) {
 			if (level != null) {
 				level.removeObject(id);
@@ -509,9 +554,10 @@ public class GameObject implements Updatable, Renderable, Replicable {
 		} catch (Throwable t) {
 			Logger.error("Error occurred in object", t);
 		}
-		level = null;
+		setLevel(null);
 		parent = null;
 		setFlag(DESTROYED, true);
+		IdProvider.freeId(game, id);
 	}
 
 	protected final void doRecursiveBegin() {
@@ -629,16 +675,63 @@ public class GameObject implements Updatable, Renderable, Replicable {
 		setFlag(AWAKE, awake);
 	}
 
-	// Override for more precise control
+	/**
+	 * Filters replication per connection, only called for objects that are
+	 * dirty or when the connection forces a full replication
+	 *
+	 * @param connection The connection
+	 * @return True by default
+	 */
 	@Override
 	public boolean needsReplication(ConnectionManager connection) {
-		boolean flag = getFlag(REPLICATE);
-		setFlag(REPLICATE, false);
-		return flag;
+		return true;
 	}
 
+	/**
+	 * Replication is scheduled through the level's dirty log, pending
+	 * changes can't be withdrawn
+	 *
+	 * @param flag True calls {@link #markDirty()}, false does nothing
+	 * @deprecated Use {@link #markDirty()} instead
+	 */
+	@Deprecated
 	protected final void setReplicateFlag(boolean flag) {
-		setFlag(REPLICATE, flag);
+		if (flag) {
+			markDirty();
+		}
+	}
+
+	/**
+	 * Schedules this object to be replicated. The transform setters call this
+	 * automatically, subclasses with more replicated fields must call it
+	 * whenever they change
+	 */
+	public final void markDirty() {
+		Level level = this.level;
+		if (level != null) {
+			dirtyIndex = level.getDirtyLog().record(this, dirtyIndex);
+		}
+	}
+
+	// Batch of the level's dirty log this was last recorded in
+	long dirtyIndex = -1;
+
+	// Relevance groups, a top level object sharing any with a client is always
+	// replicated to it regardless of distance
+	private volatile int relevanceGroups;
+
+	public final int getRelevanceGroups() {
+		return relevanceGroups;
+	}
+
+	/**
+	 * Sets the relevance groups of this object, as a bit mask. Only used on
+	 * top level objects, children are relevant whenever their parent is
+	 *
+	 * @param relevanceGroups The groups
+	 */
+	public final void setRelevanceGroups(int relevanceGroups) {
+		this.relevanceGroups = relevanceGroups;
 	}
 
 	// World interaction
@@ -647,6 +740,109 @@ public class GameObject implements Updatable, Renderable, Replicable {
 	protected final Vector3f relativeScale = new Vector3f(1);
 	protected final Vector3f relativeRotation = new Vector3f();
 
+	// World transform cache, recalculated lazily when dirty
+	private final Object transform_lock = new Object();
+	private volatile boolean transformDirty = true;
+	private final Vector3f worldPosition = new Vector3f();
+	private final Vector3f worldScale = new Vector3f(1);
+	private final Vector3f worldRotation = new Vector3f();
+	private final Matrix4f worldMatrix = new Matrix4f();
+	private final Transform renderTransform = new Transform();
+
+	private final void setLevel(Level level) {
+		if (this.level != level) {
+			// Batches of the dirty log of another level mean nothing here
+			dirtyIndex = -1;
+			components.forEach((id, component) -> component.dirtyIndex = -1);
+		}
+		this.level = level;
+	}
+
+	// World transform cache
+
+	/**
+	 * Marks the cached world transform of this object and all of its
+	 * descendants as outdated
+	 * <p>
+	 * This is done automatically by the transform setters and when the
+	 * hierarchy changes, subclasses writing to the relative transform
+	 * fields directly must call it themselves
+	 */
+	protected final void invalidateTransform() {
+		boolean wasDirty = transformDirty;
+		transformDirty = true;
+		Level level = this.level;
+		if (!wasDirty && level != null) {
+			level.transformChanged(this);
+		}
+
+		// Always reaches the children, even when this is already dirty, since a
+		// child may have been validated against the old transform meanwhile
+		for (GameObject child : children.values()) {
+			child.invalidateTransform();
+		}
+	}
+
+	private final void validateTransform() {
+		if (!transformDirty) {
+			return;
+		}
+		synchronized (transform_lock) {
+			if (!transformDirty) {
+				return;
+			}
+			// Cleared first, so a concurrent setter makes us recalculate next time
+			transformDirty = false;
+
+			// Starts from the relative transform
+			worldPosition.set(relativePosition);
+			worldRotation.set(relativeRotation);
+			worldScale.set(relativeScale);
+
+			GameObject parent = this.parent;
+			if (parent != null) {
+				parent.validateTransform();
+				Vector3f superPosition = parent.worldPosition;
+				Vector3f superRotation = parent.worldRotation;
+
+				float cosX = (float) Math.cos(superRotation.x);
+				float sinX = (float) Math.sin(superRotation.x);
+
+				float cosY = (float) Math.cos(superRotation.y);
+				float sinY = (float) Math.sin(superRotation.y);
+
+				float cosZ = (float) Math.cos(superRotation.z);
+				float sinZ = (float) Math.sin(superRotation.z);
+
+				float x = worldPosition.x;
+				float y = worldPosition.y;
+				float z = worldPosition.z;
+
+				float targetX = (x * cosZ - y * sinZ) * cosY;
+				float targetY = (x * sinZ - y * cosZ) * cosX;
+				float targetZ = (z * cosX - y * sinX) * sinY;
+
+				worldPosition.set(targetX + superPosition.x, targetY + superPosition.y, targetZ + superPosition.z);
+				worldRotation.add(superRotation);
+				worldScale.mul(parent.worldScale);
+			}
+
+			worldMatrix.translation(worldPosition).rotateXYZ(worldRotation).scale(worldScale);
+		}
+	}
+
+	/**
+	 * Copies the cached world transform matrix (translation, then XYZ rotation,
+	 * then scale) into {@code pointer}
+	 *
+	 * @param pointer The matrix to store the result in
+	 * @return {@code pointer}
+	 */
+	public final Matrix4f getWorldMatrix(Matrix4f pointer) {
+		validateTransform();
+		return pointer.set(worldMatrix);
+	}
+
 
 	// Transform getters and setters
 
@@ -677,11 +873,11 @@ public class GameObject implements Updatable, Renderable, Replicable {
 	// Position getters
 
 	public final Vector3f getRelativePosition() {
-		return new Vector3f().set(relativePosition);
+		return new Vector3f(getRelativeX(), getRelativeY(), getRelativeZ());
 	}
 
 	public final void getRelativePosition(Vector3f pointer) {
-		pointer.set(relativePosition);
+		pointer.set(getRelativeX(), getRelativeY(), getRelativeZ());
 	}
 
 	public final Vector3f getWorldPosition() {
@@ -692,29 +888,8 @@ public class GameObject implements Updatable, Renderable, Replicable {
 
 
 	public final void getWorldPosition(Vector3f pointer) {
-		pointer.zero();
-
-		if(parent == null) {
-			pointer.set(relativePosition);
-		} else {
-			Vector3f superPosition = parent.getWorldPosition();
-			Vector3f superRotation = parent.getWorldRotation();
-
-			float cosX = (float) Math.cos(superRotation.x);
-			float sinX = (float) Math.sin(superRotation.x);
-
-			float cosY = (float) Math.cos(superRotation.y);
-			float sinY = (float) Math.sin(superRotation.y);
-
-			float cosZ = (float) Math.cos(superRotation.z);
-			float sinZ = (float) Math.sin(superRotation.z);
-
-			float targetX = (relativePosition.x * cosZ - relativePosition.y * sinZ) * cosY;
-			float targetY = (relativePosition.x * sinZ - relativePosition.y * cosZ) * cosX;
-			float targetZ = (relativePosition.z * cosX - relativePosition.y * sinX) * sinY;
-
-			pointer.set(targetX + superPosition.x, targetY + superPosition.y, targetZ + superPosition.z);
-		}
+		validateTransform();
+		pointer.set(worldPosition);
 	}
 
 	public final float getRelativeX() {
@@ -730,15 +905,18 @@ public class GameObject implements Updatable, Renderable, Replicable {
 	}
 
 	public final float getWorldX() {
-		return getWorldPosition().x;
+		validateTransform();
+		return worldPosition.x;
 	}
 
 	public final float getWorldY() {
-		return getWorldPosition().y;
+		validateTransform();
+		return worldPosition.y;
 	}
 
 	public final float getWorldZ() {
-		return getWorldPosition().z;
+		validateTransform();
+		return worldPosition.z;
 	}
 
 	// Position setters
@@ -749,6 +927,8 @@ public class GameObject implements Updatable, Renderable, Replicable {
 
 	public final void setRelativePosition(float x, float y, float z) {
 		relativePosition.set(x, y, z);
+		invalidateTransform();
+		markDirty();
 	}
 
 	public final void setWorldPosition(Vector3f vec) {
@@ -763,19 +943,19 @@ public class GameObject implements Updatable, Renderable, Replicable {
 		float ydiff = vec.y - y;
 		float zdiff = vec.z - z;
 
-		setRelativePosition(relativePosition.x - xdiff, relativePosition.y - ydiff, relativePosition.z - zdiff);
+		setRelativePosition(getRelativeX() - xdiff, getRelativeY() - ydiff, getRelativeZ() - zdiff);
 	}
 
 	public final void setRelativeX(float x) {
-		setRelativePosition(x, relativePosition.y, relativePosition.z);
+		setRelativePosition(x, getRelativeY(), getRelativeZ());
 	}
 
 	public final void setRelativeY(float y) {
-		setRelativePosition(relativePosition.x, y, relativePosition.z);
+		setRelativePosition(getRelativeX(), y, getRelativeZ());
 	}
 
 	public final void setRelativeZ(float z) {
-		setRelativePosition(relativePosition.x, relativePosition.y, z);
+		setRelativePosition(getRelativeX(), getRelativeY(), z);
 	}
 
 	public final void setWorldX(float worldx) {
@@ -799,11 +979,11 @@ public class GameObject implements Updatable, Renderable, Replicable {
 	// Scale getters
 
 	public final Vector3f getRelativeScale() {
-		return new Vector3f().set(relativeScale);
+		return new Vector3f(getXScale(), getYScale(), getZScale());
 	}
 
 	public final void getRelativeScale(Vector3f pointer) {
-		pointer.set(relativeScale);
+		pointer.set(getXScale(), getYScale(), getZScale());
 	}
 
 	public final Vector3f getWorldScale() {
@@ -813,13 +993,8 @@ public class GameObject implements Updatable, Renderable, Replicable {
 	}
 
 	public void getWorldScale(Vector3f pointer) {
-		pointer.set(1);
-
-		GameObject last = this;
-		while (last != null) {
-			pointer.mul(last.relativeScale);
-			last = last.parent;
-		}
+		validateTransform();
+		pointer.set(worldScale);
 	}
 
 	public final float getXScale() {
@@ -835,15 +1010,18 @@ public class GameObject implements Updatable, Renderable, Replicable {
 	}
 
 	public final float getWorldXScale() {
-		return getWorldScale().x;
+		validateTransform();
+		return worldScale.x;
 	}
 
 	public final float getWorldYScale() {
-		return getWorldScale().y;
+		validateTransform();
+		return worldScale.y;
 	}
 
 	public final float getWorldZScale() {
-		return getWorldScale().z;
+		validateTransform();
+		return worldScale.z;
 	}
 
 	// Scale setters
@@ -854,6 +1032,8 @@ public class GameObject implements Updatable, Renderable, Replicable {
 
 	public final void setRelativeScale(float x, float y, float z) {
 		relativeScale.set(x, y, z);
+		invalidateTransform();
+		markDirty();
 	}
 
 	public final void setWorldScale(Vector3f vec) {
@@ -868,19 +1048,19 @@ public class GameObject implements Updatable, Renderable, Replicable {
 		float ydiff = vec3.y / y;
 		float zdiff = vec3.z / z;
 
-		setRelativeScale(relativeScale.x / xdiff, relativeScale.y / ydiff, relativeScale.z / zdiff);
+		setRelativeScale(getXScale() / xdiff, getYScale() / ydiff, getZScale() / zdiff);
 	}
 
 	public final void setXScale(float x) {
-		setRelativeScale(x, relativeScale.y, relativeScale.z);
+		setRelativeScale(x, getYScale(), getZScale());
 	}
 
 	public final void setYScale(float y) {
-		setRelativeScale(relativeScale.x, y, relativeScale.z);
+		setRelativeScale(getXScale(), y, getZScale());
 	}
 
 	public final void setZScale(float z) {
-		setRelativeScale(relativeScale.x, relativeScale.y, z);
+		setRelativeScale(getXScale(), getYScale(), z);
 	}
 
 	public final void setWorldXScale(float worldx) {
@@ -904,11 +1084,11 @@ public class GameObject implements Updatable, Renderable, Replicable {
 	// Rotation getters
 
 	public final Vector3f getRelativeRotation() {
-		return new Vector3f().set(relativeRotation);
+		return new Vector3f(getYaw(), getPitch(), getRoll());
 	}
 
 	public final void getRelativeRotation(Vector3f pointer) {
-		pointer.set(relativeRotation);
+		pointer.set(getYaw(), getPitch(), getRoll());
 	}
 
 	public final Vector3f getWorldRotation() {
@@ -918,13 +1098,8 @@ public class GameObject implements Updatable, Renderable, Replicable {
 	}
 
 	public final void getWorldRotation(Vector3f pointer) {
-		pointer.zero();
-
-		GameObject last = this;
-		while (last != null) {
-			pointer.add(last.relativeRotation);
-			last = last.parent;
-		}
+		validateTransform();
+		pointer.set(worldRotation);
 	}
 
 	public final float getYaw() {
@@ -940,15 +1115,18 @@ public class GameObject implements Updatable, Renderable, Replicable {
 	}
 
 	public final float getWorldYaw() {
-		return getWorldRotation().x;
+		validateTransform();
+		return worldRotation.x;
 	}
 
 	public final float getWorldPitch() {
-		return getWorldRotation().y;
+		validateTransform();
+		return worldRotation.y;
 	}
 
 	public final float getWorldRoll() {
-		return getWorldRotation().z;
+		validateTransform();
+		return worldRotation.z;
 	}
 
 	// Rotation setters
@@ -959,6 +1137,8 @@ public class GameObject implements Updatable, Renderable, Replicable {
 
 	public final void setRelativeRotation(float x, float y, float z) {
 		relativeRotation.set(x, y, z);
+		invalidateTransform();
+		markDirty();
 	}
 
 	public final void setWorldRotation(Vector3f vec) {
@@ -973,19 +1153,19 @@ public class GameObject implements Updatable, Renderable, Replicable {
 		float ydiff = vec3.y - y;
 		float zdiff = vec3.z - z;
 
-		setRelativeRotation(relativeRotation.x - xdiff, relativeRotation.y - ydiff, relativeRotation.z - zdiff);
+		setRelativeRotation(getYaw() - xdiff, getPitch() - ydiff, getRoll() - zdiff);
 	}
 
 	public final void setYaw(float yaw) {
-		setRelativeRotation(yaw, relativeRotation.y, relativeRotation.z);
+		setRelativeRotation(yaw, getPitch(), getRoll());
 	}
 
 	public final void setPitch(float pitch) {
-		setRelativeRotation(relativeRotation.x, pitch, relativeRotation.z);
+		setRelativeRotation(getYaw(), pitch, getRoll());
 	}
 
 	public final void setRoll(float roll) {
-		setRelativeRotation(relativeRotation.x, relativeRotation.y, roll);
+		setRelativeRotation(getYaw(), getPitch(), roll);
 	}
 
 	public final void setWorldYaw(float worldyaw) {
@@ -1090,6 +1270,22 @@ public class GameObject implements Updatable, Renderable, Replicable {
 	/**
 	 * Happens on both server and client regardless So follow all the warnings
 	 * reported on the serverUpdate method plus the ones on clientUpdate
+	 * <p>
+	 * When the parallel update is enabled ({@code world.parallelUpdate}) every
+	 * top level object and its subtree are updated on a different worker,
+	 * at the same time as the other levels. In that mode:
+	 * <ul>
+	 * <li>Reading and writing this object, its components and its descendants
+	 * is safe</li>
+	 * <li>Writing to any other object is not, read it knowing that it may be
+	 * halfway through its own update</li>
+	 * <li>Adding, removing and destroying objects and components is always
+	 * safe, the change is applied at the end of the tick so it won't be visible
+	 * until then</li>
+	 * <li>Shared state (game mode, statics, other levels) must be synchronized
+	 * by the caller</li>
+	 * </ul>
+	 * Use {@link Level#defer(Runnable)} to run anything else after the update
 	 *
 	 * @param delta
 	 */
@@ -1107,14 +1303,10 @@ public class GameObject implements Updatable, Renderable, Replicable {
 			}
 		});
 
-		// Gather render cache
-		Transform transform = new Transform();
-		getWorldPosition(transform.position);
-		getWorldRotation(transform.rotation);
-		getWorldScale(transform.scale);
-
 		if(this != renderer) {
-			render(renderer, delta, transform);
+			// Gather render cache
+			getWorldTransform(renderTransform);
+			render(renderer, delta, renderTransform);
 		}
 		children.forEach((id, object) -> {
 			if (object != null) {
@@ -1129,53 +1321,62 @@ public class GameObject implements Updatable, Renderable, Replicable {
 
 	@Override
 	public void writeDataServer(ConnectionManager manager, NetworkBuffer buffer) {
-		buffer.putFloat(relativePosition.x);
-		buffer.putFloat(relativePosition.y);
-		buffer.putFloat(relativePosition.z);
+		buffer.putFloat(getRelativeX());
+		buffer.putFloat(getRelativeY());
+		buffer.putFloat(getRelativeZ());
 
-		if (relativeScale.x == 1 && relativeScale.y == 1 && relativeScale.z == 1) {
+		if (getXScale() == 1 && getYScale() == 1 && getZScale() == 1) {
 			buffer.putBoolean(true);
 		} else {
 			buffer.putBoolean(false);
-			buffer.putFloat(relativeScale.x);
-			buffer.putFloat(relativeScale.y);
-			buffer.putFloat(relativeScale.z);
+			buffer.putFloat(getXScale());
+			buffer.putFloat(getYScale());
+			buffer.putFloat(getZScale());
 		}
 
-		if (relativeRotation.x == 0 && relativeRotation.y == 0 && relativeRotation.z == 0) {
+		if (getYaw() == 0 && getPitch() == 0 && getRoll() == 0) {
 			buffer.putBoolean(true);
 		} else {
 			buffer.putBoolean(false);
-			buffer.putFloat(relativeRotation.x);
-			buffer.putFloat(relativeRotation.y);
-			buffer.putFloat(relativeRotation.z);
+			buffer.putFloat(getYaw());
+			buffer.putFloat(getPitch());
+			buffer.putFloat(getRoll());
 		}
 	}
 
+	@Override
+	public boolean isSharedReplication() {
+		// Subclasses writing their own data must opt in again
+		return ReplicationCache.isWrittenBy(this, GameObject.class);
+	}
+
 	@Override
 	public void readDataClient(ConnectionManager manager, NetworkBuffer buffer) {
-		relativePosition.x = buffer.getFloat();
-		relativePosition.y = buffer.getFloat();
-		relativePosition.z = buffer.getFloat();
+		readTransform(buffer);
+	}
+
+	private final void readTransform(NetworkBuffer buffer) {
+		float x = buffer.getFloat();
+		float y = buffer.getFloat();
+		float z = buffer.getFloat();
+		setRelativePosition(x, y, z);
 
 		if (buffer.getBoolean()) {
-			relativeScale.x = 1;
-			relativeScale.y = 1;
-			relativeScale.z = 1;
+			setRelativeScale(1, 1, 1);
 		} else {
-			relativeScale.x = buffer.getFloat();
-			relativeScale.y = buffer.getFloat();
-			relativeScale.z = buffer.getFloat();
+			x = buffer.getFloat();
+			y = buffer.getFloat();
+			z = buffer.getFloat();
+			setRelativeScale(x, y, z);
 		}
 
 		if (buffer.getBoolean()) {
-			relativeRotation.x = 0;
-			relativeRotation.y = 0;
-			relativeRotation.z = 0;
+			setRelativeRotation(0, 0, 0);
 		} else {
-			relativeRotation.x = buffer.getFloat();
-			relativeRotation.y = buffer.getFloat();
-			relativeRotation.z = buffer.getFloat();
+			x = buffer.getFloat();
+			y = buffer.getFloat();
+			z = buffer.getFloat();
+			setRelativeRotation(x, y, z);
 		}
 	}
 
@@ -1,6 +1,7 @@
 package com.spaghetti.world;
 
 import java.lang.reflect.Field;
+import java.util.ArrayList;
 import java.util.HashMap;
 
 import com.spaghetti.core.EmptyMode;
@@ -50,9 +51,14 @@ public class GameState implements Updatable, Replicable {
 	// Something changed?
 	protected boolean replication;
 
+	// Update levels and objects on the job system
+	protected boolean parallelUpdate;
+	private final ArrayList<Level> active = new ArrayList<>();
+
 	public GameState(Game game) {
 		this.game = game;
 		this.gameMode = new EmptyMode();
+		this.parallelUpdate = Boolean.TRUE.equals(game.getEngineSetting("world.parallelUpdate"));
 	}
 
 	// Update
@@ -70,10 +76,32 @@ public class GameState implements Updatable, Replicable {
 		}
 		gameMode.update(delta);
 
+		// Only active levels
+		active.clear();
 		for (Level level : levels.values()) {
-			// Only active levels
 			if (level.isAttached()) {
-				level.update(delta);
+				active.add(level);
+			}
+		}
+
+		// Structural changes are recorded until the sync point
+		for (Level level : active) {
+			level.beginTick();
+		}
+		try {
+			if (parallelUpdate) {
+				game.getJobSystem().parallelFor(active.size(), i -> {
+					active.get(i).updateParallel(delta);
+				});
+			} else {
+				for (Level level : active) {
+					level.update(delta);
+				}
+			}
+		} finally {
+			// Sync point, back on this thread
+			for (Level level : active) {
+				level.sync();
 			}
 		}
 	}
@@ -229,6 +257,23 @@ public class GameState implements Updatable, Replicable {
 		players.clear();
 	}
 
+	// Parallel update
+
+	public boolean isParallelUpdate() {
+		return parallelUpdate;
+	}
+
+	/**
+	 * Enables or disables updating levels and top level objects concurrently,
+	 * see {@link GameObject#commonUpdate(float)} for the rules update code
+	 * must follow when this is enabled
+	 *
+	 * @param parallelUpdate The new value
+	 */
+	public void setParallelUpdate(boolean parallelUpdate) {
+		this.parallelUpdate = parallelUpdate;
+	}
+
 	// Speed
 
 	public float getTickMultiplier() {
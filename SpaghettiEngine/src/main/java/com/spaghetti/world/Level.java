@@ -1,20 +1,24 @@
 package com.spaghetti.world;
 
 import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
-import java.util.ConcurrentModificationException;
+import java.util.Arrays;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.BiConsumer;
 import java.util.function.Consumer;
 
 import com.spaghetti.core.Game;
 import com.spaghetti.input.Updatable;
+import com.spaghetti.utils.Logger;
 import com.spaghetti.utils.ReflectionUtil;
+import com.spaghetti.world.spatial.SpatialIndex;
 
 public final class Level implements Updatable {
 
-	private static final Field o_level = ReflectionUtil.getPrivateField(GameObject.class, "level");
+	private static final Method o_setlevel = ReflectionUtil.getPrivateMethod(GameObject.class, "setLevel",
+			Level.class);
 	private static final Field o_parent = ReflectionUtil.getPrivateField(GameObject.class, "parent");
 	private static final Method o_setflag = ReflectionUtil.getPrivateMethod(GameObject.class, "setFlag", int.class,
 			boolean.class);
@@ -23,8 +27,28 @@ public final class Level implements Updatable {
 	protected boolean attached;
 	protected final Game game;
 	protected final ArrayList<GameObject> objects = new ArrayList<>();
+	// Rebuilt lazily after the top level objects change
+	private volatile GameObject[] snapshot = new GameObject[0];
 	protected final ConcurrentHashMap<Integer, GameObject> o_ordered = new ConcurrentHashMap<>();
 	protected final ConcurrentHashMap<Integer, GameComponent> c_ordered = new ConcurrentHashMap<>();
+	private final SlotMap<GameObject> o_slots = new SlotMap<>();
+	private final SlotMap<GameComponent> c_slots = new SlotMap<>();
+	protected final SpatialIndex spatial;
+
+	// Type indices
+	private final Object index_lock = new Object();
+	private final TypeIndex objectIndex = new TypeIndex();
+	private final TypeIndex componentIndex = new TypeIndex();
+	private final ArrayList<Archetype> archetypes = new ArrayList<>();
+
+	// Replication
+	private final DirtyLog dirtyLog = new DirtyLog();
+	private final LevelQuery<GameComponent> untracked = new LevelQuery<>();
+
+	// Structural changes issued during a tick
+	private final CommandBuffer commands = new CommandBuffer();
+	private volatile boolean deferring;
+	private volatile Thread updater;
 
 	protected final String name;
 
@@ -34,16 +58,29 @@ public final class Level implements Updatable {
 		}
 		this.game = game;
 		this.name = name;
+
+		// Spatial indexing is opt-in
+		Class<? extends SpatialIndex> spatialClass = game.getEngineSetting("world.spatialIndex");
+		try {
+			this.spatial = spatialClass == null ? null : spatialClass.getConstructor(Game.class).newInstance(game);
+		} catch (InvocationTargetException e) {
+			throw new RuntimeException("Error initializing the spatial index: an exception occurred in the constructor",
+					e);
+		} catch (ReflectiveOperationException e) {
+			throw new RuntimeException(
+					"Error initializing the spatial index: the class must have an accessible constructor accepting a Game",
+					e);
+		}
 	}
 
 	protected void onBeginPlay() {
-		for (GameObject obj : objects) {
+		for (GameObject obj : getSnapshot()) {
 			obj.doRecursiveBegin();
 		}
 	}
 
 	protected void onEndPlay() {
-		for (GameObject obj : objects) {
+		for (GameObject obj : getSnapshot()) {
 			obj.doRecursiveEnd();
 		}
 	}
@@ -56,11 +93,8 @@ public final class Level implements Updatable {
 			return;
 		}
 		onDestroy();
-		synchronized(objects) {
-			for (Object obj : objects.toArray()) {
-				GameObject go = (GameObject) obj;
-				go.destroy();
-			}
+		for (GameObject go : getSnapshot()) {
+			go.destroy();
 		}
 		destroyed = true;
 	}
@@ -69,6 +103,10 @@ public final class Level implements Updatable {
 		if (objects.contains(object) || object == null || object.isDestroyed() || isDestroyed()) {
 			return;
 		}
+		if (isDeferring()) {
+			commands.record(() -> addObject(object));
+			return;
+		}
 
 		// If 'object' is attached, cut away its owners (onEndPlay opportunity here)
 		if (object.isLocallyAttached()) {
@@ -89,12 +127,14 @@ public final class Level implements Updatable {
 		// Finally add to list, set flags, activate triggers
 		synchronized(objects) {
 			objects.add(object);
+			snapshot = null;
 		}
 		try {
 			o_setflag.invoke(object, GameObject.ATTACHED, true);
 			o_parent.set(object, null);
 		} catch (Throwable t) {
 		}
+		object.invalidateTransform();
 		if (isAttached()) {
 			object.doRecursiveBegin();
 		}
@@ -102,12 +142,12 @@ public final class Level implements Updatable {
 
 	private final void update_level(GameObject object) {
 		try {
-			o_level.set(object, this);
+			o_setlevel.invoke(object, this);
 		} catch (Throwable t) {
 		}
-		o_ordered.put(object.getId(), object);
+		registerObject(object);
 		object.forEachComponent((id, component) -> {
-			c_ordered.put(component.getId(), component);
+			registerComponent(component);
 		});
 		object.forEachChild((id, child) -> {
 			update_level(child);
@@ -115,31 +155,38 @@ public final class Level implements Updatable {
 	}
 
 	public final synchronized GameObject removeObject(int id) {
-		GameObject object = o_ordered.get(id);
+		GameObject object = getObject(id);
 		if (!objects.contains(object) || object == null) {
 			return null;
 		}
+		if (isDeferring()) {
+			commands.record(() -> removeObject(id));
+			return object;
+		}
 
 		object.doRecursiveEnd();
 		synchronized(objects) {
 			objects.remove(object);
+			snapshot = null;
 		}
-		o_ordered.remove(id);
+		unregisterObject(object);
 		try {
 			o_parent.set(object, null);
-			o_level.set(object, null);
+			o_setlevel.invoke(object, (Level) null);
 			o_setflag.invoke(object, GameObject.ATTACHED, false);
 		} catch (Throwable t) {
 		}
+		object.invalidateTransform();
 		return object;
 	}
 
 	public final synchronized boolean deleteObject(int id) {
-		GameObject get = o_ordered.get(id);
+		GameObject get = getObject(id);
 		if (!objects.contains(get)) {
 			return false;
 		}
 		if (get != null) {
+			// Deferred by destroy() itself if needed
 			get.destroy();
 			return true;
 		}
@@ -147,11 +194,14 @@ public final class Level implements Updatable {
 	}
 
 	public final GameObject getObject(int id) {
-		return o_ordered.get(id);
+		GameObject object = o_slots.get(id);
+		// Guards against a racing write to the same slot
+		return object != null && object.getId() == id ? object : null;
 	}
 
 	public final GameComponent getComponent(int id) {
-		return c_ordered.get(id);
+		GameComponent component = c_slots.get(id);
+		return component != null && component.getId() == id ? component : null;
 	}
 
 	public final int getObjectAmount() {
@@ -167,9 +217,30 @@ public final class Level implements Updatable {
 	}
 
 	public final void forEachObject(Consumer<GameObject> consumer) {
-		synchronized(objects) {
-			objects.forEach(consumer);
+		for (GameObject object : getSnapshot()) {
+			consumer.accept(object);
+		}
+	}
+
+	/**
+	 * Retrieves the top level objects as they were after the last structural
+	 * change. The array is shared and must not be modified, iterating it
+	 * needs no locking
+	 *
+	 * @return The snapshot
+	 */
+	public final GameObject[] getSnapshot() {
+		GameObject[] current = snapshot;
+		if (current == null) {
+			synchronized (objects) {
+				current = snapshot;
+				if (current == null) {
+					current = objects.toArray(new GameObject[objects.size()]);
+					snapshot = current;
+				}
+			}
 		}
+		return current;
 	}
 
 	public final void forEachActualObject(BiConsumer<Integer, GameObject> consumer) {
@@ -182,15 +253,95 @@ public final class Level implements Updatable {
 
 	@Override
 	public final void update(float delta) {
+		// Structural changes are deferred, so the snapshot stays valid
+		for (GameObject object : getSnapshot()) {
+			updateObject(object, delta);
+		}
+	}
+
+	/**
+	 * Updates every top level object and its subtree concurrently on the
+	 * game's job system
+	 * <p>
+	 * Add, remove and destroy operations issued while this runs are deferred
+	 * until the sync point, see {@link GameObject#commonUpdate(float)} for
+	 * what is safe to do from update methods in this mode
+	 *
+	 * @param delta The delta time
+	 */
+	public final void updateParallel(float delta) {
+		GameObject[] current = getSnapshot();
+		game.getJobSystem().parallelFor(current.length, i -> {
+			updateObject(current[i], delta);
+		});
+	}
+
+	// An object that throws doesn't stop the others from updating
+	private final void updateObject(GameObject object, float delta) {
 		try {
-			// Update level
-			objects.forEach(object -> {
-				if (object != null) {
-					object.update(delta);
-				}
-			});
-		} catch (ConcurrentModificationException e) {
+			object.update(delta);
+		} catch (Throwable t) {
+			Logger.error("Error updating object " + object.getId() + " in level " + name, t);
+		}
+	}
+
+	// Structural command buffer
+
+	/**
+	 * Structural changes are only recorded when issued by the thread updating
+	 * the level or by the workers of the job system, changes issued by any
+	 * other thread during a tick are applied right away as usual
+	 *
+	 * @return Whether or not structural changes issued by the calling thread
+	 *         are currently being recorded instead of applied
+	 */
+	public final boolean isDeferring() {
+		if (!deferring) {
+			return false;
+		}
+		Thread current = Thread.currentThread();
+		return current == updater || game.getJobSystem().isWorker(current);
+	}
+
+	/**
+	 * Records a change to be applied at the next sync point. Safe to call from
+	 * any thread
+	 *
+	 * @param change The change
+	 */
+	public final void defer(Runnable change) {
+		commands.record(change);
+	}
+
+	public final CommandBuffer getCommandBuffer() {
+		return commands;
+	}
+
+	/**
+	 * Starts recording structural changes, called at the beginning of a tick
+	 */
+	final void beginTick() {
+		updater = Thread.currentThread();
+		deferring = true;
+	}
+
+	/**
+	 * The sync point: stops recording and applies every recorded change in the
+	 * order it was issued, firing onEndPlay and onBeginPlay as each one is
+	 * applied. Changes made by those callbacks take effect immediately. Must be
+	 * called from the thread that updates the level
+	 *
+	 * @return The amount of changes applied
+	 */
+	final int sync() {
+		deferring = false;
+		updater = null;
+		int applied = commands.flush();
+		if (spatial != null) {
+			// Keeps the queue of moved objects short even if nobody queries
+			spatial.refresh();
 		}
+		return applied;
 	}
 
 	public final boolean isDestroyed() {
@@ -203,25 +354,181 @@ public final class Level implements Updatable {
 
 	// Getter utility functions
 
-	// Get single object by class
+	// Type queries
+
+	/**
+	 * Retrieves a live view of all the objects in this level that are instances
+	 * of {@code cls}
+	 *
+	 * @param cls The class of the objects
+	 * @return The cached query view
+	 */
+	public final <T extends GameObject> LevelQuery<T> queryObjects(Class<T> cls) {
+		synchronized (index_lock) {
+			return objectIndex.get(cls, o_ordered.values());
+		}
+	}
+
+	/**
+	 * Retrieves a live view of all the components in this level that are
+	 * instances of {@code cls}
+	 *
+	 * @param cls The class of the components
+	 * @return The cached query view
+	 */
+	public final <T extends GameComponent> LevelQuery<T> queryComponents(Class<T> cls) {
+		synchronized (index_lock) {
+			return componentIndex.get(cls, c_ordered.values());
+		}
+	}
+
+	/**
+	 * Retrieves a live view of all the objects in this level that own at least
+	 * one component of each of the given {@code types}
+	 *
+	 * @param types The component types every object must have, subclasses of
+	 *              {@link GameComponent}
+	 * @return The cached query view
+	 */
+	public final LevelQuery<GameObject> query(Class<?>... types) {
+		if (types.length == 0) {
+			throw new IllegalArgumentException("At least one component type is required");
+		}
+		for (Class<?> type : types) {
+			if (!GameComponent.class.isAssignableFrom(type)) {
+				throw new IllegalArgumentException(type.getName() + " is not a component type");
+			}
+		}
+		synchronized (index_lock) {
+			for (Archetype archetype : archetypes) {
+				if (Arrays.equals(archetype.types, types)) {
+					return archetype.view;
+				}
+			}
+			Archetype archetype = new Archetype(types.clone());
+			for (GameObject object : o_ordered.values()) {
+				if (archetype.matches(object, null)) {
+					archetype.view.add(object);
+				}
+			}
+			archetypes.add(archetype);
+			return archetype.view;
+		}
+	}
 
-	@SuppressWarnings("unchecked")
-	public final <T extends GameObject> T getObject(Class<T> cls) {
-		for (GameObject obj : o_ordered.values()) {
-			if (cls.isAssignableFrom(obj.getClass())) {
-				return (T) obj;
+	// Indexing, called whenever the hierarchy changes
+
+	final void registerObject(GameObject object) {
+		o_ordered.put(object.getId(), object);
+		if (spatial != null) {
+			spatial.add(object);
+		}
+		synchronized (index_lock) {
+			o_slots.put(object.getId(), object);
+			objectIndex.add(object);
+		}
+		object.dirtyIndex = dirtyLog.record(object, -1);
+	}
+
+	final void unregisterObject(GameObject object) {
+		// Takes the whole branch away
+		object.forEachComponent((id, component) -> {
+			unregisterComponent(component);
+		});
+		o_ordered.remove(object.getId(), object);
+		if (spatial != null) {
+			spatial.remove(object);
+		}
+		synchronized (index_lock) {
+			o_slots.remove(object.getId(), object);
+			objectIndex.remove(object);
+			for (Archetype archetype : archetypes) {
+				archetype.view.remove(object);
+			}
+		}
+		object.forEachChild((id, child) -> {
+			unregisterObject(child);
+		});
+	}
+
+	final void registerComponent(GameComponent component) {
+		c_ordered.put(component.getId(), component);
+		synchronized (index_lock) {
+			c_slots.put(component.getId(), component);
+			componentIndex.add(component);
+			updateArchetypes(component, null);
+			if (!component.isDirtyTracked()) {
+				untracked.add(component);
 			}
 		}
-		return null;
+		component.dirtyIndex = dirtyLog.record(component, -1);
 	}
 
-	public final GameObject getObjectN(Class<? extends GameObject> cls) {
-		for (GameObject obj : o_ordered.values()) {
-			if (cls.isAssignableFrom(obj.getClass())) {
-				return obj;
+	final void unregisterComponent(GameComponent component) {
+		c_ordered.remove(component.getId(), component);
+		synchronized (index_lock) {
+			c_slots.remove(component.getId(), component);
+			componentIndex.remove(component);
+			updateArchetypes(component, component);
+			untracked.remove(component);
+		}
+	}
+
+	private final void updateArchetypes(GameComponent component, GameComponent excluded) {
+		GameObject owner = component.getOwner();
+		if (owner == null || o_slots.get(owner.getId()) != owner) {
+			return;
+		}
+		for (Archetype archetype : archetypes) {
+			if (archetype.involves(component)) {
+				if (archetype.matches(owner, excluded)) {
+					archetype.view.add(owner);
+				} else {
+					archetype.view.remove(owner);
+				}
+			}
+		}
+	}
+
+	private static final class Archetype {
+
+		final Class<?>[] types;
+		final LevelQuery<GameObject> view = new LevelQuery<>();
+
+		Archetype(Class<?>[] types) {
+			this.types = types;
+		}
+
+		boolean involves(GameComponent component) {
+			for (Class<?> type : types) {
+				if (type.isInstance(component)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		boolean matches(GameObject object, GameComponent excluded) {
+			for (Class<?> type : types) {
+				if (!object.hasComponent(type, excluded)) {
+					return false;
+				}
 			}
+			return true;
 		}
-		return null;
+
+	}
+
+	// Getter utility functions
+
+	// Get single object by class
+
+	public final <T extends GameObject> T getObject(Class<T> cls) {
+		return queryObjects(cls).first();
+	}
+
+	public final GameObject getObjectN(Class<? extends GameObject> cls) {
+		return queryObjects(cls).first();
 	}
 
 	// Get single object by index
@@ -237,55 +544,24 @@ public final class Level implements Updatable {
 		throw new IndexOutOfBoundsException("" + index);
 	}
 
-	@SuppressWarnings("unchecked")
 	public final <T extends GameObject> T getObjectAt(int index, Class<T> cls) {
-		int i = 0;
-		for (GameObject obj : o_ordered.values()) {
-			if (cls.isAssignableFrom(obj.getClass())) {
-				if (i == index) {
-					return (T) obj;
-				}
-				i++;
-			}
-		}
-		throw new IndexOutOfBoundsException("" + index);
+		return queryObjects(cls).get(index);
 	}
 
 	// Get amount of objects by class
 
 	public final int getObjectAmount(Class<? extends GameObject> cls) {
-		int i = 0;
-		for (GameObject obj : o_ordered.values()) {
-			if (cls.isAssignableFrom(obj.getClass())) {
-				i++;
-			}
-		}
-		return i;
+		return queryObjects(cls).size();
 	}
 
 	// Get array of objects
 
-	@SuppressWarnings("unchecked")
 	public final <T extends GameObject> T[] getObjects(Class<T> cls, T[] buffer, int offset) {
-		int i = 0;
-		for (GameObject obj : o_ordered.values()) {
-			if (cls.isAssignableFrom(obj.getClass())) {
-				buffer[i + offset] = (T) obj;
-				i++;
-			}
-		}
-		return buffer;
+		return queryObjects(cls).toArray(buffer, offset);
 	}
 
 	public final GameObject[] getObjectsN(Class<? extends GameObject> cls, GameObject[] buffer, int offset) {
-		int i = 0;
-		for (GameObject obj : o_ordered.values()) {
-			if (cls.isAssignableFrom(obj.getClass())) {
-				buffer[i + offset] = obj;
-				i++;
-			}
-		}
-		return buffer;
+		return queryObjects(cls).toArray(buffer, offset);
 	}
 
 	public final GameObject[] getObjects(GameObject[] buffer, int offset) {
@@ -299,23 +575,12 @@ public final class Level implements Updatable {
 
 	// Get single component by class
 
-	@SuppressWarnings("unchecked")
 	public final <T extends GameComponent> T getComponent(Class<T> cls) {
-		for (GameComponent comp : c_ordered.values()) {
-			if (cls.isAssignableFrom(comp.getClass())) {
-				return (T) comp;
-			}
-		}
-		return null;
+		return queryComponents(cls).first();
 	}
 
 	public final GameComponent getComponentN(Class<? extends GameComponent> cls) {
-		for (GameComponent comp : c_ordered.values()) {
-			if (cls.isAssignableFrom(comp.getClass())) {
-				return comp;
-			}
-		}
-		return null;
+		return queryComponents(cls).first();
 	}
 
 	// Get single component by index
@@ -331,56 +596,25 @@ public final class Level implements Updatable {
 		throw new IndexOutOfBoundsException("" + index);
 	}
 
-	@SuppressWarnings("unchecked")
 	public final <T extends GameComponent> T getComponentAt(int index, Class<T> cls) {
-		int i = 0;
-		for (GameComponent comp : c_ordered.values()) {
-			if (cls.isAssignableFrom(comp.getClass())) {
-				if (i == index) {
-					return (T) comp;
-				}
-				i++;
-			}
-		}
-		throw new IndexOutOfBoundsException("" + index);
+		return queryComponents(cls).get(index);
 	}
 
 	// Get amounts of components by class
 
 	public final int getComponentAmount(Class<? extends GameComponent> cls) {
-		int i = 0;
-		for (GameComponent comp : c_ordered.values()) {
-			if (cls.isAssignableFrom(comp.getClass())) {
-				i++;
-			}
-		}
-		return i;
+		return queryComponents(cls).size();
 	}
 
 	// Get array of components
 
-	@SuppressWarnings("unchecked")
 	public final <T extends GameComponent> T[] getComponents(Class<T> cls, T[] buffer, int offset) {
-		int i = 0;
-		for (GameComponent comp : c_ordered.values()) {
-			if (cls.isAssignableFrom(comp.getClass())) {
-				buffer[i + offset] = (T) comp;
-				i++;
-			}
-		}
-		return buffer;
+		return queryComponents(cls).toArray(buffer, offset);
 	}
 
 	public final GameComponent[] getComponentsN(Class<? extends GameComponent> cls, GameComponent[] buffer,
 			int offset) {
-		int i = 0;
-		for (GameComponent comp : c_ordered.values()) {
-			if (cls.isAssignableFrom(comp.getClass())) {
-				buffer[i + offset] = comp;
-				i++;
-			}
-		}
-		return buffer;
+		return queryComponents(cls).toArray(buffer, offset);
 	}
 
 	public final GameComponent[] getComponents(GameComponent[] buffer, int offset) {
@@ -394,6 +628,47 @@ public final class Level implements Updatable {
 
 	// Other getters / setters
 
+	/**
+	 * Retrieves the spatial index of this level, which is kept up to date as
+	 * objects are added, removed and moved
+	 * <p>
+	 * The implementation is chosen with the {@code world.spatialIndex} engine
+	 * setting, for example {@link com.spaghetti.world.spatial.HashGridIndex} for
+	 * 2D or {@link com.spaghetti.world.spatial.LooseOctreeIndex} for 3D
+	 *
+	 * @return The spatial index or null if disabled
+	 */
+	public final SpatialIndex getSpatialIndex() {
+		return spatial;
+	}
+
+	/**
+	 * Retrieves the log of the objects and components whose replicated state
+	 * changed, read by every connection replicating this level
+	 *
+	 * @return The dirty log
+	 */
+	public final DirtyLog getDirtyLog() {
+		return dirtyLog;
+	}
+
+	/**
+	 * Retrieves the components that are replicated every time because they
+	 * are not dirty tracked
+	 *
+	 * @return A live view of the components
+	 */
+	public final LevelQuery<GameComponent> getUntrackedComponents() {
+		return untracked;
+	}
+
+	// Called by objects whenever their world transform changes
+	final void transformChanged(GameObject object) {
+		if (spatial != null) {
+			spatial.markMoved(object);
+		}
+	}
+
 	public Game getGame() {
 		return game;
 	}
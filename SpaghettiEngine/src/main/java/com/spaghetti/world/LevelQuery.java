@@ -0,0 +1,166 @@
+package com.spaghetti.world;
+
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * LevelQuery is a live view of the objects or components in a {@link Level}
+ * matching a query, obtained from {@link Level#queryObjects(Class)},
+ * {@link Level#queryComponents(Class)} or {@link Level#query(Class[])}
+ * <p>
+ * Views are cached by the level and kept up to date incrementally as the
+ * hierarchy changes, so asking for the same query every frame costs nothing.
+ * The order of the elements is not specified: it is roughly insertion order,
+ * but removing an element moves the last one into its place
+ * <p>
+ * Views can be read from any thread. Readers see an immutable snapshot, which
+ * is copied again only after the view has changed, so reading an unchanged
+ * view doesn't allocate. {@link #forEach(Consumer)}, {@link #iterator()} and
+ * {@link #toArray(Object[], int)} work on a single snapshot, while
+ * {@link #size()} followed by {@link #get(int)} may see two different ones if
+ * the level changes in between
+ *
+ * @param <T> The type of the elements
+ * @author bohdloss
+ */
+public final class LevelQuery<T> implements Iterable<T> {
+
+	private static final Object[] EMPTY = new Object[0];
+
+	// Guarded by this
+	private Object[] elements = new Object[8];
+	private int size;
+	private final IdentityHashMap<Object, Integer> positions = new IdentityHashMap<>();
+
+	// Published to readers, null when outdated
+	private volatile Object[] snapshot = EMPTY;
+
+	LevelQuery() {
+	}
+
+	// Package private modifiers
+
+	synchronized void add(Object element) {
+		if (positions.containsKey(element)) {
+			return;
+		}
+		if (size == elements.length) {
+			Object[] grown = new Object[size * 2];
+			System.arraycopy(elements, 0, grown, 0, size);
+			elements = grown;
+		}
+		positions.put(element, size);
+		elements[size++] = element;
+		snapshot = null;
+	}
+
+	synchronized void remove(Object element) {
+		Integer position = positions.remove(element);
+		if (position == null) {
+			return;
+		}
+		int last = --size;
+		if (position != last) {
+			Object moved = elements[last];
+			elements[position] = moved;
+			positions.put(moved, position);
+		}
+		elements[last] = null;
+		snapshot = null;
+	}
+
+	private Object[] snapshot() {
+		Object[] snapshot = this.snapshot;
+		if (snapshot == null) {
+			synchronized (this) {
+				snapshot = this.snapshot;
+				if (snapshot == null) {
+					snapshot = Arrays.copyOf(elements, size);
+					this.snapshot = snapshot;
+				}
+			}
+		}
+		return snapshot;
+	}
+
+	// Public getters
+
+	public int size() {
+		return snapshot().length;
+	}
+
+	public boolean isEmpty() {
+		return size() == 0;
+	}
+
+	public synchronized boolean contains(Object element) {
+		return positions.containsKey(element);
+	}
+
+	@SuppressWarnings("unchecked")
+	public T get(int index) {
+		Object[] snapshot = snapshot();
+		if (index < 0 || index >= snapshot.length) {
+			throw new IndexOutOfBoundsException("" + index);
+		}
+		return (T) snapshot[index];
+	}
+
+	/**
+	 * @return Any element matching the query, or null if there are none
+	 */
+	@SuppressWarnings("unchecked")
+	public T first() {
+		Object[] snapshot = snapshot();
+		return snapshot.length == 0 ? null : (T) snapshot[0];
+	}
+
+	/**
+	 * Copies the elements into {@code buffer}, starting at {@code offset}
+	 *
+	 * @param buffer The array to copy into
+	 * @param offset The index of the first element in the array
+	 * @return {@code buffer}
+	 */
+	public <A> A[] toArray(A[] buffer, int offset) {
+		Object[] snapshot = snapshot();
+		System.arraycopy(snapshot, 0, buffer, offset, snapshot.length);
+		return buffer;
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void forEach(Consumer<? super T> action) {
+		for (Object element : snapshot()) {
+			action.accept((T) element);
+		}
+	}
+
+	@Override
+	public Iterator<T> iterator() {
+		Object[] snapshot = snapshot();
+		return new Iterator<T>() {
+
+			private int index;
+
+			@Override
+			public boolean hasNext() {
+				return index < snapshot.length;
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public T next() {
+				if (index >= snapshot.length) {
+					throw new NoSuchElementException();
+				}
+				return (T) snapshot[index++];
+			}
+
+		};
+	}
+
+}
@@ -0,0 +1,81 @@
+package com.spaghetti.world;
+
+import java.util.Arrays;
+
+import com.spaghetti.utils.IdProvider;
+
+/**
+ * SlotMap resolves ids issued by {@link IdProvider} with plain array
+ * indexing
+ * <p>
+ * Each entry remembers the full id it was stored with, a lookup only
+ * succeeds if the generation matches so stale ids resolve to null. Local ids
+ * live in their own arrays so that they can't collide with the ones assigned
+ * by the server
+ * <p>
+ * Writes must be externally synchronized, reads are lock free and may
+ * observe a slightly outdated state
+ *
+ * @param <T> The type of the values
+ * @author bohdloss
+ *
+ */
+final class SlotMap<T> {
+
+	private static final int INITIAL_CAPACITY = 64;
+
+	// Immutable, so its final fields are visible to any reader that sees it
+	private static final class Entry {
+		final int id;
+		final Object value;
+
+		Entry(int id, Object value) {
+			this.id = id;
+			this.value = value;
+		}
+	}
+
+	private volatile Entry[] remote = new Entry[INITIAL_CAPACITY];
+	private volatile Entry[] local = new Entry[INITIAL_CAPACITY];
+
+	@SuppressWarnings("unchecked")
+	public T get(int id) {
+		Entry[] entries = IdProvider.isLocal(id) ? local : remote;
+		int index = IdProvider.indexOf(id);
+		if (index >= entries.length) {
+			return null;
+		}
+		Entry entry = entries[index];
+		return entry == null || entry.id != id ? null : (T) entry.value;
+	}
+
+	public void put(int id, T value) {
+		boolean isLocal = IdProvider.isLocal(id);
+		Entry[] entries = isLocal ? local : remote;
+		int index = IdProvider.indexOf(id);
+		if (index >= entries.length) {
+			entries = Arrays.copyOf(entries, Math.max(index + 1, entries.length * 2));
+			if (isLocal) {
+				local = entries;
+			} else {
+				remote = entries;
+			}
+		}
+		entries[index] = new Entry(id, value);
+	}
+
+	public boolean remove(int id, T value) {
+		Entry[] entries = IdProvider.isLocal(id) ? local : remote;
+		int index = IdProvider.indexOf(id);
+		if (index >= entries.length) {
+			return false;
+		}
+		Entry entry = entries[index];
+		if (entry == null || entry.id != id || entry.value != value) {
+			return false;
+		}
+		entries[index] = null;
+		return true;
+	}
+
+}
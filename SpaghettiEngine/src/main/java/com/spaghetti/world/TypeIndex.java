@@ -0,0 +1,66 @@
+package com.spaghetti.world;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * Maintains a {@link LevelQuery} for every type that has been queried so far,
+ * each containing all the registered elements assignable to that type
+ * <p>
+ * Buckets are created lazily on the first query, after which they're updated
+ * incrementally. The buckets matching each concrete class are cached, so
+ * registering an element doesn't need to test every bucket
+ *
+ * @author bohdloss
+ */
+final class TypeIndex {
+
+	private static final LevelQuery<?>[] EMPTY = new LevelQuery<?>[0];
+
+	private final HashMap<Class<?>, LevelQuery<?>> buckets = new HashMap<>();
+	private final HashMap<Class<?>, LevelQuery<?>[]> matching = new HashMap<>();
+
+	@SuppressWarnings("unchecked")
+	<T> LevelQuery<T> get(Class<?> type, Iterable<?> existing) {
+		LevelQuery<?> bucket = buckets.get(type);
+		if (bucket == null) {
+			bucket = new LevelQuery<>();
+			for (Object element : existing) {
+				if (type.isInstance(element)) {
+					bucket.add(element);
+				}
+			}
+			buckets.put(type, bucket);
+			matching.clear();
+		}
+		return (LevelQuery<T>) bucket;
+	}
+
+	void add(Object element) {
+		for (LevelQuery<?> bucket : match(element.getClass())) {
+			bucket.add(element);
+		}
+	}
+
+	void remove(Object element) {
+		for (LevelQuery<?> bucket : match(element.getClass())) {
+			bucket.remove(element);
+		}
+	}
+
+	private LevelQuery<?>[] match(Class<?> cls) {
+		LevelQuery<?>[] result = matching.get(cls);
+		if (result == null) {
+			ArrayList<LevelQuery<?>> list = new ArrayList<>();
+			buckets.forEach((type, bucket) -> {
+				if (type.isAssignableFrom(cls)) {
+					list.add(bucket);
+				}
+			});
+			result = list.isEmpty() ? EMPTY : list.toArray(EMPTY);
+			matching.put(cls, result);
+		}
+		return result;
+	}
+
+}
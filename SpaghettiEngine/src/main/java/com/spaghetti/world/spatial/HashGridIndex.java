@@ -0,0 +1,300 @@
+package com.spaghetti.world.spatial;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import org.joml.FrustumIntersection;
+
+import com.spaghetti.core.Game;
+
+/**
+ * HashGridIndex is a uniform grid on the xy plane, meant for 2D levels
+ * <p>
+ * Only the cells that hold something exist, they are kept in an open
+ * addressing hash table keyed by their coordinates. An object is stored in
+ * every cell its bounds overlap, and is only moved between cells when the
+ * range of cells it covers changes. The z axis is not partitioned but is
+ * still checked by queries
+ *
+ * @author bohdloss
+ *
+ */
+public class HashGridIndex extends SpatialIndex {
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	protected static final class Cell {
+		final int x, y;
+		Entry[] entries = new Entry[4];
+		int size;
+
+		Cell(int x, int y) {
+			this.x = x;
+			this.y = y;
+		}
+
+		void add(Entry entry) {
+			if (size == entries.length) {
+				entries = Arrays.copyOf(entries, size * 2);
+			}
+			entries[size++] = entry;
+		}
+
+		void remove(Entry entry) {
+			for (int i = 0; i < size; i++) {
+				if (entries[i] == entry) {
+					entries[i] = entries[--size];
+					entries[size] = null;
+					return;
+				}
+			}
+		}
+	}
+
+	protected final float cellSize;
+	protected final float inverseCellSize;
+
+	// Cell table
+	private long[] keys;
+	private Cell[] cells;
+	private int cellCount;
+
+	public HashGridIndex(Game game) {
+		this(game.<Number>getEngineSetting("world.spatialIndex.cellSize").floatValue());
+	}
+
+	public HashGridIndex() {
+		this(4);
+	}
+
+	public HashGridIndex(float cellSize) {
+		if (cellSize <= 0) {
+			throw new IllegalArgumentException("Cell size must be greater than 0");
+		}
+		this.cellSize = cellSize;
+		this.inverseCellSize = 1 / cellSize;
+		reset();
+	}
+
+	// Maintenance
+
+	@Override
+	protected void insert(Entry entry) {
+		// a, b, c, d hold the covered cell range
+		entry.a = cell(entry.minX);
+		entry.b = cell(entry.minY);
+		entry.c = cell(entry.maxX);
+		entry.d = cell(entry.maxY);
+		for (int x = entry.a; x <= entry.c; x++) {
+			for (int y = entry.b; y <= entry.d; y++) {
+				getOrCreate(x, y).add(entry);
+			}
+		}
+	}
+
+	@Override
+	protected void update(Entry entry) {
+		if (cell(entry.minX) == entry.a && cell(entry.minY) == entry.b && cell(entry.maxX) == entry.c
+				&& cell(entry.maxY) == entry.d) {
+			// Still in the same cells
+			return;
+		}
+		delete(entry);
+		insert(entry);
+	}
+
+	@Override
+	protected void delete(Entry entry) {
+		for (int x = entry.a; x <= entry.c; x++) {
+			for (int y = entry.b; y <= entry.d; y++) {
+				Cell cell = get(x, y);
+				if (cell != null) {
+					cell.remove(entry);
+					if (cell.size == 0) {
+						removeCell(x, y);
+					}
+				}
+			}
+		}
+	}
+
+	@Override
+	protected void reset() {
+		keys = new long[64];
+		Arrays.fill(keys, EMPTY);
+		cells = new Cell[64];
+		cellCount = 0;
+	}
+
+	// Queries
+
+	@Override
+	protected void collectBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+			Consumer<Entry> consumer) {
+		int stamp = nextStamp();
+		long fromX = cellLong(minX), fromY = cellLong(minY);
+		long toX = cellLong(maxX), toY = cellLong(maxY);
+
+		// In double since the product of two clamped ranges overflows a long
+		double area = ((double) toX - fromX + 1) * ((double) toY - fromY + 1);
+		if (area > cellCount) {
+			// Cheaper to go through the existing cells
+			for (Cell cell : cells) {
+				if (cell != null && cell.x >= fromX && cell.x <= toX && cell.y >= fromY && cell.y <= toY) {
+					collectCell(cell, stamp, minX, minY, minZ, maxX, maxY, maxZ, consumer);
+				}
+			}
+			return;
+		}
+		for (long x = fromX; x <= toX; x++) {
+			for (long y = fromY; y <= toY; y++) {
+				Cell cell = get((int) x, (int) y);
+				if (cell != null) {
+					collectCell(cell, stamp, minX, minY, minZ, maxX, maxY, maxZ, consumer);
+				}
+			}
+		}
+	}
+
+	private void collectCell(Cell cell, int stamp, float minX, float minY, float minZ, float maxX, float maxY,
+			float maxZ, Consumer<Entry> consumer) {
+		for (int i = 0; i < cell.size; i++) {
+			Entry entry = cell.entries[i];
+			if (entry.intersects(minX, minY, minZ, maxX, maxY, maxZ) && visit(entry, stamp)) {
+				consumer.accept(entry);
+			}
+		}
+	}
+
+	@Override
+	protected void collectFrustum(FrustumIntersection frustum, Consumer<Entry> consumer) {
+		int stamp = nextStamp();
+		for (Cell cell : cells) {
+			if (cell == null) {
+				continue;
+			}
+			// Cells are unbounded on the z axis
+			float x = cell.x * cellSize, y = cell.y * cellSize;
+			if (!frustum.testAab(x, y, -Float.MAX_VALUE, x + cellSize, y + cellSize, Float.MAX_VALUE)) {
+				continue;
+			}
+			for (int i = 0; i < cell.size; i++) {
+				Entry entry = cell.entries[i];
+				if (frustum.testAab(entry.minX, entry.minY, entry.minZ, entry.maxX, entry.maxY, entry.maxZ)
+						&& visit(entry, stamp)) {
+					consumer.accept(entry);
+				}
+			}
+		}
+	}
+
+	@Override
+	protected float getSearchRadius() {
+		return cellSize;
+	}
+
+	// Utility
+
+	private int cell(float coordinate) {
+		return (int) cellLong(coordinate);
+	}
+
+	private long cellLong(float coordinate) {
+		// Clamped so that loops over cell ranges can't overflow, the lowest
+		// coordinate is also reserved for empty table slots
+		double cell = Math.floor(coordinate * (double) inverseCellSize);
+		return (long) Math.max(Integer.MIN_VALUE + 1, Math.min(Integer.MAX_VALUE - 1, cell));
+	}
+
+	private static long key(int x, int y) {
+		return ((long) x << 32) | (y & 0xFFFFFFFFL);
+	}
+
+	private static int hash(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private Cell get(int x, int y) {
+		long key = key(x, y);
+		int mask = keys.length - 1;
+		for (int i = hash(key) & mask;; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				return cells[i];
+			}
+			if (keys[i] == EMPTY) {
+				return null;
+			}
+		}
+	}
+
+	private Cell getOrCreate(int x, int y) {
+		Cell cell = get(x, y);
+		if (cell != null) {
+			return cell;
+		}
+		if ((cellCount + 1) * 2 > keys.length) {
+			rehash(keys.length * 2);
+		}
+		cell = new Cell(x, y);
+		place(key(x, y), cell);
+		cellCount++;
+		return cell;
+	}
+
+	private void place(long key, Cell cell) {
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (keys[i] != EMPTY) {
+			i = (i + 1) & mask;
+		}
+		keys[i] = key;
+		cells[i] = cell;
+	}
+
+	private void removeCell(int x, int y) {
+		long key = key(x, y);
+		int mask = keys.length - 1;
+		int i = hash(key) & mask;
+		while (keys[i] != key) {
+			if (keys[i] == EMPTY) {
+				return;
+			}
+			i = (i + 1) & mask;
+		}
+		keys[i] = EMPTY;
+		cells[i] = null;
+		cellCount--;
+
+		// Shift back the entries that follow so lookups don't stop early
+		for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+			long moved = keys[j];
+			Cell movedCell = cells[j];
+			keys[j] = EMPTY;
+			cells[j] = null;
+			place(moved, movedCell);
+		}
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		Cell[] oldCells = cells;
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		cells = new Cell[capacity];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				place(oldKeys[i], oldCells[i]);
+			}
+		}
+	}
+
+	public int getCellCount() {
+		return cellCount;
+	}
+
+	public float getCellSize() {
+		return cellSize;
+	}
+
+}
@@ -0,0 +1,268 @@
+package com.spaghetti.world.spatial;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import org.joml.FrustumIntersection;
+
+import com.spaghetti.core.Game;
+
+/**
+ * LooseOctreeIndex is a loose octree centered on the origin, meant for 3D
+ * levels
+ * <p>
+ * The bounds of every node are extended to twice their size, so an object is
+ * always stored in a single node chosen only by its center and its size. A
+ * moving object stays in its node until it leaves the loose bounds or
+ * changes size enough to belong to another depth. Objects that don't fit
+ * in the root are kept in a separate list
+ *
+ * @author bohdloss
+ *
+ */
+public class LooseOctreeIndex extends SpatialIndex {
+
+	protected static final float LOOSENESS = 2;
+
+	protected static final class Node {
+		final Node parent;
+		final float x, y, z, half;
+		final int depth;
+		Node[] children;
+		Entry[] entries;
+		int size;
+		// Entries in this node and below, empty branches are pruned
+		int total;
+
+		Node(Node parent, float x, float y, float z, float half, int depth) {
+			this.parent = parent;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.half = half;
+			this.depth = depth;
+		}
+
+		void add(Entry entry) {
+			if (entries == null) {
+				entries = new Entry[4];
+			} else if (size == entries.length) {
+				entries = Arrays.copyOf(entries, size * 2);
+			}
+			entries[size++] = entry;
+			for (Node node = this; node != null; node = node.parent) {
+				node.total++;
+			}
+		}
+
+		void remove(Entry entry) {
+			for (int i = 0; i < size; i++) {
+				if (entries[i] == entry) {
+					entries[i] = entries[--size];
+					entries[size] = null;
+					break;
+				}
+			}
+			for (Node node = this; node != null; node = node.parent) {
+				node.total--;
+			}
+		}
+
+		boolean looseIntersects(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+			float loose = half * LOOSENESS;
+			return x - loose <= maxX && x + loose >= minX && y - loose <= maxY && y + loose >= minY
+					&& z - loose <= maxZ && z + loose >= minZ;
+		}
+
+		boolean looseInside(FrustumIntersection frustum) {
+			float loose = half * LOOSENESS;
+			return frustum.testAab(x - loose, y - loose, z - loose, x + loose, y + loose, z + loose);
+		}
+	}
+
+	protected final float worldSize;
+	protected final int maxDepth;
+	private Node root;
+	// Objects too large or too far away for the root
+	private Node outside;
+
+	public LooseOctreeIndex(Game game) {
+		this(game.<Number>getEngineSetting("world.spatialIndex.worldSize").floatValue(), 8);
+	}
+
+	public LooseOctreeIndex() {
+		this(4096, 8);
+	}
+
+	public LooseOctreeIndex(float worldSize, int maxDepth) {
+		if (worldSize <= 0 || maxDepth < 0) {
+			throw new IllegalArgumentException();
+		}
+		this.worldSize = worldSize;
+		this.maxDepth = maxDepth;
+		reset();
+	}
+
+	// Maintenance
+
+	@Override
+	protected void insert(Entry entry) {
+		float cx = (entry.minX + entry.maxX) * 0.5f;
+		float cy = (entry.minY + entry.maxY) * 0.5f;
+		float cz = (entry.minZ + entry.maxZ) * 0.5f;
+		float extent = extentOf(entry);
+
+		if (!fits(root, cx, cy, cz, extent)) {
+			outside.add(entry);
+			entry.node = outside;
+			return;
+		}
+
+		// Go down as long as the object fits in the loose bounds of a child
+		Node node = root;
+		while (node.depth < maxDepth && extent <= node.half * 0.5f) {
+			int index = (cx >= node.x ? 1 : 0) | (cy >= node.y ? 2 : 0) | (cz >= node.z ? 4 : 0);
+			if (node.children == null) {
+				node.children = new Node[8];
+			}
+			Node child = node.children[index];
+			if (child == null) {
+				float quarter = node.half * 0.5f;
+				child = new Node(node, node.x + ((index & 1) != 0 ? quarter : -quarter),
+						node.y + ((index & 2) != 0 ? quarter : -quarter),
+						node.z + ((index & 4) != 0 ? quarter : -quarter), quarter, node.depth + 1);
+				node.children[index] = child;
+			}
+			node = child;
+		}
+		node.add(entry);
+		entry.node = node;
+	}
+
+	@Override
+	protected void update(Entry entry) {
+		Node node = (Node) entry.node;
+		if (node != outside) {
+			float cx = (entry.minX + entry.maxX) * 0.5f;
+			float cy = (entry.minY + entry.maxY) * 0.5f;
+			float cz = (entry.minZ + entry.maxZ) * 0.5f;
+			float extent = extentOf(entry);
+			boolean deeper = node.depth < maxDepth && extent <= node.half * 0.5f;
+			if (!deeper && fits(node, cx, cy, cz, extent)) {
+				// Still in the loose bounds of its node
+				return;
+			}
+		}
+		delete(entry);
+		insert(entry);
+	}
+
+	@Override
+	protected void delete(Entry entry) {
+		Node node = (Node) entry.node;
+		node.remove(entry);
+		entry.node = null;
+
+		// Prune empty branches
+		while (node.total == 0 && node.parent != null) {
+			Node parent = node.parent;
+			for (int i = 0; i < 8; i++) {
+				if (parent.children[i] == node) {
+					parent.children[i] = null;
+				}
+			}
+			node = parent;
+		}
+	}
+
+	@Override
+	protected void reset() {
+		root = new Node(null, 0, 0, 0, worldSize * 0.5f, 0);
+		outside = new Node(null, 0, 0, 0, Float.POSITIVE_INFINITY, 0);
+	}
+
+	// Queries
+
+	@Override
+	protected void collectBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+			Consumer<Entry> consumer) {
+		collectEntries(outside, minX, minY, minZ, maxX, maxY, maxZ, consumer);
+		collectBox(root, minX, minY, minZ, maxX, maxY, maxZ, consumer);
+	}
+
+	private void collectBox(Node node, float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+			Consumer<Entry> consumer) {
+		if (node.total == 0 || !node.looseIntersects(minX, minY, minZ, maxX, maxY, maxZ)) {
+			return;
+		}
+		collectEntries(node, minX, minY, minZ, maxX, maxY, maxZ, consumer);
+		if (node.children != null) {
+			for (Node child : node.children) {
+				if (child != null) {
+					collectBox(child, minX, minY, minZ, maxX, maxY, maxZ, consumer);
+				}
+			}
+		}
+	}
+
+	private void collectEntries(Node node, float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+			Consumer<Entry> consumer) {
+		for (int i = 0; i < node.size; i++) {
+			Entry entry = node.entries[i];
+			if (entry.intersects(minX, minY, minZ, maxX, maxY, maxZ)) {
+				consumer.accept(entry);
+			}
+		}
+	}
+
+	@Override
+	protected void collectFrustum(FrustumIntersection frustum, Consumer<Entry> consumer) {
+		collectFrustumEntries(outside, frustum, consumer);
+		collectFrustum(root, frustum, consumer);
+	}
+
+	private void collectFrustum(Node node, FrustumIntersection frustum, Consumer<Entry> consumer) {
+		if (node.total == 0 || !node.looseInside(frustum)) {
+			return;
+		}
+		collectFrustumEntries(node, frustum, consumer);
+		if (node.children != null) {
+			for (Node child : node.children) {
+				if (child != null) {
+					collectFrustum(child, frustum, consumer);
+				}
+			}
+		}
+	}
+
+	private void collectFrustumEntries(Node node, FrustumIntersection frustum, Consumer<Entry> consumer) {
+		for (int i = 0; i < node.size; i++) {
+			Entry entry = node.entries[i];
+			if (frustum.testAab(entry.minX, entry.minY, entry.minZ, entry.maxX, entry.maxY, entry.maxZ)) {
+				consumer.accept(entry);
+			}
+		}
+	}
+
+	// Utility
+
+	private static float extentOf(Entry entry) {
+		return Math.max(Math.max(entry.maxX - entry.minX, entry.maxY - entry.minY), entry.maxZ - entry.minZ) * 0.5f;
+	}
+
+	// Whether or not an object with this center and extent is within the
+	// loose bounds of the node
+	private static boolean fits(Node node, float cx, float cy, float cz, float extent) {
+		return extent <= node.half && Math.abs(cx - node.x) <= node.half && Math.abs(cy - node.y) <= node.half
+				&& Math.abs(cz - node.z) <= node.half;
+	}
+
+	public float getWorldSize() {
+		return worldSize;
+	}
+
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+}
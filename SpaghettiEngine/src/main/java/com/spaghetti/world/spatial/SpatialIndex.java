@@ -0,0 +1,342 @@
+package com.spaghetti.world.spatial;
+
+import java.util.IdentityHashMap;
+import java.util.function.Consumer;
+
+import org.joml.FrustumIntersection;
+import org.joml.Vector3f;
+
+import com.spaghetti.utils.MpscQueue;
+import com.spaghetti.world.GameObject;
+
+/**
+ * SpatialIndex keeps track of where the objects of a level are, using an
+ * axis aligned bounding box computed from their world transform
+ * <p>
+ * Objects that moved are only queued by {@link #markMoved(GameObject)},
+ * which is cheap and lock free, and re-indexed on the next query or
+ * {@link #refresh()}. Every other method is synchronized, so queries can be
+ * issued from any thread
+ * <p>
+ * Implementations only need to store {@link Entry}s and walk them, range,
+ * sphere and nearest neighbour queries are built on top of
+ * {@link #collectBox(float, float, float, float, float, float, Consumer)}
+ *
+ * @author bohdloss
+ *
+ */
+public abstract class SpatialIndex {
+
+	/**
+	 * An object along with the bounds it was last indexed with
+	 */
+	protected static final class Entry {
+		public final GameObject object;
+		public float minX, minY, minZ;
+		public float maxX, maxY, maxZ;
+		// Used by implementations to find the entry in their structure
+		public Object node;
+		public int a, b, c, d;
+		// Avoids reporting an entry twice in the same query
+		int stamp;
+		// False while the bounds are not a number
+		boolean indexed;
+
+		Entry(GameObject object) {
+			this.object = object;
+		}
+
+		public boolean intersects(float minX, float minY, float minZ, float maxX, float maxY, float maxZ) {
+			return this.minX <= maxX && this.maxX >= minX && this.minY <= maxY && this.maxY >= minY
+					&& this.minZ <= maxZ && this.maxZ >= minZ;
+		}
+
+		public float distanceSquared(float x, float y, float z) {
+			float dx = Math.max(Math.max(minX - x, 0), x - maxX);
+			float dy = Math.max(Math.max(minY - y, 0), y - maxY);
+			float dz = Math.max(Math.max(minZ - z, 0), z - maxZ);
+			return dx * dx + dy * dy + dz * dz;
+		}
+
+		boolean isValid() {
+			return !(Float.isNaN(minX) || Float.isNaN(minY) || Float.isNaN(minZ) || Float.isNaN(maxX)
+					|| Float.isNaN(maxY) || Float.isNaN(maxZ));
+		}
+	}
+
+	private final IdentityHashMap<GameObject, Entry> entries = new IdentityHashMap<>();
+	private final MpscQueue<GameObject> moved = new MpscQueue<>();
+	private final Vector3f tmpPosition = new Vector3f();
+	private final Vector3f tmpScale = new Vector3f();
+	private int stamp;
+	private int indexedCount;
+
+	// Nearest neighbour scratch
+	private Entry[] best = new Entry[16];
+	private float[] bestDistance = new float[16];
+	private int bestCount, visited;
+
+	// Maintenance
+
+	public final synchronized void add(GameObject object) {
+		if (entries.containsKey(object)) {
+			return;
+		}
+		Entry entry = new Entry(object);
+		computeBounds(object, entry);
+		entries.put(object, entry);
+		if (entry.isValid()) {
+			index(entry);
+		}
+	}
+
+	public final synchronized void remove(GameObject object) {
+		Entry entry = entries.remove(object);
+		if (entry != null && entry.indexed) {
+			unindex(entry);
+		}
+	}
+
+	/**
+	 * Queues an object to be re-indexed. Safe to call from any thread without
+	 * locking
+	 *
+	 * @param object The object whose transform changed
+	 */
+	public final void markMoved(GameObject object) {
+		moved.offer(object);
+	}
+
+	/**
+	 * Re-indexes every object that moved since the last call
+	 */
+	public final synchronized void refresh() {
+		GameObject object;
+		while ((object = moved.poll()) != null) {
+			Entry entry = entries.get(object);
+			if (entry == null) {
+				continue;
+			}
+			float minX = entry.minX, minY = entry.minY, minZ = entry.minZ;
+			float maxX = entry.maxX, maxY = entry.maxY, maxZ = entry.maxZ;
+			computeBounds(object, entry);
+			if (!entry.isValid()) {
+				// Objects with broken transforms are kept out of the structure
+				// until they get valid bounds again
+				if (entry.indexed) {
+					unindex(entry);
+				}
+			} else if (!entry.indexed) {
+				index(entry);
+			} else if (minX != entry.minX || minY != entry.minY || minZ != entry.minZ || maxX != entry.maxX
+					|| maxY != entry.maxY || maxZ != entry.maxZ) {
+				update(entry);
+			}
+		}
+	}
+
+	private void index(Entry entry) {
+		entry.indexed = true;
+		indexedCount++;
+		insert(entry);
+	}
+
+	private void unindex(Entry entry) {
+		entry.indexed = false;
+		indexedCount--;
+		delete(entry);
+	}
+
+	public final synchronized void clear() {
+		entries.clear();
+		indexedCount = 0;
+		while (moved.poll() != null) {
+		}
+		reset();
+	}
+
+	public final synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Computes the bounds of an object, by default a box centered on its world
+	 * position as large as its world scale
+	 *
+	 * @param object The object
+	 * @param entry  Where to store the bounds
+	 */
+	protected void computeBounds(GameObject object, Entry entry) {
+		object.getWorldPosition(tmpPosition);
+		object.getWorldScale(tmpScale);
+		float hx = Math.abs(tmpScale.x) * 0.5f;
+		float hy = Math.abs(tmpScale.y) * 0.5f;
+		float hz = Math.abs(tmpScale.z) * 0.5f;
+		entry.minX = tmpPosition.x - hx;
+		entry.minY = tmpPosition.y - hy;
+		entry.minZ = tmpPosition.z - hz;
+		entry.maxX = tmpPosition.x + hx;
+		entry.maxY = tmpPosition.y + hy;
+		entry.maxZ = tmpPosition.z + hz;
+	}
+
+	// Queries
+
+	/**
+	 * Reports every object whose bounds intersect the given box
+	 */
+	public final synchronized void queryBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+			Consumer<GameObject> consumer) {
+		refresh();
+		collectBox(minX, minY, minZ, maxX, maxY, maxZ, entry -> consumer.accept(entry.object));
+	}
+
+	public final void queryBox(Vector3f min, Vector3f max, Consumer<GameObject> consumer) {
+		queryBox(min.x, min.y, min.z, max.x, max.y, max.z, consumer);
+	}
+
+	/**
+	 * Reports every object whose bounds intersect the given sphere
+	 */
+	public final synchronized void querySphere(float x, float y, float z, float radius,
+			Consumer<GameObject> consumer) {
+		refresh();
+		float radiusSquared = radius * radius;
+		collectBox(x - radius, y - radius, z - radius, x + radius, y + radius, z + radius, entry -> {
+			if (entry.distanceSquared(x, y, z) <= radiusSquared) {
+				consumer.accept(entry.object);
+			}
+		});
+	}
+
+	public final void querySphere(Vector3f center, float radius, Consumer<GameObject> consumer) {
+		querySphere(center.x, center.y, center.z, radius, consumer);
+	}
+
+	/**
+	 * Reports every object whose bounds are at least partially inside the
+	 * frustum
+	 */
+	public final synchronized void queryFrustum(FrustumIntersection frustum, Consumer<GameObject> consumer) {
+		refresh();
+		collectFrustum(frustum, entry -> consumer.accept(entry.object));
+	}
+
+	/**
+	 * Finds the objects closest to a point, measuring the distance to their
+	 * bounds
+	 *
+	 * @param x      The x coordinate of the point
+	 * @param y      The y coordinate of the point
+	 * @param z      The z coordinate of the point
+	 * @param k      The maximum amount of objects to find
+	 * @param buffer Receives the objects sorted from the closest
+	 * @return The amount of objects found
+	 */
+	public final synchronized int queryNearest(float x, float y, float z, int k, GameObject[] buffer) {
+		refresh();
+		k = Math.min(k, buffer.length);
+		if (k <= 0 || indexedCount == 0) {
+			return 0;
+		}
+		if (best.length < k) {
+			best = new Entry[k];
+			bestDistance = new float[k];
+		}
+
+		// Grow the search box until it holds k objects no farther than its
+		// radius, or until it covered every indexed object
+		float radius = getSearchRadius();
+		final int limit = k;
+		while (true) {
+			bestCount = 0;
+			visited = 0;
+			collectBox(x - radius, y - radius, z - radius, x + radius, y + radius, z + radius, entry -> {
+				visited++;
+				offerNearest(entry, entry.distanceSquared(x, y, z), limit);
+			});
+			if ((bestCount == limit && bestDistance[limit - 1] <= radius * radius) || visited == indexedCount
+					|| Float.isInfinite(radius)) {
+				break;
+			}
+			radius *= 2;
+		}
+
+		for (int i = 0; i < bestCount; i++) {
+			buffer[i] = best[i].object;
+			best[i] = null;
+		}
+		return bestCount;
+	}
+
+	public final int queryNearest(Vector3f point, int k, GameObject[] buffer) {
+		return queryNearest(point.x, point.y, point.z, k, buffer);
+	}
+
+	private void offerNearest(Entry entry, float distance, int k) {
+		if (bestCount == k && distance >= bestDistance[k - 1]) {
+			return;
+		}
+		int i = bestCount < k ? bestCount++ : k - 1;
+		while (i > 0 && bestDistance[i - 1] > distance) {
+			best[i] = best[i - 1];
+			bestDistance[i] = bestDistance[i - 1];
+			i--;
+		}
+		best[i] = entry;
+		bestDistance[i] = distance;
+	}
+
+	// Implementation utility
+
+	/**
+	 * Structures that store an entry in more than one place call this at the
+	 * start of every collect operation, then {@link #visit(Entry, int)} tells
+	 * if an entry was already reported
+	 *
+	 * @return The stamp of the new query
+	 */
+	protected final int nextStamp() {
+		return ++stamp;
+	}
+
+	protected final boolean visit(Entry entry, int stamp) {
+		if (entry.stamp == stamp) {
+			return false;
+		}
+		entry.stamp = stamp;
+		return true;
+	}
+
+	/**
+	 * @return The radius the nearest neighbour search starts from
+	 */
+	protected float getSearchRadius() {
+		return 1;
+	}
+
+	// Implementation
+
+	protected abstract void insert(Entry entry);
+
+	/**
+	 * Called when the bounds of an indexed entry changed
+	 */
+	protected abstract void update(Entry entry);
+
+	protected abstract void delete(Entry entry);
+
+	protected abstract void reset();
+
+	/**
+	 * Reports each entry intersecting the box exactly once
+	 */
+	protected abstract void collectBox(float minX, float minY, float minZ, float maxX, float maxY, float maxZ,
+			Consumer<Entry> consumer);
+
+	/**
+	 * Reports each entry at least partially inside the frustum exactly once
+	 */
+	protected abstract void collectFrustum(FrustumIntersection frustum, Consumer<Entry> consumer);
+
+}
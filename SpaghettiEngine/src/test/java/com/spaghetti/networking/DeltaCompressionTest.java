@@ -0,0 +1,168 @@
+package com.spaghetti.networking;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayDeque;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Runs a {@link DeltaEncoder} against a {@link DeltaDecoder} over a simulated
+ * link with latency and loss in both directions
+ *
+ * @author bohdloss
+ *
+ */
+public class DeltaCompressionTest {
+
+	private static final int OBJECTS = 8;
+	private static final int PAYLOAD = 64;
+
+	private static final class Packet {
+		final int arrival;
+		final NetworkBuffer buffer;
+		final byte[][] expected;
+
+		Packet(int arrival, NetworkBuffer buffer, byte[][] expected) {
+			this.arrival = arrival;
+			this.buffer = buffer;
+			this.expected = expected;
+		}
+	}
+
+	private static final class Link {
+		final DeltaEncoder encoder = new DeltaEncoder();
+		final DeltaDecoder decoder = new DeltaDecoder();
+		final ArrayDeque<Packet> toClient = new ArrayDeque<>();
+		final ArrayDeque<Packet> toServer = new ArrayDeque<>();
+		final byte[][] state = new byte[OBJECTS][PAYLOAD];
+		final Random random = new Random(7);
+		int decoded, dropped, resets, deltas;
+
+		void run(int ticks, int latency, double loss, int changesPerTick) {
+			for (int tick = 0; tick < ticks; tick++) {
+				for (int i = 0; i < changesPerTick; i++) {
+					state[random.nextInt(OBJECTS)][random.nextInt(PAYLOAD)] = (byte) random.nextInt();
+				}
+				Packet packet = write(tick + latency);
+				if (random.nextDouble() >= loss) {
+					toClient.add(packet);
+				}
+
+				while (!toClient.isEmpty() && toClient.peek().arrival <= tick) {
+					read(toClient.poll());
+					NetworkBuffer ack = new NetworkBuffer(null, 64);
+					decoder.writeAcknowledgement(ack);
+					ack.flip();
+					if (ack.getLimit() > 0 && random.nextDouble() >= loss) {
+						toServer.add(new Packet(tick + latency, ack, null));
+					}
+				}
+
+				while (!toServer.isEmpty() && toServer.peek().arrival <= tick) {
+					NetworkBuffer ack = toServer.poll().buffer;
+					assertEquals(Opcode.DELTA_ACK, ack.getByte());
+					int sequence = ack.getInt();
+					int bits = ack.getInt();
+					if (ack.getBoolean() && encoder.reset(ack.getInt())) {
+						resets++;
+					}
+					encoder.acknowledge(sequence, bits);
+				}
+			}
+		}
+
+		// Same layout as ConnectionManager, an id and a length before each entry
+		Packet write(int arrival) {
+			NetworkBuffer buffer = new NetworkBuffer(null, 8192);
+			buffer.putInt(encoder.begin());
+			buffer.putInt(encoder.getAcknowledged());
+			byte[][] expected = new byte[OBJECTS][];
+			for (int id = 0; id < OBJECTS; id++) {
+				if (random.nextBoolean()) {
+					// Left out, as if the packet had no room for it
+					continue;
+				}
+				int entry = buffer.getPosition();
+				buffer.putInt(id);
+				buffer.putShort((short) 0);
+				buffer.putByte(DeltaEncoder.FULL);
+				int start = buffer.getPosition();
+				buffer.putBytes(state[id], 0, PAYLOAD);
+				if (encoder.encode(DeltaEncoder.OBJECT, id, buffer, start)) {
+					buffer.putShortAt(entry + Integer.BYTES,
+							(short) (buffer.getPosition() - entry - Integer.BYTES - Short.BYTES));
+					expected[id] = state[id].clone();
+				} else {
+					buffer.setPosition(entry);
+				}
+			}
+			buffer.putInt(-1);
+			buffer.flip();
+			return new Packet(arrival, buffer, expected);
+		}
+
+		void read(Packet packet) {
+			NetworkBuffer buffer = packet.buffer;
+			decoder.begin(buffer.getInt(), buffer.getInt());
+			int id;
+			while ((id = buffer.getInt()) != -1) {
+				int end = buffer.getShort() + buffer.getPosition();
+				if (buffer.getByteAt(buffer.getPosition()) == DeltaEncoder.DELTA) {
+					deltas++;
+				}
+				NetworkBuffer payload = decoder.decode(DeltaEncoder.OBJECT, id, buffer, end);
+				buffer.setPosition(end);
+				if (payload == null) {
+					dropped++;
+					continue;
+				}
+				assertNotNull(packet.expected[id]);
+				byte[] actual = new byte[PAYLOAD];
+				payload.getBytes(actual, 0, PAYLOAD);
+				assertArrayEquals(packet.expected[id], actual);
+				decoded++;
+			}
+		}
+	}
+
+	@Test
+	public void lowLatency() {
+		Link link = new Link();
+		link.run(2000, 1, 0, 1);
+		assertEquals(0, link.resets);
+		assertTrue(link.deltas > 1000);
+		assertTrue(link.encoder.getSentBytes() < link.encoder.getFullBytes() / 2);
+	}
+
+	@Test
+	public void roundTripLongerThanHistory() {
+		// Baselines are about 40 packets old when deltas arrive
+		Link link = new Link();
+		link.run(2000, 20, 0, 1);
+		assertEquals(0, link.resets);
+		assertTrue(link.deltas > 1000);
+	}
+
+	@Test
+	public void lostPacketsNeverBecomeBaselines() {
+		Link link = new Link();
+		link.run(4000, 5, 0.2, 1);
+		assertEquals(0, link.resets);
+		assertTrue(link.deltas > 1000);
+		assertTrue(link.decoded > 0);
+	}
+
+	@Test
+	public void heavyLossAndLatency() {
+		Link link = new Link();
+		link.run(4000, 30, 0.4, 2);
+		assertEquals(0, link.resets);
+		assertTrue(link.deltas > 1000);
+	}
+
+}
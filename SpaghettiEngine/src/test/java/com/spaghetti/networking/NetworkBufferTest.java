@@ -0,0 +1,349 @@
+package com.spaghetti.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Random;
+
+import org.joml.Quaternionf;
+import org.junit.Test;
+
+/**
+ * Round trips through the bit stream methods of {@link NetworkBuffer}
+ *
+ * @author bohdloss
+ *
+ */
+public class NetworkBufferTest {
+
+	private static NetworkBuffer buffer() {
+		return new NetworkBuffer(null, 4096);
+	}
+
+	// Bit packing
+
+	@Test
+	public void bitsRoundTrip() {
+		NetworkBuffer buffer = buffer();
+		Random random = new Random(1);
+		int[] values = new int[1000];
+		int[] counts = new int[values.length];
+
+		buffer.beginBits();
+		for (int i = 0; i < values.length; i++) {
+			counts[i] = random.nextInt(33);
+			values[i] = random.nextInt();
+			buffer.putBits(values[i], counts[i]);
+		}
+		buffer.endBits();
+		buffer.flip();
+
+		buffer.beginBits();
+		for (int i = 0; i < values.length; i++) {
+			int mask = counts[i] == 32 ? -1 : (1 << counts[i]) - 1;
+			assertEquals("value " + i, values[i] & mask, buffer.getBits(counts[i]));
+		}
+		buffer.endBits();
+	}
+
+	@Test
+	public void fullWidthBits() {
+		NetworkBuffer buffer = buffer();
+		buffer.beginBits();
+		// Misaligned on purpose, so that 32 bits straddle five bytes
+		buffer.putBits(5, 3);
+		buffer.putBits(0xDEADBEEF, 32);
+		buffer.putBits(-1, 32);
+		buffer.putBits(Integer.MIN_VALUE, 32);
+		buffer.endBits();
+		buffer.flip();
+
+		assertEquals(13, buffer.getLimit());
+		buffer.beginBits();
+		assertEquals(5, buffer.getBits(3));
+		assertEquals(0xDEADBEEF, buffer.getBits(32));
+		assertEquals(-1, buffer.getBits(32));
+		assertEquals(Integer.MIN_VALUE, buffer.getBits(32));
+		buffer.endBits();
+	}
+
+	@Test
+	public void bitsOutsideBitMode() {
+		NetworkBuffer buffer = buffer();
+		buffer.putBits(0x1FF, 9);
+		buffer.putBits(0xDEADBEEF, 32);
+		buffer.putBit(true);
+		buffer.flip();
+
+		// Each value takes whole bytes
+		assertEquals(2 + 4 + 1, buffer.getLimit());
+		assertEquals(0x1FF, buffer.getBits(9));
+		assertEquals(0xDEADBEEF, buffer.getBits(32));
+		assertTrue(buffer.getBit());
+	}
+
+	@Test
+	public void endBitsPadsLastByte() {
+		NetworkBuffer buffer = buffer();
+		buffer.beginBits();
+		buffer.putBit(true);
+		buffer.putBit(false);
+		buffer.putBit(true);
+		buffer.endBits();
+		buffer.putByte((byte) 42);
+		buffer.flip();
+
+		assertEquals(2, buffer.getLimit());
+		buffer.beginBits();
+		assertTrue(buffer.getBit());
+		assertFalse(buffer.getBit());
+		buffer.endBits();
+		assertEquals(42, buffer.getByte());
+	}
+
+	@Test
+	public void byteAccessRejectedInBitMode() {
+		NetworkBuffer buffer = buffer();
+		buffer.beginBits();
+		buffer.putBits(5, 3);
+		try {
+			buffer.putInt(1);
+			fail("Byte aligned write accepted in bit mode");
+		} catch (IllegalStateException e) {
+		}
+		try {
+			buffer.putString("text");
+			fail("Byte aligned write accepted in bit mode");
+		} catch (IllegalStateException e) {
+		}
+		buffer.endBits();
+		buffer.flip();
+
+		buffer.beginBits();
+		try {
+			buffer.getFloat();
+			fail("Byte aligned read accepted in bit mode");
+		} catch (IllegalStateException e) {
+		}
+		// Nothing was read around the bits
+		assertEquals(5, buffer.getBits(3));
+		buffer.endBits();
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsTooManyBits() {
+		buffer().putBits(0, 33);
+	}
+
+	// Variable length ints
+
+	@Test
+	public void varUIntRoundTrip() {
+		int[] values = { 0, 1, 127, 128, 16383, 16384, Integer.MAX_VALUE, -1, Integer.MIN_VALUE };
+		int[] sizes = { 1, 1, 1, 2, 2, 3, 5, 5, 5 };
+		for (int i = 0; i < values.length; i++) {
+			NetworkBuffer buffer = buffer();
+			buffer.putVarUInt(values[i]);
+			buffer.flip();
+			assertEquals("size of " + values[i], sizes[i], buffer.getLimit());
+			assertEquals(values[i], buffer.getVarUInt());
+		}
+	}
+
+	@Test
+	public void zigZagRoundTrip() {
+		int[] values = { 0, -1, 1, -64, 63, -65, 64, Integer.MAX_VALUE, Integer.MIN_VALUE };
+		int[] sizes = { 1, 1, 1, 1, 1, 2, 2, 5, 5 };
+		for (int i = 0; i < values.length; i++) {
+			NetworkBuffer buffer = buffer();
+			buffer.putVarInt(values[i]);
+			buffer.flip();
+			assertEquals("size of " + values[i], sizes[i], buffer.getLimit());
+			assertEquals(values[i], buffer.getVarInt());
+		}
+	}
+
+	@Test
+	public void varIntsInBitMode() {
+		NetworkBuffer buffer = buffer();
+		Random random = new Random(2);
+		int[] values = new int[500];
+
+		buffer.beginBits();
+		buffer.putBit(true);
+		for (int i = 0; i < values.length; i++) {
+			values[i] = random.nextInt() >> random.nextInt(32);
+			buffer.putVarInt(values[i]);
+		}
+		buffer.endBits();
+		buffer.flip();
+
+		buffer.beginBits();
+		assertTrue(buffer.getBit());
+		for (int i = 0; i < values.length; i++) {
+			assertEquals(values[i], buffer.getVarInt());
+		}
+		buffer.endBits();
+	}
+
+	@Test(expected = IllegalStateException.class)
+	public void rejectsMalformedVarUInt() {
+		NetworkBuffer buffer = buffer();
+		for (int i = 0; i < 6; i++) {
+			buffer.putByte((byte) 0xFF);
+		}
+		buffer.flip();
+		buffer.getVarUInt();
+	}
+
+	// Quantized floats
+
+	@Test
+	public void quantizedFloatPrecision() {
+		float min = -100, max = 100, precision = 0.01f;
+		int bits = NetworkBuffer.bitsFor(min, max, precision);
+		NetworkBuffer buffer = buffer();
+		buffer.beginBits();
+		for (float v = min; v <= max; v += 0.37f) {
+			buffer.putQuantizedFloat(v, min, max, bits);
+		}
+		buffer.endBits();
+		buffer.flip();
+
+		buffer.beginBits();
+		for (float v = min; v <= max; v += 0.37f) {
+			assertEquals(v, buffer.getQuantizedFloat(min, max, bits), precision);
+		}
+		buffer.endBits();
+	}
+
+	@Test
+	public void quantizedFloatFullWidth() {
+		NetworkBuffer buffer = buffer();
+		buffer.beginBits();
+		buffer.putQuantizedFloat(-1, -1, 1, 32);
+		buffer.putQuantizedFloat(1, -1, 1, 32);
+		buffer.putQuantizedFloat(0.25f, -1, 1, 32);
+		buffer.endBits();
+		buffer.flip();
+
+		buffer.beginBits();
+		assertEquals(-1, buffer.getQuantizedFloat(-1, 1, 32), 0);
+		assertEquals(1, buffer.getQuantizedFloat(-1, 1, 32), 0);
+		assertEquals(0.25f, buffer.getQuantizedFloat(-1, 1, 32), 1e-6f);
+		buffer.endBits();
+	}
+
+	@Test
+	public void quantizedFloatClamping() {
+		NetworkBuffer buffer = buffer();
+		buffer.beginBits();
+		buffer.putQuantizedFloat(1000, 0, 10, 12);
+		buffer.putQuantizedFloat(-1000, 0, 10, 12);
+		buffer.putQuantizedFloat(Float.POSITIVE_INFINITY, 0, 10, 12);
+		buffer.putQuantizedFloat(Float.NEGATIVE_INFINITY, 0, 10, 12);
+		buffer.putQuantizedFloat(Float.NaN, 0, 10, 12);
+		buffer.endBits();
+		buffer.flip();
+
+		buffer.beginBits();
+		assertEquals(10, buffer.getQuantizedFloat(0, 10, 12), 0);
+		assertEquals(0, buffer.getQuantizedFloat(0, 10, 12), 0);
+		assertEquals(10, buffer.getQuantizedFloat(0, 10, 12), 0);
+		assertEquals(0, buffer.getQuantizedFloat(0, 10, 12), 0);
+		// Not a number can't be sent, it must still decode inside the range
+		float nan = buffer.getQuantizedFloat(0, 10, 12);
+		assertTrue(nan >= 0 && nan <= 10);
+		buffer.endBits();
+	}
+
+	@Test
+	public void bitsForPrecision() {
+		assertEquals(1, NetworkBuffer.bitsFor(0, 1, 1));
+		assertEquals(32, NetworkBuffer.bitsFor(-1e9f, 1e9f, 1e-9f));
+		int bits = NetworkBuffer.bitsFor(0, 1000, 0.5f);
+		assertTrue((1L << bits) - 1 >= 1000);
+		assertTrue((1L << (bits - 1)) - 1 < 1000);
+	}
+
+	// Quantized quaternions
+
+	private static void assertSameRotation(Quaternionf expected, Quaternionf actual, float tolerance) {
+		// q and -q are the same rotation
+		float dot = Math.abs(expected.x * actual.x + expected.y * actual.y + expected.z * actual.z
+				+ expected.w * actual.w);
+		assertEquals(1, dot, tolerance);
+		assertEquals(1, actual.lengthSquared(), tolerance);
+	}
+
+	@Test
+	public void quaternionRoundTrip() {
+		NetworkBuffer buffer = buffer();
+		Random random = new Random(3);
+		Quaternionf[] rotations = new Quaternionf[500];
+
+		buffer.beginBits();
+		for (int i = 0; i < rotations.length; i++) {
+			rotations[i] = new Quaternionf().rotateXYZ(random.nextFloat() * 10, random.nextFloat() * 10,
+					random.nextFloat() * 10);
+			buffer.putQuantizedQuaternion(rotations[i], 12);
+		}
+		buffer.endBits();
+		buffer.flip();
+
+		// 2 bits for the index and 3 * 12 for the rest
+		assertEquals((rotations.length * 38 + 7) / 8, buffer.getLimit());
+		buffer.beginBits();
+		Quaternionf result = new Quaternionf();
+		for (int i = 0; i < rotations.length; i++) {
+			assertSameRotation(rotations[i], buffer.getQuantizedQuaternion(result, 12), 1e-4f);
+		}
+		buffer.endBits();
+	}
+
+	@Test
+	public void quaternionSignFlip() {
+		Quaternionf q = new Quaternionf().rotateXYZ(0.3f, -1.2f, 2.5f);
+		Quaternionf negated = new Quaternionf(-q.x, -q.y, -q.z, -q.w);
+		NetworkBuffer buffer = buffer();
+		buffer.beginBits();
+		buffer.putQuantizedQuaternion(q, 16);
+		buffer.putQuantizedQuaternion(negated, 16);
+		buffer.endBits();
+		buffer.flip();
+
+		buffer.beginBits();
+		Quaternionf first = buffer.getQuantizedQuaternion(new Quaternionf(), 16);
+		Quaternionf second = buffer.getQuantizedQuaternion(new Quaternionf(), 16);
+		buffer.endBits();
+
+		// Both decode to the same values, with the largest component positive
+		assertEquals(first.x, second.x, 0);
+		assertEquals(first.y, second.y, 0);
+		assertEquals(first.z, second.z, 0);
+		assertEquals(first.w, second.w, 0);
+		assertSameRotation(q, first, 1e-6f);
+	}
+
+	@Test
+	public void quaternionNormalizesInput() {
+		Quaternionf q = new Quaternionf().rotateY(1).scale(3);
+		Quaternionf zero = new Quaternionf(0, 0, 0, 0);
+		NetworkBuffer buffer = buffer();
+		buffer.beginBits();
+		buffer.putQuantizedQuaternion(q, 14);
+		buffer.putQuantizedQuaternion(zero, 14);
+		buffer.endBits();
+		buffer.flip();
+
+		buffer.beginBits();
+		assertSameRotation(new Quaternionf().rotateY(1), buffer.getQuantizedQuaternion(new Quaternionf(), 14),
+				1e-5f);
+		// A zero quaternion becomes the identity
+		assertSameRotation(new Quaternionf(), buffer.getQuantizedQuaternion(new Quaternionf(), 14), 1e-6f);
+		buffer.endBits();
+	}
+
+}
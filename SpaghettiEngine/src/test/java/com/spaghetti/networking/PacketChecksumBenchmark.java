@@ -0,0 +1,90 @@
+package com.spaghetti.networking;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.spaghetti.utils.HashUtil;
+
+/**
+ * Compares the time taken by the {@link PacketChecksum} algorithms with
+ * {@link HashUtil#shortHash(ByteBuffer, int, int)}, the hash packets were
+ * checked with before
+ * <p>
+ * Run {@link #main(String[])} with the test classpath. The xxhash benchmarks
+ * fail if the natives of LWJGL can't be loaded
+ *
+ * @author bohdloss
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PacketChecksumBenchmark {
+
+	// A small packet, a datagram and a large packet
+	@Param({ "64", "1200", "16384" })
+	public int size;
+
+	private ByteBuffer data;
+
+	@Setup
+	public void setup() {
+		byte[] bytes = new byte[size];
+		new Random(1).nextBytes(bytes);
+		data = ByteBuffer.allocateDirect(size).order(NetworkBuffer.ORDER);
+		data.put(bytes).flip();
+		if (!PacketChecksum.XXHASH.isAvailable()) {
+			System.err.println("xxHash natives missing, the xxhash benchmark will fail");
+		}
+	}
+
+	@Benchmark
+	public short shortHash() {
+		return HashUtil.shortHash(data, 0, size);
+	}
+
+	@Benchmark
+	public int hash16() {
+		return PacketChecksum.HASH16.compute(data, 0, size);
+	}
+
+	@Benchmark
+	public int crc32c() {
+		return PacketChecksum.CRC32C.compute(data, 0, size);
+	}
+
+	@Benchmark
+	public int crc32cTable() {
+		// What older JDKs without java.util.zip.CRC32C use
+		return PacketChecksum.crc32c(data, 0, size);
+	}
+
+	@Benchmark
+	public int xxhash() {
+		return PacketChecksum.XXHASH.compute(data, 0, size);
+	}
+
+	public static void main(String[] args) throws RunnerException {
+		new Runner(new OptionsBuilder().include(PacketChecksumBenchmark.class.getSimpleName()).build()).run();
+	}
+
+}
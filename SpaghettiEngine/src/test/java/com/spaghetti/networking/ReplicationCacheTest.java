@@ -0,0 +1,94 @@
+package com.spaghetti.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link ReplicationCache} encodes a replicable once per tick and
+ * still writes its symbols with the table of each connection
+ *
+ * @author bohdloss
+ *
+ */
+public class ReplicationCacheTest {
+
+	public static class Shared implements Replicable {
+		int writes;
+
+		@Override
+		public void writeDataServer(ConnectionManager connection, NetworkBuffer dataBuffer) {
+			writes++;
+			dataBuffer.putInt(1);
+			dataBuffer.putString(true, "model", NetworkBuffer.UTF_8);
+			dataBuffer.putString(true, null, NetworkBuffer.UTF_8);
+			dataBuffer.putInt(2);
+			dataBuffer.putString(true, "material", NetworkBuffer.UTF_8);
+		}
+
+		@Override
+		public boolean isSharedReplication() {
+			return ReplicationCache.isWrittenBy(this, Shared.class);
+		}
+	}
+
+	public static class Extended extends Shared {
+		@Override
+		public void writeDataServer(ConnectionManager connection, NetworkBuffer dataBuffer) {
+			super.writeDataServer(connection, dataBuffer);
+		}
+	}
+
+	@Test
+	public void symbolsPerConnection() {
+		ReplicationCache cache = new ReplicationCache();
+		Shared shared = new Shared();
+		SymbolTable first = new SymbolTable();
+		SymbolTable second = new SymbolTable();
+		// The first client already knows the symbols
+		NetworkBuffer warmup = new NetworkBuffer(first, 256);
+		first.write(warmup, "model", NetworkBuffer.UTF_8);
+		first.write(warmup, "material", NetworkBuffer.UTF_8);
+		first.acknowledge(2);
+
+		NetworkBuffer firstBuffer = new NetworkBuffer(first, 256);
+		NetworkBuffer secondBuffer = new NetworkBuffer(second, 256);
+		cache.write(shared, null, firstBuffer);
+		cache.write(shared, null, secondBuffer);
+		assertEquals(1, shared.writes);
+		assertTrue(firstBuffer.getPosition() < secondBuffer.getPosition());
+
+		SymbolTable reader = new SymbolTable();
+		warmup.flip();
+		reader.read(warmup, NetworkBuffer.UTF_8);
+		reader.read(warmup, NetworkBuffer.UTF_8);
+		firstBuffer.flip();
+		assertRead(reader, firstBuffer);
+		secondBuffer.flip();
+		assertRead(new SymbolTable(), secondBuffer);
+
+		cache.clear();
+		secondBuffer.clear();
+		cache.write(shared, null, secondBuffer);
+		assertEquals(2, shared.writes);
+	}
+
+	@Test
+	public void subclassesOptInAgain() {
+		assertTrue(new Shared().isSharedReplication());
+		assertFalse(new Extended().isSharedReplication());
+	}
+
+	private static void assertRead(SymbolTable reader, NetworkBuffer buffer) {
+		assertEquals(1, buffer.getInt());
+		assertEquals("model", reader.read(buffer, NetworkBuffer.UTF_8));
+		assertNull(reader.read(buffer, NetworkBuffer.UTF_8));
+		assertEquals(2, buffer.getInt());
+		assertEquals("material", reader.read(buffer, NetworkBuffer.UTF_8));
+		assertEquals(buffer.getLimit(), buffer.getPosition());
+	}
+
+}
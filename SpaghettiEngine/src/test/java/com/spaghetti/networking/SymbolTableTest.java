@@ -0,0 +1,89 @@
+package com.spaghetti.networking;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link SymbolTable} round trips symbols and rejects malformed
+ * tags instead of reading outside the packet or the table
+ *
+ * @author bohdloss
+ *
+ */
+public class SymbolTableTest {
+
+	@Test
+	public void definitionThenId() {
+		SymbolTable writer = new SymbolTable();
+		SymbolTable reader = new SymbolTable();
+		NetworkBuffer buffer = new NetworkBuffer(null, 256);
+
+		writer.write(buffer, "texture", NetworkBuffer.UTF_8);
+		// Repeated until acknowledged
+		writer.write(buffer, "texture", NetworkBuffer.UTF_8);
+		writer.write(buffer, null, NetworkBuffer.UTF_8);
+		buffer.flip();
+		assertEquals("texture", reader.read(buffer, NetworkBuffer.UTF_8));
+		assertEquals("texture", reader.read(buffer, NetworkBuffer.UTF_8));
+		assertNull(reader.read(buffer, NetworkBuffer.UTF_8));
+		assertEquals(1, reader.getKnown());
+
+		writer.acknowledge(reader.getKnown());
+		buffer.clear();
+		writer.write(buffer, "texture", NetworkBuffer.UTF_8);
+		buffer.flip();
+		assertEquals(1, buffer.getLimit());
+		assertEquals("texture", reader.read(buffer, NetworkBuffer.UTF_8));
+	}
+
+	@Test
+	public void rejectsNegativeLength() {
+		SymbolTable reader = new SymbolTable();
+		NetworkBuffer buffer = new NetworkBuffer(null, 256);
+		new SymbolTable().write(buffer, "texture", NetworkBuffer.UTF_8);
+		int repeat = buffer.getPosition();
+		buffer.putVarUInt(SymbolTable.DEFINITION);
+		buffer.putVarUInt(0);
+		// Would move the position backwards
+		buffer.putShort((short) -repeat);
+		buffer.flip();
+
+		reader.read(buffer, NetworkBuffer.UTF_8);
+		assertInvalid(reader, buffer);
+	}
+
+	@Test
+	public void rejectsLengthPastLimit() {
+		SymbolTable reader = new SymbolTable();
+		NetworkBuffer buffer = new NetworkBuffer(null, 256);
+		new SymbolTable().write(buffer, "texture", NetworkBuffer.UTF_8);
+		buffer.putVarUInt(SymbolTable.DEFINITION);
+		buffer.putVarUInt(0);
+		buffer.putShort((short) 100);
+		buffer.flip();
+
+		reader.read(buffer, NetworkBuffer.UTF_8);
+		assertInvalid(reader, buffer);
+	}
+
+	@Test
+	public void rejectsNegativeId() {
+		NetworkBuffer buffer = new NetworkBuffer(null, 256);
+		// Past the int range, a tag of -1
+		buffer.putVarUInt(0xFFFFFFFF);
+		buffer.flip();
+		assertInvalid(new SymbolTable(), buffer);
+	}
+
+	private static void assertInvalid(SymbolTable reader, NetworkBuffer buffer) {
+		try {
+			reader.read(buffer, NetworkBuffer.UTF_8);
+			fail("Malformed symbol accepted");
+		} catch (IllegalStateException e) {
+		}
+	}
+
+}
@@ -0,0 +1,289 @@
+package com.spaghetti.networking.udp;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.spaghetti.networking.NetworkBuffer;
+
+/**
+ * Runs {@link UDPConnection}s against a {@link UDPServer} over the loopback
+ * interface, with the client dropping datagrams in both directions
+ *
+ * @author bohdloss
+ *
+ */
+public class UDPConnectionTest {
+
+	private static final int MTU = 1200;
+	private static final int BUFFER_SIZE = 1 << 20;
+	private static final long TIMEOUT = 10000;
+
+	private static final class TestServer extends UDPServer {
+		@Override
+		protected UDPConnection newConnection() {
+			return new UDPConnection(1024, BUFFER_SIZE, MTU, TIMEOUT);
+		}
+	}
+
+	private static class LossyConnection extends UDPConnection {
+		final Random random = new Random(11);
+		final double loss;
+
+		LossyConnection(double loss) {
+			super(1024, BUFFER_SIZE, MTU, TIMEOUT);
+			this.loss = loss;
+		}
+
+		@Override
+		protected void transmit() throws IOException {
+			if (random.nextDouble() >= loss) {
+				super.transmit();
+			}
+		}
+
+		@Override
+		void handleDatagram(ByteBuffer buffer) throws IOException {
+			if (random.nextDouble() >= loss) {
+				super.handleDatagram(buffer);
+			}
+		}
+	}
+
+	private TestServer server;
+	private final ArrayList<UDPConnection> endpoints = new ArrayList<>();
+
+	@Before
+	public void start() throws Throwable {
+		server = new TestServer();
+		server.internal_startserver(0);
+	}
+
+	@After
+	public void stop() throws Throwable {
+		for (UDPConnection endpoint : endpoints) {
+			endpoint.disconnect();
+			endpoint.destroy();
+		}
+		server.internal_stopserver();
+	}
+
+	private LossyConnection connect(double loss) {
+		LossyConnection client = new LossyConnection(loss);
+		client.connect("127.0.0.1", server.getLocalPort());
+		endpoints.add(client);
+		return client;
+	}
+
+	// The client must have sent something already
+	private UDPConnection accept(UDPConnection client) throws Throwable {
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (System.currentTimeMillis() < deadline) {
+			client.pump();
+			UDPConnection accepted = (UDPConnection) server.internal_acceptsocket();
+			if (accepted != null) {
+				endpoints.add(accepted);
+				return accepted;
+			}
+			Thread.sleep(1);
+		}
+		fail("No connection accepted");
+		return null;
+	}
+
+	private static void sendInt(UDPConnection endpoint, boolean reliable, int value) {
+		endpoint.setReliable(reliable);
+		endpoint.getWriteBuffer().putInt(value);
+		endpoint.send();
+	}
+
+	// Pumps both sides until count messages are received
+	private static ArrayList<NetworkBuffer> receive(UDPConnection from, UDPConnection to, int count)
+			throws InterruptedException {
+		ArrayList<NetworkBuffer> received = new ArrayList<>();
+		long deadline = System.currentTimeMillis() + TIMEOUT;
+		while (received.size() < count && System.currentTimeMillis() < deadline) {
+			from.pump();
+			while (to.canReceive()) {
+				to.receive();
+				NetworkBuffer copy = new NetworkBuffer(null, BUFFER_SIZE);
+				NetworkBuffer read = to.getReadBuffer();
+				byte[] bytes = new byte[read.getLimit()];
+				read.getBytes(bytes);
+				copy.putBytes(bytes);
+				copy.flip();
+				received.add(copy);
+			}
+			Thread.sleep(1);
+		}
+		return received;
+	}
+
+	// Handshake
+
+	@Test
+	public void handshakeOpensConnection() throws Throwable {
+		UDPConnection client = connect(0);
+		sendInt(client, true, 42);
+		UDPConnection accepted = accept(client);
+
+		ArrayList<NetworkBuffer> received = receive(client, accepted, 1);
+		assertEquals(1, received.size());
+		assertEquals(42, received.get(0).getInt());
+		assertEquals(client.getLocalPort(), accepted.getRemotePort());
+		assertTrue(accepted.isConnected());
+	}
+
+	@Test
+	public void challengeIsNoLargerThanRequest() throws Throwable {
+		DatagramChannel raw = DatagramChannel.open();
+		try {
+			raw.connect(new InetSocketAddress("127.0.0.1", server.getLocalPort()));
+			raw.configureBlocking(false);
+			ByteBuffer datagram = ByteBuffer.allocate(UDPConnection.MAX_DATAGRAM).order(NetworkBuffer.ORDER);
+
+			// The smallest request, first fragment of the first reliable message
+			datagram.putShort(UDPConnection.PROTOCOL_ID);
+			datagram.putShort((short) 0).putShort((short) 0).putInt(0);
+			datagram.put(UDPConnection.MESSAGE);
+			datagram.put(UDPConnection.RELIABLE);
+			datagram.putShort((short) 0).putShort((short) 0).putShort((short) 1);
+			datagram.put((byte) 0);
+			datagram.flip();
+			int requestSize = datagram.remaining();
+			raw.write(datagram);
+
+			ByteBuffer challenge = ByteBuffer.allocate(UDPConnection.MAX_DATAGRAM).order(NetworkBuffer.ORDER);
+			long deadline = System.currentTimeMillis() + TIMEOUT;
+			while (challenge.position() == 0 && System.currentTimeMillis() < deadline) {
+				server.pump();
+				raw.read(challenge);
+				Thread.sleep(1);
+			}
+			challenge.flip();
+			assertTrue(challenge.remaining() <= requestSize);
+			assertEquals(UDPConnection.CHALLENGE, challenge.get(UDPConnection.HEADER_SIZE - 1));
+			long cookie = challenge.getLong(UDPConnection.HEADER_SIZE);
+
+			// A wrong cookie is ignored
+			sendResponse(raw, cookie + 1);
+			server.pump();
+			assertTrue(server.connections.isEmpty());
+
+			sendResponse(raw, cookie);
+			server.pump();
+			assertNotNull(server.internal_acceptsocket());
+		} finally {
+			raw.close();
+		}
+	}
+
+	private void sendResponse(DatagramChannel raw, long cookie) throws Exception {
+		ByteBuffer datagram = ByteBuffer.allocate(UDPConnection.CHALLENGE_SIZE).order(NetworkBuffer.ORDER);
+		datagram.putShort(UDPConnection.PROTOCOL_ID);
+		datagram.putShort((short) 1).putShort((short) 0).putInt(0);
+		datagram.put(UDPConnection.RESPONSE);
+		datagram.putLong(cookie);
+		datagram.flip();
+		raw.write(datagram);
+		// Loopback delivery isn't instant
+		Thread.sleep(20);
+	}
+
+	@Test
+	public void unansweredChallengeOpensNothing() throws Throwable {
+		// Like a spoofed address, the challenges never reach the sender
+		UDPConnection client = connect(0);
+		LossyConnection deaf = new LossyConnection(0) {
+			@Override
+			void handleDatagram(ByteBuffer buffer) {
+			}
+		};
+		deaf.connect("127.0.0.1", server.getLocalPort());
+		endpoints.add(deaf);
+		sendInt(deaf, true, 1);
+
+		long end = System.currentTimeMillis() + 300;
+		while (System.currentTimeMillis() < end) {
+			deaf.pump();
+			assertNull(server.internal_acceptsocket());
+			Thread.sleep(1);
+		}
+		assertTrue(server.connections.isEmpty());
+
+		// Other clients are unaffected
+		sendInt(client, true, 2);
+		accept(client);
+		assertEquals(1, server.connections.size());
+	}
+
+	// Delivery
+
+	@Test
+	public void reliableInOrderUnderLoss() throws Throwable {
+		LossyConnection client = connect(0.2);
+		int count = 200;
+		for (int i = 0; i < count; i++) {
+			sendInt(client, true, i);
+		}
+		UDPConnection accepted = accept(client);
+
+		ArrayList<NetworkBuffer> received = receive(client, accepted, count);
+		assertEquals(count, received.size());
+		for (int i = 0; i < count; i++) {
+			assertEquals(i, received.get(i).getInt());
+		}
+		assertTrue(client.getPacketsResent() > 0);
+	}
+
+	@Test
+	public void fragmentedMessageUnderLoss() throws Throwable {
+		LossyConnection client = connect(0.2);
+		byte[] payload = new byte[100000];
+		new Random(5).nextBytes(payload);
+		client.setReliable(true);
+		client.getWriteBuffer().putBytes(payload);
+		client.send();
+		UDPConnection accepted = accept(client);
+
+		ArrayList<NetworkBuffer> received = receive(client, accepted, 1);
+		assertEquals(1, received.size());
+		byte[] actual = new byte[payload.length];
+		received.get(0).getBytes(actual);
+		assertArrayEquals(payload, actual);
+	}
+
+	@Test
+	public void unreliableLatestWins() throws Throwable {
+		UDPConnection client = connect(0);
+		sendInt(client, true, -1);
+		UDPConnection accepted = accept(client);
+		assertEquals(1, receive(client, accepted, 1).size());
+
+		for (int i = 1; i <= 3; i++) {
+			sendInt(client, false, i);
+		}
+		// All of them are waiting in the socket before the server reads any
+		Thread.sleep(50);
+		ArrayList<NetworkBuffer> received = receive(client, accepted, 1);
+		assertEquals(1, received.size());
+		assertEquals(3, received.get(0).getInt());
+		assertFalse(accepted.canReceive());
+	}
+
+}
@@ -0,0 +1,140 @@
+package com.spaghetti.networking.udp;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.spaghetti.assets.AssetManager;
+import com.spaghetti.core.ClientState;
+import com.spaghetti.core.Game;
+import com.spaghetti.events.EventDispatcher;
+import com.spaghetti.events.GameEvent;
+import com.spaghetti.input.InputDispatcher;
+import com.spaghetti.input.UpdaterComponent;
+import com.spaghetti.networking.events.OnClientConnect;
+import com.spaghetti.settings.GameSettings;
+import com.spaghetti.utils.Logger;
+import com.spaghetti.world.GameState;
+
+/**
+ * Runs the handshake of a real {@link UDPClient} with a {@link UDPServer}
+ * through the client and server components, over the loopback interface
+ *
+ * @author bohdloss
+ *
+ */
+public class UDPHandshakeTest {
+
+	private static final long TIMEOUT = 10000;
+
+	// The games aren't started, so events can't go through the primary thread
+	public static class RecordingDispatcher extends EventDispatcher {
+		final ArrayList<GameEvent> raised = new ArrayList<>();
+
+		public RecordingDispatcher(Game game) {
+			super(game);
+		}
+
+		@Override
+		public synchronized void raiseEvent(GameEvent event) {
+			raised.add(event);
+		}
+
+		synchronized int count(Class<?> type) {
+			int count = 0;
+			for (GameEvent event : raised) {
+				if (type.isInstance(event)) {
+					count++;
+				}
+			}
+			return count;
+		}
+	}
+
+	public static class TestClient extends UDPClient {
+		public boolean connectNow(String ip, int port, long token) {
+			return internal_connect(ip, port, token);
+		}
+
+		public void disconnectNow() {
+			internal_disconnect();
+		}
+	}
+
+	private Game serverGame, clientGame;
+	private UDPServer server;
+	private TestClient client;
+
+	private static Game newGame(Class<? extends UDPClient> client, Class<? extends UDPServer> server) {
+		Game game = new Game(UpdaterComponent.class, null, client, server, RecordingDispatcher.class,
+				GameSettings.class, AssetManager.class, InputDispatcher.class, ClientState.class, GameState.class,
+				Logger.class);
+		game.setEngineSetting("network.port", 0);
+		// Fail instead of waiting for the default timeout
+		game.setEngineSetting("network.timeoutTime", TIMEOUT);
+		return game;
+	}
+
+	@Before
+	public void start() throws Throwable {
+		serverGame = newGame(null, UDPServer.class);
+		serverGame.registerThread();
+		server = (UDPServer) serverGame.getServer();
+		server.initialize(serverGame);
+		serverGame.unregisterThread();
+
+		clientGame = newGame(TestClient.class, null);
+		clientGame.registerThread();
+		client = (TestClient) clientGame.getClient();
+		client.initialize(clientGame);
+	}
+
+	@After
+	public void stop() throws Throwable {
+		client.disconnectNow();
+		clientGame.unregisterThread();
+		serverGame.registerThread();
+		server.internal_stopserver();
+		serverGame.unregisterThread();
+	}
+
+	@Test
+	public void clientConnects() throws Throwable {
+		// The server runs its loop while the client waits for the reply
+		AtomicReference<Throwable> error = new AtomicReference<>();
+		Thread serverThread = new Thread(() -> {
+			serverGame.registerThread();
+			try {
+				long deadline = System.currentTimeMillis() + TIMEOUT;
+				while (server.getClientsAmount() == 0 && System.currentTimeMillis() < deadline) {
+					server.loop(0);
+					Thread.sleep(1);
+				}
+			} catch (Throwable t) {
+				error.set(t);
+			} finally {
+				serverGame.unregisterThread();
+			}
+		});
+		serverThread.start();
+
+		boolean connected = client.connectNow("127.0.0.1", server.getLocalPort(), 0);
+		serverThread.join();
+		if (error.get() != null) {
+			throw error.get();
+		}
+
+		assertTrue(connected);
+		assertTrue(client.isConnected());
+		assertEquals(1, server.getClientsAmount());
+		assertEquals(1, ((RecordingDispatcher) serverGame.getEventDispatcher()).count(OnClientConnect.class));
+		assertEquals(1, ((RecordingDispatcher) clientGame.getEventDispatcher()).count(OnClientConnect.class));
+	}
+
+}
@@ -0,0 +1,80 @@
+package com.spaghetti.world;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link DirtyLog} hands every recorded change to every cursor,
+ * including changes recorded concurrently by several threads
+ *
+ * @author bohdloss
+ *
+ */
+public class DirtyLogTest {
+
+	@Test
+	public void recordsOncePerRead() {
+		DirtyLog log = new DirtyLog();
+		Object entry = new Object();
+		assertEquals(-1, log.record(entry, -1));
+
+		DirtyLog.Cursor cursor = log.open();
+		long index = log.record(entry, -1);
+		// Still waiting to be read
+		assertEquals(index, log.record(entry, index));
+
+		ArrayList<Object> read = new ArrayList<>();
+		cursor.read(read::add);
+		assertEquals(1, read.size());
+
+		// Read already, so it's recorded again
+		index = log.record(entry, index);
+		read.clear();
+		cursor.read(read::add);
+		assertEquals(1, read.size());
+	}
+
+	@Test
+	public void concurrentRecords() throws InterruptedException {
+		DirtyLog log = new DirtyLog();
+		DirtyLog.Cursor first = log.open();
+		DirtyLog.Cursor second = log.open();
+		int threads = 4;
+		int count = 10000;
+
+		Thread[] workers = new Thread[threads];
+		for (int i = 0; i < threads; i++) {
+			int offset = i * count;
+			workers[i] = new Thread(() -> {
+				for (int j = 0; j < count; j++) {
+					log.record(offset + j, -1);
+				}
+			});
+			workers[i].start();
+		}
+
+		// Reads while the workers are still recording
+		HashSet<Object> seen = new HashSet<>();
+		while (workers[threads - 1].isAlive()) {
+			first.read(seen::add);
+		}
+		for (Thread worker : workers) {
+			worker.join();
+		}
+		first.read(seen::add);
+		assertEquals(threads * count, seen.size());
+
+		HashSet<Object> late = new HashSet<>();
+		second.read(late::add);
+		assertEquals(seen, late);
+
+		first.close();
+		second.close();
+		assertEquals(0, log.size());
+	}
+
+}